@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.benchmark;
+
+import com.mongodb.BasicDBObject;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import io.barracks.packageservice.Application;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.repository.PackageRepository;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Starts an embedded mongod and the whole application on a random port once per trial, so that benchmarks exercise
+ * the same beans and configuration as production.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkEnvironment {
+    static final String USER_ID = "benchmark";
+
+    private MongodExecutable mongodExecutable;
+    private ConfigurableApplicationContext context;
+    private int port;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        startWith();
+    }
+
+    /**
+     * Starts the environment with additional application arguments, for benchmarks comparing configurations.
+     */
+    public void startWith(String... arguments) throws IOException {
+        final int mongoPort = Network.getFreeServerPort();
+        mongodExecutable = MongodStarter.getDefaultInstance().prepare(new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(mongoPort, Network.localhostIsIPv6()))
+                .build());
+        mongodExecutable.start();
+        context = new SpringApplicationBuilder(Application.class)
+                .logStartupInfo(false)
+                .run(Stream.concat(
+                        Stream.of(
+                                "--spring.data.mongodb.uri=mongodb://localhost:" + mongoPort + "/benchmark",
+                                "--server.port=0",
+                                "--logging.level.io.barracks=WARN"
+                        ),
+                        Arrays.stream(arguments)
+                ).toArray(String[]::new));
+        port = ((EmbeddedWebApplicationContext) context).getEmbeddedServletContainer().getPort();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        try {
+            context.close();
+        } finally {
+            mongodExecutable.stop();
+        }
+    }
+
+    public PackageRepository getPackageRepository() {
+        return context.getBean(PackageRepository.class);
+    }
+
+    public URL getUrl(String path) throws IOException {
+        return new URL("http", "localhost", port, path);
+    }
+
+    public PackageInfo savePackage(String versionId, byte[] content) {
+        final PackageInfo info = new PackageInfo(null, versionId + ".bin", null, content.length, USER_ID, versionId, new ByteArrayInputStream(content));
+        return getPackageRepository().savePackage(info, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+    }
+
+    public void deletePackages() {
+        final MongoOperations operations = context.getBean(MongoOperations.class);
+        final String bucket = context.getEnvironment().getProperty("io.barracks.packageservice.gridfs.bucket");
+        for (String suffix : new String[]{".files", ".chunks", ".blobs"}) {
+            operations.getCollection(bucket + suffix).remove(new BasicDBObject());
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a package with {@code clients} concurrent slow clients, once with the platform thread pools and once in
+ * the virtual thread mode. Each operation is one wave of downloads. The clients use a small receive buffer and a
+ * package much larger than the socket buffers, so that every slow reader holds its server thread for the whole
+ * transfer. The peak number of live platform threads of the server, client and harness threads excluded, is reported
+ * as the {@code peakServerThreads} secondary result. It requires a JDK 21 or later for the virtual threads, and a
+ * limit of open files above twice the number of clients, as both ends of every connection live in this JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.lang=ALL-UNNAMED")
+public class ConcurrentDownloadBenchmark {
+    private static final long CLIENT_STACK_SIZE = 256 * 1024;
+    private static final int CLIENT_RECEIVE_BUFFER = 16 * 1024;
+    private static final String CLIENT_THREAD_PREFIX = "client-";
+    private static final String SAMPLER_THREAD_NAME = "thread-sampler";
+    private static final long SAMPLE_PERIOD_MILLIS = 50;
+
+    @Param({"false", "true"})
+    private boolean virtualThreads;
+
+    @Param("10000")
+    private int clients;
+
+    @Param("33554432")
+    private int packageSize;
+
+    @Param("2")
+    private int readDelayMillis;
+
+    private final BenchmarkEnvironment environment = new BenchmarkEnvironment();
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final AtomicLong peak = new AtomicLong();
+    private ExecutorService clientExecutor;
+    private ScheduledExecutorService sampler;
+    private URL url;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ServerThreads {
+        public long peakServerThreads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            peakServerThreads = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        environment.startWith(
+                "--io.barracks.packageservice.virtualThreads.enabled=" + virtualThreads,
+                "--io.barracks.packageservice.download.maxConcurrent=" + clients,
+                "--io.barracks.packageservice.virtualThreads.maxConcurrentDownloads=" + clients,
+                "--io.barracks.packageservice.mongo.maxWaitQueue=" + clients,
+                "--io.barracks.packageservice.tenant.requestsPerSecond=0",
+                "--io.barracks.packageservice.tenant.downloadBytesPerSecond=0",
+                "--io.barracks.packageservice.tenant.maxConcurrentTransfers=0"
+        );
+        final byte[] content = new byte[packageSize];
+        new Random(packageSize).nextBytes(content);
+        url = environment.getUrl("/packages/" + environment.savePackage("concurrent", content).getId() + "/file");
+        final AtomicLong clientCount = new AtomicLong();
+        clientExecutor = Executors.newFixedThreadPool(clients, task -> {
+            final Thread thread = new Thread(null, task, CLIENT_THREAD_PREFIX + clientCount.getAndIncrement(), CLIENT_STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, SAMPLER_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        sampler.shutdownNow();
+        clientExecutor.shutdownNow();
+        environment.stop();
+    }
+
+    @Benchmark
+    public long downloadAll(ServerThreads serverThreads) throws Exception {
+        peak.set(0);
+        final ScheduledFuture<?> sampling = sampler.scheduleAtFixedRate(this::sampleServerThreads, 0, SAMPLE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        final List<Future<Long>> downloads = new ArrayList<>(clients);
+        long total = 0;
+        try {
+            for (int i = 0; i < clients; i++) {
+                downloads.add(clientExecutor.submit(this::download));
+            }
+            for (Future<Long> download : downloads) {
+                total += download.get();
+            }
+        } finally {
+            sampling.cancel(false);
+        }
+        serverThreads.peakServerThreads = Math.max(serverThreads.peakServerThreads, peak.get());
+        return total;
+    }
+
+    private void sampleServerThreads() {
+        // virtual threads are not listed, only the platform threads they would otherwise need
+        long count = 0;
+        for (ThreadInfo thread : threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds(), 0)) {
+            if (thread != null && !thread.getThreadName().startsWith(CLIENT_THREAD_PREFIX)
+                    && !SAMPLER_THREAD_NAME.equals(thread.getThreadName())) {
+                count++;
+            }
+        }
+        peak.accumulateAndGet(count, Math::max);
+    }
+
+    private long download() throws IOException, InterruptedException {
+        try (Socket socket = new Socket()) {
+            // set before connecting so that the window advertised to the server stays small
+            socket.setReceiveBufferSize(CLIENT_RECEIVE_BUFFER);
+            socket.connect(new InetSocketAddress(url.getHost(), url.getPort()));
+            final OutputStream out = socket.getOutputStream();
+            out.write(("GET " + url.getPath() + " HTTP/1.1\r\n"
+                    + "Host: " + url.getHost() + ":" + url.getPort() + "\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            final InputStream in = new BufferedInputStream(socket.getInputStream(), CLIENT_RECEIVE_BUFFER);
+            final String status = readLine(in);
+            if (!status.startsWith("HTTP/1.1 200")) {
+                throw new IOException("Download failed with status " + status);
+            }
+            while (!readLine(in).isEmpty()) {
+                // skip the headers, the body runs until the server closes the connection
+            }
+            final byte[] buffer = new byte[CLIENT_RECEIVE_BUFFER];
+            long total = 0;
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                total += read;
+                // a slow client keeps its server thread busy for the whole transfer
+                Thread.sleep(readDelayMillis);
+            }
+            if (total != packageSize) {
+                throw new IOException("Downloaded " + total + " bytes out of " + packageSize);
+            }
+            return total;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        for (int read = in.read(); read != '\n'; read = in.read()) {
+            if (read == -1) {
+                throw new IOException("Connection closed in the response headers");
+            }
+            if (read != '\r') {
+                line.append((char) read);
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.benchmark;
+
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.repository.PackageRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metadata lookups against a user owning {@code packageCount} packages. All packages share the same small content, so
+ * seeding only stores a single blob.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PackageLookupBenchmark {
+
+    @Param({"100", "10000"})
+    private int packageCount;
+
+    private PackageRepository packageRepository;
+    private String[] ids;
+
+    @Setup(Level.Trial)
+    public void seed(BenchmarkEnvironment environment) {
+        packageRepository = environment.getPackageRepository();
+        ids = new String[packageCount];
+        final byte[] content = new byte[1024];
+        for (int i = 0; i < packageCount; i++) {
+            ids[i] = environment.savePackage(versionId(i), content).getId();
+        }
+    }
+
+    @Benchmark
+    public Optional<PackageInfo> findById() {
+        return packageRepository.findById(ids[ThreadLocalRandom.current().nextInt(packageCount)]);
+    }
+
+    @Benchmark
+    public Optional<PackageInfo> findByUserIdAndVersionId() {
+        return packageRepository.findByUserIdAndVersionId(BenchmarkEnvironment.USER_ID, versionId(ThreadLocalRandom.current().nextInt(packageCount)));
+    }
+
+    @Benchmark
+    public Collection<PackageInfo> getAllPackages() {
+        return packageRepository.getAllPackages(BenchmarkEnvironment.USER_ID);
+    }
+
+    private static String versionId(int index) {
+        return String.format("v%08d", index);
+    }
+}
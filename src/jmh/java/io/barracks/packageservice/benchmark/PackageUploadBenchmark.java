@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.benchmark;
+
+import io.barracks.packageservice.model.PackageInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads of {@code packageSize} bytes through {@code PackageRepository.savePackage}. Every upload stamps a counter in
+ * its first bytes so that the content is never deduplicated, and stored packages are removed after each iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PackageUploadBenchmark {
+
+    @Param({"1024", "1048576", "16777216"})
+    private int packageSize;
+
+    private BenchmarkEnvironment environment;
+    private byte[] content;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void prepare(BenchmarkEnvironment environment) {
+        this.environment = environment;
+        content = new byte[Math.max(packageSize, Long.BYTES)];
+        new Random(packageSize).nextBytes(content);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clean() {
+        environment.deletePackages();
+    }
+
+    @Benchmark
+    public PackageInfo savePackage() {
+        final long version = counter++;
+        ByteBuffer.wrap(content).putLong(0, version ^ Thread.currentThread().getId() << 48);
+        return environment.savePackage(Thread.currentThread().getId() + "-" + version, content);
+    }
+}
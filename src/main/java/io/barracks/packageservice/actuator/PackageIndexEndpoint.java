@@ -0,0 +1,73 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.packageservice.actuator;
+
+import com.mongodb.MongoException;
+import io.barracks.packageservice.repository.PackageIndexManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+@Component
+public class PackageIndexEndpoint extends AbstractEndpoint<Map<String, Object>> {
+    static final String ID = "packageIndexes";
+
+    private final PackageIndexManager packageIndexManager;
+
+    @Autowired
+    public PackageIndexEndpoint(PackageIndexManager packageIndexManager) {
+        super(ID);
+        this.packageIndexManager = packageIndexManager;
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("indexes", safely(() -> {
+            final Map<String, Object> indexes = new LinkedHashMap<>();
+            for (IndexInfo index : packageIndexManager.getIndexes()) {
+                indexes.put(index.getName(), index.getIndexFields().toString() + (index.isUnique() ? " unique" : ""));
+            }
+            return indexes;
+        }));
+        result.put("usage", safely(packageIndexManager::getIndexUsage));
+        result.put("versionLookupPlan", safely(() -> packageIndexManager.explainVersionLookup().toMap()));
+        return result;
+    }
+
+    private Object safely(Supplier<Object> supplier) {
+        try {
+            return supplier.get();
+        } catch (DataAccessException | MongoException e) {
+            return "unavailable: " + e.getMessage();
+        }
+    }
+}
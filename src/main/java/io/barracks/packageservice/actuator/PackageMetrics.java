@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.actuator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency timers, transferred bytes and in-flight uploads of the package hot paths. Downloads in flight are already
+ * reported by the download slots.
+ */
+@Component
+public class PackageMetrics implements PublicMetrics {
+    static final String TIMER_PREFIX = "timer.";
+    static final String TRANSFER_PREFIX = "transfer.";
+    static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final long quantileWindowSeconds;
+    private final Map<String, LatencyHistogram> timers = new ConcurrentSkipListMap<>();
+    private final TransferMeter uploaded = new TransferMeter();
+    private final TransferMeter downloaded = new TransferMeter();
+    private final AtomicInteger activeUploads = new AtomicInteger();
+
+    @Autowired
+    public PackageMetrics(@Value("${io.barracks.packageservice.metrics.quantileWindowSeconds}") long quantileWindowSeconds) {
+        this.quantileWindowSeconds = quantileWindowSeconds;
+    }
+
+    public LatencyHistogram timer(String name) {
+        return timers.computeIfAbsent(name, key -> new LatencyHistogram(quantileWindowSeconds, TimeUnit.SECONDS));
+    }
+
+    public Map<String, LatencyHistogram> getTimers() {
+        return Collections.unmodifiableMap(timers);
+    }
+
+    public TransferMeter getUploaded() {
+        return uploaded;
+    }
+
+    public TransferMeter getDownloaded() {
+        return downloaded;
+    }
+
+    public int getActiveUploads() {
+        return activeUploads.get();
+    }
+
+    public void uploadStarted() {
+        activeUploads.incrementAndGet();
+    }
+
+    public void uploadFinished() {
+        activeUploads.decrementAndGet();
+    }
+
+    public OutputStream countDownload(OutputStream outputStream) {
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                downloaded.mark(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                downloaded.mark(len);
+            }
+        };
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final Collection<Metric<?>> metrics = new ArrayList<>();
+        timers.forEach((name, timer) -> {
+            metrics.add(new Metric<>(TIMER_PREFIX + name + ".count", timer.getCount()));
+            for (double quantile : QUANTILES) {
+                final double seconds = timer.getQuantileSeconds(quantile);
+                if (!Double.isNaN(seconds)) {
+                    metrics.add(new Metric<>(TIMER_PREFIX + name + ".p" + quantileName(quantile), seconds * 1000));
+                }
+            }
+        });
+        metrics.add(new Metric<>(TRANSFER_PREFIX + "upload.bytes", uploaded.getTotal()));
+        metrics.add(new Metric<>(TRANSFER_PREFIX + "upload.rate", uploaded.getRate()));
+        metrics.add(new Metric<>(TRANSFER_PREFIX + "download.bytes", downloaded.getTotal()));
+        metrics.add(new Metric<>(TRANSFER_PREFIX + "download.rate", downloaded.getRate()));
+        metrics.add(new Metric<>("uploads.active", activeUploads.get()));
+        return metrics;
+    }
+
+    static String quantileName(double quantile) {
+        final String digits = Double.toString(quantile).substring(2);
+        return digits.length() < 2 ? digits + "0" : digits;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.actuator;
+
+import io.barracks.packageservice.model.PackageInfo;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.concurrent.TimeUnit;
+
+@Aspect
+@Component
+public class PackageMetricsAspect {
+    private final PackageMetrics packageMetrics;
+
+    @Autowired
+    public PackageMetricsAspect(PackageMetrics packageMetrics) {
+        this.packageMetrics = packageMetrics;
+    }
+
+    @Around("execution(public * io.barracks.packageservice.manager.PackageManager.*(..))"
+            + " || execution(public * io.barracks.packageservice.repository.PackageRepository.*(..))")
+    public Object time(ProceedingJoinPoint joinPoint) throws Throwable {
+        final LatencyHistogram timer = packageMetrics.timer(
+                StringUtils.uncapitalize(joinPoint.getSignature().getDeclaringType().getSimpleName()) + "." + joinPoint.getSignature().getName()
+        );
+        final long start = System.nanoTime();
+        try {
+            return joinPoint.proceed();
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Around("execution(public io.barracks.packageservice.model.PackageInfo io.barracks.packageservice.manager.PackageManager.save(..))")
+    public Object countUpload(ProceedingJoinPoint joinPoint) throws Throwable {
+        packageMetrics.uploadStarted();
+        try {
+            final Object result = joinPoint.proceed();
+            packageMetrics.getUploaded().mark(((PackageInfo) result).getSize());
+            return result;
+        } finally {
+            packageMetrics.uploadFinished();
+        }
+    }
+
+    @Around("execution(public * io.barracks.packageservice.manager.UploadSessionManager.savePart(..))")
+    public Object countUploadPart(ProceedingJoinPoint joinPoint) throws Throwable {
+        packageMetrics.uploadStarted();
+        try {
+            return joinPoint.proceed();
+        } finally {
+            packageMetrics.uploadFinished();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.actuator;
+
+import io.barracks.packageservice.rest.TenantLimits;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Renders the package metrics and every other public metric in the Prometheus text exposition format.
+ */
+@Component
+public class PrometheusEndpoint extends AbstractEndpoint<String> {
+    static final String ID = "prometheus";
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    static final String DURATION_METRIC = "operation_duration_seconds";
+    static final String TRANSFERRED_METRIC = "transferred_bytes_total";
+    static final String TRANSFER_RATE_METRIC = "transfer_rate_bytes_per_second";
+    static final String ACTIVE_UPLOADS_METRIC = "uploads_active";
+    static final String TENANT_REJECTED_METRIC = "tenant_rejected_total";
+    static final String TENANT_ACTIVE_TRANSFERS_METRIC = "tenant_transfers_active";
+    static final String TENANT_TRANSFERRED_METRIC = "tenant_transferred_bytes_total";
+    private static final Pattern INVALID_NAME_CHARACTERS = Pattern.compile("[^a-zA-Z0-9_:]");
+
+    private final Collection<PublicMetrics> publicMetrics;
+    private final PackageMetrics packageMetrics;
+    private final TenantLimits tenantLimits;
+
+    @Autowired
+    public PrometheusEndpoint(Collection<PublicMetrics> publicMetrics, PackageMetrics packageMetrics, TenantLimits tenantLimits) {
+        super(ID);
+        this.publicMetrics = publicMetrics;
+        this.packageMetrics = packageMetrics;
+        this.tenantLimits = tenantLimits;
+    }
+
+    @Override
+    public String invoke() {
+        final StringBuilder out = new StringBuilder();
+        header(out, DURATION_METRIC, "summary", "Duration of package operations and GridFS chunk fetches.");
+        packageMetrics.getTimers().forEach((operation, timer) -> {
+            final String label = "operation=\"" + operation + "\"";
+            for (double quantile : PackageMetrics.QUANTILES) {
+                sample(out, DURATION_METRIC, label + ",quantile=\"" + quantile + "\"", timer.getQuantileSeconds(quantile));
+            }
+            sample(out, DURATION_METRIC + "_count", label, timer.getCount());
+            sample(out, DURATION_METRIC + "_sum", label, timer.getSumSeconds());
+        });
+        header(out, TRANSFERRED_METRIC, "counter", "Bytes of package content uploaded and downloaded.");
+        sample(out, TRANSFERRED_METRIC, "direction=\"upload\"", packageMetrics.getUploaded().getTotal());
+        sample(out, TRANSFERRED_METRIC, "direction=\"download\"", packageMetrics.getDownloaded().getTotal());
+        header(out, TRANSFER_RATE_METRIC, "gauge", "One minute rate of package content uploaded and downloaded.");
+        sample(out, TRANSFER_RATE_METRIC, "direction=\"upload\"", packageMetrics.getUploaded().getRate());
+        sample(out, TRANSFER_RATE_METRIC, "direction=\"download\"", packageMetrics.getDownloaded().getRate());
+        header(out, ACTIVE_UPLOADS_METRIC, "gauge", "Uploads in flight.");
+        sample(out, ACTIVE_UPLOADS_METRIC, null, packageMetrics.getActiveUploads());
+        final Map<String, TenantLimits.Tenant> tenants = tenantLimits.getTenants();
+        header(out, TENANT_REJECTED_METRIC, "counter", "Requests and transfers rejected by the per-tenant limits.");
+        tenants.forEach((userId, tenant) -> {
+            sample(out, TENANT_REJECTED_METRIC, tenantLabel(userId) + ",kind=\"request\"", tenant.getRejectedRequests());
+            sample(out, TENANT_REJECTED_METRIC, tenantLabel(userId) + ",kind=\"transfer\"", tenant.getRejectedTransfers());
+        });
+        header(out, TENANT_ACTIVE_TRANSFERS_METRIC, "gauge", "Transfers in flight per tenant.");
+        tenants.forEach((userId, tenant) -> sample(out, TENANT_ACTIVE_TRANSFERS_METRIC, tenantLabel(userId), tenant.getActiveTransfers()));
+        header(out, TENANT_TRANSFERRED_METRIC, "counter", "Bytes of package content uploaded and downloaded per tenant.");
+        tenants.forEach((userId, tenant) -> {
+            sample(out, TENANT_TRANSFERRED_METRIC, tenantLabel(userId) + ",direction=\"upload\"", tenant.getUploadedBytes());
+            sample(out, TENANT_TRANSFERRED_METRIC, tenantLabel(userId) + ",direction=\"download\"", tenant.getDownloadedBytes());
+        });
+        final Set<String> written = new HashSet<>();
+        for (PublicMetrics source : publicMetrics) {
+            if (source == packageMetrics) {
+                continue;
+            }
+            for (Metric<?> metric : source.metrics()) {
+                final String name = INVALID_NAME_CHARACTERS.matcher(metric.getName()).replaceAll("_");
+                if (metric.getValue() != null && written.add(name)) {
+                    out.append("# TYPE ").append(name).append(" gauge\n");
+                    sample(out, name, null, metric.getValue().doubleValue());
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String tenantLabel(String userId) {
+        return "tenant=\"" + userId.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.actuator;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts transferred bytes and keeps a one minute exponentially weighted rate of them, updated every five seconds.
+ */
+public class TransferMeter {
+    static final long TICK_SECONDS = 5;
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(TICK_SECONDS);
+    private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+    private final Ticker ticker;
+    private final LongAdder total = new LongAdder();
+    private final LongAdder uncounted = new LongAdder();
+    private final AtomicLong lastTick;
+    private volatile boolean initialized;
+    private volatile double rate;
+
+    public TransferMeter() {
+        this(Ticker.systemTicker());
+    }
+
+    TransferMeter(Ticker ticker) {
+        this.ticker = ticker;
+        this.lastTick = new AtomicLong(ticker.read());
+    }
+
+    public void mark(long bytes) {
+        tickIfNecessary();
+        total.add(bytes);
+        uncounted.add(bytes);
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public double getRate() {
+        tickIfNecessary();
+        return rate;
+    }
+
+    private void tickIfNecessary() {
+        final long previous = lastTick.get();
+        final long age = ticker.read() - previous;
+        if (age >= TICK_NANOS && lastTick.compareAndSet(previous, previous + age - age % TICK_NANOS)) {
+            for (long i = age / TICK_NANOS; i > 0; i--) {
+                tick();
+            }
+        }
+    }
+
+    private synchronized void tick() {
+        final double instantRate = uncounted.sumThenReset() / (double) TICK_SECONDS;
+        if (initialized) {
+            rate += ALPHA * (instantRate - rate);
+        } else {
+            rate = instantRate;
+            initialized = true;
+        }
+    }
+}
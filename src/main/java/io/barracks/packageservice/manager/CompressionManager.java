@@ -0,0 +1,212 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.PackageVariant;
+import io.barracks.packageservice.repository.PackageVariantRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses packages once, in the background, the first time a client accepting a supported encoding downloads them.
+ * Packages whose first bytes or full content do not compress well enough are marked as skipped and served as is.
+ * Settled variants are cached, and a variant still pending after {@code pendingTimeoutSeconds} is compressed again.
+ */
+@Service
+public class CompressionManager {
+    public static final String GZIP = "gzip";
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompressionManager.class);
+
+    private final PackageManager packageManager;
+    private final PackageVariantRepository variantRepository;
+    private final long minSize;
+    private final int sampleSize;
+    private final double maxSizeRatio;
+    private final long pendingTimeoutSeconds;
+    private final ExecutorService executor;
+    private final Cache<String, PackageVariant> settled;
+
+    @Autowired
+    public CompressionManager(
+            PackageManager packageManager,
+            PackageVariantRepository variantRepository,
+            @Value("${io.barracks.packageservice.compression.minSize}") long minSize,
+            @Value("${io.barracks.packageservice.compression.sampleSize}") int sampleSize,
+            @Value("${io.barracks.packageservice.compression.maxSizeRatio}") double maxSizeRatio,
+            @Value("${io.barracks.packageservice.compression.threads}") int threads,
+            @Value("${io.barracks.packageservice.compression.pendingTimeoutSeconds}") long pendingTimeoutSeconds,
+            @Value("${io.barracks.packageservice.cache.maxSize}") long cacheSize) {
+        this(
+                packageManager,
+                variantRepository,
+                minSize,
+                sampleSize,
+                maxSizeRatio,
+                pendingTimeoutSeconds,
+                cacheSize,
+                Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("compression-%d").setDaemon(true).build())
+        );
+    }
+
+    CompressionManager(PackageManager packageManager, PackageVariantRepository variantRepository, long minSize, int sampleSize, double maxSizeRatio, long pendingTimeoutSeconds, long cacheSize, ExecutorService executor) {
+        this.packageManager = packageManager;
+        this.variantRepository = variantRepository;
+        this.minSize = minSize;
+        this.sampleSize = sampleSize;
+        this.maxSizeRatio = maxSizeRatio;
+        this.pendingTimeoutSeconds = pendingTimeoutSeconds;
+        this.executor = executor;
+        this.settled = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    public boolean isSupported(String encoding) {
+        return GZIP.equalsIgnoreCase(encoding);
+    }
+
+    public Optional<PackageVariant> findVariant(PackageInfo info, String encoding) {
+        if (!isSupported(encoding) || info.getSize() < minSize) {
+            return Optional.empty();
+        }
+        final PackageVariant cached = settled.getIfPresent(info.getId());
+        if (cached != null) {
+            return Optional.of(cached).filter(variant -> variant.getStatus() == PackageVariant.Status.READY);
+        }
+        final Optional<PackageVariant> existing = variantRepository.find(info.getId(), GZIP);
+        if (existing.isPresent()) {
+            if (existing.get().getStatus() != PackageVariant.Status.PENDING) {
+                settled.put(info.getId(), existing.get());
+                return existing.filter(variant -> variant.getStatus() == PackageVariant.Status.READY);
+            }
+            final Date before = new Date(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(pendingTimeoutSeconds));
+            if (variantRepository.claimStalePending(info.getId(), GZIP, before)) {
+                LOGGER.info("Compression of {} was pending for more than {} seconds, compressing it again", info.getId(), pendingTimeoutSeconds);
+                schedule(info);
+            }
+            return Optional.empty();
+        }
+        if (variantRepository.createPending(info.getId(), GZIP)) {
+            schedule(info);
+        }
+        return Optional.empty();
+    }
+
+    public InputStream getVariantContent(PackageVariant variant) {
+        return variantRepository.getContent(variant);
+    }
+
+    public InputStream getVariantContent(PackageVariant variant, long offset, long length) {
+        return variantRepository.getContent(variant, offset, length);
+    }
+
+    void compress(PackageInfo info) {
+        Path temp = null;
+        try {
+            if (!isCompressible(info)) {
+                LOGGER.info("Package {} does not compress well, it will be served as is", info.getId());
+                variantRepository.markSkipped(info.getId(), GZIP);
+                return;
+            }
+            temp = Files.createTempFile("barracks-gzip-", ".tmp");
+            try (InputStream content = openContent(info, info.getSize());
+                 OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                ByteStreams.copy(content, out);
+            }
+            final long size = Files.size(temp);
+            if (size >= info.getSize() * maxSizeRatio) {
+                LOGGER.info("Package {} compresses to {} bytes out of {}, it will be served as is", info.getId(), size, info.getSize());
+                variantRepository.markSkipped(info.getId(), GZIP);
+                return;
+            }
+            try (InputStream content = Files.newInputStream(temp)) {
+                variantRepository.saveContent(info.getId(), GZIP, content);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to compress package {}", info.getId(), e);
+            variantRepository.delete(info.getId(), GZIP);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to delete {}", temp, e);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void schedule(PackageInfo info) {
+        try {
+            executor.execute(() -> compress(info));
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("Cannot schedule the compression of {}", info.getId(), e);
+            variantRepository.delete(info.getId(), GZIP);
+        }
+    }
+
+    private boolean isCompressible(PackageInfo info) throws IOException {
+        final long sample = Math.min(sampleSize, info.getSize());
+        if (sample == info.getSize()) {
+            return true;
+        }
+        final CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+        try (InputStream content = openContent(info, sample); OutputStream out = new GZIPOutputStream(counter)) {
+            ByteStreams.copy(content, out);
+        }
+        return counter.getCount() < sample * maxSizeRatio;
+    }
+
+    private InputStream openContent(PackageInfo info, long length) throws IOException {
+        return packageManager.getPackageContent(info, 0, length)
+                .orElseThrow(() -> new IOException("Content of package " + info.getId() + " is missing"));
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager;
+
+import io.barracks.packageservice.repository.PackageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically removes the package contents left without references by interrupted uploads. A content is only
+ * considered once it was last used more than {@code graceSeconds} ago, which must be longer than any upload.
+ */
+@Service
+public class ContentReclaimer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContentReclaimer.class);
+
+    private final PackageRepository packageRepository;
+    private final long graceSeconds;
+    private final int batchSize;
+
+    @Autowired
+    public ContentReclaimer(
+            PackageRepository packageRepository,
+            @Value("${io.barracks.packageservice.blobs.reclaimGraceSeconds}") long graceSeconds,
+            @Value("${io.barracks.packageservice.blobs.reclaimBatchSize}") int batchSize) {
+        this.packageRepository = packageRepository;
+        this.graceSeconds = graceSeconds;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${io.barracks.packageservice.blobs.reclaimIntervalMillis}")
+    public void reclaimOrphanedContents() {
+        final Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(graceSeconds));
+        final int reclaimed = packageRepository.reclaimOrphanedContents(cutoff, batchSize);
+        if (reclaimed > 0) {
+            LOGGER.info("Removed {} package contents left without references for more than {} seconds", reclaimed, graceSeconds);
+        }
+    }
+}
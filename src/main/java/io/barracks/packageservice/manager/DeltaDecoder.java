@@ -0,0 +1,130 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Rebuilds a target stream from its source and a delta written by {@link DeltaEncoder}. This is the reference
+ * implementation of the format for the devices:
+ * <pre>
+ * delta     = magic version operation* end
+ * magic     = 'B' 'D' 'L' 'T'
+ * version   = 0x01
+ * operation = copy | insert
+ * copy      = 0x01 varlong(source offset) varlong(length)   ; copies length bytes of the source from offset
+ * insert    = 0x02 varlong(length) byte{length}             ; writes the given bytes as is
+ * end       = 0x00
+ * </pre>
+ * Var longs are unsigned, little endian groups of 7 bits, the high bit of each byte being set when another byte
+ * follows. Operations are applied in order and append to the target.
+ */
+public class DeltaDecoder {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Random access to the version the device already has.
+     */
+    @FunctionalInterface
+    public interface Source {
+        void readFully(long offset, byte[] buffer, int length) throws IOException;
+
+        static Source of(byte[] bytes) {
+            return (offset, buffer, length) -> {
+                if (offset < 0 || offset + length > bytes.length) {
+                    throw new IOException("Copy of " + length + " bytes at " + offset + " is outside of the source");
+                }
+                System.arraycopy(bytes, (int) offset, buffer, 0, length);
+            };
+        }
+
+        static Source of(FileChannel channel) {
+            return (offset, buffer, length) -> {
+                final ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+                while (target.hasRemaining()) {
+                    if (channel.read(target, offset + target.position()) < 0) {
+                        throw new IOException("Copy of " + length + " bytes at " + offset + " is outside of the source");
+                    }
+                }
+            };
+        }
+    }
+
+    public void decode(Source source, InputStream delta, OutputStream target) throws IOException {
+        final DataInputStream in = new DataInputStream(delta);
+        final byte[] magic = new byte[DeltaEncoder.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, DeltaEncoder.MAGIC)) {
+            throw new IOException("Not a delta");
+        }
+        final byte version = in.readByte();
+        if (version != DeltaEncoder.VERSION) {
+            throw new IOException("Unsupported delta version " + version);
+        }
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        for (byte operation = in.readByte(); operation != DeltaEncoder.END; operation = in.readByte()) {
+            if (operation == DeltaEncoder.COPY) {
+                final long offset = readVarLong(in);
+                for (long remaining = readVarLong(in), copied = 0; remaining > 0; ) {
+                    final int length = (int) Math.min(remaining, buffer.length);
+                    source.readFully(offset + copied, buffer, length);
+                    target.write(buffer, 0, length);
+                    copied += length;
+                    remaining -= length;
+                }
+            } else if (operation == DeltaEncoder.INSERT) {
+                for (long remaining = readVarLong(in); remaining > 0; ) {
+                    final int length = (int) Math.min(remaining, buffer.length);
+                    in.readFully(buffer, 0, length);
+                    target.write(buffer, 0, length);
+                    remaining -= length;
+                }
+            } else {
+                throw new IOException("Unknown delta operation " + operation);
+            }
+        }
+        target.flush();
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int current;
+        do {
+            if (shift > 63) {
+                throw new IOException("Malformed var long");
+            }
+            current = in.readUnsignedByte();
+            value |= (long) (current & 0x7f) << shift;
+            shift += 7;
+        } while ((current & 0x80) != 0);
+        return value;
+    }
+}
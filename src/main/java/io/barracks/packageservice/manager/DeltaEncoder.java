@@ -0,0 +1,238 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a target stream as a sequence of copies from a source stream and literal inserts, rsync style: the source is
+ * indexed by blocks with a rolling checksum confirmed by MD5, then the target is scanned one byte at a time.
+ * <p>
+ * Format: {@link #MAGIC}, {@link #VERSION}, then {@link #COPY} (source offset, length as var longs) and {@link #INSERT}
+ * (length as var long, bytes) operations up to {@link #END}, as specified and applied by {@link DeltaDecoder}.
+ */
+class DeltaEncoder {
+    static final byte[] MAGIC = {'B', 'D', 'L', 'T'};
+    static final byte VERSION = 1;
+    static final byte END = 0;
+    static final byte COPY = 1;
+    static final byte INSERT = 2;
+    static final int MAX_INSERT = 64 * 1024;
+
+    private final int blockSize;
+
+    DeltaEncoder(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    void encode(InputStream source, InputStream target, OutputStream delta) throws IOException {
+        new Encoding(index(source), target, new DataOutputStream(delta)).run();
+    }
+
+    private Map<Integer, List<Block>> index(InputStream source) throws IOException {
+        final Map<Integer, List<Block>> blocks = new HashMap<>();
+        final MessageDigest md5 = newMd5();
+        final byte[] buffer = new byte[blockSize];
+        long offset = 0;
+        while (ByteStreams.read(source, buffer, 0, blockSize) == blockSize) {
+            blocks.computeIfAbsent(checksum(buffer, 0, blockSize), checksum -> new ArrayList<>(1))
+                    .add(new Block(offset, md5.digest(buffer)));
+            offset += blockSize;
+        }
+        return blocks;
+    }
+
+    private int checksum(byte[] buffer, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            final int value = buffer[offset + i] & 0xff;
+            a += value;
+            b += (length - i) * value;
+        }
+        return (a & 0xffff) | (b << 16);
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7fL) != 0) {
+            out.writeByte((int) ((remaining & 0x7f) | 0x80));
+            remaining >>>= 7;
+        }
+        out.writeByte((int) remaining);
+    }
+
+    private class Encoding {
+        private final Map<Integer, List<Block>> blocks;
+        private final InputStream target;
+        private final DataOutputStream out;
+        private final MessageDigest md5 = newMd5();
+        private final byte[] buffer = new byte[MAX_INSERT + 2 * blockSize + 64 * 1024];
+        private int limit;
+        private boolean eof;
+        private int literal;
+        private int position;
+        private long copyOffset = -1;
+        private long copyLength;
+
+        private Encoding(Map<Integer, List<Block>> blocks, InputStream target, DataOutputStream out) {
+            this.blocks = blocks;
+            this.target = target;
+            this.out = out;
+        }
+
+        private void run() throws IOException {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            boolean fresh = true;
+            int a = 0;
+            int b = 0;
+            while (ensure(position + blockSize)) {
+                if (fresh) {
+                    final int checksum = checksum(buffer, position, blockSize);
+                    a = checksum & 0xffff;
+                    b = checksum >>> 16;
+                    fresh = false;
+                }
+                final Block block = find((a & 0xffff) | (b << 16));
+                if (block != null) {
+                    flushInsert(position);
+                    copy(block.offset);
+                    position += blockSize;
+                    literal = position;
+                    fresh = true;
+                    continue;
+                }
+                if (!ensure(position + blockSize + 1)) {
+                    break;
+                }
+                final int removed = buffer[position] & 0xff;
+                final int added = buffer[position + blockSize] & 0xff;
+                a = a - removed + added;
+                b = b - blockSize * removed + a;
+                position++;
+                if (position - literal >= MAX_INSERT) {
+                    flushInsert(position);
+                }
+            }
+            flushInsert(limit);
+            flushCopy();
+            out.writeByte(END);
+            out.flush();
+        }
+
+        private Block find(int checksum) {
+            final List<Block> candidates = blocks.get(checksum);
+            if (candidates == null) {
+                return null;
+            }
+            md5.update(buffer, position, blockSize);
+            final byte[] digest = md5.digest();
+            for (Block candidate : candidates) {
+                if (Arrays.equals(candidate.md5, digest)) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        private boolean ensure(int end) throws IOException {
+            while (limit < end && !eof) {
+                if (end > buffer.length) {
+                    System.arraycopy(buffer, literal, buffer, 0, limit - literal);
+                    limit -= literal;
+                    position -= literal;
+                    end -= literal;
+                    literal = 0;
+                }
+                final int read = target.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    limit += read;
+                }
+            }
+            return limit >= end;
+        }
+
+        private void copy(long offset) throws IOException {
+            if (copyOffset >= 0 && copyOffset + copyLength == offset) {
+                copyLength += blockSize;
+                return;
+            }
+            flushCopy();
+            copyOffset = offset;
+            copyLength = blockSize;
+        }
+
+        private void flushCopy() throws IOException {
+            if (copyOffset >= 0) {
+                out.writeByte(COPY);
+                writeVarLong(out, copyOffset);
+                writeVarLong(out, copyLength);
+                copyOffset = -1;
+            }
+        }
+
+        private void flushInsert(int end) throws IOException {
+            if (end > literal) {
+                flushCopy();
+                out.writeByte(INSERT);
+                writeVarLong(out, end - literal);
+                out.write(buffer, literal, end - literal);
+                literal = end;
+            }
+        }
+    }
+
+    private static class Block {
+        private final long offset;
+        private final byte[] md5;
+
+        private Block(long offset, byte[] md5) {
+            this.offset = offset;
+            this.md5 = md5;
+        }
+    }
+}
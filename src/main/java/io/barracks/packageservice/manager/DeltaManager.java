@@ -0,0 +1,198 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager;
+
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.barracks.packageservice.manager.exception.InvalidPackageDeltaException;
+import io.barracks.packageservice.model.PackageDelta;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.repository.DeltaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates deltas in the background, on a bounded queue, the first time they are requested. A delta still pending
+ * after {@code pendingTimeoutSeconds} was lost to a restart or a failure and is generated again on its next request,
+ * and every delta is deleted {@code ttlSeconds} after its creation.
+ */
+@Service
+public class DeltaManager {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeltaManager.class);
+
+    private final PackageManager packageManager;
+    private final DeltaRepository deltaRepository;
+    private final DeltaEncoder deltaEncoder;
+    private final double maxSizeRatio;
+    private final long pendingTimeoutSeconds;
+    private final long ttlSeconds;
+    private final ExecutorService executor;
+
+    @Autowired
+    public DeltaManager(
+            PackageManager packageManager,
+            DeltaRepository deltaRepository,
+            @Value("${io.barracks.packageservice.delta.blockSize}") int blockSize,
+            @Value("${io.barracks.packageservice.delta.maxSizeRatio}") double maxSizeRatio,
+            @Value("${io.barracks.packageservice.delta.threads}") int threads,
+            @Value("${io.barracks.packageservice.delta.queueSize}") int queueSize,
+            @Value("${io.barracks.packageservice.delta.pendingTimeoutSeconds}") long pendingTimeoutSeconds,
+            @Value("${io.barracks.packageservice.delta.ttlSeconds}") long ttlSeconds) {
+        this(
+                packageManager,
+                deltaRepository,
+                blockSize,
+                maxSizeRatio,
+                pendingTimeoutSeconds,
+                ttlSeconds,
+                new ThreadPoolExecutor(
+                        threads, threads, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(queueSize),
+                        new ThreadFactoryBuilder().setNameFormat("delta-%d").setDaemon(true).build()
+                )
+        );
+    }
+
+    DeltaManager(PackageManager packageManager, DeltaRepository deltaRepository, int blockSize, double maxSizeRatio, long pendingTimeoutSeconds, long ttlSeconds, ExecutorService executor) {
+        this.packageManager = packageManager;
+        this.deltaRepository = deltaRepository;
+        this.deltaEncoder = new DeltaEncoder(blockSize);
+        this.maxSizeRatio = maxSizeRatio;
+        this.pendingTimeoutSeconds = pendingTimeoutSeconds;
+        this.ttlSeconds = ttlSeconds;
+        this.executor = executor;
+    }
+
+    public PackageDelta requestDelta(PackageInfo from, PackageInfo to) {
+        if (from.getId().equals(to.getId())) {
+            throw new InvalidPackageDeltaException("Cannot compute a delta from package " + from.getId() + " to itself");
+        }
+        if (!from.getUserId().equals(to.getUserId())) {
+            throw new InvalidPackageDeltaException("Packages " + from.getId() + " and " + to.getId() + " belong to different users");
+        }
+        final Optional<PackageDelta> existing = deltaRepository.find(from.getId(), to.getId());
+        if (existing.isPresent()) {
+            if (existing.get().getStatus() == PackageDelta.Status.PENDING
+                    && deltaRepository.claimStalePending(from.getId(), to.getId(), secondsAgo(pendingTimeoutSeconds))) {
+                LOGGER.info("Delta from {} to {} was pending for more than {} seconds, generating it again", from.getId(), to.getId(), pendingTimeoutSeconds);
+                schedule(from, to);
+            }
+            return existing.get();
+        }
+        if (deltaRepository.createPending(from.getId(), to.getId())) {
+            schedule(from, to);
+        }
+        return new PackageDelta(from.getId(), to.getId(), PackageDelta.Status.PENDING, -1, null, null, null, null);
+    }
+
+    public Optional<InputStream> getDeltaContent(PackageDelta delta) {
+        if (delta.getStatus() != PackageDelta.Status.READY) {
+            return Optional.empty();
+        }
+        return Optional.of(deltaRepository.getContent(delta));
+    }
+
+    void generate(PackageInfo from, PackageInfo to) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile("barracks-delta-", ".tmp");
+            final HashingOutputStream md5 = new HashingOutputStream(Hashing.md5(), new BufferedOutputStream(Files.newOutputStream(temp)));
+            final HashingOutputStream sha256 = new HashingOutputStream(Hashing.sha256(), md5);
+            try (InputStream source = openContent(from); InputStream target = openContent(to); HashingOutputStream out = sha256) {
+                deltaEncoder.encode(source, target, out);
+            }
+            final long size = Files.size(temp);
+            if (size >= to.getSize() * maxSizeRatio) {
+                LOGGER.info("Delta from {} to {} is {} bytes for a {} bytes package, the full package will be served", from.getId(), to.getId(), size, to.getSize());
+                deltaRepository.markSkipped(from.getId(), to.getId(), size);
+                return;
+            }
+            try (InputStream content = Files.newInputStream(temp)) {
+                deltaRepository.saveContent(from.getId(), to.getId(), content, md5.hash().toString(), sha256.hash().toString());
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to compute the delta from {} to {}", from.getId(), to.getId(), e);
+            deltaRepository.delete(from.getId(), to.getId());
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to delete {}", temp, e);
+                }
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${io.barracks.packageservice.delta.cleanupIntervalMillis}")
+    public void deleteExpiredDeltas() {
+        final int deleted = deltaRepository.deleteCreatedBefore(secondsAgo(ttlSeconds));
+        if (deleted > 0) {
+            LOGGER.info("Deleted {} deltas created more than {} seconds ago", deleted, ttlSeconds);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void schedule(PackageInfo from, PackageInfo to) {
+        try {
+            executor.execute(() -> generate(from, to));
+        } catch (RejectedExecutionException e) {
+            // forgotten rather than left pending, so that a later request can try again once the queue drains
+            LOGGER.warn("Cannot schedule the delta from {} to {}, the generation queue is full", from.getId(), to.getId());
+            deltaRepository.delete(from.getId(), to.getId());
+        }
+    }
+
+    private static Date secondsAgo(long seconds) {
+        return new Date(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(seconds));
+    }
+
+    private InputStream openContent(PackageInfo info) throws IOException {
+        return packageManager.getPackageContent(info, 0, info.getSize())
+                .orElseThrow(() -> new IOException("Content of package " + info.getId() + " is missing"));
+    }
+}
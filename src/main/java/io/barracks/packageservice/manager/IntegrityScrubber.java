@@ -0,0 +1,328 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.ScrubResult;
+import io.barracks.packageservice.repository.PackageRepository;
+import io.barracks.packageservice.repository.ScrubRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Walks the stored packages in the background, a batch per run, and recomputes the MD5 of their content straight from
+ * the package store. The position of the current pass is persisted so that it resumes after a restart, and reads are
+ * throttled to an IO budget shared by all the workers so that scrubbing does not compete with downloads. Each batch is
+ * scrubbed by the node holding the lease of the cursor, and a content shared by several packages is read once per pass.
+ * Runs are scheduled on a thread of their own, so that a long batch never delays the other scheduled jobs. A batch in
+ * which a package cannot be checked is retried up to {@code MAX_BATCH_ATTEMPTS} times by the node, after which the
+ * package is recorded as an error and the pass moves on.
+ */
+@Service
+public class IntegrityScrubber implements PublicMetrics {
+    static final String METRIC_PREFIX = "scrub.";
+    static final int BUFFER_SIZE = 65536;
+    static final int MAX_BATCH_ATTEMPTS = 3;
+    private static final Logger LOGGER = LoggerFactory.getLogger(IntegrityScrubber.class);
+
+    private final PackageRepository packageRepository;
+    private final ScrubRepository scrubRepository;
+    private final String owner = UUID.randomUUID().toString();
+    private final boolean enabled;
+    private final int batchSize;
+    private final RateLimiter ioBudget;
+    private final long intervalMillis;
+    private final long leaseMillis;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder corrupt = new LongAdder();
+    private final LongAdder missing = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private String failedCursor;
+    private int failedAttempts;
+
+    @Autowired
+    public IntegrityScrubber(
+            PackageRepository packageRepository,
+            ScrubRepository scrubRepository,
+            @Value("${io.barracks.packageservice.scrub.enabled}") boolean enabled,
+            @Value("${io.barracks.packageservice.scrub.batchSize}") int batchSize,
+            @Value("${io.barracks.packageservice.scrub.bytesPerSecond}") double bytesPerSecond,
+            @Value("${io.barracks.packageservice.scrub.intervalMillis}") long intervalMillis,
+            @Value("${io.barracks.packageservice.scrub.leaseSeconds}") long leaseSeconds,
+            @Value("${io.barracks.packageservice.scrub.threads}") int threads) {
+        this(
+                packageRepository,
+                scrubRepository,
+                enabled,
+                batchSize,
+                bytesPerSecond,
+                intervalMillis,
+                TimeUnit.SECONDS.toMillis(leaseSeconds),
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("scrub-scheduler-%d")
+                        .setDaemon(true)
+                        .build()),
+                Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                        .setNameFormat("scrub-%d")
+                        .setPriority(Thread.MIN_PRIORITY)
+                        .setDaemon(true)
+                        .build())
+        );
+    }
+
+    IntegrityScrubber(PackageRepository packageRepository, ScrubRepository scrubRepository, boolean enabled, int batchSize, double bytesPerSecond, long intervalMillis, long leaseMillis, ScheduledExecutorService scheduler, ExecutorService executor) {
+        this.packageRepository = packageRepository;
+        this.scrubRepository = scrubRepository;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.ioBudget = bytesPerSecond > 0 ? RateLimiter.create(bytesPerSecond) : null;
+        this.intervalMillis = intervalMillis;
+        this.leaseMillis = leaseMillis;
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                scrubNextBatch();
+            } catch (RuntimeException e) {
+                // an exception would cancel the next runs
+                LOGGER.error("Integrity scrub failed", e);
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void scrubNextBatch() {
+        if (!enabled) {
+            return;
+        }
+        if (!scrubRepository.tryLease(owner, leaseMillis)) {
+            LOGGER.debug("Integrity scrub is leased to another node");
+            return;
+        }
+        try {
+            scrubLeasedBatch();
+        } finally {
+            scrubRepository.releaseLease(owner);
+        }
+    }
+
+    private void scrubLeasedBatch() {
+        final Optional<String> cursor = scrubRepository.getCursor();
+        final List<PackageInfo> batch = packageRepository.getPackagesAfterId(cursor.orElse(null), batchSize);
+        if (batch.isEmpty()) {
+            if (cursor.isPresent()) {
+                LOGGER.info("Integrity scrub pass completed, the next one starts over from the first package");
+                scrubRepository.saveCursor(owner, null);
+            }
+            return;
+        }
+        final Optional<Date> passStartedAt = scrubRepository.getPassStartedAt();
+        final Map<String, String> contentIds = packageRepository.getContentIds(batch.stream().map(PackageInfo::getId).collect(Collectors.toList()));
+        final Map<String, List<PackageInfo>> byContent = new LinkedHashMap<>();
+        for (PackageInfo info : batch) {
+            // packages saved before contents were shared are verified on their own
+            byContent.computeIfAbsent(contentIds.getOrDefault(info.getId(), info.getId()), key -> new ArrayList<>()).add(info);
+        }
+        final List<Callable<ScrubResult>> tasks = byContent.values().stream()
+                .map(packages -> (Callable<ScrubResult>) () -> check(packages.get(0), contentIds.get(packages.get(0).getId()), passStartedAt))
+                .collect(Collectors.toList());
+        try {
+            final List<Future<ScrubResult>> results = executor.invokeAll(tasks);
+            if (results.stream().anyMatch(IntegrityScrubber::hasFailed) && retryBatch(cursor.orElse(null))) {
+                LOGGER.warn("Integrity scrub failed, the batch after {} will be retried", cursor.orElse("the first package"));
+                return;
+            }
+            final Iterator<List<PackageInfo>> groups = byContent.values().iterator();
+            for (Future<ScrubResult> result : results) {
+                final List<PackageInfo> sharing = groups.next();
+                try {
+                    final ScrubResult checked = result.get();
+                    if (checked != null) {
+                        sharing.forEach(info -> record(new ScrubResult(info.getId(), checked.getStatus(), info.getMd5(), checked.getActualMd5(), checked.getCheckedAt())));
+                    }
+                } catch (ExecutionException e) {
+                    LOGGER.error("Integrity scrub of package {} failed on the last of {} attempts of its batch, it is recorded as an error", sharing.get(0).getId(), MAX_BATCH_ATTEMPTS, e.getCause());
+                    sharing.forEach(info -> record(new ScrubResult(info.getId(), ScrubResult.Status.ERROR, info.getMd5(), null, new Date())));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        resetRetries();
+        if (!scrubRepository.saveCursor(owner, batch.get(batch.size() - 1).getId())) {
+            LOGGER.warn("Integrity scrub lease expired during the batch after {}, the cursor is left to its new owner", cursor.orElse("the first package"));
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>(METRIC_PREFIX + "verified", verified.sum()),
+                new Metric<>(METRIC_PREFIX + "corrupt", corrupt.sum()),
+                new Metric<>(METRIC_PREFIX + "missing", missing.sum()),
+                new Metric<>(METRIC_PREFIX + "errors", errors.sum()),
+                new Metric<>(METRIC_PREFIX + "bytes", bytes.sum())
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private synchronized boolean retryBatch(String cursor) {
+        if (!Objects.equals(cursor, failedCursor)) {
+            failedCursor = cursor;
+            failedAttempts = 0;
+        }
+        return ++failedAttempts < MAX_BATCH_ATTEMPTS;
+    }
+
+    private synchronized void resetRetries() {
+        failedCursor = null;
+        failedAttempts = 0;
+    }
+
+    private static boolean hasFailed(Future<ScrubResult> result) {
+        try {
+            result.get();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private ScrubResult check(PackageInfo info, String contentId, Optional<Date> passStartedAt) {
+        if (contentId != null && passStartedAt.isPresent()) {
+            final Optional<ScrubResult> previous = scrubRepository.findContentResult(contentId);
+            if (previous.isPresent() && !previous.get().getCheckedAt().before(passStartedAt.get())) {
+                return previous.get();
+            }
+        }
+        final ScrubResult result = verify(info);
+        if (result != null && contentId != null) {
+            scrubRepository.saveContentResult(contentId, result);
+        }
+        // a batch of large packages can outlast the lease
+        scrubRepository.tryLease(owner, leaseMillis);
+        return result;
+    }
+
+    ScrubResult verify(PackageInfo info) {
+        if (info.getMd5() == null) {
+            return null;
+        }
+        final Hasher hasher = Hashing.md5().newHasher();
+        try {
+            final Optional<InputStream> content = packageRepository.getPackageContent(info.getId(), 0, info.getSize());
+            if (!content.isPresent()) {
+                return null;
+            }
+            try (InputStream inputStream = content.get()) {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    if (ioBudget != null && read > 0) {
+                        ioBudget.acquire(read);
+                    }
+                    hasher.putBytes(buffer, 0, read);
+                    bytes.add(read);
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.error("Content of package {} cannot be read", info.getId(), e);
+            return new ScrubResult(info.getId(), ScrubResult.Status.MISSING, info.getMd5(), null, new Date());
+        }
+        final String md5 = hasher.hash().toString();
+        final ScrubResult.Status status = md5.equalsIgnoreCase(info.getMd5()) ? ScrubResult.Status.VALID : ScrubResult.Status.CORRUPT;
+        return new ScrubResult(info.getId(), status, info.getMd5(), md5, new Date());
+    }
+
+    private void record(ScrubResult result) {
+        switch (result.getStatus()) {
+            case CORRUPT:
+                LOGGER.error("Content of package {} does not match its MD5, expected {} but got {}", result.getPackageId(), result.getExpectedMd5(), result.getActualMd5());
+                corrupt.increment();
+                break;
+            case MISSING:
+                missing.increment();
+                break;
+            case ERROR:
+                errors.increment();
+                break;
+            default:
+                verified.increment();
+        }
+        scrubRepository.saveResult(result);
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.packageservice.manager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.repository.PackageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps a verified copy of recently downloaded packages on local disk so repeated downloads do not go back to GridFS.
+ * The copies live in a {@value #CONTENT_DIRECTORY} subdirectory of the configured directory, which is emptied on
+ * startup. A marker file proves that the subdirectory belongs to the cache, and the startup fails rather than empty a
+ * subdirectory without it.
+ */
+@Component
+public class PackageContentCache implements PublicMetrics {
+    static final String METRIC_PREFIX = "cache.packageContent.";
+    static final String CONTENT_DIRECTORY = "package-content";
+    static final String MARKER_FILE = ".barracks-package-cache";
+    private static final Logger LOGGER = LoggerFactory.getLogger(PackageContentCache.class);
+    private static final Pattern CACHEABLE_ID = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final PackageRepository packageRepository;
+    private final boolean enabled;
+    private final long capacity;
+    private final Path directory;
+    private final Cache<String, Path> files;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final ExecutorService fillExecutor;
+
+    @Autowired
+    public PackageContentCache(
+            PackageRepository packageRepository,
+            @Value("${io.barracks.packageservice.contentCache.enabled}") boolean enabled,
+            @Value("${io.barracks.packageservice.contentCache.directory}") String directory,
+            @Value("${io.barracks.packageservice.contentCache.capacity}") long capacity) throws IOException {
+        this(
+                packageRepository,
+                enabled,
+                directory,
+                capacity,
+                Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("package-content-cache-%d").setDaemon(true).build())
+        );
+    }
+
+    PackageContentCache(PackageRepository packageRepository, boolean enabled, String directory, long capacity, ExecutorService fillExecutor) throws IOException {
+        this.packageRepository = packageRepository;
+        this.enabled = enabled;
+        this.capacity = capacity;
+        this.directory = Paths.get(directory, CONTENT_DIRECTORY);
+        this.files = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(capacity)
+                .weigher((String id, Path path) -> (int) Math.min(Integer.MAX_VALUE, path.toFile().length()))
+                .removalListener((RemovalListener<String, Path>) notification -> {
+                    if (notification.getCause() != RemovalCause.REPLACED) {
+                        deleteQuietly(notification.getValue());
+                    }
+                })
+                .recordStats()
+                .build();
+        this.fillExecutor = fillExecutor;
+        if (enabled) {
+            Files.createDirectories(this.directory);
+            claimDirectory();
+            try (DirectoryStream<Path> stale = Files.newDirectoryStream(this.directory, path -> !path.getFileName().toString().equals(MARKER_FILE))) {
+                stale.forEach(this::deleteQuietly);
+            }
+        }
+    }
+
+    public Optional<InputStream> getContent(PackageInfo info, long offset, long length) {
+        if (!enabled || !CACHEABLE_ID.matcher(info.getId()).matches()) {
+            return Optional.empty();
+        }
+        final Path path = files.getIfPresent(info.getId());
+        if (path != null) {
+            try {
+                final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                channel.position(offset);
+                return Optional.of(ByteStreams.limit(Channels.newInputStream(channel), length));
+            } catch (IOException e) {
+                LOGGER.warn("Failed to open cached content of package {}", info.getId(), e);
+                files.invalidate(info.getId());
+            }
+        }
+        if (info.getSize() <= capacity) {
+            // a larger package would be evicted as soon as it is cached
+            scheduleFill(info);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the verified copy of a cached package, so that it can be sent by the container. A copy is the most
+     * recently used entry once returned, so it is not evicted before the container opens it.
+     */
+    public Optional<Path> getLocalPath(PackageInfo info) {
+        if (!enabled || !CACHEABLE_ID.matcher(info.getId()).matches()) {
+            return Optional.empty();
+        }
+        // a miss is recorded, and the copy filled, by the getContent call the download falls back to
+        if (!files.asMap().containsKey(info.getId())) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(files.getIfPresent(info.getId()));
+    }
+
+    public void invalidate(String packageId) {
+        files.invalidate(packageId);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final Collection<Metric<?>> metrics = new ArrayList<>();
+        final CacheStats stats = files.stats();
+        metrics.add(new Metric<>(METRIC_PREFIX + "size", files.size()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "hit", stats.hitCount()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "miss", stats.missCount()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "eviction", stats.evictionCount()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "hit.ratio", stats.hitRate()));
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fillExecutor.shutdownNow();
+    }
+
+    void fill(PackageInfo info) {
+        final Path target = directory.resolve(info.getId());
+        Path temp = null;
+        try {
+            final Optional<InputStream> content = packageRepository.getPackageContent(info.getId(), 0, info.getSize());
+            if (!content.isPresent()) {
+                return;
+            }
+            temp = Files.createTempFile(directory, info.getId(), ".part");
+            final HashingOutputStream out = new HashingOutputStream(Hashing.md5(), Files.newOutputStream(temp));
+            try (InputStream in = content.get()) {
+                ByteStreams.copy(in, out);
+            } finally {
+                out.close();
+            }
+            final String hash = out.hash().toString();
+            if (!hash.equalsIgnoreCase(info.getMd5())) {
+                LOGGER.error("Content of package {} does not match its MD5, expected {} but got {}", info.getId(), info.getMd5(), hash);
+                return;
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            files.put(info.getId(), target);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to cache content of package {}", info.getId(), e);
+        } finally {
+            if (temp != null) {
+                deleteQuietly(temp);
+            }
+            pending.remove(info.getId());
+        }
+    }
+
+    private void claimDirectory() throws IOException {
+        final Path marker = directory.resolve(MARKER_FILE);
+        if (Files.exists(marker)) {
+            return;
+        }
+        try (DirectoryStream<Path> existing = Files.newDirectoryStream(directory)) {
+            if (existing.iterator().hasNext()) {
+                throw new IllegalStateException("Refusing to empty " + directory + " for the package content cache, it is not empty and has no " + MARKER_FILE + " file");
+            }
+        }
+        Files.createFile(marker);
+    }
+
+    private void scheduleFill(PackageInfo info) {
+        if (!pending.add(info.getId())) {
+            return;
+        }
+        try {
+            fillExecutor.execute(() -> fill(info));
+        } catch (RejectedExecutionException e) {
+            pending.remove(info.getId());
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.packageservice.manager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import io.barracks.packageservice.model.PackageInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+@Component
+public class PackageInfoCache implements PublicMetrics {
+    static final String METRIC_PREFIX = "cache.packageInfo.";
+
+    private final Cache<String, PackageInfo> byId;
+    private final Cache<List<String>, PackageInfo> byVersion;
+
+    @Autowired
+    public PackageInfoCache(
+            @Value("${io.barracks.packageservice.cache.maxSize}") long maxSize,
+            @Value("${io.barracks.packageservice.cache.ttlSeconds}") long ttlSeconds) {
+        this.byId = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.byVersion = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    public Optional<PackageInfo> getById(String id, Supplier<Optional<PackageInfo>> loader) {
+        final PackageInfo cached = byId.getIfPresent(id);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        final Optional<PackageInfo> loaded = loader.get();
+        loaded.ifPresent(this::put);
+        return loaded;
+    }
+
+    public Optional<PackageInfo> getByUserIdAndVersionId(String userId, String versionId, Supplier<Optional<PackageInfo>> loader) {
+        final PackageInfo cached = byVersion.getIfPresent(versionKey(userId, versionId));
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        final Optional<PackageInfo> loaded = loader.get();
+        loaded.ifPresent(this::put);
+        return loaded;
+    }
+
+    public void put(PackageInfo info) {
+        if (info.getId() == null) {
+            return;
+        }
+        byId.put(info.getId(), info);
+        byVersion.put(versionKey(info.getUserId(), info.getVersionId()), info);
+    }
+
+    public void invalidate(PackageInfo info) {
+        byId.invalidate(info.getId());
+        byVersion.invalidate(versionKey(info.getUserId(), info.getVersionId()));
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final Collection<Metric<?>> metrics = new ArrayList<>();
+        addMetrics(metrics, "byId.", byId);
+        addMetrics(metrics, "byVersion.", byVersion);
+        return metrics;
+    }
+
+    private void addMetrics(Collection<Metric<?>> metrics, String name, Cache<?, ?> cache) {
+        final CacheStats stats = cache.stats();
+        metrics.add(new Metric<>(METRIC_PREFIX + name + "size", cache.size()));
+        metrics.add(new Metric<>(METRIC_PREFIX + name + "hit", stats.hitCount()));
+        metrics.add(new Metric<>(METRIC_PREFIX + name + "miss", stats.missCount()));
+        metrics.add(new Metric<>(METRIC_PREFIX + name + "eviction", stats.evictionCount()));
+        metrics.add(new Metric<>(METRIC_PREFIX + name + "hit.ratio", stats.hitRate()));
+    }
+
+    private static List<String> versionKey(String userId, String versionId) {
+        return Arrays.asList(userId, versionId);
+    }
+}
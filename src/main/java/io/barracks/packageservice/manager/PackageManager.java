@@ -24,43 +24,135 @@
 
 package io.barracks.packageservice.manager;
 
+import io.barracks.packageservice.manager.exception.InvalidPackageContentException;
 import io.barracks.packageservice.manager.exception.InvalidPackageVersionException;
 import io.barracks.packageservice.manager.exception.PackageConflictException;
+import io.barracks.packageservice.manager.validation.PackageUpload;
+import io.barracks.packageservice.manager.validation.UploadValidation;
+import io.barracks.packageservice.model.PackageFilter;
 import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.PackageLookup;
+import io.barracks.packageservice.model.PackageLookupResult;
 import io.barracks.packageservice.repository.PackageRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
 import java.io.InputStream;
-import java.util.Collection;
-import java.util.Optional;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Service
 public class PackageManager {
+    static final Pattern SHA256_PATTERN = Pattern.compile("[0-9a-fA-F]{64}");
+
     private final PackageRepository packageRepository;
+    private final PackageInfoCache packageInfoCache;
+    private final PackageContentCache packageContentCache;
+    private final UploadValidation uploadValidation;
 
     @Autowired
-    public PackageManager(PackageRepository packageRepository) {
+    public PackageManager(PackageRepository packageRepository, PackageInfoCache packageInfoCache, PackageContentCache packageContentCache, UploadValidation uploadValidation) {
         this.packageRepository = packageRepository;
+        this.packageInfoCache = packageInfoCache;
+        this.packageContentCache = packageContentCache;
+        this.uploadValidation = uploadValidation;
     }
 
     public PackageInfo save(String originalFilename, String contentType, InputStream inputStream, String userId, String versionId) {
+        return save(originalFilename, contentType, inputStream, userId, versionId, null);
+    }
+
+    public PackageInfo save(String originalFilename, String contentType, InputStream inputStream, String userId, String versionId, String sha256) {
+        return save(originalFilename, contentType, inputStream, userId, versionId, sha256, null);
+    }
+
+    public PackageInfo save(String originalFilename, String contentType, InputStream inputStream, String userId, String versionId, String sha256, String signature) {
         if ("".equals(versionId.trim())) {
             throw new InvalidPackageVersionException("Version id cannot be empty");
         }
-        Optional<PackageInfo> info = packageRepository.findByUserIdAndVersionId(userId, versionId);
+        if (sha256 != null && !SHA256_PATTERN.matcher(sha256).matches()) {
+            throw new InvalidPackageContentException("Invalid SHA-256 " + sha256);
+        }
+        Optional<PackageInfo> info = packageInfoCache.getByUserIdAndVersionId(userId, versionId, Optional::empty);
         if (info.isPresent()) {
             throw new PackageConflictException("Version " + versionId + " already exists for user " + userId);
         }
-        PackageInfo toSave = new PackageInfo(null, originalFilename, null, -1, userId, versionId, inputStream);
-        return packageRepository.savePackage(toSave, contentType);
+        final InputStream validated = uploadValidation.validate(new PackageUpload(originalFilename, userId, versionId, signature), inputStream);
+        PackageInfo toSave = new PackageInfo(null, originalFilename, null, -1, userId, versionId, validated);
+        try {
+            final PackageInfo saved = packageRepository.savePackage(toSave, contentType, sha256);
+            packageInfoCache.put(saved);
+            return saved;
+        } catch (DuplicateKeyException e) {
+            throw new PackageConflictException("Version " + versionId + " already exists for user " + userId);
+        } catch (DataIntegrityViolationException e) {
+            throw new InvalidPackageContentException(e.getMessage());
+        }
     }
 
     public Optional<PackageInfo> findById(String packageId) {
-        return packageRepository.findById(packageId);
+        return packageInfoCache.getById(packageId, () -> packageRepository.findById(packageId));
+    }
+
+    public Optional<PackageInfo> findCachedById(String packageId) {
+        return packageInfoCache.getById(packageId, Optional::empty);
+    }
+
+    public List<PackageLookupResult> lookup(List<PackageLookup> lookups) {
+        final Map<PackageLookup, PackageInfo> found = new HashMap<>();
+        final List<PackageLookup> missing = new ArrayList<>();
+        for (PackageLookup lookup : lookups) {
+            final Optional<PackageInfo> cached = lookup.isById()
+                    ? packageInfoCache.getById(lookup.getId(), Optional::empty)
+                    : packageInfoCache.getByUserIdAndVersionId(lookup.getUserId(), lookup.getVersionId(), Optional::empty);
+            if (cached.isPresent()) {
+                found.put(lookup, cached.get());
+            } else {
+                missing.add(lookup);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (PackageInfo info : packageRepository.findAll(missing)) {
+                packageInfoCache.put(info);
+                found.put(PackageLookup.byId(info.getId()), info);
+                found.put(PackageLookup.byVersion(info.getUserId(), info.getVersionId()), info);
+            }
+        }
+        return lookups.stream()
+                .map(lookup -> new PackageLookupResult(lookup, Optional.ofNullable(found.get(lookup))))
+                .collect(Collectors.toList());
+    }
+
+    public Optional<InputStream> getPackageContent(PackageInfo packageInfo, long offset, long length) {
+        final Optional<InputStream> cached = packageContentCache.getContent(packageInfo, offset, length);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        return packageRepository.getPackageContent(packageInfo.getId(), offset, length);
+    }
+
+    public Optional<Path> getLocalContentPath(PackageInfo packageInfo) {
+        final Optional<Path> stored = packageRepository.getLocalContentPath(packageInfo.getId());
+        if (stored.isPresent()) {
+            return stored;
+        }
+        return packageContentCache.getLocalPath(packageInfo);
     }
 
     public Collection<PackageInfo> getAllPackages(String userId) {
         return packageRepository.getAllPackages(userId);
     }
+
+    public List<PackageInfo> getPackages(PackageFilter filter, String afterVersionId, String afterId, int limit) {
+        return packageRepository.getPackages(filter, afterVersionId, afterId, limit);
+    }
+
+    public void streamPackages(PackageFilter filter, Consumer<PackageInfo> consumer) {
+        packageRepository.streamPackages(filter, consumer);
+    }
 }
@@ -0,0 +1,190 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager;
+
+import io.barracks.packageservice.manager.exception.InvalidPackageContentException;
+import io.barracks.packageservice.manager.exception.InvalidPackageVersionException;
+import io.barracks.packageservice.manager.exception.PackageConflictException;
+import io.barracks.packageservice.manager.exception.UploadSessionNotFoundException;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.UploadSession;
+import io.barracks.packageservice.repository.UploadSessionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@Service
+public class UploadSessionManager {
+    static final int MAX_PARTS = 10000;
+    private static final Logger LOGGER = LoggerFactory.getLogger(UploadSessionManager.class);
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final PackageManager packageManager;
+    private final long defaultPartSize;
+    private final long maxPartSize;
+    private final long ttlSeconds;
+    private final long commitTimeoutSeconds;
+    private final long maxSize;
+
+    @Autowired
+    public UploadSessionManager(
+            UploadSessionRepository uploadSessionRepository,
+            PackageManager packageManager,
+            @Value("${io.barracks.packageservice.upload.session.defaultPartSize}") long defaultPartSize,
+            @Value("${io.barracks.packageservice.upload.session.maxPartSize}") long maxPartSize,
+            @Value("${io.barracks.packageservice.upload.session.ttlSeconds}") long ttlSeconds,
+            @Value("${io.barracks.packageservice.upload.session.commitTimeoutSeconds}") long commitTimeoutSeconds,
+            @Value("${io.barracks.packageservice.upload.validation.maxSize}") long maxSize) {
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.packageManager = packageManager;
+        this.defaultPartSize = defaultPartSize;
+        this.maxPartSize = maxPartSize;
+        this.ttlSeconds = ttlSeconds;
+        this.commitTimeoutSeconds = commitTimeoutSeconds;
+        this.maxSize = maxSize;
+    }
+
+    public UploadSession create(String fileName, String userId, String versionId, String sha256, String signature, Long partSize) {
+        if ("".equals(versionId.trim())) {
+            throw new InvalidPackageVersionException("Version id cannot be empty");
+        }
+        if (sha256 != null && !PackageManager.SHA256_PATTERN.matcher(sha256).matches()) {
+            throw new InvalidPackageContentException("Invalid SHA-256 " + sha256);
+        }
+        final long size = partSize == null ? defaultPartSize : partSize;
+        if (size <= 0 || size > maxPartSize) {
+            throw new InvalidPackageContentException("Part size must be between 1 and " + maxPartSize + " bytes");
+        }
+        return uploadSessionRepository.createSession(userId, versionId, fileName, sha256, signature, size);
+    }
+
+    public Optional<UploadSession> findById(String sessionId) {
+        return uploadSessionRepository.findById(sessionId);
+    }
+
+    public UploadSession savePart(String sessionId, int number, InputStream inputStream) {
+        if (number < 0 || number >= MAX_PARTS) {
+            throw new InvalidPackageContentException("Part number must be between 0 and " + (MAX_PARTS - 1));
+        }
+        final UploadSession session = getSession(sessionId);
+        // concurrent parts can still add up to more, which the validation of the commit rejects
+        final long remaining = maxSize <= 0 ? Long.MAX_VALUE : maxSize - session.getParts().stream()
+                .filter(part -> part.getNumber() != number)
+                .mapToLong(UploadSession.Part::getLength)
+                .sum();
+        final long maxLength = Math.min(session.getPartSize(), remaining);
+        if (maxLength < 0) {
+            throw new InvalidPackageContentException("Package is larger than " + maxSize + " bytes");
+        }
+        try {
+            return uploadSessionRepository.savePart(sessionId, number, inputStream, maxLength)
+                    .orElseThrow(() -> unavailable(sessionId));
+        } catch (DataIntegrityViolationException e) {
+            throw new InvalidPackageContentException(maxLength < session.getPartSize() ? "Package is larger than " + maxSize + " bytes" : e.getMessage());
+        }
+    }
+
+    public PackageInfo commit(String sessionId) {
+        final UploadSession session = uploadSessionRepository.startCommit(sessionId).orElseThrow(() -> unavailable(sessionId));
+        final PackageInfo saved;
+        try {
+            saved = save(session);
+        } catch (RuntimeException e) {
+            uploadSessionRepository.cancelCommit(sessionId);
+            throw e;
+        }
+        uploadSessionRepository.finishCommit(sessionId);
+        return saved;
+    }
+
+    public void delete(String sessionId) {
+        if (!uploadSessionRepository.deleteSession(sessionId)) {
+            throw unavailable(sessionId);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${io.barracks.packageservice.upload.session.gcIntervalMillis}")
+    public void deleteStaleSessions() {
+        final Date before = new Date(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(ttlSeconds));
+        final Date commitStartedBefore = new Date(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(commitTimeoutSeconds));
+        final int deleted = uploadSessionRepository.deleteSessionsUpdatedBefore(before, commitStartedBefore);
+        if (deleted > 0) {
+            LOGGER.info("Deleted {} upload sessions not updated since {}", deleted, before);
+        }
+    }
+
+    private UploadSession getSession(String sessionId) {
+        return uploadSessionRepository.findById(sessionId)
+                .orElseThrow(() -> new UploadSessionNotFoundException("Upload session " + sessionId + " does not exist"));
+    }
+
+    private PackageInfo save(UploadSession session) {
+        final List<UploadSession.Part> parts = session.getParts();
+        if (parts.isEmpty()) {
+            throw new InvalidPackageContentException("No part was uploaded");
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            final UploadSession.Part part = parts.get(i);
+            if (part.getNumber() != i) {
+                throw new InvalidPackageContentException("Part " + i + " is missing");
+            }
+            if (i < parts.size() - 1 && part.getLength() != session.getPartSize()) {
+                throw new InvalidPackageContentException("Part " + i + " is " + part.getLength() + " bytes long but only the last part can be shorter than " + session.getPartSize() + " bytes");
+            }
+        }
+        try (InputStream content = uploadSessionRepository.getContent(session)) {
+            return packageManager.save(
+                    session.getFileName(),
+                    MediaType.APPLICATION_OCTET_STREAM_VALUE,
+                    content,
+                    session.getUserId(),
+                    session.getVersionId(),
+                    session.getSha256(),
+                    session.getSignature()
+            );
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private RuntimeException unavailable(String sessionId) {
+        if (uploadSessionRepository.findById(sessionId).isPresent()) {
+            return new PackageConflictException("Upload session " + sessionId + " is being committed");
+        }
+        return new UploadSessionNotFoundException("Upload session " + sessionId + " does not exist");
+    }
+}
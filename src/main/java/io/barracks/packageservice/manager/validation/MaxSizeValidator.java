@@ -0,0 +1,66 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager.validation;
+
+import io.barracks.packageservice.manager.exception.InvalidPackageContentException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * Aborts uploads as soon as they exceed the maximum package size. A maximum of zero or less disables the check.
+ */
+@Component
+public class MaxSizeValidator implements UploadValidator {
+    private final long maxSize;
+
+    @Autowired
+    public MaxSizeValidator(@Value("${io.barracks.packageservice.upload.validation.maxSize}") long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public Optional<ContentCheck> start(PackageUpload upload) {
+        if (maxSize <= 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new ContentCheck() {
+            private long size;
+
+            @Override
+            public void update(byte[] buffer, int offset, int length) {
+                size += length;
+                if (size > maxSize) {
+                    throw new InvalidPackageContentException("Package is larger than " + maxSize + " bytes");
+                }
+            }
+
+            @Override
+            public void verify() {
+            }
+        });
+    }
+}
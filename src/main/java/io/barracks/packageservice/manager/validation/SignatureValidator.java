@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager.validation;
+
+import io.barracks.packageservice.manager.exception.InvalidPackageContentException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Verifies the detached signature sent with an upload, a Base64 signature of the whole content made with the private
+ * key matching the configured Base64 DER public key. Without a configured key the check is disabled.
+ */
+@Component
+public class SignatureValidator implements UploadValidator {
+    private final PublicKey publicKey;
+    private final String algorithm;
+    private final boolean required;
+
+    @Autowired
+    public SignatureValidator(
+            @Value("${io.barracks.packageservice.upload.validation.signature.publicKey}") String publicKey,
+            @Value("${io.barracks.packageservice.upload.validation.signature.keyAlgorithm}") String keyAlgorithm,
+            @Value("${io.barracks.packageservice.upload.validation.signature.algorithm}") String algorithm,
+            @Value("${io.barracks.packageservice.upload.validation.signature.required}") boolean required) {
+        this(publicKey.trim().isEmpty() ? null : toPublicKey(publicKey.trim(), keyAlgorithm), algorithm, required);
+    }
+
+    SignatureValidator(PublicKey publicKey, String algorithm, boolean required) {
+        if (required && publicKey == null) {
+            throw new IllegalArgumentException("A public key is needed to require signed uploads");
+        }
+        this.publicKey = publicKey;
+        this.algorithm = algorithm;
+        this.required = required;
+    }
+
+    @Override
+    public Optional<ContentCheck> start(PackageUpload upload) {
+        if (publicKey == null || (upload.getSignature() == null && !required)) {
+            return Optional.empty();
+        }
+        if (upload.getSignature() == null) {
+            throw new InvalidPackageContentException("Package signature is required");
+        }
+        final byte[] expected;
+        try {
+            expected = Base64.getDecoder().decode(upload.getSignature());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidPackageContentException("Invalid package signature " + upload.getSignature());
+        }
+        final Signature signature;
+        try {
+            signature = Signature.getInstance(algorithm);
+            signature.initVerify(publicKey);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        return Optional.of(new ContentCheck() {
+            @Override
+            public void update(byte[] buffer, int offset, int length) {
+                try {
+                    signature.update(buffer, offset, length);
+                } catch (SignatureException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public void verify() {
+                boolean valid;
+                try {
+                    valid = signature.verify(expected);
+                } catch (SignatureException e) {
+                    valid = false;
+                }
+                if (!valid) {
+                    throw new InvalidPackageContentException("Package signature does not match its content");
+                }
+            }
+        });
+    }
+
+    private static PublicKey toPublicKey(String publicKey, String keyAlgorithm) {
+        try {
+            return KeyFactory.getInstance(keyAlgorithm).generatePublic(new X509EncodedKeySpec(Base64.getMimeDecoder().decode(publicKey)));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + keyAlgorithm + " public key", e);
+        }
+    }
+}
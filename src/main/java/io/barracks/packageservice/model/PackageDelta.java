@@ -0,0 +1,137 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Date;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PackageDelta {
+
+    public enum Status {
+        PENDING, READY, SKIPPED
+    }
+
+    private final String fromId;
+    private final String toId;
+    private final Status status;
+    private final long size;
+    private final String md5;
+    private final String sha256;
+    private final Date creationDate;
+    @JsonIgnore
+    private final String contentId;
+
+    public PackageDelta(String fromId, String toId, Status status, long size, String md5, String sha256, Date creationDate, String contentId) {
+        this.fromId = fromId;
+        this.toId = toId;
+        this.status = status;
+        this.size = size;
+        this.md5 = md5;
+        this.sha256 = sha256;
+        this.creationDate = creationDate == null ? null : new Date(creationDate.getTime());
+        this.contentId = contentId;
+    }
+
+    public String getFromId() {
+        return fromId;
+    }
+
+    public String getToId() {
+        return toId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getMd5() {
+        return md5;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public Date getCreationDate() {
+        return creationDate == null ? null : new Date(creationDate.getTime());
+    }
+
+    public String getContentId() {
+        return contentId;
+    }
+
+    @Override
+    public String toString() {
+        return "PackageDelta{" +
+                "fromId='" + fromId + '\'' +
+                ", toId='" + toId + '\'' +
+                ", status=" + status +
+                ", size=" + size +
+                ", md5='" + md5 + '\'' +
+                ", sha256='" + sha256 + '\'' +
+                ", creationDate=" + creationDate +
+                ", contentId='" + contentId + '\'' +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PackageDelta that = (PackageDelta) o;
+
+        if (size != that.size) return false;
+        if (fromId != null ? !fromId.equals(that.fromId) : that.fromId != null) return false;
+        if (toId != null ? !toId.equals(that.toId) : that.toId != null) return false;
+        if (status != that.status) return false;
+        if (md5 != null ? !md5.equals(that.md5) : that.md5 != null) return false;
+        if (sha256 != null ? !sha256.equals(that.sha256) : that.sha256 != null) return false;
+        if (creationDate != null ? !creationDate.equals(that.creationDate) : that.creationDate != null) return false;
+        return contentId != null ? contentId.equals(that.contentId) : that.contentId == null;
+
+    }
+
+    @Override
+    public int hashCode() {
+        int result = fromId != null ? fromId.hashCode() : 0;
+        result = 31 * result + (toId != null ? toId.hashCode() : 0);
+        result = 31 * result + (status != null ? status.hashCode() : 0);
+        result = 31 * result + (int) (size ^ (size >>> 32));
+        result = 31 * result + (md5 != null ? md5.hashCode() : 0);
+        result = 31 * result + (sha256 != null ? sha256.hashCode() : 0);
+        result = 31 * result + (creationDate != null ? creationDate.hashCode() : 0);
+        result = 31 * result + (contentId != null ? contentId.hashCode() : 0);
+        return result;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.packageservice.model;
+
+import java.util.Date;
+import java.util.Optional;
+
+public class PackageFilter {
+
+    private final String userId;
+    private final String versionIdPrefix;
+    private final Date uploadedAfter;
+
+    public PackageFilter(String userId, String versionIdPrefix, Date uploadedAfter) {
+        this.userId = userId;
+        this.versionIdPrefix = versionIdPrefix;
+        this.uploadedAfter = uploadedAfter == null ? null : new Date(uploadedAfter.getTime());
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Optional<String> getVersionIdPrefix() {
+        return Optional.ofNullable(versionIdPrefix);
+    }
+
+    public Optional<Date> getUploadedAfter() {
+        return Optional.ofNullable(uploadedAfter).map(date -> new Date(date.getTime()));
+    }
+
+    @Override
+    public String toString() {
+        return "PackageFilter{" +
+                "userId='" + userId + '\'' +
+                ", versionIdPrefix='" + versionIdPrefix + '\'' +
+                ", uploadedAfter=" + uploadedAfter +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PackageFilter that = (PackageFilter) o;
+
+        if (userId != null ? !userId.equals(that.userId) : that.userId != null) return false;
+        if (versionIdPrefix != null ? !versionIdPrefix.equals(that.versionIdPrefix) : that.versionIdPrefix != null) return false;
+        return uploadedAfter != null ? uploadedAfter.equals(that.uploadedAfter) : that.uploadedAfter == null;
+
+    }
+
+    @Override
+    public int hashCode() {
+        int result = userId != null ? userId.hashCode() : 0;
+        result = 31 * result + (versionIdPrefix != null ? versionIdPrefix.hashCode() : 0);
+        result = 31 * result + (uploadedAfter != null ? uploadedAfter.hashCode() : 0);
+        return result;
+    }
+}
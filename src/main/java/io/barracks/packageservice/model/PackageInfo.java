@@ -28,12 +28,12 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.annotation.PersistenceConstructor;
 
 import java.io.InputStream;
+import java.util.Date;
 import java.util.Optional;
 
-@CompoundIndex(name = "versionId_userId_idx", def = "{'versionId' : 1, 'userId' : 1}", unique = true)
 @JsonIgnoreProperties(ignoreUnknown = true)
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class PackageInfo {
@@ -45,16 +45,23 @@ public class PackageInfo {
     private final String fileName;
     private final String userId;
     private final String versionId;
+    private final Date uploadDate;
     @JsonIgnore
     private final InputStream inputStream;
 
     public PackageInfo(String id, String fileName, String md5, long size, String userId, String versionId, InputStream inputStream) {
+        this(id, fileName, md5, size, userId, versionId, null, inputStream);
+    }
+
+    @PersistenceConstructor
+    public PackageInfo(String id, String fileName, String md5, long size, String userId, String versionId, Date uploadDate, InputStream inputStream) {
         this.id = id;
         this.md5 = md5;
         this.size = size;
         this.fileName = fileName;
         this.userId = userId;
         this.versionId = versionId;
+        this.uploadDate = uploadDate == null ? null : new Date(uploadDate.getTime());
         this.inputStream = inputStream;
     }
 
@@ -82,6 +89,10 @@ public class PackageInfo {
         return versionId;
     }
 
+    public Date getUploadDate() {
+        return uploadDate == null ? null : new Date(uploadDate.getTime());
+    }
+
     public Optional<InputStream> getInputStream() {
         return Optional.ofNullable(inputStream);
     }
@@ -95,6 +106,7 @@ public class PackageInfo {
                 ", fileName='" + fileName + '\'' +
                 ", userId='" + userId + '\'' +
                 ", versionId='" + versionId + '\'' +
+                ", uploadDate=" + uploadDate +
                 ", inputStream=" + inputStream +
                 '}';
     }
@@ -112,6 +124,7 @@ public class PackageInfo {
         if (fileName != null ? !fileName.equals(that.fileName) : that.fileName != null) return false;
         if (userId != null ? !userId.equals(that.userId) : that.userId != null) return false;
         if (versionId != null ? !versionId.equals(that.versionId) : that.versionId != null) return false;
+        if (uploadDate != null ? !uploadDate.equals(that.uploadDate) : that.uploadDate != null) return false;
         return inputStream != null ? inputStream.equals(that.inputStream) : that.inputStream == null;
 
     }
@@ -124,6 +137,7 @@ public class PackageInfo {
         result = 31 * result + (fileName != null ? fileName.hashCode() : 0);
         result = 31 * result + (userId != null ? userId.hashCode() : 0);
         result = 31 * result + (versionId != null ? versionId.hashCode() : 0);
+        result = 31 * result + (uploadDate != null ? uploadDate.hashCode() : 0);
         result = 31 * result + (inputStream != null ? inputStream.hashCode() : 0);
         return result;
     }
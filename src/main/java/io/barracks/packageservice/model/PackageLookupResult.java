@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Optional;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PackageLookupResult {
+
+    private final PackageLookup lookup;
+    private final PackageInfo packageInfo;
+
+    public PackageLookupResult(PackageLookup lookup, Optional<PackageInfo> packageInfo) {
+        this.lookup = lookup;
+        this.packageInfo = packageInfo.orElse(null);
+    }
+
+    public PackageLookup getLookup() {
+        return lookup;
+    }
+
+    public boolean isFound() {
+        return packageInfo != null;
+    }
+
+    @JsonProperty("package")
+    public PackageInfo getPackageInfo() {
+        return packageInfo;
+    }
+
+    @Override
+    public String toString() {
+        return "PackageLookupResult{" +
+                "lookup=" + lookup +
+                ", packageInfo=" + packageInfo +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PackageLookupResult that = (PackageLookupResult) o;
+
+        if (lookup != null ? !lookup.equals(that.lookup) : that.lookup != null) return false;
+        return packageInfo != null ? packageInfo.equals(that.packageInfo) : that.packageInfo == null;
+
+    }
+
+    @Override
+    public int hashCode() {
+        int result = lookup != null ? lookup.hashCode() : 0;
+        result = 31 * result + (packageInfo != null ? packageInfo.hashCode() : 0);
+        return result;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PackageVariant {
+
+    public enum Status {
+        PENDING, READY, SKIPPED
+    }
+
+    private final String packageId;
+    private final String encoding;
+    private final Status status;
+    private final long size;
+    @JsonIgnore
+    private final String contentId;
+
+    public PackageVariant(String packageId, String encoding, Status status, long size, String contentId) {
+        this.packageId = packageId;
+        this.encoding = encoding;
+        this.status = status;
+        this.size = size;
+        this.contentId = contentId;
+    }
+
+    public String getPackageId() {
+        return packageId;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getContentId() {
+        return contentId;
+    }
+
+    @Override
+    public String toString() {
+        return "PackageVariant{" +
+                "packageId='" + packageId + '\'' +
+                ", encoding='" + encoding + '\'' +
+                ", status=" + status +
+                ", size=" + size +
+                ", contentId='" + contentId + '\'' +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PackageVariant that = (PackageVariant) o;
+
+        if (size != that.size) return false;
+        if (packageId != null ? !packageId.equals(that.packageId) : that.packageId != null) return false;
+        if (encoding != null ? !encoding.equals(that.encoding) : that.encoding != null) return false;
+        if (status != that.status) return false;
+        return contentId != null ? contentId.equals(that.contentId) : that.contentId == null;
+
+    }
+
+    @Override
+    public int hashCode() {
+        int result = packageId != null ? packageId.hashCode() : 0;
+        result = 31 * result + (encoding != null ? encoding.hashCode() : 0);
+        result = 31 * result + (status != null ? status.hashCode() : 0);
+        result = 31 * result + (int) (size ^ (size >>> 32));
+        result = 31 * result + (contentId != null ? contentId.hashCode() : 0);
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Date;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ScrubResult {
+
+    public enum Status {
+        VALID, CORRUPT, MISSING, ERROR
+    }
+
+    private final String packageId;
+    private final Status status;
+    private final String expectedMd5;
+    private final String actualMd5;
+    private final Date checkedAt;
+
+    public ScrubResult(String packageId, Status status, String expectedMd5, String actualMd5, Date checkedAt) {
+        this.packageId = packageId;
+        this.status = status;
+        this.expectedMd5 = expectedMd5;
+        this.actualMd5 = actualMd5;
+        this.checkedAt = checkedAt;
+    }
+
+    public String getPackageId() {
+        return packageId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getExpectedMd5() {
+        return expectedMd5;
+    }
+
+    public String getActualMd5() {
+        return actualMd5;
+    }
+
+    public Date getCheckedAt() {
+        return checkedAt;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UploadSession {
+
+    private final String id;
+    private final String userId;
+    private final String versionId;
+    private final String fileName;
+    private final String sha256;
+    private final String signature;
+    private final long partSize;
+    private final Date creationDate;
+    private final Date updateDate;
+    private final List<Part> parts;
+
+    public UploadSession(String id, String userId, String versionId, String fileName, String sha256, String signature, long partSize, Date creationDate, Date updateDate, List<Part> parts) {
+        this.id = id;
+        this.userId = userId;
+        this.versionId = versionId;
+        this.fileName = fileName;
+        this.sha256 = sha256;
+        this.signature = signature;
+        this.partSize = partSize;
+        this.creationDate = creationDate == null ? null : new Date(creationDate.getTime());
+        this.updateDate = updateDate == null ? null : new Date(updateDate.getTime());
+        final List<Part> sorted = new ArrayList<>(parts);
+        sorted.sort(Comparator.comparingInt(Part::getNumber));
+        this.parts = Collections.unmodifiableList(sorted);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getVersionId() {
+        return versionId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public long getPartSize() {
+        return partSize;
+    }
+
+    public Date getCreationDate() {
+        return creationDate == null ? null : new Date(creationDate.getTime());
+    }
+
+    public Date getUpdateDate() {
+        return updateDate == null ? null : new Date(updateDate.getTime());
+    }
+
+    public List<Part> getParts() {
+        return parts;
+    }
+
+    public List<String> getReceivedRanges() {
+        final List<long[]> ranges = new ArrayList<>();
+        for (Part part : parts) {
+            if (part.getLength() == 0) {
+                continue;
+            }
+            final long start = part.getNumber() * partSize;
+            final long end = start + part.getLength() - 1;
+            final long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && last[1] + 1 == start) {
+                last[1] = end;
+            } else {
+                ranges.add(new long[]{start, end});
+            }
+        }
+        return ranges.stream().map(range -> range[0] + "-" + range[1]).collect(Collectors.toList());
+    }
+
+    @Override
+    public String toString() {
+        return "UploadSession{" +
+                "id='" + id + '\'' +
+                ", userId='" + userId + '\'' +
+                ", versionId='" + versionId + '\'' +
+                ", fileName='" + fileName + '\'' +
+                ", sha256='" + sha256 + '\'' +
+                ", signature='" + signature + '\'' +
+                ", partSize=" + partSize +
+                ", creationDate=" + creationDate +
+                ", updateDate=" + updateDate +
+                ", parts=" + parts +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        UploadSession that = (UploadSession) o;
+
+        if (partSize != that.partSize) return false;
+        if (id != null ? !id.equals(that.id) : that.id != null) return false;
+        if (userId != null ? !userId.equals(that.userId) : that.userId != null) return false;
+        if (versionId != null ? !versionId.equals(that.versionId) : that.versionId != null) return false;
+        if (fileName != null ? !fileName.equals(that.fileName) : that.fileName != null) return false;
+        if (sha256 != null ? !sha256.equals(that.sha256) : that.sha256 != null) return false;
+        if (signature != null ? !signature.equals(that.signature) : that.signature != null) return false;
+        if (creationDate != null ? !creationDate.equals(that.creationDate) : that.creationDate != null) return false;
+        if (updateDate != null ? !updateDate.equals(that.updateDate) : that.updateDate != null) return false;
+        return parts.equals(that.parts);
+
+    }
+
+    @Override
+    public int hashCode() {
+        int result = id != null ? id.hashCode() : 0;
+        result = 31 * result + (userId != null ? userId.hashCode() : 0);
+        result = 31 * result + (versionId != null ? versionId.hashCode() : 0);
+        result = 31 * result + (fileName != null ? fileName.hashCode() : 0);
+        result = 31 * result + (sha256 != null ? sha256.hashCode() : 0);
+        result = 31 * result + (signature != null ? signature.hashCode() : 0);
+        result = 31 * result + (int) (partSize ^ (partSize >>> 32));
+        result = 31 * result + (creationDate != null ? creationDate.hashCode() : 0);
+        result = 31 * result + (updateDate != null ? updateDate.hashCode() : 0);
+        result = 31 * result + parts.hashCode();
+        return result;
+    }
+
+    public static class Part {
+        private final int number;
+        private final long length;
+        @JsonIgnore
+        private final String contentId;
+
+        public Part(int number, long length, String contentId) {
+            this.number = number;
+            this.length = length;
+            this.contentId = contentId;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getContentId() {
+            return contentId;
+        }
+
+        @Override
+        public String toString() {
+            return "Part{" +
+                    "number=" + number +
+                    ", length=" + length +
+                    ", contentId='" + contentId + '\'' +
+                    '}';
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Part part = (Part) o;
+
+            if (number != part.number) return false;
+            if (length != part.length) return false;
+            return contentId != null ? contentId.equals(part.contentId) : part.contentId == null;
+
+        }
+
+        @Override
+        public int hashCode() {
+            int result = number;
+            result = 31 * result + (int) (length ^ (length >>> 32));
+            result = 31 * result + (contentId != null ? contentId.hashCode() : 0);
+            return result;
+        }
+    }
+}
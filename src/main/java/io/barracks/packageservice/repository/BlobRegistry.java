@@ -0,0 +1,292 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.google.common.hash.HashingInputStream;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.DuplicateKeyException;
+import org.bson.types.ObjectId;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.function.ToLongFunction;
+
+/**
+ * Content-addressed blob registry, blobs are shared by every package whose content has the same SHA-256 and removed
+ * from the {@link PackageStore} once their last reference is released.
+ * <p>
+ * A blob record is inserted as pending before its content is written, and a blob is abandoned, its SHA-256 replaced by
+ * a placeholder so that the same content can be registered again, before its content is deleted and its record removed.
+ * The contents left behind by an interrupted upload or release therefore always have a record, which
+ * {@link #reclaim(Date, ToLongFunction, int)} finds once it is older than the given cutoff.
+ */
+class BlobRegistry {
+    static final String SHA256_KEY = "sha256";
+    static final String MD5_KEY = "md5";
+    static final String REF_COUNT_KEY = "refCount";
+    static final String PENDING_SINCE_KEY = "pendingSince";
+    static final String ABANDONED_AT_KEY = "abandonedAt";
+    static final String ACQUIRED_AT_KEY = "acquiredAt";
+    static final String RECONCILED_KEY = "reconciled";
+    static final int MAX_INSERT_ATTEMPTS = 3;
+
+    private final DBCollection blobs;
+    private final PackageStore packageStore;
+    private final ContentHasher contentHasher;
+
+    BlobRegistry(DBCollection blobs, PackageStore packageStore, ContentHasher contentHasher) {
+        this.blobs = blobs;
+        this.packageStore = packageStore;
+        this.contentHasher = contentHasher;
+    }
+
+    Blob store(InputStream inputStream, String sha256) {
+        final String expectedSha256 = sha256 == null ? null : sha256.toLowerCase(Locale.ROOT);
+        if (expectedSha256 != null) {
+            final DBObject existing = acquire(expectedSha256);
+            if (existing != null) {
+                final Blob blob = toBlob(existing);
+                try {
+                    final HashingInputStream hashing = new HashingInputStream(Hashing.sha256(), inputStream);
+                    ByteStreams.copy(hashing, ByteStreams.nullOutputStream());
+                    checkDigest(expectedSha256, hashing.hash().toString());
+                } catch (IOException e) {
+                    release(blob.getId());
+                    throw new UncheckedIOException(e);
+                } catch (RuntimeException e) {
+                    release(blob.getId());
+                    throw e;
+                }
+                return blob;
+            }
+        }
+        final ObjectId id = new ObjectId();
+        blobs.insert(new BasicDBObject("_id", id)
+                .append(SHA256_KEY, "pending:" + id.toHexString())
+                .append(REF_COUNT_KEY, 0)
+                .append(PENDING_SINCE_KEY, new Date()));
+        final ContentHasher.HashingStream hashingStream = contentHasher.hash(inputStream);
+        final Blob written;
+        try {
+            final long length = packageStore.write(id.toHexString(), hashingStream);
+            written = new Blob(id, hashingStream.sha256(), hashingStream.md5(), length);
+            if (expectedSha256 != null) {
+                checkDigest(expectedSha256, written.getSha256());
+            }
+        } catch (RuntimeException e) {
+            dispose(id);
+            throw e;
+        }
+        for (int attempt = 1; ; attempt++) {
+            final DBObject existing = acquire(written.getSha256());
+            if (existing != null) {
+                dispose(id);
+                return toBlob(existing);
+            }
+            try {
+                final int registered = blobs.update(
+                        new BasicDBObject("_id", id).append(PENDING_SINCE_KEY, new BasicDBObject("$exists", true)),
+                        new BasicDBObject("$set", new BasicDBObject(SHA256_KEY, written.getSha256())
+                                .append(MD5_KEY, written.getMd5())
+                                .append(PackageRepository.LENGTH_KEY, written.getLength())
+                                .append(REF_COUNT_KEY, 1)
+                                .append(ACQUIRED_AT_KEY, new Date()))
+                                .append("$unset", new BasicDBObject(PENDING_SINCE_KEY, ""))
+                ).getN();
+                if (registered == 0) {
+                    // the upload outlived the reclaim cutoff and its pending record was abandoned meanwhile
+                    dispose(id);
+                    throw new ConcurrencyFailureException("Blob " + id + " was reclaimed before it was registered");
+                }
+                return written;
+            } catch (DuplicateKeyException e) {
+                // the same content was registered since it was looked up
+                if (attempt == MAX_INSERT_ATTEMPTS) {
+                    dispose(id);
+                    throw new ConcurrencyFailureException("Failed to register blob " + written.getSha256(), e);
+                }
+            }
+        }
+    }
+
+    void release(Object blobId) {
+        final DBObject blob = blobs.findAndModify(
+                new BasicDBObject("_id", blobId), null, null, false,
+                new BasicDBObject("$inc", new BasicDBObject(REF_COUNT_KEY, -1)), true, false
+        );
+        if (blob != null && ((Number) blob.get(REF_COUNT_KEY)).intValue() <= 0
+                && abandon(blobId, new BasicDBObject(REF_COUNT_KEY, new BasicDBObject("$lte", 0)))) {
+            dispose(blobId);
+        }
+    }
+
+    /**
+     * Removes the blobs left behind by interrupted uploads and releases, and corrects the reference count of the blobs
+     * last acquired before the cutoff with the number of records referencing them, removing the unreferenced ones.
+     * The cutoff must be older than the start of any upload still running. Each blob is only counted once after it
+     * was last acquired, at most maxReconciled of them per call.
+     *
+     * @return the number of removed blobs
+     */
+    int reclaim(Date cutoff, ToLongFunction<Object> references, int maxReconciled) {
+        int reclaimed = 0;
+        final DBObject stale = new BasicDBObject(PENDING_SINCE_KEY, new BasicDBObject("$lt", cutoff));
+        try (DBCursor cursor = blobs.find(stale, new BasicDBObject("_id", 1))) {
+            for (DBObject blob : cursor) {
+                if (abandon(blob.get("_id"), stale)) {
+                    dispose(blob.get("_id"));
+                    reclaimed++;
+                }
+            }
+        }
+        try (DBCursor cursor = blobs.find(new BasicDBObject(ABANDONED_AT_KEY, new BasicDBObject("$exists", true)), new BasicDBObject("_id", 1))) {
+            for (DBObject blob : cursor) {
+                dispose(blob.get("_id"));
+                reclaimed++;
+            }
+        }
+        final DBObject unreconciled = new BasicDBObject(PENDING_SINCE_KEY, new BasicDBObject("$exists", false))
+                .append(ABANDONED_AT_KEY, new BasicDBObject("$exists", false))
+                .append(RECONCILED_KEY, new BasicDBObject("$exists", false))
+                .append("$or", Arrays.asList(
+                        new BasicDBObject(ACQUIRED_AT_KEY, new BasicDBObject("$lt", cutoff)),
+                        new BasicDBObject(ACQUIRED_AT_KEY, new BasicDBObject("$exists", false))
+                ));
+        try (DBCursor cursor = blobs.find(unreconciled, new BasicDBObject(REF_COUNT_KEY, 1).append(ACQUIRED_AT_KEY, 1)).limit(maxReconciled)) {
+            for (DBObject blob : cursor) {
+                final Object blobId = blob.get("_id");
+                final long count = references.applyAsLong(blobId);
+                // only applies while the blob was neither acquired nor released since it was read
+                final DBObject unchanged = new BasicDBObject(REF_COUNT_KEY, blob.get(REF_COUNT_KEY))
+                        .append(ACQUIRED_AT_KEY, blob.get(ACQUIRED_AT_KEY))
+                        .append(RECONCILED_KEY, new BasicDBObject("$exists", false));
+                if (count == 0) {
+                    if (abandon(blobId, unchanged)) {
+                        dispose(blobId);
+                        reclaimed++;
+                    }
+                } else {
+                    final DBObject query = new BasicDBObject("_id", blobId);
+                    query.putAll(unchanged);
+                    blobs.update(
+                            query,
+                            new BasicDBObject("$set", new BasicDBObject(REF_COUNT_KEY, (int) count).append(RECONCILED_KEY, true))
+                    );
+                }
+            }
+        }
+        return reclaimed;
+    }
+
+    private DBObject acquire(String sha256) {
+        final Date now = new Date();
+        final DBObject referenced = blobs.findAndModify(
+                new BasicDBObject(SHA256_KEY, sha256).append(REF_COUNT_KEY, new BasicDBObject("$gt", 0)), null, null, false,
+                new BasicDBObject("$inc", new BasicDBObject(REF_COUNT_KEY, 1))
+                        .append("$set", new BasicDBObject(ACQUIRED_AT_KEY, now))
+                        .append("$unset", new BasicDBObject(RECONCILED_KEY, "")),
+                true, false
+        );
+        if (referenced != null) {
+            return referenced;
+        }
+        // a concurrent release only abandons the blob while it has no reference, so reclaiming it keeps its content
+        return blobs.findAndModify(
+                new BasicDBObject(SHA256_KEY, sha256).append(REF_COUNT_KEY, new BasicDBObject("$lte", 0)), null, null, false,
+                new BasicDBObject("$set", new BasicDBObject(REF_COUNT_KEY, 1).append(ACQUIRED_AT_KEY, now))
+                        .append("$unset", new BasicDBObject(RECONCILED_KEY, "")),
+                true, false
+        );
+    }
+
+    private boolean abandon(Object blobId, DBObject condition) {
+        final DBObject query = new BasicDBObject("_id", blobId);
+        query.putAll(condition);
+        return blobs.update(query, new BasicDBObject("$set", new BasicDBObject(SHA256_KEY, "abandoned:" + blobId)
+                .append(ABANDONED_AT_KEY, new Date()))
+                .append("$unset", new BasicDBObject(PENDING_SINCE_KEY, ""))
+        ).getN() > 0;
+    }
+
+    private void dispose(Object blobId) {
+        packageStore.delete(blobId.toString());
+        blobs.remove(new BasicDBObject("_id", blobId));
+    }
+
+    private void checkDigest(String expectedSha256, String actualSha256) {
+        if (!expectedSha256.equals(actualSha256)) {
+            throw new DataIntegrityViolationException("Content SHA-256 is " + actualSha256 + " but " + expectedSha256 + " was expected");
+        }
+    }
+
+    private Blob toBlob(DBObject blob) {
+        return new Blob(
+                blob.get("_id"),
+                (String) blob.get(SHA256_KEY),
+                (String) blob.get(MD5_KEY),
+                ((Number) blob.get(PackageRepository.LENGTH_KEY)).longValue()
+        );
+    }
+
+    static class Blob {
+        private final Object id;
+        private final String sha256;
+        private final String md5;
+        private final long length;
+
+        Blob(Object id, String sha256, String md5, long length) {
+            this.id = id;
+            this.sha256 = sha256;
+            this.md5 = md5;
+            this.length = length;
+        }
+
+        Object getId() {
+            return id;
+        }
+
+        String getSha256() {
+            return sha256;
+        }
+
+        String getMd5() {
+            return md5;
+        }
+
+        long getLength() {
+            return length;
+        }
+    }
+}
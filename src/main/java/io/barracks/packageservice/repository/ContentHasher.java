@@ -0,0 +1,193 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Computes the SHA-256 and MD5 of uploaded content on a separate thread, so that digests of a buffer are computed while
+ * the next buffer is read and written to the store.
+ */
+@Component
+public class ContentHasher {
+    static final int BUFFER_COUNT = 3;
+
+    private final int bufferSize;
+    private final ExecutorService executor;
+
+    @Autowired
+    public ContentHasher(
+            @Value("${io.barracks.packageservice.upload.hashing.bufferSize}") int bufferSize,
+            @Value("${io.barracks.packageservice.upload.hashing.threads}") int threads) {
+        this(
+                bufferSize,
+                threads > 0 ? Executors.newFixedThreadPool(
+                        threads,
+                        new ThreadFactoryBuilder().setNameFormat("upload-hash-%d").setDaemon(true).build()
+                ) : null
+        );
+    }
+
+    ContentHasher(int bufferSize, ExecutorService executor) {
+        this.bufferSize = bufferSize;
+        this.executor = executor;
+    }
+
+    public HashingStream hash(InputStream inputStream) {
+        return new HashingStream(inputStream);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public class HashingStream extends InputStream {
+        private final InputStream source;
+        private final MessageDigest sha256 = newDigest("SHA-256");
+        private final MessageDigest md5 = newDigest("MD5");
+        private final byte[][] buffers = new byte[BUFFER_COUNT][bufferSize];
+        @SuppressWarnings("unchecked")
+        private final CompletableFuture<Void>[] hashed = new CompletableFuture[BUFFER_COUNT];
+        private CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+        private int current = -1;
+        private int position;
+        private int limit;
+        private boolean eof;
+
+        private HashingStream(InputStream source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buffers[current][position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int count = Math.min(len, limit - position);
+            System.arraycopy(buffers[current], position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+
+        public String sha256() {
+            await(last);
+            return BaseEncoding.base16().lowerCase().encode(sha256.digest());
+        }
+
+        public String md5() {
+            await(last);
+            return BaseEncoding.base16().lowerCase().encode(md5.digest());
+        }
+
+        private boolean fill() throws IOException {
+            if (position < limit) {
+                return true;
+            }
+            if (eof) {
+                return false;
+            }
+            final int next = (current + 1) % BUFFER_COUNT;
+            if (hashed[next] != null) {
+                await(hashed[next]);
+            }
+            final byte[] buffer = buffers[next];
+            final int read = ByteStreams.read(source, buffer, 0, bufferSize);
+            if (read < bufferSize) {
+                eof = true;
+            }
+            if (read == 0) {
+                return false;
+            }
+            final Runnable update = () -> {
+                sha256.update(buffer, 0, read);
+                md5.update(buffer, 0, read);
+            };
+            if (executor == null) {
+                update.run();
+            } else {
+                last = last.thenRunAsync(update, executor);
+            }
+            hashed[next] = last;
+            current = next;
+            position = 0;
+            limit = read;
+            return true;
+        }
+
+        private void await(CompletableFuture<Void> future) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.DuplicateKeyException;
+import io.barracks.packageservice.model.PackageDelta;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Optional;
+
+/**
+ * Deltas between two packages, keyed by (fromId, toId). Their content is a derived artifact kept in the
+ * {@link PackageStore} outside of the deduplicated blobs.
+ */
+@Component
+public class DeltaRepository {
+    static final String FROM_ID_KEY = "fromId";
+    static final String TO_ID_KEY = "toId";
+    static final String STATUS_KEY = "status";
+    static final String SIZE_KEY = "size";
+    static final String MD5_KEY = "md5";
+    static final String SHA256_KEY = "sha256";
+    static final String CREATION_DATE_KEY = "creationDate";
+    static final String CONTENT_ID_KEY = "contentId";
+
+    private final DBCollection deltas;
+    private final PackageStore packageStore;
+
+    @Autowired
+    public DeltaRepository(
+            @Value("${io.barracks.packageservice.gridfs.bucket}") String bucket,
+            MongoOperations operations,
+            PackageStore packageStore) {
+        this(operations.getCollection(bucket + ".deltas"), packageStore);
+    }
+
+    DeltaRepository(DBCollection deltas, PackageStore packageStore) {
+        this.deltas = deltas;
+        this.packageStore = packageStore;
+    }
+
+    public Optional<PackageDelta> find(String fromId, String toId) {
+        return Optional.ofNullable(deltas.findOne(key(fromId, toId))).map(this::toDelta);
+    }
+
+    public boolean createPending(String fromId, String toId) {
+        try {
+            deltas.insert(key(fromId, toId)
+                    .append("_id", new ObjectId())
+                    .append(STATUS_KEY, PackageDelta.Status.PENDING.name())
+                    .append(CREATION_DATE_KEY, new Date()));
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Takes over a delta left pending since before the given date, by a generation lost to a restart or a failure.
+     *
+     * @return true if the caller must generate the delta again.
+     */
+    public boolean claimStalePending(String fromId, String toId, Date before) {
+        final DBObject claimed = deltas.findAndModify(
+                key(fromId, toId)
+                        .append(STATUS_KEY, PackageDelta.Status.PENDING.name())
+                        .append(CREATION_DATE_KEY, new BasicDBObject("$lt", before)),
+                new BasicDBObject("$set", new BasicDBObject(CREATION_DATE_KEY, new Date()))
+        );
+        return claimed != null;
+    }
+
+    public Optional<PackageDelta> saveContent(String fromId, String toId, InputStream content, String md5, String sha256) {
+        final String contentId = new ObjectId().toHexString();
+        final long size;
+        try {
+            size = packageStore.write(contentId, content);
+        } catch (RuntimeException e) {
+            packageStore.delete(contentId);
+            throw e;
+        }
+        // a delta generated twice after a stale claim keeps the content of the first generation
+        final DBObject saved = deltas.findAndModify(
+                key(fromId, toId).append(STATUS_KEY, PackageDelta.Status.PENDING.name()), null, null, false,
+                new BasicDBObject("$set", new BasicDBObject(STATUS_KEY, PackageDelta.Status.READY.name())
+                        .append(SIZE_KEY, size)
+                        .append(MD5_KEY, md5)
+                        .append(SHA256_KEY, sha256)
+                        .append(CONTENT_ID_KEY, contentId)),
+                true, false
+        );
+        if (saved == null) {
+            packageStore.delete(contentId);
+            return Optional.empty();
+        }
+        return Optional.of(toDelta(saved));
+    }
+
+    public void markSkipped(String fromId, String toId, long size) {
+        deltas.update(key(fromId, toId), new BasicDBObject("$set", new BasicDBObject(STATUS_KEY, PackageDelta.Status.SKIPPED.name())
+                .append(SIZE_KEY, size)));
+    }
+
+    public void delete(String fromId, String toId) {
+        final DBObject removed = deltas.findAndRemove(key(fromId, toId));
+        if (removed != null && removed.get(CONTENT_ID_KEY) != null) {
+            packageStore.delete((String) removed.get(CONTENT_ID_KEY));
+        }
+    }
+
+    public int deleteCreatedBefore(Date before) {
+        int deleted = 0;
+        final DBObject query = new BasicDBObject(CREATION_DATE_KEY, new BasicDBObject("$lt", before));
+        try (DBCursor cursor = deltas.find(query, new BasicDBObject("_id", 1))) {
+            for (DBObject delta : cursor) {
+                final DBObject removed = deltas.findAndRemove(new BasicDBObject("_id", delta.get("_id")).append(CREATION_DATE_KEY, new BasicDBObject("$lt", before)));
+                if (removed != null) {
+                    if (removed.get(CONTENT_ID_KEY) != null) {
+                        packageStore.delete((String) removed.get(CONTENT_ID_KEY));
+                    }
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    public InputStream getContent(PackageDelta delta) {
+        return packageStore.read(delta.getContentId(), 0, delta.getSize());
+    }
+
+    private BasicDBObject key(String fromId, String toId) {
+        return new BasicDBObject(FROM_ID_KEY, fromId).append(TO_ID_KEY, toId);
+    }
+
+    private PackageDelta toDelta(DBObject delta) {
+        final Number size = (Number) delta.get(SIZE_KEY);
+        return new PackageDelta(
+                (String) delta.get(FROM_ID_KEY),
+                (String) delta.get(TO_ID_KEY),
+                PackageDelta.Status.valueOf((String) delta.get(STATUS_KEY)),
+                size == null ? -1 : size.longValue(),
+                (String) delta.get(MD5_KEY),
+                (String) delta.get(SHA256_KEY),
+                (Date) delta.get(CREATION_DATE_KEY),
+                (String) delta.get(CONTENT_ID_KEY)
+        );
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.google.common.io.ByteStreams;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps package contents as plain files on the local disk so they can be served with sendfile.
+ */
+@Component
+@ConditionalOnProperty(prefix = "io.barracks.packageservice.store", name = "type", havingValue = "filesystem")
+public class FileSystemPackageStore implements PackageStore {
+    private static final Pattern CONTENT_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{3,}");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final boolean fsync;
+
+    @Autowired
+    public FileSystemPackageStore(
+            @Value("${io.barracks.packageservice.store.filesystem.directory}") String directory,
+            @Value("${io.barracks.packageservice.store.filesystem.fsync}") boolean fsync) throws IOException {
+        this.directory = Files.createDirectories(Paths.get(directory));
+        this.fsync = fsync;
+    }
+
+    @Override
+    public long write(String contentId, InputStream inputStream) {
+        final Path target = resolve(contentId);
+        final Path part = target.resolveSibling(target.getFileName() + ".part");
+        try {
+            Files.createDirectories(target.getParent());
+            long length = 0;
+            try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                int read;
+                while ((read = inputStream.read(buffer.array())) != -1) {
+                    buffer.position(0).limit(read);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    length += read;
+                }
+                if (fsync) {
+                    channel.force(true);
+                }
+            }
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+            if (fsync) {
+                try (FileChannel parent = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+                    parent.force(true);
+                }
+            }
+            return length;
+        } catch (IOException e) {
+            deleteQuietly(part);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            deleteQuietly(part);
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream read(String contentId, long offset, long length) {
+        try {
+            final FileChannel channel = FileChannel.open(resolve(contentId), StandardOpenOption.READ);
+            channel.position(offset);
+            return ByteStreams.limit(Channels.newInputStream(channel), length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void delete(String contentId) {
+        try {
+            Files.deleteIfExists(resolve(contentId));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Optional<Path> getLocalPath(String contentId) {
+        final Path path = resolve(contentId);
+        return Files.isRegularFile(path) ? Optional.of(path) : Optional.empty();
+    }
+
+    private Path resolve(String contentId) {
+        if (!CONTENT_ID_PATTERN.matcher(contentId).matches()) {
+            throw new IllegalArgumentException("Invalid content id " + contentId);
+        }
+        return directory.resolve(contentId.substring(contentId.length() - 2)).resolve(contentId);
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // The partial file is overwritten by the next write of the same content id anyway
+        }
+    }
+}
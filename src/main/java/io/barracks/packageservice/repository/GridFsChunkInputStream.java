@@ -0,0 +1,229 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import io.barracks.packageservice.actuator.LatencyHistogram;
+import org.bson.types.Binary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads a byte range of a GridFS file starting at the chunk holding its first byte. Chunks are fetched by windows of
+ * consecutive chunks in a single query, and the next window is fetched in the background while the current one is read.
+ */
+class GridFsChunkInputStream extends InputStream {
+    static final String FILES_ID_KEY = "files_id";
+    static final String CHUNK_NUMBER_KEY = "n";
+    static final String DATA_KEY = "data";
+
+    private final DBCollection chunks;
+    private final Object fileId;
+    private final int chunkSize;
+    private final long end;
+    private final int window;
+    private final Executor prefetchExecutor;
+    private final LatencyHistogram fetchLatency;
+    private long position;
+    private List<byte[]> buffers = Collections.emptyList();
+    private int firstBufferedChunk = -1;
+    private Prefetch prefetch;
+
+    GridFsChunkInputStream(DBCollection chunks, Object fileId, int chunkSize, long offset, long length) {
+        this(chunks, fileId, chunkSize, offset, length, 1, null, null);
+    }
+
+    GridFsChunkInputStream(DBCollection chunks, Object fileId, int chunkSize, long offset, long length, int window, Executor prefetchExecutor, LatencyHistogram fetchLatency) {
+        this.chunks = chunks;
+        this.fileId = fileId;
+        this.chunkSize = chunkSize;
+        this.position = offset;
+        this.end = offset + length;
+        this.window = Math.max(1, window);
+        this.prefetchExecutor = prefetchExecutor;
+        this.fetchLatency = fetchLatency;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= end) {
+            return -1;
+        }
+        final int chunk = (int) (position / chunkSize);
+        final byte[] buffer = getChunk(chunk);
+        final int chunkOffset = (int) (position % chunkSize);
+        final int count = (int) Math.min(Math.min(len, buffer.length - chunkOffset), end - position);
+        if (count <= 0) {
+            throw new IOException("Chunk " + chunk + " of file " + fileId + " is shorter than expected");
+        }
+        System.arraycopy(buffer, chunkOffset, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long skipped = Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        final int chunk = (int) (position / chunkSize);
+        if (position >= end || !isBuffered(chunk)) {
+            return 0;
+        }
+        return (int) Math.max(0, Math.min(buffers.get(chunk - firstBufferedChunk).length - position % chunkSize, end - position));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (prefetch != null) {
+            prefetch.claim();
+            prefetch = null;
+        }
+        buffers = Collections.emptyList();
+        firstBufferedChunk = -1;
+    }
+
+    private boolean isBuffered(int chunk) {
+        return firstBufferedChunk >= 0 && chunk >= firstBufferedChunk && chunk < firstBufferedChunk + buffers.size();
+    }
+
+    private byte[] getChunk(int chunk) throws IOException {
+        if (!isBuffered(chunk)) {
+            buffers = takeWindow(chunk);
+            firstBufferedChunk = chunk;
+            schedulePrefetch(chunk + buffers.size());
+        }
+        return buffers.get(chunk - firstBufferedChunk);
+    }
+
+    private List<byte[]> takeWindow(int first) throws IOException {
+        final Prefetch pending = prefetch;
+        prefetch = null;
+        if (pending == null || pending.first != first || pending.claim()) {
+            return fetchWindow(first);
+        }
+        try {
+            return pending.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading chunk " + first + " of file " + fileId, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void schedulePrefetch(int first) {
+        if (prefetchExecutor == null || (long) first * chunkSize >= end) {
+            return;
+        }
+        final Prefetch next = new Prefetch(first);
+        try {
+            prefetchExecutor.execute(() -> {
+                if (next.claim()) {
+                    try {
+                        next.result.complete(fetchWindow(first));
+                    } catch (IOException | RuntimeException e) {
+                        next.result.completeExceptionally(e);
+                    }
+                }
+            });
+            prefetch = next;
+        } catch (RejectedExecutionException e) {
+            prefetch = null;
+        }
+    }
+
+    private List<byte[]> fetchWindow(int first) throws IOException {
+        final int last = (int) ((end - 1) / chunkSize);
+        final int count = Math.min(window, last - first + 1);
+        final List<byte[]> result = new ArrayList<>(count);
+        final long start = System.nanoTime();
+        final DBObject query = new BasicDBObject(FILES_ID_KEY, fileId)
+                .append(CHUNK_NUMBER_KEY, new BasicDBObject("$gte", first).append("$lt", first + count));
+        try (DBCursor cursor = chunks.find(query, new BasicDBObject(CHUNK_NUMBER_KEY, 1).append(DATA_KEY, 1))
+                .sort(new BasicDBObject(CHUNK_NUMBER_KEY, 1))
+                .batchSize(count)) {
+            for (DBObject document : cursor) {
+                if (((Number) document.get(CHUNK_NUMBER_KEY)).intValue() != first + result.size()) {
+                    break;
+                }
+                final Object data = document.get(DATA_KEY);
+                result.add(data instanceof Binary ? ((Binary) data).getData() : (byte[]) data);
+            }
+        }
+        if (fetchLatency != null) {
+            fetchLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (result.isEmpty()) {
+            throw new IOException("Chunk " + first + " of file " + fileId + " is missing");
+        }
+        return result;
+    }
+
+    private static class Prefetch {
+        private final int first;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CompletableFuture<List<byte[]>> result = new CompletableFuture<>();
+
+        private Prefetch(int first) {
+            this.first = first;
+        }
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
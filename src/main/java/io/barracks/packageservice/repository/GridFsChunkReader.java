@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.DBCollection;
+import io.barracks.packageservice.actuator.LatencyHistogram;
+import io.barracks.packageservice.actuator.PackageMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@Component
+public class GridFsChunkReader {
+    static final String FETCH_TIMER = "gridfs.chunkFetch";
+
+    private final DBCollection chunks;
+    private final int window;
+    private final ExecutorService prefetchExecutor;
+    private final LatencyHistogram fetchLatency;
+
+    @Autowired
+    public GridFsChunkReader(
+            @Value("${io.barracks.packageservice.gridfs.bucket}") String bucket,
+            MongoOperations operations,
+            @Value("${io.barracks.packageservice.gridfs.prefetch.window}") int window,
+            @Value("${io.barracks.packageservice.gridfs.prefetch.threads}") int threads,
+            PackageMetrics packageMetrics) {
+        this(
+                operations.getCollection(bucket + ".chunks"),
+                window,
+                threads > 0 && window > 1 ? Executors.newFixedThreadPool(
+                        threads,
+                        new ThreadFactoryBuilder().setNameFormat("gridfs-prefetch-%d").setDaemon(true).build()
+                ) : null,
+                packageMetrics.timer(FETCH_TIMER)
+        );
+    }
+
+    GridFsChunkReader(DBCollection chunks, int window, ExecutorService prefetchExecutor) {
+        this(chunks, window, prefetchExecutor, new LatencyHistogram(1, TimeUnit.MINUTES));
+    }
+
+    GridFsChunkReader(DBCollection chunks, int window, ExecutorService prefetchExecutor, LatencyHistogram fetchLatency) {
+        this.chunks = chunks;
+        this.window = window;
+        this.prefetchExecutor = prefetchExecutor;
+        this.fetchLatency = fetchLatency;
+    }
+
+    public InputStream read(Object filesId, int chunkSize, long offset, long length) {
+        return new GridFsChunkInputStream(chunks, filesId, chunkSize, offset, length, window, prefetchExecutor, fetchLatency);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+        }
+    }
+}
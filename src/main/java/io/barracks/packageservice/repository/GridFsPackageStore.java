@@ -0,0 +1,131 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.google.common.io.ByteStreams;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import com.mongodb.gridfs.GridFS;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@Component
+@ConditionalOnProperty(prefix = "io.barracks.packageservice.store", name = "type", havingValue = "gridfs", matchIfMissing = true)
+public class GridFsPackageStore implements PackageStore {
+    private final DBCollection chunks;
+    private final int chunkSize;
+    private final GridFsChunkReader chunkReader;
+    private final int batchSize;
+    private final WriteConcern writeConcern;
+
+    @Autowired
+    public GridFsPackageStore(
+            @Value("${io.barracks.packageservice.gridfs.bucket}") String bucket,
+            MongoOperations operations,
+            GridFsChunkReader chunkReader,
+            @Value("${io.barracks.packageservice.gridfs.write.batchSize}") int batchSize,
+            @Value("${io.barracks.packageservice.gridfs.write.concern}") String writeConcern) {
+        this(operations.getCollection(bucket + ".chunks"), GridFS.DEFAULT_CHUNKSIZE, chunkReader, batchSize, toWriteConcern(writeConcern));
+    }
+
+    GridFsPackageStore(DBCollection chunks, int chunkSize, GridFsChunkReader chunkReader) {
+        this(chunks, chunkSize, chunkReader, 1, WriteConcern.ACKNOWLEDGED);
+    }
+
+    GridFsPackageStore(DBCollection chunks, int chunkSize, GridFsChunkReader chunkReader, int batchSize, WriteConcern writeConcern) {
+        this.chunks = chunks;
+        this.chunkSize = chunkSize;
+        this.chunkReader = chunkReader;
+        this.batchSize = Math.max(1, batchSize);
+        this.writeConcern = writeConcern;
+    }
+
+    @Override
+    public long write(String contentId, InputStream inputStream) {
+        final Object filesId = toFilesId(contentId);
+        final List<DBObject> batch = new ArrayList<>(batchSize);
+        long length = 0;
+        int chunk = 0;
+        try {
+            int read;
+            byte[] buffer = new byte[chunkSize];
+            while ((read = ByteStreams.read(inputStream, buffer, 0, chunkSize)) > 0) {
+                batch.add(new BasicDBObject(GridFsChunkInputStream.FILES_ID_KEY, filesId)
+                        .append(GridFsChunkInputStream.CHUNK_NUMBER_KEY, chunk++)
+                        .append(GridFsChunkInputStream.DATA_KEY, read == chunkSize ? buffer : Arrays.copyOf(buffer, read)));
+                length += read;
+                if (batch.size() == batchSize) {
+                    flush(batch);
+                }
+                buffer = new byte[chunkSize];
+            }
+        } catch (IOException e) {
+            throw new MongoException("couldn't save chunks", e);
+        }
+        flush(batch);
+        return length;
+    }
+
+    @Override
+    public InputStream read(String contentId, long offset, long length) {
+        return chunkReader.read(toFilesId(contentId), chunkSize, offset, length);
+    }
+
+    @Override
+    public void delete(String contentId) {
+        chunks.remove(new BasicDBObject(GridFsChunkInputStream.FILES_ID_KEY, toFilesId(contentId)));
+    }
+
+    private void flush(List<DBObject> batch) {
+        if (!batch.isEmpty()) {
+            chunks.insert(batch, writeConcern);
+            batch.clear();
+        }
+    }
+
+    private Object toFilesId(String contentId) {
+        return ObjectId.isValid(contentId) ? new ObjectId(contentId) : contentId;
+    }
+
+    private static WriteConcern toWriteConcern(String name) {
+        final WriteConcern writeConcern = WriteConcern.valueOf(name);
+        if (writeConcern == null) {
+            throw new IllegalArgumentException("Unknown write concern " + name);
+        }
+        return writeConcern;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.mongodb.MongoClientOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Sizes the Mongo connection pool and its wait queue. Every concurrent download may wait for a connection while it
+ * reads the next chunks, so the wait queue must be at least as large as the number of concurrent downloads or the
+ * driver fails the extra reads instead of queuing them.
+ */
+@Configuration
+public class MongoPoolConfiguration {
+
+    @Value("${io.barracks.packageservice.mongo.connectionsPerHost}")
+    private int connectionsPerHost;
+
+    @Value("${io.barracks.packageservice.mongo.maxWaitQueue}")
+    private int maxWaitQueue;
+
+    @Value("${io.barracks.packageservice.mongo.maxWaitMillis}")
+    private int maxWaitMillis;
+
+    @Bean
+    public MongoClientOptions mongoClientOptions() {
+        return MongoClientOptions.builder()
+                .connectionsPerHost(connectionsPerHost)
+                .threadsAllowedToBlockForConnectionMultiplier(Math.max(1, (maxWaitQueue + connectionsPerHost - 1) / connectionsPerHost))
+                .maxWaitTime(maxWaitMillis)
+                .build();
+    }
+}
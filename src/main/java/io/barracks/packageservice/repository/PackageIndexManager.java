@@ -0,0 +1,184 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.packageservice.repository;
+
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+
+@Component
+public class PackageIndexManager {
+    static final String USER_VERSION_INDEX = "metadata_userId_versionId_idx";
+    static final String PACKAGE_LIST_INDEX = "metadata_userId_versionId_list_idx";
+    static final int MAX_REPORTED_DUPLICATES = 20;
+    static final String CONTENT_INDEX = "metadata_contentId_idx";
+    static final String SHA256_INDEX = "sha256_idx";
+    static final String CHUNK_INDEX = "files_id_1_n_1";
+    static final String DELTA_INDEX = "fromId_toId_idx";
+    static final String VARIANT_INDEX = "packageId_encoding_idx";
+
+    private final MongoOperations operations;
+    private final String filesCollection;
+    private final String blobsCollection;
+    private final String chunksCollection;
+    private final String deltasCollection;
+    private final String variantsCollection;
+
+    @Autowired
+    public PackageIndexManager(
+            @Value("${io.barracks.packageservice.gridfs.bucket}") String bucket,
+            MongoOperations operations) {
+        this.operations = operations;
+        this.filesCollection = bucket + ".files";
+        this.blobsCollection = bucket + ".blobs";
+        this.chunksCollection = bucket + ".chunks";
+        this.deltasCollection = bucket + ".deltas";
+        this.variantsCollection = bucket + ".variants";
+    }
+
+    @PostConstruct
+    public void ensureIndexes() {
+        if (!hasIndex(filesCollection, USER_VERSION_INDEX)) {
+            checkNoDuplicateVersions();
+        }
+        ensureIndex(filesCollection, USER_VERSION_INDEX, new Index()
+                .on("metadata." + PackageRepository.USER_ID_KEY, Sort.Direction.ASC)
+                .on("metadata." + PackageRepository.VERSION_ID_KEY, Sort.Direction.ASC)
+                .unique()
+        );
+        // holds every field of the package list projection, so that listing a user's packages reads the index only
+        ensureIndex(filesCollection, PACKAGE_LIST_INDEX, new Index()
+                .on("metadata." + PackageRepository.USER_ID_KEY, Sort.Direction.ASC)
+                .on("metadata." + PackageRepository.VERSION_ID_KEY, Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .on(BlobRegistry.MD5_KEY, Sort.Direction.ASC)
+                .on("uploadDate", Sort.Direction.ASC)
+                .on("filename", Sort.Direction.ASC)
+                .on(PackageRepository.LENGTH_KEY, Sort.Direction.ASC)
+        );
+        ensureIndex(filesCollection, CONTENT_INDEX, new Index()
+                .on("metadata." + PackageRepository.CONTENT_ID_KEY, Sort.Direction.ASC)
+        );
+        ensureIndex(blobsCollection, SHA256_INDEX, new Index()
+                .on(BlobRegistry.SHA256_KEY, Sort.Direction.ASC)
+                .unique()
+        );
+        ensureIndex(chunksCollection, CHUNK_INDEX, new Index()
+                .on(GridFsChunkInputStream.FILES_ID_KEY, Sort.Direction.ASC)
+                .on(GridFsChunkInputStream.CHUNK_NUMBER_KEY, Sort.Direction.ASC)
+                .unique()
+        );
+        ensureIndex(deltasCollection, DELTA_INDEX, new Index()
+                .on(DeltaRepository.FROM_ID_KEY, Sort.Direction.ASC)
+                .on(DeltaRepository.TO_ID_KEY, Sort.Direction.ASC)
+                .unique()
+        );
+        ensureIndex(variantsCollection, VARIANT_INDEX, new Index()
+                .on(PackageVariantRepository.PACKAGE_ID_KEY, Sort.Direction.ASC)
+                .on(PackageVariantRepository.ENCODING_KEY, Sort.Direction.ASC)
+                .unique()
+        );
+    }
+
+    public List<IndexInfo> getIndexes() {
+        return operations.indexOps(filesCollection).getIndexInfo();
+    }
+
+    public Map<String, Long> getIndexUsage() {
+        final Map<String, Long> usage = new TreeMap<>();
+        final Iterable<DBObject> stats = operations.getCollection(filesCollection)
+                .aggregate(Collections.singletonList(new BasicDBObject("$indexStats", new BasicDBObject())))
+                .results();
+        for (DBObject stat : stats) {
+            final DBObject accesses = (DBObject) stat.get("accesses");
+            usage.put((String) stat.get("name"), ((Number) accesses.get("ops")).longValue());
+        }
+        return usage;
+    }
+
+    public DBObject explainVersionLookup() {
+        final DBObject query = new BasicDBObject("metadata." + PackageRepository.USER_ID_KEY, "")
+                .append("metadata." + PackageRepository.VERSION_ID_KEY, "");
+        final DBObject explain = operations.getCollection(filesCollection).find(query).explain();
+        final DBObject queryPlanner = (DBObject) explain.get("queryPlanner");
+        return queryPlanner == null ? explain : (DBObject) queryPlanner.get("winningPlan");
+    }
+
+    /**
+     * Versions uploaded before the unique index existed may have been stored twice, the index cannot be built until
+     * the extra copies are removed, see the README.
+     */
+    private void checkNoDuplicateVersions() {
+        final List<DBObject> pipeline = Arrays.asList(
+                new BasicDBObject("$group", new BasicDBObject("_id", new BasicDBObject(PackageRepository.USER_ID_KEY, "$metadata." + PackageRepository.USER_ID_KEY)
+                        .append(PackageRepository.VERSION_ID_KEY, "$metadata." + PackageRepository.VERSION_ID_KEY))
+                        .append("count", new BasicDBObject("$sum", 1))),
+                new BasicDBObject("$match", new BasicDBObject("count", new BasicDBObject("$gt", 1))),
+                new BasicDBObject("$limit", MAX_REPORTED_DUPLICATES)
+        );
+        final AggregationOptions options = AggregationOptions.builder()
+                .outputMode(AggregationOptions.OutputMode.CURSOR)
+                .allowDiskUse(true)
+                .build();
+        final List<String> duplicates = new ArrayList<>();
+        try (Cursor cursor = operations.getCollection(filesCollection).aggregate(pipeline, options)) {
+            while (cursor.hasNext()) {
+                final DBObject key = (DBObject) cursor.next().get("_id");
+                duplicates.add(key.get(PackageRepository.USER_ID_KEY) + "/" + key.get(PackageRepository.VERSION_ID_KEY));
+            }
+        }
+        if (!duplicates.isEmpty()) {
+            throw new IllegalStateException("Cannot create index " + USER_VERSION_INDEX + " on " + filesCollection
+                    + ", these user/version pairs are stored more than once (at most " + MAX_REPORTED_DUPLICATES + " listed): " + duplicates
+                    + ". Keep one package per pair, for instance the newest upload, by deleting the others from " + filesCollection
+                    + " as described in the README, then restart the service.");
+        }
+    }
+
+    private boolean hasIndex(String collection, String name) {
+        return operations.indexOps(collection).getIndexInfo().stream().anyMatch(info -> name.equals(info.getName()));
+    }
+
+    private void ensureIndex(String collection, String name, Index index) {
+        try {
+            operations.indexOps(collection).ensureIndex(index.named(name));
+        } catch (DataAccessException | MongoException e) {
+            throw new IllegalStateException("Failed to create index " + name + " on " + collection, e);
+        }
+    }
+}
@@ -24,44 +24,62 @@
 
 package io.barracks.packageservice.repository;
 
+import com.mongodb.AggregationOptions;
 import com.mongodb.BasicDBObject;
-import com.mongodb.gridfs.GridFSDBFile;
-import com.mongodb.gridfs.GridFSFile;
+import com.mongodb.Cursor;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import io.barracks.packageservice.model.PackageFilter;
 import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.PackageLookup;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Sort;
-import org.springframework.data.mongodb.MongoDbFactory;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.aggregation.ProjectionOperation;
 import org.springframework.data.mongodb.core.convert.MongoConverter;
 import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.gridfs.GridFsCriteria;
-import org.springframework.data.mongodb.gridfs.GridFsTemplate;
 import org.springframework.stereotype.Component;
 
-import java.util.Collection;
-import java.util.Optional;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
 
 @Component
 public class PackageRepository {
     static final String USER_ID_KEY = "userId";
     static final String VERSION_ID_KEY = "versionId";
+    static final String LENGTH_KEY = "length";
+    static final String CHUNK_SIZE_KEY = "chunkSize";
+    static final String CONTENT_ID_KEY = "contentId";
+    static final int STREAM_BATCH_SIZE = 100;
 
     private final MongoOperations operations;
-    private final GridFsTemplate gridFsTemplate;
     private final String bucket;
+    private final PackageStore packageStore;
+    private final GridFsChunkReader chunkReader;
+    private final BlobRegistry blobRegistry;
 
     @Autowired
     public PackageRepository(
             @Value("${io.barracks.packageservice.gridfs.bucket}") String bucket,
-            MongoOperations operations, MongoDbFactory factory) {
+            MongoOperations operations,
+            PackageStore packageStore,
+            GridFsChunkReader chunkReader,
+            ContentHasher contentHasher) {
         this.operations = operations;
         this.bucket = bucket;
-        this.gridFsTemplate = new GridFsTemplate(factory, operations.getConverter(), bucket);
+        this.packageStore = packageStore;
+        this.chunkReader = chunkReader;
+        this.blobRegistry = new BlobRegistry(operations.getCollection(bucket + ".blobs"), packageStore, contentHasher);
     }
 
     public Collection<PackageInfo> getAllPackages(String userId) {
@@ -76,59 +94,246 @@ public class PackageRepository {
         Aggregation aggregation = Aggregation.newAggregation(
                 Aggregation.match(Criteria.where("metadata.userId").is(userId)),
                 Aggregation.sort(Sort.Direction.ASC, "metadata.versionId"),
-                Aggregation.project("id", "md5")
-                        .and("metadata.versionId").as("versionId")
-                        .and("metadata.userId").as("userId")
-                        .and("filename").as("fileName")
-                        .and("length").as("size")
+                packageInfoProjection()
         );
         AggregationResults<PackageInfo> results = operations.aggregate(aggregation, bucket + ".files", PackageInfo.class);
         return results.getMappedResults();
     }
 
-    public PackageInfo savePackage(PackageInfo info, String contentType) {
-        final GridFSFile file = gridFsTemplate.store(
-                info.getInputStream().get(),
-                info.getFileName(),
-                contentType,
-                new BasicDBObject(USER_ID_KEY, info.getUserId()).append(VERSION_ID_KEY, info.getVersionId())
+    public List<PackageInfo> getPackages(PackageFilter filter, String afterVersionId, String afterId, int limit) {
+        final Criteria criteria = filterCriteria(filter);
+        if (afterVersionId != null) {
+            criteria.orOperator(
+                    Criteria.where("metadata.versionId").gt(afterVersionId),
+                    Criteria.where("metadata.versionId").is(afterVersionId).and("_id").gt(toFileId(afterId))
+            );
+        }
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.sort(Sort.Direction.ASC, "metadata.versionId", "_id"),
+                Aggregation.limit(limit),
+                packageInfoProjection()
+        );
+        AggregationResults<PackageInfo> results = operations.aggregate(aggregation, bucket + ".files", PackageInfo.class);
+        return results.getMappedResults();
+    }
+
+    public List<PackageInfo> getPackagesAfterId(String afterId, int limit) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(afterId == null ? new Criteria() : Criteria.where("_id").gt(toFileId(afterId))),
+                Aggregation.sort(Sort.Direction.ASC, "_id"),
+                Aggregation.limit(limit),
+                packageInfoProjection()
+        );
+        AggregationResults<PackageInfo> results = operations.aggregate(aggregation, bucket + ".files", PackageInfo.class);
+        return results.getMappedResults();
+    }
+
+    public void streamPackages(PackageFilter filter, Consumer<PackageInfo> consumer) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(filterCriteria(filter)),
+                Aggregation.sort(Sort.Direction.ASC, "metadata.versionId", "_id"),
+                packageInfoProjection()
         );
+        @SuppressWarnings("unchecked")
+        final List<DBObject> pipeline = (List<DBObject>) aggregation.toDbObject(bucket + ".files", Aggregation.DEFAULT_CONTEXT).get("pipeline");
+        final AggregationOptions options = AggregationOptions.builder()
+                .outputMode(AggregationOptions.OutputMode.CURSOR)
+                .batchSize(STREAM_BATCH_SIZE)
+                .build();
+        try (Cursor cursor = operations.getCollection(bucket + ".files").aggregate(pipeline, options)) {
+            while (cursor.hasNext()) {
+                consumer.accept(operations.getConverter().read(PackageInfo.class, cursor.next()));
+            }
+        }
+    }
+
+    public PackageInfo savePackage(PackageInfo info, String contentType) {
+        return savePackage(info, contentType, null);
+    }
+
+    public PackageInfo savePackage(PackageInfo info, String contentType, String sha256) {
+        final BlobRegistry.Blob blob = blobRegistry.store(info.getInputStream().get(), sha256);
+        final ObjectId id = new ObjectId();
+        final Date uploadDate = new Date();
+        final DBObject metadata = new BasicDBObject(USER_ID_KEY, info.getUserId())
+                .append(VERSION_ID_KEY, info.getVersionId())
+                .append(BlobRegistry.SHA256_KEY, blob.getSha256())
+                .append(CONTENT_ID_KEY, blob.getId());
+        try {
+            operations.getCollection(bucket + ".files").insert(new BasicDBObject("_id", id)
+                    .append("filename", info.getFileName())
+                    .append("contentType", contentType)
+                    .append(LENGTH_KEY, blob.getLength())
+                    .append("uploadDate", uploadDate)
+                    .append(BlobRegistry.MD5_KEY, blob.getMd5())
+                    .append("metadata", metadata));
+        } catch (com.mongodb.DuplicateKeyException e) {
+            blobRegistry.release(blob.getId());
+            throw new DuplicateKeyException("Version " + info.getVersionId() + " already exists for user " + info.getUserId(), e);
+        } catch (MongoException e) {
+            blobRegistry.release(blob.getId());
+            throw e;
+        }
         return new PackageInfo(
-                file.getId().toString(),
-                file.getFilename(),
-                file.getMD5(),
-                file.getLength(),
-                (String) file.getMetaData().get(USER_ID_KEY),
-                (String) file.getMetaData().get(VERSION_ID_KEY),
+                id.toString(),
+                info.getFileName(),
+                blob.getMd5(),
+                blob.getLength(),
+                info.getUserId(),
+                info.getVersionId(),
+                uploadDate,
                 null
         );
     }
 
+    /**
+     * Removes the stored contents that no package references anymore, left behind by interrupted uploads. The cutoff
+     * must be older than the start of any upload still running.
+     *
+     * @return the number of removed contents
+     */
+    public int reclaimOrphanedContents(Date cutoff, int maxReconciled) {
+        final DBCollection files = operations.getCollection(bucket + ".files");
+        return blobRegistry.reclaim(
+                cutoff,
+                contentId -> files.count(new BasicDBObject("metadata." + CONTENT_ID_KEY, contentId)),
+                maxReconciled
+        );
+    }
+
     public Optional<PackageInfo> findByUserIdAndVersionId(String userId, String versionId) {
-        final GridFSDBFile file = gridFsTemplate.findOne(Query.query(GridFsCriteria.whereMetaData().is(new BasicDBObject(USER_ID_KEY, userId).append(VERSION_ID_KEY, versionId))));
-        return fileToPackageInfo(file);
+        return findOne(Criteria.where("metadata." + USER_ID_KEY).is(userId).and("metadata." + VERSION_ID_KEY).is(versionId));
     }
 
     public Optional<PackageInfo> findById(String id) {
-        final GridFSDBFile file = gridFsTemplate.findOne(Query.query(GridFsCriteria.where("_id").is(id)));
-        return fileToPackageInfo(file);
-    }
-
-
-    private Optional<PackageInfo> fileToPackageInfo(GridFSDBFile file) {
-        PackageInfo info = null;
-        if (file != null) {
-            info = new PackageInfo(
-                    file.getId().toString(),
-                    file.getFilename(),
-                    file.getMD5(),
-                    file.getLength(),
-                    file.getMetaData().get(USER_ID_KEY).toString(),
-                    file.getMetaData().get(VERSION_ID_KEY).toString(),
-                    file.getInputStream()
-            );
+        return findOne(Criteria.where("_id").is(toFileId(id)));
+    }
+
+    public List<PackageInfo> findAll(Collection<PackageLookup> lookups) {
+        final Set<Object> ids = new LinkedHashSet<>();
+        final Map<String, Set<String>> versionsByUser = new LinkedHashMap<>();
+        for (PackageLookup lookup : lookups) {
+            if (lookup.isById()) {
+                ids.add(toFileId(lookup.getId()));
+            } else {
+                versionsByUser.computeIfAbsent(lookup.getUserId(), userId -> new LinkedHashSet<>()).add(lookup.getVersionId());
+            }
+        }
+        final List<Criteria> criteria = new ArrayList<>();
+        if (!ids.isEmpty()) {
+            criteria.add(Criteria.where("_id").in(ids));
         }
-        return Optional.ofNullable(info);
+        versionsByUser.forEach((userId, versionIds) -> criteria.add(
+                Criteria.where("metadata." + USER_ID_KEY).is(userId).and("metadata." + VERSION_ID_KEY).in(versionIds)
+        ));
+        if (criteria.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria.size() == 1 ? criteria.get(0) : new Criteria().orOperator(criteria.toArray(new Criteria[criteria.size()]))),
+                packageInfoProjection()
+        );
+        AggregationResults<PackageInfo> results = operations.aggregate(aggregation, bucket + ".files", PackageInfo.class);
+        return results.getMappedResults();
+    }
+
+    /**
+     * Returns the id of the stored content of each package, packages saved before contents were shared have none.
+     */
+    public Map<String, String> getContentIds(Collection<String> packageIds) {
+        final Map<String, String> contentIds = new HashMap<>();
+        final List<Object> ids = new ArrayList<>();
+        packageIds.forEach(id -> ids.add(toFileId(id)));
+        try (DBCursor cursor = operations.getCollection(bucket + ".files").find(
+                new BasicDBObject("_id", new BasicDBObject("$in", ids)),
+                new BasicDBObject("metadata." + CONTENT_ID_KEY, 1))) {
+            for (DBObject file : cursor) {
+                getContentId(file).ifPresent(contentId -> contentIds.put(file.get("_id").toString(), contentId));
+            }
+        }
+        return contentIds;
+    }
+
+    public Optional<InputStream> getPackageContent(String id, long offset, long length) {
+        final DBObject file = operations.getCollection(bucket + ".files").findOne(new BasicDBObject("_id", toFileId(id)));
+        if (file == null) {
+            return Optional.empty();
+        }
+        final long fileLength = ((Number) file.get(LENGTH_KEY)).longValue();
+        final long start = Math.min(offset, fileLength);
+        final long count = Math.min(length, fileLength - start);
+        final Optional<String> contentId = getContentId(file);
+        if (contentId.isPresent()) {
+            return Optional.of(packageStore.read(contentId.get(), start, count));
+        }
+        return Optional.of(chunkReader.read(
+                file.get("_id"),
+                ((Number) file.get(CHUNK_SIZE_KEY)).intValue(),
+                start,
+                count
+        ));
+    }
+
+    public Optional<Path> getLocalContentPath(String id) {
+        final DBObject file = operations.getCollection(bucket + ".files").findOne(new BasicDBObject("_id", toFileId(id)));
+        if (file == null) {
+            return Optional.empty();
+        }
+        return getContentId(file).flatMap(packageStore::getLocalPath);
+    }
+
+    private Optional<String> getContentId(DBObject file) {
+        final DBObject metadata = (DBObject) file.get("metadata");
+        return Optional.ofNullable(metadata == null ? null : metadata.get(CONTENT_ID_KEY)).map(Object::toString);
+    }
+
+    private Object toFileId(String id) {
+        return ObjectId.isValid(id) ? new ObjectId(id) : id;
+    }
+
+    private Criteria filterCriteria(PackageFilter filter) {
+        final Criteria criteria = Criteria.where("metadata.userId").is(filter.getUserId());
+        filter.getVersionIdPrefix().ifPresent(prefix -> {
+            // a range, unlike a regular expression, bounds the scan of the user and version id index
+            final Criteria versionId = criteria.and("metadata.versionId").gte(prefix);
+            prefixUpperBound(prefix).ifPresent(versionId::lt);
+        });
+        filter.getUploadedAfter().ifPresent(date -> criteria.and("uploadDate").gt(date));
+        return criteria;
+    }
+
+    /**
+     * Returns the smallest string greater than every string starting with the prefix, Mongo compares strings by their
+     * UTF-8 bytes which sort like their code points.
+     */
+    static Optional<String> prefixUpperBound(String prefix) {
+        final int[] codePoints = prefix.codePoints().toArray();
+        for (int i = codePoints.length - 1; i >= 0; i--) {
+            if (codePoints[i] < Character.MAX_CODE_POINT) {
+                final int next = codePoints[i] == Character.MIN_SURROGATE - 1 ? Character.MAX_SURROGATE + 1 : codePoints[i] + 1;
+                return Optional.of(new String(codePoints, 0, i) + new String(Character.toChars(next)));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Optional<PackageInfo> findOne(Criteria criteria) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.limit(1),
+                packageInfoProjection()
+        );
+        AggregationResults<PackageInfo> results = operations.aggregate(aggregation, bucket + ".files", PackageInfo.class);
+        return Optional.ofNullable(results.getUniqueMappedResult());
+    }
+
+    private ProjectionOperation packageInfoProjection() {
+        return Aggregation.project("id", "md5", "uploadDate")
+                .and("metadata.versionId").as("versionId")
+                .and("metadata.userId").as("userId")
+                .and("filename").as("fileName")
+                .and("length").as("size");
     }
 
 }
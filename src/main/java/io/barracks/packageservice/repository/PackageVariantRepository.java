@@ -0,0 +1,162 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DuplicateKeyException;
+import io.barracks.packageservice.model.PackageVariant;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Optional;
+
+/**
+ * Encoded variants of a package, keyed by (packageId, encoding). Like deltas, their content is a derived artifact kept
+ * in the {@link PackageStore} outside of the deduplicated blobs.
+ */
+@Component
+public class PackageVariantRepository {
+    static final String PACKAGE_ID_KEY = "packageId";
+    static final String ENCODING_KEY = "encoding";
+    static final String STATUS_KEY = "status";
+    static final String SIZE_KEY = "size";
+    static final String CONTENT_ID_KEY = "contentId";
+    static final String CREATION_DATE_KEY = "creationDate";
+
+    private final DBCollection variants;
+    private final PackageStore packageStore;
+
+    @Autowired
+    public PackageVariantRepository(
+            @Value("${io.barracks.packageservice.gridfs.bucket}") String bucket,
+            MongoOperations operations,
+            PackageStore packageStore) {
+        this(operations.getCollection(bucket + ".variants"), packageStore);
+    }
+
+    PackageVariantRepository(DBCollection variants, PackageStore packageStore) {
+        this.variants = variants;
+        this.packageStore = packageStore;
+    }
+
+    public Optional<PackageVariant> find(String packageId, String encoding) {
+        return Optional.ofNullable(variants.findOne(key(packageId, encoding))).map(this::toVariant);
+    }
+
+    public boolean createPending(String packageId, String encoding) {
+        try {
+            variants.insert(key(packageId, encoding)
+                    .append("_id", new ObjectId())
+                    .append(STATUS_KEY, PackageVariant.Status.PENDING.name())
+                    .append(CREATION_DATE_KEY, new Date()));
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Takes over a variant left pending since before the given date, or since before creation dates were recorded.
+     *
+     * @return true if the caller must compress the package again.
+     */
+    public boolean claimStalePending(String packageId, String encoding, Date before) {
+        final DBObject claimed = variants.findAndModify(
+                key(packageId, encoding)
+                        .append(STATUS_KEY, PackageVariant.Status.PENDING.name())
+                        .append("$or", Arrays.asList(
+                                new BasicDBObject(CREATION_DATE_KEY, new BasicDBObject("$lt", before)),
+                                new BasicDBObject(CREATION_DATE_KEY, new BasicDBObject("$exists", false))
+                        )),
+                new BasicDBObject("$set", new BasicDBObject(CREATION_DATE_KEY, new Date()))
+        );
+        return claimed != null;
+    }
+
+    public Optional<PackageVariant> saveContent(String packageId, String encoding, InputStream content) {
+        final String contentId = new ObjectId().toHexString();
+        final long size;
+        try {
+            size = packageStore.write(contentId, content);
+        } catch (RuntimeException e) {
+            packageStore.delete(contentId);
+            throw e;
+        }
+        // a variant compressed twice after a stale claim keeps the content of the first compression
+        final DBObject saved = variants.findAndModify(
+                key(packageId, encoding).append(STATUS_KEY, PackageVariant.Status.PENDING.name()), null, null, false,
+                new BasicDBObject("$set", new BasicDBObject(STATUS_KEY, PackageVariant.Status.READY.name())
+                        .append(SIZE_KEY, size)
+                        .append(CONTENT_ID_KEY, contentId)),
+                true, false
+        );
+        if (saved == null) {
+            packageStore.delete(contentId);
+            return Optional.empty();
+        }
+        return Optional.of(toVariant(saved));
+    }
+
+    public void markSkipped(String packageId, String encoding) {
+        variants.update(key(packageId, encoding), new BasicDBObject("$set", new BasicDBObject(STATUS_KEY, PackageVariant.Status.SKIPPED.name())));
+    }
+
+    public void delete(String packageId, String encoding) {
+        final DBObject removed = variants.findAndRemove(key(packageId, encoding));
+        if (removed != null && removed.get(CONTENT_ID_KEY) != null) {
+            packageStore.delete((String) removed.get(CONTENT_ID_KEY));
+        }
+    }
+
+    public InputStream getContent(PackageVariant variant) {
+        return getContent(variant, 0, variant.getSize());
+    }
+
+    public InputStream getContent(PackageVariant variant, long offset, long length) {
+        return packageStore.read(variant.getContentId(), offset, length);
+    }
+
+    private BasicDBObject key(String packageId, String encoding) {
+        return new BasicDBObject(PACKAGE_ID_KEY, packageId).append(ENCODING_KEY, encoding);
+    }
+
+    private PackageVariant toVariant(DBObject variant) {
+        final Number size = (Number) variant.get(SIZE_KEY);
+        return new PackageVariant(
+                (String) variant.get(PACKAGE_ID_KEY),
+                (String) variant.get(ENCODING_KEY),
+                PackageVariant.Status.valueOf((String) variant.get(STATUS_KEY)),
+                size == null ? -1 : size.longValue(),
+                (String) variant.get(CONTENT_ID_KEY)
+        );
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DuplicateKeyException;
+import io.barracks.packageservice.model.ScrubResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Optional;
+
+/**
+ * Progress and results of the integrity scrubber. Results are keyed by package id, next to a single cursor document
+ * holding the id of the last package verified by the current pass. The cursor is leased to one node at a time so that
+ * nodes never scrub the same batch. The results of shared contents are also kept under their content id, so that a
+ * pass only reads each content once.
+ */
+@Component
+public class ScrubRepository {
+    static final String CURSOR_ID = "cursor";
+    static final String LAST_ID_KEY = "lastId";
+    static final String STATUS_KEY = "status";
+    static final String EXPECTED_MD5_KEY = "expectedMd5";
+    static final String ACTUAL_MD5_KEY = "actualMd5";
+    static final String CHECKED_AT_KEY = "checkedAt";
+    static final String OWNER_KEY = "owner";
+    static final String LEASED_UNTIL_KEY = "leasedUntil";
+    static final String PASS_STARTED_AT_KEY = "passStartedAt";
+    static final String CONTENT_PREFIX = "content:";
+
+    private final DBCollection scrub;
+
+    @Autowired
+    public ScrubRepository(
+            @Value("${io.barracks.packageservice.gridfs.bucket}") String bucket,
+            MongoOperations operations) {
+        this(operations.getCollection(bucket + ".scrub"));
+    }
+
+    ScrubRepository(DBCollection scrub) {
+        this.scrub = scrub;
+    }
+
+    public Optional<String> getCursor() {
+        return Optional.ofNullable(scrub.findOne(new BasicDBObject("_id", CURSOR_ID)))
+                .map(cursor -> (String) cursor.get(LAST_ID_KEY));
+    }
+
+    public Optional<Date> getPassStartedAt() {
+        return Optional.ofNullable(scrub.findOne(new BasicDBObject("_id", CURSOR_ID)))
+                .map(cursor -> (Date) cursor.get(PASS_STARTED_AT_KEY));
+    }
+
+    /**
+     * Leases the cursor to {@code owner} for {@code leaseMillis}, or extends its lease. Returns false while another
+     * owner holds an unexpired lease.
+     */
+    public boolean tryLease(String owner, long leaseMillis) {
+        final Date now = new Date();
+        final DBObject query = new BasicDBObject("_id", CURSOR_ID).append("$or", Arrays.asList(
+                new BasicDBObject(OWNER_KEY, owner),
+                new BasicDBObject(LEASED_UNTIL_KEY, new BasicDBObject("$exists", false)),
+                new BasicDBObject(LEASED_UNTIL_KEY, new BasicDBObject("$lt", now))
+        ));
+        final DBObject update = new BasicDBObject("$set", new BasicDBObject(OWNER_KEY, owner).append(LEASED_UNTIL_KEY, new Date(now.getTime() + leaseMillis)))
+                .append("$setOnInsert", new BasicDBObject(PASS_STARTED_AT_KEY, now));
+        try {
+            scrub.update(query, update, true, false);
+            return true;
+        } catch (DuplicateKeyException e) {
+            // the cursor exists and is leased to another owner
+            return false;
+        }
+    }
+
+    public void releaseLease(String owner) {
+        scrub.update(
+                new BasicDBObject("_id", CURSOR_ID).append(OWNER_KEY, owner),
+                new BasicDBObject("$unset", new BasicDBObject(OWNER_KEY, "").append(LEASED_UNTIL_KEY, ""))
+        );
+    }
+
+    /**
+     * Moves the cursor of the pass leased to {@code owner}, a null id starts a new pass. Returns false when the lease
+     * was lost, in which case the cursor is left to the new owner.
+     */
+    public boolean saveCursor(String owner, String lastId) {
+        final DBObject update = lastId == null
+                ? new BasicDBObject("$unset", new BasicDBObject(LAST_ID_KEY, "")).append("$set", new BasicDBObject(PASS_STARTED_AT_KEY, new Date()))
+                : new BasicDBObject("$set", new BasicDBObject(LAST_ID_KEY, lastId));
+        return scrub.update(new BasicDBObject("_id", CURSOR_ID).append(OWNER_KEY, owner), update).getN() > 0;
+    }
+
+    public void saveResult(ScrubResult result) {
+        save(result.getPackageId(), result);
+    }
+
+    public Optional<ScrubResult> findResult(String packageId) {
+        return find(packageId, packageId);
+    }
+
+    public void saveContentResult(String contentId, ScrubResult result) {
+        save(CONTENT_PREFIX + contentId, result);
+    }
+
+    /**
+     * Returns the result of the last check of a shared content, made by a package whose result is copied.
+     */
+    public Optional<ScrubResult> findContentResult(String contentId) {
+        return find(CONTENT_PREFIX + contentId, null);
+    }
+
+    private void save(String id, ScrubResult result) {
+        scrub.save(new BasicDBObject("_id", id)
+                .append(STATUS_KEY, result.getStatus().name())
+                .append(EXPECTED_MD5_KEY, result.getExpectedMd5())
+                .append(ACTUAL_MD5_KEY, result.getActualMd5())
+                .append(CHECKED_AT_KEY, result.getCheckedAt()));
+    }
+
+    private Optional<ScrubResult> find(String id, String packageId) {
+        return Optional.ofNullable(scrub.findOne(new BasicDBObject("_id", id))).map(result -> new ScrubResult(
+                packageId,
+                ScrubResult.Status.valueOf((String) result.get(STATUS_KEY)),
+                (String) result.get(EXPECTED_MD5_KEY),
+                (String) result.get(ACTUAL_MD5_KEY),
+                (Date) result.get(CHECKED_AT_KEY)
+        ));
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.google.common.io.ByteStreams;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import io.barracks.packageservice.model.UploadSession;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.*;
+
+/**
+ * Upload sessions and their parts, every part is kept in the {@link PackageStore} under its own content id until the
+ * session is committed or removed. A session being committed is flagged so that its parts cannot change meanwhile.
+ */
+@Component
+public class UploadSessionRepository {
+    static final String USER_ID_KEY = "userId";
+    static final String VERSION_ID_KEY = "versionId";
+    static final String FILE_NAME_KEY = "fileName";
+    static final String SHA256_KEY = "sha256";
+    static final String SIGNATURE_KEY = "signature";
+    static final String PART_SIZE_KEY = "partSize";
+    static final String CREATION_DATE_KEY = "creationDate";
+    static final String UPDATE_DATE_KEY = "updateDate";
+    static final String PARTS_KEY = "parts";
+    static final String LENGTH_KEY = "length";
+    static final String CONTENT_ID_KEY = "contentId";
+    static final String STATUS_KEY = "status";
+    static final String COMMITTING = "COMMITTING";
+
+    private final DBCollection sessions;
+    private final PackageStore packageStore;
+
+    @Autowired
+    public UploadSessionRepository(
+            @Value("${io.barracks.packageservice.gridfs.bucket}") String bucket,
+            MongoOperations operations,
+            PackageStore packageStore) {
+        this(operations.getCollection(bucket + ".uploads"), packageStore);
+    }
+
+    UploadSessionRepository(DBCollection sessions, PackageStore packageStore) {
+        this.sessions = sessions;
+        this.packageStore = packageStore;
+    }
+
+    public UploadSession createSession(String userId, String versionId, String fileName, String sha256, String signature, long partSize) {
+        final ObjectId id = new ObjectId();
+        final Date now = new Date();
+        sessions.insert(new BasicDBObject("_id", id)
+                .append(USER_ID_KEY, userId)
+                .append(VERSION_ID_KEY, versionId)
+                .append(FILE_NAME_KEY, fileName)
+                .append(SHA256_KEY, sha256)
+                .append(SIGNATURE_KEY, signature)
+                .append(PART_SIZE_KEY, partSize)
+                .append(CREATION_DATE_KEY, now)
+                .append(UPDATE_DATE_KEY, now)
+                .append(PARTS_KEY, new BasicDBObject()));
+        return new UploadSession(id.toHexString(), userId, versionId, fileName, sha256, signature, partSize, now, now, Collections.emptyList());
+    }
+
+    public Optional<UploadSession> findById(String sessionId) {
+        if (!ObjectId.isValid(sessionId)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(sessions.findOne(new ObjectId(sessionId))).map(this::toSession);
+    }
+
+    /**
+     * Stores a part of a session that is not being committed. Returns empty when there is no such session.
+     */
+    public Optional<UploadSession> savePart(String sessionId, int number, InputStream inputStream, long maxLength) {
+        if (!ObjectId.isValid(sessionId)) {
+            return Optional.empty();
+        }
+        final String contentId = sessionId + "_" + number + "_" + new ObjectId().toHexString();
+        final long length;
+        try {
+            length = packageStore.write(contentId, ByteStreams.limit(inputStream, maxLength + 1));
+        } catch (RuntimeException e) {
+            packageStore.delete(contentId);
+            throw e;
+        }
+        if (length > maxLength) {
+            packageStore.delete(contentId);
+            throw new DataIntegrityViolationException("Part " + number + " is larger than " + maxLength + " bytes");
+        }
+        final DBObject previous = sessions.findAndModify(
+                new BasicDBObject("_id", new ObjectId(sessionId)).append(STATUS_KEY, new BasicDBObject("$ne", COMMITTING)), null, null, false,
+                new BasicDBObject("$set", new BasicDBObject(PARTS_KEY + "." + number, new BasicDBObject(LENGTH_KEY, length).append(CONTENT_ID_KEY, contentId))
+                        .append(UPDATE_DATE_KEY, new Date())),
+                false, false
+        );
+        if (previous == null) {
+            packageStore.delete(contentId);
+            return Optional.empty();
+        }
+        final DBObject replaced = (DBObject) ((DBObject) previous.get(PARTS_KEY)).get(Integer.toString(number));
+        if (replaced != null) {
+            packageStore.delete((String) replaced.get(CONTENT_ID_KEY));
+        }
+        return findById(sessionId);
+    }
+
+    /**
+     * Flags a session as being committed and returns its parts, or returns empty when there is no such session or it
+     * is already being committed.
+     */
+    public Optional<UploadSession> startCommit(String sessionId) {
+        if (!ObjectId.isValid(sessionId)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(sessions.findAndModify(
+                new BasicDBObject("_id", new ObjectId(sessionId)).append(STATUS_KEY, new BasicDBObject("$ne", COMMITTING)), null, null, false,
+                new BasicDBObject("$set", new BasicDBObject(STATUS_KEY, COMMITTING).append(UPDATE_DATE_KEY, new Date())),
+                true, false
+        )).map(this::toSession);
+    }
+
+    public void cancelCommit(String sessionId) {
+        sessions.update(new BasicDBObject("_id", new ObjectId(sessionId)), new BasicDBObject("$unset", new BasicDBObject(STATUS_KEY, "")));
+    }
+
+    public InputStream getContent(UploadSession session) {
+        final Iterator<UploadSession.Part> parts = session.getParts().iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return parts.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                final UploadSession.Part part = parts.next();
+                return packageStore.read(part.getContentId(), 0, part.getLength());
+            }
+        });
+    }
+
+    /**
+     * Removes a session that is not being committed and its parts. Returns false when there is no such session or it
+     * is being committed.
+     */
+    public boolean deleteSession(String sessionId) {
+        if (!ObjectId.isValid(sessionId)) {
+            return false;
+        }
+        return remove(new BasicDBObject("_id", new ObjectId(sessionId)).append(STATUS_KEY, new BasicDBObject("$ne", COMMITTING)));
+    }
+
+    /**
+     * Removes a session once it was committed, along with its parts.
+     */
+    public void finishCommit(String sessionId) {
+        remove(new BasicDBObject("_id", new ObjectId(sessionId)).append(STATUS_KEY, COMMITTING));
+    }
+
+    /**
+     * Removes the sessions not updated since the given date, and the sessions whose commit started before the given
+     * commit date, which were left behind by a failed node.
+     */
+    public int deleteSessionsUpdatedBefore(Date date, Date commitStartedBefore) {
+        final List<DBObject> stale = Arrays.asList(
+                new BasicDBObject(STATUS_KEY, new BasicDBObject("$ne", COMMITTING)).append(UPDATE_DATE_KEY, new BasicDBObject("$lt", date)),
+                new BasicDBObject(STATUS_KEY, COMMITTING).append(UPDATE_DATE_KEY, new BasicDBObject("$lt", commitStartedBefore))
+        );
+        final List<Object> staleIds = new ArrayList<>();
+        try (DBCursor cursor = sessions.find(new BasicDBObject("$or", stale), new BasicDBObject("_id", 1))) {
+            for (DBObject session : cursor) {
+                staleIds.add(session.get("_id"));
+            }
+        }
+        int deleted = 0;
+        for (Object staleId : staleIds) {
+            // the session may have been updated, or its commit started, since it was found
+            if (remove(new BasicDBObject("_id", staleId).append("$or", stale))) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private boolean remove(DBObject query) {
+        final DBObject removed = sessions.findAndRemove(query);
+        if (removed == null) {
+            return false;
+        }
+        toSession(removed).getParts().forEach(part -> packageStore.delete(part.getContentId()));
+        return true;
+    }
+
+    private UploadSession toSession(DBObject session) {
+        final List<UploadSession.Part> parts = new ArrayList<>();
+        final DBObject storedParts = (DBObject) session.get(PARTS_KEY);
+        if (storedParts != null) {
+            for (String number : storedParts.keySet()) {
+                final DBObject part = (DBObject) storedParts.get(number);
+                parts.add(new UploadSession.Part(
+                        Integer.parseInt(number),
+                        ((Number) part.get(LENGTH_KEY)).longValue(),
+                        (String) part.get(CONTENT_ID_KEY)
+                ));
+            }
+        }
+        return new UploadSession(
+                session.get("_id").toString(),
+                (String) session.get(USER_ID_KEY),
+                (String) session.get(VERSION_ID_KEY),
+                (String) session.get(FILE_NAME_KEY),
+                (String) session.get(SHA256_KEY),
+                (String) session.get(SIGNATURE_KEY),
+                ((Number) session.get(PART_SIZE_KEY)).longValue(),
+                (Date) session.get(CREATION_DATE_KEY),
+                (Date) session.get(UPDATE_DATE_KEY),
+                parts
+        );
+    }
+}
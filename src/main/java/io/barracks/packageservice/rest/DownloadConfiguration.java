@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Runs streamed downloads on their own pool so slow downloads never hold the container request threads, and the other
+ * streamed responses on a smaller pool so that they never queue behind downloads.
+ */
+@Configuration
+public class DownloadConfiguration extends WebMvcConfigurerAdapter {
+
+    @Value("${io.barracks.packageservice.download.maxConcurrent}")
+    private int maxConcurrent;
+
+    @Value("${io.barracks.packageservice.download.timeoutMillis}")
+    private long timeoutMillis;
+
+    @Value("${io.barracks.packageservice.async.threads}")
+    private int asyncThreads;
+
+    @Value("${io.barracks.packageservice.async.timeoutMillis}")
+    private long asyncTimeoutMillis;
+
+    @Autowired(required = false)
+    @Qualifier("virtualThreadDownloadExecutor")
+    private AsyncTaskExecutor virtualThreadDownloadExecutor;
+
+    @Bean
+    public ThreadPoolTaskExecutor downloadExecutor() {
+        final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxConcurrent);
+        executor.setMaxPoolSize(maxConcurrent);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("download-");
+        return executor;
+    }
+
+    @Bean
+    public DownloadExecution downloadExecution() {
+        return new DownloadExecution(virtualThreadDownloadExecutor != null ? virtualThreadDownloadExecutor : downloadExecutor(), timeoutMillis);
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor asyncExecutor() {
+        final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(asyncThreads);
+        executor.setMaxPoolSize(asyncThreads);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("async-");
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(asyncExecutor());
+        configurer.setDefaultTimeout(asyncTimeoutMillis);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds the number of downloads streamed at the same time. Blocking downloads each hold a thread of the download
+ * executor, unless they run on virtual threads, while non-blocking ones only hold their buffer, so both modes have a
+ * bound of their own.
+ */
+@Component
+public class DownloadSlots implements PublicMetrics {
+    private final int maxConcurrent;
+    private final Semaphore permits;
+
+    @Autowired
+    public DownloadSlots(
+            @Value("${io.barracks.packageservice.download.maxConcurrent}") int maxConcurrent,
+            @Value("${io.barracks.packageservice.download.nonBlocking.enabled}") boolean nonBlocking,
+            @Value("${io.barracks.packageservice.download.nonBlocking.maxConcurrent}") int nonBlockingMaxConcurrent,
+            @Value("${io.barracks.packageservice.virtualThreads.enabled}") boolean virtualThreads,
+            @Value("${io.barracks.packageservice.virtualThreads.maxConcurrentDownloads}") int virtualMaxConcurrent) {
+        this(nonBlocking ? nonBlockingMaxConcurrent : virtualThreads ? virtualMaxConcurrent : maxConcurrent);
+    }
+
+    DownloadSlots(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    public boolean tryAcquire() {
+        return permits.tryAcquire();
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        return Arrays.asList(
+                new Metric<>("downloads.active", maxConcurrent - permits.availablePermits()),
+                new Metric<>("downloads.max", maxConcurrent)
+        );
+    }
+}
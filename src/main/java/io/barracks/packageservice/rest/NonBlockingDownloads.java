@@ -0,0 +1,261 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.barracks.packageservice.actuator.PackageMetrics;
+import io.barracks.packageservice.actuator.TransferMeter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Streams package content with Servlet 3.1 non-blocking writes, so that a download only holds a thread while its next
+ * buffer is read from the package store and never while a slow client drains its socket. The next buffer is only read
+ * once the previous one has been accepted by the container, which propagates backpressure down to the chunk reads.
+ * Every buffer written is reported to a pacer, and a shaped download resumes on a timer instead of holding a thread
+ * while it waits. Reading the content itself still blocks, as the package stores only offer input streams: a thread of
+ * the pool is held for the duration of each read, but never while the client drains its socket.
+ */
+@Component
+public class NonBlockingDownloads {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NonBlockingDownloads.class);
+
+    private final boolean enabled;
+    private final int bufferSize;
+    private final long timeoutMillis;
+    private final ScheduledExecutorService executor;
+    private final TransferMeter downloaded;
+
+    @Autowired
+    public NonBlockingDownloads(
+            @Value("${io.barracks.packageservice.download.nonBlocking.enabled}") boolean enabled,
+            @Value("${io.barracks.packageservice.download.nonBlocking.threads}") int threads,
+            @Value("${io.barracks.packageservice.download.nonBlocking.bufferSize}") int bufferSize,
+            @Value("${io.barracks.packageservice.download.timeoutMillis}") long timeoutMillis,
+            PackageMetrics packageMetrics) {
+        this(
+                enabled,
+                bufferSize,
+                timeoutMillis,
+                Executors.newScheduledThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("download-io-%d").setDaemon(true).build()),
+                packageMetrics.getDownloaded()
+        );
+    }
+
+    NonBlockingDownloads(boolean enabled, int bufferSize, long timeoutMillis, ScheduledExecutorService executor, TransferMeter downloaded) {
+        this.enabled = enabled;
+        this.bufferSize = bufferSize;
+        this.timeoutMillis = timeoutMillis;
+        this.executor = executor;
+        this.downloaded = downloaded;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts streaming the content once the response status and headers are set. The request becomes asynchronous and
+     * the handler must not write the response itself. {@code pace} receives the size of every buffer written and
+     * returns the nanoseconds to wait before the next one. {@code onDone} runs exactly once, when the download
+     * completes, fails or times out.
+     */
+    public void start(HttpServletRequest request, HttpServletResponse response, InputStream content, IntToLongFunction pace, Runnable onDone) {
+        final Transfer transfer = new Transfer(content, bufferSize, executor, executor, downloaded, pace, onDone);
+        try {
+            final AsyncContext asyncContext = request.startAsync(request, response);
+            asyncContext.setTimeout(timeoutMillis);
+            asyncContext.addListener(transfer);
+            transfer.start(asyncContext, response.getOutputStream());
+        } catch (IOException e) {
+            transfer.finish();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            transfer.finish();
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    static class Transfer implements WriteListener, AsyncListener {
+        private final InputStream content;
+        private final byte[] buffer;
+        private final Executor executor;
+        private final ScheduledExecutorService scheduler;
+        private final TransferMeter downloaded;
+        private final IntToLongFunction pace;
+        private final Runnable onDone;
+        private final AtomicInteger scheduled = new AtomicInteger();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private AsyncContext asyncContext;
+        private ServletOutputStream out;
+        private int pending;
+
+        Transfer(InputStream content, int bufferSize, Executor executor, ScheduledExecutorService scheduler, TransferMeter downloaded, IntToLongFunction pace, Runnable onDone) {
+            this.content = content;
+            this.buffer = new byte[bufferSize];
+            this.executor = executor;
+            this.scheduler = scheduler;
+            this.downloaded = downloaded;
+            this.pace = pace;
+            this.onDone = onDone;
+        }
+
+        void start(AsyncContext asyncContext, ServletOutputStream out) {
+            this.asyncContext = asyncContext;
+            this.out = out;
+            out.setWriteListener(this);
+        }
+
+        @Override
+        public void onWritePossible() {
+            // the container thread must not wait for the package store, and a notification received while a pump is
+            // running makes it pump once more instead of being lost
+            if (scheduled.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            fail(t);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            finish();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            LOGGER.warn("Download timed out");
+            finish();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            finish();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        void finish() {
+            if (finished.compareAndSet(false, true)) {
+                try {
+                    content.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to close the downloaded content", e);
+                } finally {
+                    onDone.run();
+                }
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                pump();
+                missed = scheduled.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void pump() {
+            if (finished.get()) {
+                return;
+            }
+            try {
+                while (true) {
+                    if (pending == 0) {
+                        final int read = content.read(buffer);
+                        if (read == -1) {
+                            finish();
+                            asyncContext.complete();
+                            return;
+                        }
+                        pending = read;
+                    }
+                    if (!out.isReady()) {
+                        return;
+                    }
+                    out.write(buffer, 0, pending);
+                    downloaded.mark(pending);
+                    final long waitNanos = pace.applyAsLong(pending);
+                    pending = 0;
+                    if (waitNanos > 0) {
+                        // resumes like a write possible notification, the container sends none after a ready write
+                        scheduler.schedule(this::onWritePossible, waitNanos, TimeUnit.NANOSECONDS);
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable t) {
+            if (!finished.get()) {
+                LOGGER.warn("Download aborted", t);
+            }
+            finish();
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                // already completed by the container
+            }
+        }
+    }
+}
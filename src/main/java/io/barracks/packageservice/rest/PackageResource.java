@@ -24,75 +24,635 @@
 
 package io.barracks.packageservice.rest;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.Closeables;
+import io.barracks.packageservice.actuator.PackageMetrics;
+import io.barracks.packageservice.manager.CompressionManager;
+import io.barracks.packageservice.manager.DeltaManager;
 import io.barracks.packageservice.manager.PackageManager;
+import io.barracks.packageservice.manager.exception.InvalidPackageContentException;
+import io.barracks.packageservice.manager.exception.InvalidPackageDeltaException;
 import io.barracks.packageservice.manager.exception.InvalidPackageVersionException;
 import io.barracks.packageservice.manager.exception.PackageConflictException;
+import io.barracks.packageservice.model.PackageDelta;
+import io.barracks.packageservice.model.PackageFilter;
 import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.PackageLookup;
+import io.barracks.packageservice.model.PackageLookupResult;
+import io.barracks.packageservice.model.PackageVariant;
 import io.barracks.packageservice.repository.PackageRepository;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collection;
-import java.util.Optional;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping(path = "/packages")
 public class PackageResource {
 
     public static final String FILE_KEY = "file";
+    public static final String FILE_NAME_KEY = "fileName";
     public static final String USER_KEY = "userId";
     public static final String VERSION_KEY = "versionId";
+    public static final String LIMIT_KEY = "limit";
+    public static final String AFTER_KEY = "after";
+    public static final String VERSION_PREFIX_KEY = "versionIdPrefix";
+    public static final String UPLOADED_AFTER_KEY = "uploadedAfter";
+    public static final String STREAM_KEY = "stream";
+    public static final String SHA256_KEY = "sha256";
+    public static final String SIGNATURE_KEY = "signature";
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    static final int MAX_LOOKUP_SIZE = 1000;
+    static final char CURSOR_SEPARATOR = '\n';
+    static final String BYTES_UNIT = "bytes";
+    static final int MAX_RANGES = 16;
+    static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    static final long DOWNLOAD_RETRY_AFTER_SECONDS = 5;
+    static final long TRANSFER_RETRY_AFTER_SECONDS = 5;
+    static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+    static final String CHECKSUM_SHA256_HEADER = "X-Checksum-Sha256";
 
     @Autowired
     private PackageManager packageManager;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private DownloadSlots downloadSlots;
+
+    @Autowired
+    private DeltaManager deltaManager;
+
+    @Autowired
+    private CompressionManager compressionManager;
+
+    @Autowired
+    private PackageMetrics packageMetrics;
+
+    @Autowired
+    private TenantLimits tenantLimits;
+
+    @Autowired
+    private NonBlockingDownloads nonBlockingDownloads;
+
+    @Autowired
+    private DownloadExecution downloadExecution;
+
     @RequestMapping(method = RequestMethod.POST)
-    public ResponseEntity<?> uploadPackage(@RequestParam(FILE_KEY) MultipartFile file, @RequestParam(USER_KEY) String userId, @RequestParam(VERSION_KEY) String versionId) {
-        try (final InputStream inputStream = file.getInputStream()) {
-            final PackageInfo packageInfo = packageManager.save(file.getOriginalFilename(), file.getContentType(), inputStream, userId, versionId);
+    public ResponseEntity<?> uploadPackage(@RequestParam(FILE_KEY) MultipartFile file, @RequestParam(USER_KEY) String userId, @RequestParam(VERSION_KEY) String versionId, @RequestParam(value = SHA256_KEY, required = false) String sha256, @RequestParam(value = SIGNATURE_KEY, required = false) String signature) {
+        if (!tenantLimits.tryAcquireTransfer(userId)) {
+            return tooManyRequests(TRANSFER_RETRY_AFTER_SECONDS);
+        }
+        // the container has buffered the whole upload before this point, shaping the copy would not slow the client down
+        try (final InputStream inputStream = tenantLimits.countUpload(userId, file.getInputStream())) {
+            final PackageInfo packageInfo = packageManager.save(file.getOriginalFilename(), file.getContentType(), inputStream, userId, versionId, sha256, signature);
+            return new ResponseEntity<>(packageInfo, HttpStatus.CREATED);
+        } catch (IOException | InvalidPackageVersionException | InvalidPackageContentException exception) {
+            return new ResponseEntity<>(exception.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (PackageConflictException pme) {
+            return new ResponseEntity<>(pme.getMessage(), HttpStatus.CONFLICT);
+        } finally {
+            tenantLimits.releaseTransfer(userId);
+        }
+    }
+
+    @RequestMapping(method = RequestMethod.POST, consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadPackageStream(InputStream inputStream, @RequestParam(FILE_NAME_KEY) String fileName, @RequestParam(USER_KEY) String userId, @RequestParam(VERSION_KEY) String versionId, @RequestParam(value = SHA256_KEY, required = false) String sha256, @RequestParam(value = SIGNATURE_KEY, required = false) String signature) {
+        if (!tenantLimits.tryAcquireTransfer(userId)) {
+            return tooManyRequests(TRANSFER_RETRY_AFTER_SECONDS);
+        }
+        try {
+            final PackageInfo packageInfo = packageManager.save(fileName, MediaType.APPLICATION_OCTET_STREAM_VALUE, tenantLimits.throttleUpload(userId, inputStream), userId, versionId, sha256, signature);
             return new ResponseEntity<>(packageInfo, HttpStatus.CREATED);
-        } catch (IOException | InvalidPackageVersionException exception) {
+        } catch (InvalidPackageVersionException | InvalidPackageContentException exception) {
             return new ResponseEntity<>(exception.getMessage(), HttpStatus.BAD_REQUEST);
         } catch (PackageConflictException pme) {
             return new ResponseEntity<>(pme.getMessage(), HttpStatus.CONFLICT);
+        } finally {
+            tenantLimits.releaseTransfer(userId);
+        }
+    }
+
+    @RequestMapping(method = RequestMethod.POST, path = "/_lookup", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> lookupPackages(@RequestBody List<PackageLookup> lookups) {
+        if (lookups.size() > MAX_LOOKUP_SIZE) {
+            return new ResponseEntity<>("Cannot look up more than " + MAX_LOOKUP_SIZE + " packages at once", HttpStatus.BAD_REQUEST);
         }
+        for (int i = 0; i < lookups.size(); i++) {
+            if (lookups.get(i) == null || !lookups.get(i).isValid()) {
+                return new ResponseEntity<>("Lookup " + i + " must have either an id or a userId and a versionId", HttpStatus.BAD_REQUEST);
+            }
+        }
+        for (String userId : lookups.stream().map(PackageLookup::getUserId).filter(Objects::nonNull).collect(Collectors.toSet())) {
+            final long retryAfter = tenantLimits.tryAcquireRequest(userId);
+            if (retryAfter > 0) {
+                return tooManyRequests(retryAfter);
+            }
+        }
+        final List<PackageLookupResult> results = packageManager.lookup(lookups);
+        return new ResponseEntity<>(results, HttpStatus.OK);
     }
 
     @RequestMapping(method = RequestMethod.GET, path = "/{id}")
-    public ResponseEntity<?> getPackageDetails(@PathVariable("id") String packageId) {
-        final Optional<PackageInfo> packageInfo = packageManager.findById(packageId);
+    public ResponseEntity<?> getPackageDetails(@PathVariable("id") String packageId, @RequestHeader HttpHeaders requestHeaders) {
+        final Optional<PackageInfo> cached = packageManager.findCachedById(packageId);
+        final long retryAfter = acquireRequest(cached);
+        if (retryAfter > 0) {
+            return tooManyRequests(retryAfter);
+        }
+        final Optional<PackageInfo> packageInfo = cached.isPresent() ? cached : packageManager.findById(packageId);
         if (!packageInfo.isPresent()) {
+            tenantLimits.countUnknownRequest();
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
-        } else {
-            return new ResponseEntity<>(packageInfo.get(), HttpStatus.OK);
         }
+        final long loadedRetryAfter = acquireRequest(cached, packageInfo.get());
+        if (loadedRetryAfter > 0) {
+            return tooManyRequests(loadedRetryAfter);
+        }
+        final HttpHeaders httpHeaders = cachingHeaders(packageInfo.get());
+        if (isNotModified(requestHeaders, packageInfo.get())) {
+            return new ResponseEntity<>(httpHeaders, HttpStatus.NOT_MODIFIED);
+        }
+        return new ResponseEntity<>(packageInfo.get(), httpHeaders, HttpStatus.OK);
     }
 
     @RequestMapping(method = RequestMethod.GET, path = "/{id}/file", produces = "application/octet-stream")
-    public ResponseEntity<?> getPackageContent(@PathVariable("id") String packageId) {
+    public ResponseEntity<StreamingResponseBody> getPackageContent(@PathVariable("id") String packageId, @RequestHeader HttpHeaders requestHeaders, HttpServletRequest request, HttpServletResponse response) {
         final Optional<PackageInfo> packageInfo = packageManager.findById(packageId);
         if (!packageInfo.isPresent()) {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
-        } else {
-            InputStreamResource inputStreamResource = new InputStreamResource(packageInfo.get().getInputStream().get());
-            HttpHeaders httpHeaders = new HttpHeaders();
-            httpHeaders.setContentLength(packageInfo.get().getSize());
-            return new ResponseEntity<>(inputStreamResource, httpHeaders, HttpStatus.OK);
+        }
+        final PackageInfo info = packageInfo.get();
+        final HttpHeaders httpHeaders = cachingHeaders(info);
+        httpHeaders.set(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+        httpHeaders.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (isNotModified(requestHeaders, info)) {
+            return withoutBody(response, httpHeaders, HttpStatus.NOT_MODIFIED);
+        }
+        final Optional<PackageVariant> variant = getAcceptedEncoding(requestHeaders)
+                .flatMap(encoding -> compressionManager.findVariant(info, encoding));
+        final String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        if (variant.isPresent() && ifRange != null && ifRange.equals(etag(info, variant.get().getEncoding()))) {
+            // resuming a compressed download, the ranges apply to the compressed bytes
+            final PackageVariant compressed = variant.get();
+            httpHeaders.setETag(etag(info, compressed.getEncoding()));
+            httpHeaders.set(HttpHeaders.CONTENT_ENCODING, compressed.getEncoding());
+            final List<HttpRange> ranges = getRequestedRanges(requestHeaders);
+            if (!ranges.isEmpty()) {
+                return streamRanges(request, response, info, ranges, compressed.getSize(),
+                        (offset, length) -> Optional.of(compressionManager.getVariantContent(compressed, offset, length)),
+                        httpHeaders, false);
+            }
+        }
+        final List<HttpRange> ranges = ifRange == null || ifRange.equals(etag(info)) ? getRequestedRanges(requestHeaders) : Collections.emptyList();
+        if (ranges.isEmpty()) {
+            if (variant.isPresent()) {
+                httpHeaders.setETag(etag(info, variant.get().getEncoding()));
+                httpHeaders.set(HttpHeaders.CONTENT_ENCODING, variant.get().getEncoding());
+                httpHeaders.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+                httpHeaders.setContentLength(variant.get().getSize());
+                return stream(request, response, info.getUserId(), compressionManager.getVariantContent(variant.get()), httpHeaders, HttpStatus.OK);
+            }
+            if (sendFile(request, info, 0, info.getSize())) {
+                httpHeaders.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+                httpHeaders.setContentLength(info.getSize());
+                return withoutBody(response, httpHeaders, HttpStatus.OK);
+            }
+            final Optional<InputStream> content = packageManager.getPackageContent(info, 0, info.getSize());
+            if (!content.isPresent()) {
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            }
+            httpHeaders.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            httpHeaders.setContentLength(info.getSize());
+            return stream(request, response, info.getUserId(), content.get(), httpHeaders, HttpStatus.OK);
+        }
+        return streamRanges(request, response, info, ranges, info.getSize(),
+                (offset, length) -> packageManager.getPackageContent(info, offset, length),
+                httpHeaders, true);
+    }
+
+    @RequestMapping(method = RequestMethod.GET, path = "/{id}/deltas/{fromId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getDelta(@PathVariable("id") String packageId, @PathVariable("fromId") String fromId) {
+        final Optional<PackageInfo> cached = packageManager.findCachedById(packageId);
+        final long retryAfter = acquireRequest(cached);
+        if (retryAfter > 0) {
+            return tooManyRequests(retryAfter);
+        }
+        final Optional<PackageInfo> to = cached.isPresent() ? cached : packageManager.findById(packageId);
+        final Optional<PackageInfo> from = packageManager.findById(fromId);
+        if (!to.isPresent() || !from.isPresent()) {
+            tenantLimits.countUnknownRequest();
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        final long loadedRetryAfter = acquireRequest(cached, to.get());
+        if (loadedRetryAfter > 0) {
+            return tooManyRequests(loadedRetryAfter);
+        }
+        try {
+            return new ResponseEntity<>(deltaManager.requestDelta(from.get(), to.get()), HttpStatus.OK);
+        } catch (InvalidPackageDeltaException exception) {
+            return new ResponseEntity<>(exception.getMessage(), HttpStatus.BAD_REQUEST);
         }
     }
 
+    @RequestMapping(method = RequestMethod.GET, path = "/{id}/deltas/{fromId}/file", produces = "application/octet-stream")
+    public ResponseEntity<StreamingResponseBody> getDeltaContent(@PathVariable("id") String packageId, @PathVariable("fromId") String fromId, HttpServletRequest request, HttpServletResponse response) {
+        final Optional<PackageInfo> to = packageManager.findById(packageId);
+        final Optional<PackageInfo> from = packageManager.findById(fromId);
+        if (!to.isPresent() || !from.isPresent()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        final PackageDelta delta;
+        try {
+            delta = deltaManager.requestDelta(from.get(), to.get());
+        } catch (InvalidPackageDeltaException exception) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        final Optional<InputStream> content = deltaManager.getDeltaContent(delta);
+        final HttpHeaders httpHeaders = new HttpHeaders();
+        if (!content.isPresent()) {
+            httpHeaders.setLocation(ServletUriComponentsBuilder.fromCurrentContextPath()
+                    .path("/packages/{id}/file")
+                    .buildAndExpand(packageId)
+                    .toUri());
+            return withoutBody(response, httpHeaders, HttpStatus.TEMPORARY_REDIRECT);
+        }
+        httpHeaders.setETag("\"" + delta.getMd5() + "\"");
+        httpHeaders.setCacheControl(IMMUTABLE_CACHE_CONTROL);
+        httpHeaders.set(CHECKSUM_SHA256_HEADER, delta.getSha256());
+        httpHeaders.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        httpHeaders.setContentLength(delta.getSize());
+        return stream(request, response, to.get().getUserId(), content.get(), httpHeaders, HttpStatus.OK);
+    }
+
     @RequestMapping(method = RequestMethod.GET, path = "/all", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> getAllPackages(@RequestParam("userId") String userId) {
-        final Collection<PackageInfo> packageInfos = packageManager.getAllPackages(userId);
-        return new ResponseEntity<>(packageInfos, HttpStatus.OK);
+    public ResponseEntity<?> getAllPackages(
+            @RequestParam(USER_KEY) String userId,
+            @RequestParam(value = LIMIT_KEY, required = false) Integer limit,
+            @RequestParam(value = AFTER_KEY, required = false) String after,
+            @RequestParam(value = VERSION_PREFIX_KEY, required = false) String versionIdPrefix,
+            @RequestParam(value = UPLOADED_AFTER_KEY, required = false) String uploadedAfter) {
+        final long retryAfter = tenantLimits.tryAcquireRequest(userId);
+        if (retryAfter > 0) {
+            return tooManyRequests(retryAfter);
+        }
+        if (limit == null && after == null && versionIdPrefix == null && uploadedAfter == null) {
+            final Collection<PackageInfo> packageInfos = packageManager.getAllPackages(userId);
+            return new ResponseEntity<>(packageInfos, HttpStatus.OK);
+        }
+        final Optional<PackageFilter> filter = toFilter(userId, versionIdPrefix, uploadedAfter);
+        if (!filter.isPresent()) {
+            return new ResponseEntity<>("Invalid date " + uploadedAfter, HttpStatus.BAD_REQUEST);
+        }
+        final String[] cursor;
+        try {
+            cursor = after == null ? null : decodeCursor(after);
+        } catch (IllegalArgumentException exception) {
+            return new ResponseEntity<>("Invalid cursor " + after, HttpStatus.BAD_REQUEST);
+        }
+        final int pageSize = Math.max(1, Math.min(limit == null ? DEFAULT_PAGE_SIZE : limit, MAX_PAGE_SIZE));
+        final List<PackageInfo> packageInfos = packageManager.getPackages(
+                filter.get(),
+                cursor == null ? null : cursor[0],
+                cursor == null ? null : cursor[1],
+                pageSize
+        );
+        final HttpHeaders httpHeaders = new HttpHeaders();
+        if (packageInfos.size() == pageSize) {
+            final PackageInfo last = packageInfos.get(packageInfos.size() - 1);
+            final String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam(AFTER_KEY, encodeCursor(last))
+                    .build()
+                    .toUriString();
+            httpHeaders.add(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return new ResponseEntity<>(packageInfos, httpHeaders, HttpStatus.OK);
+    }
+
+    @RequestMapping(method = RequestMethod.GET, path = "/all", params = STREAM_KEY + "=true", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllPackages(
+            @RequestParam(USER_KEY) String userId,
+            @RequestParam(value = VERSION_PREFIX_KEY, required = false) String versionIdPrefix,
+            @RequestParam(value = UPLOADED_AFTER_KEY, required = false) String uploadedAfter,
+            HttpServletResponse response) {
+        final long retryAfter = tenantLimits.tryAcquireRequest(userId);
+        if (retryAfter > 0) {
+            return withoutBody(response, retryAfterHeaders(retryAfter), HttpStatus.TOO_MANY_REQUESTS);
+        }
+        final Optional<PackageFilter> filter = toFilter(userId, versionIdPrefix, uploadedAfter);
+        if (!filter.isPresent()) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        final StreamingResponseBody body = outputStream -> {
+            final JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+            generator.writeStartArray();
+            packageManager.streamPackages(filter.get(), packageInfo -> {
+                try {
+                    generator.writeObject(packageInfo);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+            generator.flush();
+        };
+        return new ResponseEntity<>(body, HttpStatus.OK);
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamRanges(HttpServletRequest request, HttpServletResponse response, PackageInfo info, List<HttpRange> ranges, long size, RangeReader reader, HttpHeaders httpHeaders, boolean sendFileAllowed) {
+        final List<HttpRange> satisfiable = mergeRanges(ranges.stream()
+                .filter(range -> range.getRangeStart(size) < size && range.getRangeStart(size) <= range.getRangeEnd(size))
+                .collect(Collectors.toList()), size);
+        if (satisfiable.isEmpty()) {
+            httpHeaders.set(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + size);
+            return withoutBody(response, httpHeaders, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        }
+        if (satisfiable.size() == 1) {
+            final HttpRange range = satisfiable.get(0);
+            httpHeaders.set(HttpHeaders.CONTENT_RANGE, contentRange(range, size));
+            httpHeaders.setContentLength(range.getRangeEnd(size) - range.getRangeStart(size) + 1);
+            if (sendFileAllowed && sendFile(request, info, range.getRangeStart(size), range.getRangeEnd(size) + 1)) {
+                httpHeaders.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+                return withoutBody(response, httpHeaders, HttpStatus.PARTIAL_CONTENT);
+            }
+            final Optional<InputStream> content = getRangeContent(reader, range, size);
+            if (!content.isPresent()) {
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            }
+            httpHeaders.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            return stream(request, response, info.getUserId(), content.get(), httpHeaders, HttpStatus.PARTIAL_CONTENT);
+        }
+        final String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        final List<InputStream> parts = new ArrayList<>();
+        long contentLength = 0;
+        for (HttpRange range : satisfiable) {
+            final Optional<InputStream> content = getRangeContent(reader, range, size);
+            if (!content.isPresent()) {
+                parts.forEach(Closeables::closeQuietly);
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            }
+            final byte[] partHeader = ((parts.isEmpty() ? "" : "\r\n") + "--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + MediaType.APPLICATION_OCTET_STREAM_VALUE + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range, size) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            parts.add(new ByteArrayInputStream(partHeader));
+            parts.add(content.get());
+            contentLength += partHeader.length + range.getRangeEnd(size) - range.getRangeStart(size) + 1;
+        }
+        final byte[] closingBoundary = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        parts.add(new ByteArrayInputStream(closingBoundary));
+        contentLength += closingBoundary.length;
+        httpHeaders.set(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        httpHeaders.setContentLength(contentLength);
+        return stream(request, response, info.getUserId(), new SequenceInputStream(Collections.enumeration(parts)), httpHeaders, HttpStatus.PARTIAL_CONTENT);
+    }
+
+    /**
+     * Charges a metadata request to the owner of the package before anything else when its metadata is cached. A
+     * request that has to look the package up is first checked against the requests on unknown packages.
+     */
+    private long acquireRequest(Optional<PackageInfo> cached) {
+        return cached.isPresent() ? tenantLimits.tryAcquireRequest(cached.get().getUserId()) : tenantLimits.checkUnknownRequests();
+    }
+
+    /**
+     * Charges a request that had to look the package up to its owner, which the first check could not know.
+     */
+    private long acquireRequest(Optional<PackageInfo> cached, PackageInfo loaded) {
+        return cached.isPresent() ? 0 : tenantLimits.tryAcquireRequest(loaded.getUserId());
+    }
+
+    private ResponseEntity<StreamingResponseBody> withoutBody(HttpServletResponse response, HttpHeaders httpHeaders, HttpStatus status) {
+        // Spring only writes the headers of a streamed entity once its body starts
+        httpHeaders.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        return new ResponseEntity<>(status);
+    }
+
+    private ResponseEntity<StreamingResponseBody> stream(HttpServletRequest request, HttpServletResponse response, String userId, InputStream content, HttpHeaders httpHeaders, HttpStatus status) {
+        if (!tenantLimits.tryAcquireTransfer(userId)) {
+            return reject(response, content, TRANSFER_RETRY_AFTER_SECONDS, HttpStatus.TOO_MANY_REQUESTS);
+        }
+        if (!downloadSlots.tryAcquire()) {
+            tenantLimits.releaseTransfer(userId);
+            return reject(response, content, DOWNLOAD_RETRY_AFTER_SECONDS, HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        if (nonBlockingDownloads.isEnabled()) {
+            httpHeaders.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+            response.setStatus(status.value());
+            nonBlockingDownloads.start(request, response, content, bytes -> tenantLimits.meterDownload(userId, bytes), () -> {
+                downloadSlots.release();
+                tenantLimits.releaseTransfer(userId);
+            });
+            return null;
+        }
+        final StreamingResponseBody body = outputStream -> {
+            try (InputStream inputStream = content) {
+                StreamUtils.copy(inputStream, packageMetrics.countDownload(tenantLimits.throttleDownload(userId, outputStream)));
+            } finally {
+                downloadSlots.release();
+                tenantLimits.releaseTransfer(userId);
+            }
+        };
+        downloadExecution.use(request, response);
+        return new ResponseEntity<>(body, httpHeaders, status);
+    }
+
+    private ResponseEntity<StreamingResponseBody> reject(HttpServletResponse response, InputStream content, long retryAfterSeconds, HttpStatus status) {
+        try {
+            content.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return withoutBody(response, retryAfterHeaders(retryAfterSeconds), status);
+    }
+
+    static ResponseEntity<?> tooManyRequests(long retryAfterSeconds) {
+        return new ResponseEntity<>(retryAfterHeaders(retryAfterSeconds), HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    private static HttpHeaders retryAfterHeaders(long retryAfterSeconds) {
+        final HttpHeaders retryHeaders = new HttpHeaders();
+        retryHeaders.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        return retryHeaders;
+    }
+
+    private HttpHeaders cachingHeaders(PackageInfo info) {
+        final HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.setETag(etag(info));
+        httpHeaders.setCacheControl(IMMUTABLE_CACHE_CONTROL);
+        if (info.getUploadDate() != null) {
+            httpHeaders.setLastModified(info.getUploadDate().getTime());
+        }
+        return httpHeaders;
+    }
+
+    private boolean isNotModified(HttpHeaders requestHeaders, PackageInfo info) {
+        final List<String> ifNoneMatch = requestHeaders.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            final String etag = etag(info);
+            final String gzipEtag = etag(info, CompressionManager.GZIP);
+            return ifNoneMatch.stream()
+                    .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                    .anyMatch(tag -> "*".equals(tag) || etag.equals(tag) || gzipEtag.equals(tag));
+        }
+        if (info.getUploadDate() == null) {
+            return false;
+        }
+        try {
+            final long ifModifiedSince = requestHeaders.getIfModifiedSince();
+            return ifModifiedSince != -1 && info.getUploadDate().getTime() / 1000 * 1000 <= ifModifiedSince;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private String etag(PackageInfo info) {
+        return "\"" + info.getMd5() + "\"";
+    }
+
+    private String etag(PackageInfo info, String encoding) {
+        return "\"" + info.getMd5() + "-" + encoding + "\"";
     }
 
+    private Optional<String> getAcceptedEncoding(HttpHeaders requestHeaders) {
+        final String acceptEncoding = requestHeaders.getFirst(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return Optional.empty();
+        }
+        for (String token : acceptEncoding.split(",")) {
+            final String[] parameters = token.trim().split("\\s*;\\s*");
+            if (compressionManager.isSupported(parameters[0]) && !isRejected(parameters)) {
+                return Optional.of(parameters[0]);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private boolean isRejected(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            if (parameters[i].startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameters[i].substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private List<HttpRange> getRequestedRanges(HttpHeaders requestHeaders) {
+        try {
+            final List<HttpRange> ranges = requestHeaders.getRange();
+            return ranges.size() > MAX_RANGES ? Collections.emptyList() : ranges;
+        } catch (IllegalArgumentException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private boolean sendFile(HttpServletRequest request, PackageInfo info, long start, long end) {
+        // the container sends the file on its own, so tenant limits keep downloads on the streamed path that enforces them
+        if (tenantLimits.isDownloadShaped() || tenantLimits.isTransferLimited() || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+            return false;
+        }
+        final Optional<Path> path = packageManager.getLocalContentPath(info);
+        if (!path.isPresent()) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, path.get().toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+        request.setAttribute(SENDFILE_END_ATTRIBUTE, end);
+        packageMetrics.getDownloaded().mark(end - start);
+        return true;
+    }
+
+    /**
+     * Coalesces overlapping and adjacent ranges, in ascending order, as suggested by RFC 7233 section 4.1 so that
+     * no byte is sent twice.
+     */
+    private List<HttpRange> mergeRanges(List<HttpRange> ranges, long size) {
+        final List<HttpRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(range -> range.getRangeStart(size)));
+        final List<HttpRange> merged = new ArrayList<>();
+        long start = -1;
+        long end = -1;
+        for (HttpRange range : sorted) {
+            if (start >= 0 && range.getRangeStart(size) <= end + 1) {
+                end = Math.max(end, range.getRangeEnd(size));
+                continue;
+            }
+            if (start >= 0) {
+                merged.add(HttpRange.createByteRange(start, end));
+            }
+            start = range.getRangeStart(size);
+            end = range.getRangeEnd(size);
+        }
+        if (start >= 0) {
+            merged.add(HttpRange.createByteRange(start, end));
+        }
+        return merged;
+    }
+
+    private Optional<InputStream> getRangeContent(RangeReader reader, HttpRange range, long size) {
+        final long start = range.getRangeStart(size);
+        return reader.read(start, range.getRangeEnd(size) - start + 1);
+    }
+
+    private String contentRange(HttpRange range, long size) {
+        return BYTES_UNIT + " " + range.getRangeStart(size) + "-" + range.getRangeEnd(size) + "/" + size;
+    }
+
+    private Optional<PackageFilter> toFilter(String userId, String versionIdPrefix, String uploadedAfter) {
+        try {
+            return Optional.of(new PackageFilter(userId, versionIdPrefix, uploadedAfter == null ? null : Date.from(Instant.parse(uploadedAfter))));
+        } catch (DateTimeParseException exception) {
+            return Optional.empty();
+        }
+    }
+
+    private String encodeCursor(PackageInfo packageInfo) {
+        final String cursor = packageInfo.getVersionId() + CURSOR_SEPARATOR + packageInfo.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String[] decodeCursor(String cursor) {
+        final String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        final int separator = decoded.lastIndexOf(CURSOR_SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("Missing cursor separator");
+        }
+        return new String[]{decoded.substring(0, separator), decoded.substring(separator + 1)};
+    }
+
+    @FunctionalInterface
+    private interface RangeReader {
+        Optional<InputStream> read(long offset, long length);
+    }
 }
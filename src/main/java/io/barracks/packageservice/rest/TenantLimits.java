@@ -0,0 +1,394 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import com.google.common.base.Ticker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Per-tenant limits keyed by user id: metadata requests per second and concurrent transfers are rejected once
+ * exceeded, while uploaded and downloaded bytes per second are shaped by slowing the transfer down. A rate of zero or
+ * less disables the corresponding limit. At most {@code maxTenants} tenants are tracked. Tenants with transfers in
+ * flight or tokens still owed to one of their buckets are never forgotten, since forgetting them would reset their
+ * limits. Once no other tenant can make room, the ids seen beyond the cap share a single set of limits.
+ */
+@Component
+public class TenantLimits implements PublicMetrics {
+    static final String METRIC_PREFIX = "tenants.";
+    static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double requestsPerSecond;
+    private final long requestBurst;
+    private final double uploadBytesPerSecond;
+    private final double downloadBytesPerSecond;
+    private final long byteBurst;
+    private final int maxConcurrentTransfers;
+    private final long idleNanos;
+    private final long maxTenants;
+    private final Ticker ticker;
+    private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final Tenant untracked;
+    private final Tenant unknown;
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private volatile long nextSweepNanos;
+    private volatile boolean saturated;
+
+    @Autowired
+    public TenantLimits(
+            @Value("${io.barracks.packageservice.tenant.requestsPerSecond}") double requestsPerSecond,
+            @Value("${io.barracks.packageservice.tenant.requestBurst}") long requestBurst,
+            @Value("${io.barracks.packageservice.tenant.uploadBytesPerSecond}") double uploadBytesPerSecond,
+            @Value("${io.barracks.packageservice.tenant.downloadBytesPerSecond}") double downloadBytesPerSecond,
+            @Value("${io.barracks.packageservice.tenant.byteBurst}") long byteBurst,
+            @Value("${io.barracks.packageservice.tenant.maxConcurrentTransfers}") int maxConcurrentTransfers,
+            @Value("${io.barracks.packageservice.tenant.idleSeconds}") long idleSeconds,
+            @Value("${io.barracks.packageservice.tenant.maxTenants}") long maxTenants) {
+        this(requestsPerSecond, requestBurst, uploadBytesPerSecond, downloadBytesPerSecond, byteBurst, maxConcurrentTransfers, idleSeconds, maxTenants, Ticker.systemTicker());
+    }
+
+    TenantLimits(double requestsPerSecond, long requestBurst, double uploadBytesPerSecond, double downloadBytesPerSecond, long byteBurst, int maxConcurrentTransfers, long idleSeconds, long maxTenants, Ticker ticker) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.requestBurst = requestBurst;
+        this.uploadBytesPerSecond = uploadBytesPerSecond;
+        this.downloadBytesPerSecond = downloadBytesPerSecond;
+        this.byteBurst = byteBurst;
+        this.maxConcurrentTransfers = maxConcurrentTransfers;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        this.maxTenants = maxTenants;
+        this.ticker = ticker;
+        this.untracked = new Tenant(ticker.read());
+        this.unknown = new Tenant(ticker.read());
+        this.nextSweepNanos = ticker.read() + SWEEP_INTERVAL_NANOS;
+    }
+
+    /**
+     * @return 0 if the request is allowed, or the number of seconds the tenant must wait before retrying.
+     */
+    public long tryAcquireRequest(String userId) {
+        final Tenant tenant = tenant(userId);
+        if (tenant.requests == null) {
+            return 0;
+        }
+        final long waitNanos = tenant.requests.tryAcquire(1);
+        if (waitNanos == 0) {
+            return 0;
+        }
+        tenant.rejectedRequests.increment();
+        return toRetryAfterSeconds(waitNanos);
+    }
+
+    /**
+     * Requests on packages that do not exist cannot be charged to a tenant, they share a single request rate instead.
+     * Checking it before looking a package up keeps floods of unknown ids away from the database.
+     *
+     * @return 0 if a request on an unknown package would be allowed, or the number of seconds to wait.
+     */
+    public long checkUnknownRequests() {
+        if (unknown.requests == null) {
+            return 0;
+        }
+        final long waitNanos = unknown.requests.check(1);
+        if (waitNanos == 0) {
+            return 0;
+        }
+        unknown.rejectedRequests.increment();
+        return toRetryAfterSeconds(waitNanos);
+    }
+
+    public void countUnknownRequest() {
+        if (unknown.requests != null) {
+            unknown.requests.reserve(1);
+        }
+    }
+
+    public boolean tryAcquireTransfer(String userId) {
+        final Tenant tenant = tenant(userId);
+        if (maxConcurrentTransfers <= 0) {
+            tenant.activeTransfers.incrementAndGet();
+            return true;
+        }
+        while (true) {
+            final int active = tenant.activeTransfers.get();
+            if (active >= maxConcurrentTransfers) {
+                tenant.rejectedTransfers.increment();
+                return false;
+            }
+            if (tenant.activeTransfers.compareAndSet(active, active + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void releaseTransfer(String userId) {
+        // a tenant with transfers in flight is never forgotten, unless the transfer was counted as untracked
+        final Tenant tracked = tenants.get(userId);
+        final Tenant tenant = tracked != null && tracked.activeTransfers.get() > 0 ? tracked : untracked;
+        tenant.activeTransfers.updateAndGet(active -> Math.max(0, active - 1));
+    }
+
+    public boolean isTransferLimited() {
+        return maxConcurrentTransfers > 0;
+    }
+
+    public boolean isDownloadShaped() {
+        return downloadBytesPerSecond > 0;
+    }
+
+    public InputStream throttleUpload(String userId, InputStream inputStream) {
+        return upload(tenant(userId), inputStream, true);
+    }
+
+    /**
+     * Counts uploaded bytes without shaping them, for uploads the container has already received in full, such as
+     * multipart ones, which slowing down would only keep a request thread busy longer.
+     */
+    public InputStream countUpload(String userId, InputStream inputStream) {
+        return upload(tenant(userId), inputStream, false);
+    }
+
+    private InputStream upload(Tenant tenant, InputStream inputStream, boolean shaped) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                final int read = super.read();
+                if (read != -1) {
+                    tenant.uploaded(1, shaped);
+                }
+                return read;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final int read = super.read(b, off, len);
+                if (read > 0) {
+                    tenant.uploaded(read, shaped);
+                }
+                return read;
+            }
+        };
+    }
+
+    public OutputStream throttleDownload(String userId, OutputStream outputStream) {
+        final Tenant tenant = tenant(userId);
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(int b) throws IOException {
+                tenant.downloaded(1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                tenant.downloaded(len);
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Counts downloaded bytes for writers that must not block, and returns the number of nanoseconds they must wait
+     * before writing more for the download to stay within the tenant rate.
+     */
+    public long meterDownload(String userId, int bytes) {
+        return tenant(userId).reserveDownload(bytes);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        // per-tenant values are exported with a tenant label by the Prometheus endpoint, only totals are kept here
+        final Collection<Tenant> all = Stream.concat(getTenants().values().stream(), Stream.of(untracked, unknown)).collect(Collectors.toList());
+        final Collection<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>(METRIC_PREFIX + "tracked", all.size() - 2));
+        metrics.add(new Metric<>(METRIC_PREFIX + "requests.rejected", all.stream().mapToLong(Tenant::getRejectedRequests).sum()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "transfers.rejected", all.stream().mapToLong(Tenant::getRejectedTransfers).sum()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "transfers.active", all.stream().mapToInt(Tenant::getActiveTransfers).sum()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "upload.bytes", all.stream().mapToLong(Tenant::getUploadedBytes).sum()));
+        metrics.add(new Metric<>(METRIC_PREFIX + "download.bytes", all.stream().mapToLong(Tenant::getDownloadedBytes).sum()));
+        return metrics;
+    }
+
+    public Map<String, Tenant> getTenants() {
+        final long now = ticker.read();
+        if (now - nextSweepNanos >= 0) {
+            sweep(now);
+        }
+        return Collections.unmodifiableMap(tenants);
+    }
+
+    private static long toRetryAfterSeconds(long waitNanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    private Tenant tenant(String userId) {
+        final long now = ticker.read();
+        if (now - nextSweepNanos >= 0) {
+            sweep(now);
+        }
+        final Tenant known = tenants.computeIfPresent(userId, (id, tenant) -> tenant.seen(now));
+        if (known != null) {
+            return known;
+        }
+        if (tenants.size() >= maxTenants && (!saturated || now - nextSweepNanos >= 0)) {
+            sweep(now);
+        }
+        if (tenants.size() >= maxTenants) {
+            return untracked.seen(now);
+        }
+        return tenants.compute(userId, (id, tenant) -> (tenant == null ? new Tenant(now) : tenant).seen(now));
+    }
+
+    /**
+     * Forgets the idle tenants then, when the cap is reached, the least recently seen ones down to 90% of the cap so
+     * that the next sweep is far away. Tenants that still hold limits are kept whatever their age.
+     */
+    private void sweep(long now) {
+        if (!sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            nextSweepNanos = now + SWEEP_INTERVAL_NANOS;
+            tenants.keySet().forEach(userId -> tenants.computeIfPresent(userId, (id, tenant) ->
+                    tenant.isHoldingLimits() || now - tenant.lastSeenNanos < idleNanos ? tenant : null));
+            final long excess = tenants.size() - (maxTenants - 1 - maxTenants / 10);
+            if (excess > 0) {
+                final List<String> evictable = tenants.entrySet().stream()
+                        .filter(entry -> !entry.getValue().isHoldingLimits())
+                        .sorted(Comparator.comparingLong(entry -> entry.getValue().lastSeenNanos))
+                        .limit(excess)
+                        .map(Map.Entry::getKey)
+                        .collect(Collectors.toList());
+                evictable.forEach(userId -> tenants.computeIfPresent(userId, (id, tenant) -> tenant.isHoldingLimits() ? tenant : null));
+            }
+            saturated = tenants.size() >= maxTenants;
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    public class Tenant {
+        private final TokenBucket requests = requestsPerSecond > 0 ? new TokenBucket(requestsPerSecond, requestBurst, ticker) : null;
+        private final TokenBucket uploads = uploadBytesPerSecond > 0 ? new TokenBucket(uploadBytesPerSecond, byteBurst, ticker) : null;
+        private final TokenBucket downloads = downloadBytesPerSecond > 0 ? new TokenBucket(downloadBytesPerSecond, byteBurst, ticker) : null;
+        private final AtomicInteger activeTransfers = new AtomicInteger();
+        private final LongAdder rejectedRequests = new LongAdder();
+        private final LongAdder rejectedTransfers = new LongAdder();
+        private final LongAdder uploadedBytes = new LongAdder();
+        private final LongAdder downloadedBytes = new LongAdder();
+        private volatile long lastSeenNanos;
+
+        private Tenant(long now) {
+            this.lastSeenNanos = now;
+        }
+
+        public long getRejectedRequests() {
+            return rejectedRequests.sum();
+        }
+
+        public long getRejectedTransfers() {
+            return rejectedTransfers.sum();
+        }
+
+        public int getActiveTransfers() {
+            return activeTransfers.get();
+        }
+
+        public long getUploadedBytes() {
+            return uploadedBytes.sum();
+        }
+
+        public long getDownloadedBytes() {
+            return downloadedBytes.sum();
+        }
+
+        private Tenant seen(long now) {
+            lastSeenNanos = now;
+            return this;
+        }
+
+        private boolean isHoldingLimits() {
+            return activeTransfers.get() > 0 || owes(requests) || owes(uploads) || owes(downloads);
+        }
+
+        private boolean owes(TokenBucket bucket) {
+            return bucket != null && !bucket.isFull();
+        }
+
+        private void uploaded(int bytes, boolean shaped) throws InterruptedIOException {
+            uploadedBytes.add(bytes);
+            if (shaped) {
+                shape(uploads, bytes);
+            }
+        }
+
+        private void downloaded(int bytes) throws InterruptedIOException {
+            pause(reserveDownload(bytes));
+        }
+
+        private long reserveDownload(int bytes) {
+            downloadedBytes.add(bytes);
+            return downloads == null ? 0 : downloads.reserve(bytes);
+        }
+
+        private void shape(TokenBucket bucket, int bytes) throws InterruptedIOException {
+            if (bucket != null) {
+                pause(bucket.reserve(bytes));
+            }
+        }
+
+        private void pause(long waitNanos) throws InterruptedIOException {
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttling a transfer");
+                }
+            }
+        }
+    }
+}
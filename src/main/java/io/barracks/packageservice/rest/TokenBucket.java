@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket implemented as a generic cell rate algorithm: its only state is the time at which all the
+ * tokens taken so far will have been refilled, updated with a single compare-and-set.
+ */
+class TokenBucket {
+    private final double nanosPerToken;
+    private final long burstNanos;
+    private final Ticker ticker;
+    private final AtomicLong refilledAt;
+
+    TokenBucket(double tokensPerSecond, long burst, Ticker ticker) {
+        this.nanosPerToken = 1e9 / tokensPerSecond;
+        this.burstNanos = (long) (burst * nanosPerToken);
+        this.ticker = ticker;
+        this.refilledAt = new AtomicLong(ticker.read());
+    }
+
+    /**
+     * Takes the tokens if they are all available.
+     *
+     * @return 0 if the tokens were taken, or the number of nanoseconds before they will be available.
+     */
+    long tryAcquire(long tokens) {
+        final long cost = cost(tokens);
+        while (true) {
+            final long now = ticker.read();
+            final long previous = refilledAt.get();
+            final long next = Math.max(previous, now) + cost;
+            final long excess = next - now - burstNanos;
+            if (excess > 0) {
+                return excess;
+            }
+            if (refilledAt.compareAndSet(previous, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @return 0 if the tokens are available, or the number of nanoseconds before they will be, without taking them.
+     */
+    long check(long tokens) {
+        final long now = ticker.read();
+        return Math.max(0, Math.max(refilledAt.get(), now) + cost(tokens) - now - burstNanos);
+    }
+
+    /**
+     * Takes the tokens even if they are not available yet.
+     *
+     * @return the number of nanoseconds the caller must wait for the tokens to actually be available.
+     */
+    long reserve(long tokens) {
+        final long cost = cost(tokens);
+        while (true) {
+            final long now = ticker.read();
+            final long previous = refilledAt.get();
+            final long next = Math.max(previous, now) + cost;
+            if (refilledAt.compareAndSet(previous, next)) {
+                return Math.max(0, next - now - burstNanos);
+            }
+        }
+    }
+
+    /**
+     * @return true once every token taken so far has been refilled, the bucket then behaves like a new one.
+     */
+    boolean isFull() {
+        return refilledAt.get() - ticker.read() <= 0;
+    }
+
+    private long cost(long tokens) {
+        return (long) Math.ceil(tokens * nanosPerToken);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import io.barracks.packageservice.manager.UploadSessionManager;
+import io.barracks.packageservice.manager.exception.InvalidPackageContentException;
+import io.barracks.packageservice.manager.exception.InvalidPackageVersionException;
+import io.barracks.packageservice.manager.exception.PackageConflictException;
+import io.barracks.packageservice.manager.exception.UploadSessionNotFoundException;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.UploadSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.InputStream;
+import java.util.Optional;
+
+@RestController
+@RequestMapping(path = "/packages/_uploads")
+public class UploadSessionResource {
+
+    public static final String PART_SIZE_KEY = "partSize";
+
+    @Autowired
+    private UploadSessionManager uploadSessionManager;
+
+    @Autowired
+    private TenantLimits tenantLimits;
+
+    @RequestMapping(method = RequestMethod.POST)
+    public ResponseEntity<?> createSession(
+            @RequestParam(PackageResource.FILE_NAME_KEY) String fileName,
+            @RequestParam(PackageResource.USER_KEY) String userId,
+            @RequestParam(PackageResource.VERSION_KEY) String versionId,
+            @RequestParam(value = PackageResource.SHA256_KEY, required = false) String sha256,
+            @RequestParam(value = PackageResource.SIGNATURE_KEY, required = false) String signature,
+            @RequestParam(value = PART_SIZE_KEY, required = false) Long partSize) {
+        final long retryAfter = tenantLimits.tryAcquireRequest(userId);
+        if (retryAfter > 0) {
+            return PackageResource.tooManyRequests(retryAfter);
+        }
+        try {
+            final UploadSession session = uploadSessionManager.create(fileName, userId, versionId, sha256, signature, partSize);
+            final HttpHeaders httpHeaders = new HttpHeaders();
+            httpHeaders.setLocation(ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQuery(null)
+                    .path("/{id}")
+                    .buildAndExpand(session.getId())
+                    .toUri());
+            return new ResponseEntity<>(session, httpHeaders, HttpStatus.CREATED);
+        } catch (InvalidPackageVersionException | InvalidPackageContentException exception) {
+            return new ResponseEntity<>(exception.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @RequestMapping(method = RequestMethod.GET, path = "/{id}")
+    public ResponseEntity<?> getSession(@PathVariable("id") String sessionId) {
+        final Optional<UploadSession> session = uploadSessionManager.findById(sessionId);
+        if (!session.isPresent()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        final long retryAfter = tenantLimits.tryAcquireRequest(session.get().getUserId());
+        if (retryAfter > 0) {
+            return PackageResource.tooManyRequests(retryAfter);
+        }
+        return new ResponseEntity<>(session.get(), HttpStatus.OK);
+    }
+
+    @RequestMapping(method = RequestMethod.PUT, path = "/{id}/parts/{number}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadPart(InputStream inputStream, @PathVariable("id") String sessionId, @PathVariable("number") int number) {
+        final Optional<UploadSession> session = uploadSessionManager.findById(sessionId);
+        if (!session.isPresent()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        final String userId = session.get().getUserId();
+        if (!tenantLimits.tryAcquireTransfer(userId)) {
+            return PackageResource.tooManyRequests(PackageResource.TRANSFER_RETRY_AFTER_SECONDS);
+        }
+        try {
+            return new ResponseEntity<>(uploadSessionManager.savePart(sessionId, number, tenantLimits.throttleUpload(userId, inputStream)), HttpStatus.OK);
+        } catch (InvalidPackageContentException exception) {
+            return new ResponseEntity<>(exception.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (PackageConflictException exception) {
+            return new ResponseEntity<>(exception.getMessage(), HttpStatus.CONFLICT);
+        } catch (UploadSessionNotFoundException exception) {
+            return new ResponseEntity<>(exception.getMessage(), HttpStatus.NOT_FOUND);
+        } finally {
+            tenantLimits.releaseTransfer(userId);
+        }
+    }
+
+    @RequestMapping(method = RequestMethod.POST, path = "/{id}/commit")
+    public ResponseEntity<?> commitSession(@PathVariable("id") String sessionId) {
+        final Optional<UploadSession> session = uploadSessionManager.findById(sessionId);
+        if (!session.isPresent()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        final String userId = session.get().getUserId();
+        if (!tenantLimits.tryAcquireTransfer(userId)) {
+            return PackageResource.tooManyRequests(PackageResource.TRANSFER_RETRY_AFTER_SECONDS);
+        }
+        try {
+            final PackageInfo packageInfo = uploadSessionManager.commit(sessionId);
+            return new ResponseEntity<>(packageInfo, HttpStatus.CREATED);
+        } catch (InvalidPackageVersionException | InvalidPackageContentException exception) {
+            return new ResponseEntity<>(exception.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (PackageConflictException exception) {
+            return new ResponseEntity<>(exception.getMessage(), HttpStatus.CONFLICT);
+        } catch (UploadSessionNotFoundException exception) {
+            return new ResponseEntity<>(exception.getMessage(), HttpStatus.NOT_FOUND);
+        } finally {
+            tenantLimits.releaseTransfer(userId);
+        }
+    }
+
+    @RequestMapping(method = RequestMethod.DELETE, path = "/{id}")
+    public ResponseEntity<?> deleteSession(@PathVariable("id") String sessionId) {
+        final Optional<UploadSession> session = uploadSessionManager.findById(sessionId);
+        if (!session.isPresent()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        final long retryAfter = tenantLimits.tryAcquireRequest(session.get().getUserId());
+        if (retryAfter > 0) {
+            return PackageResource.tooManyRequests(retryAfter);
+        }
+        try {
+            uploadSessionManager.delete(sessionId);
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        } catch (PackageConflictException exception) {
+            return new ResponseEntity<>(exception.getMessage(), HttpStatus.CONFLICT);
+        } catch (UploadSessionNotFoundException exception) {
+            return new ResponseEntity<>(exception.getMessage(), HttpStatus.NOT_FOUND);
+        }
+    }
+}
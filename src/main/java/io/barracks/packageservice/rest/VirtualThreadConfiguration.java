@@ -0,0 +1,84 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.embedded.ConfigurableEmbeddedServletContainer;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Runs the container request threads and the streamed downloads on virtual threads, so that thousands of slow
+ * transfers blocked on their socket or on GridFS only cost their stack. The legacy Mongo driver synchronizes around
+ * its connection pool, which pins the carrier thread: enable the pinned threads trace to find such hot spots. The
+ * runtime itself is checked by {@link VirtualThreadRuntimeCheck} before the context starts.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "io.barracks.packageservice.virtualThreads", name = "enabled", havingValue = "true")
+public class VirtualThreadConfiguration {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadConfiguration.class);
+
+    @Value("${io.barracks.packageservice.virtualThreads.tracePinnedThreads}")
+    private String tracePinnedThreads;
+
+    @PostConstruct
+    public void configureTracing() {
+        // read by the JDK when the first virtual thread is created, from JDK 24 use the jdk.VirtualThreadPinned JFR event
+        if (!tracePinnedThreads.isEmpty()) {
+            System.setProperty(VirtualThreads.TRACE_PINNED_THREADS_PROPERTY, tracePinnedThreads);
+        }
+    }
+
+    @Bean
+    public AsyncTaskExecutor virtualThreadDownloadExecutor() {
+        return new ConcurrentTaskExecutor(VirtualThreads.executor("download-virtual-"));
+    }
+
+    @Bean
+    public EmbeddedServletContainerCustomizer virtualThreadContainerCustomizer() {
+        return (ConfigurableEmbeddedServletContainer container) -> {
+            if (container instanceof TomcatEmbeddedServletContainerFactory) {
+                ((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(connector -> {
+                    final ProtocolHandler handler = connector.getProtocolHandler();
+                    if (handler instanceof AbstractProtocol) {
+                        ((AbstractProtocol<?>) handler).setExecutor(VirtualThreads.executor("http-virtual-"));
+                    } else {
+                        LOGGER.warn("Protocol {} keeps its platform request threads", handler.getClass().getName());
+                    }
+                });
+            }
+        };
+    }
+}
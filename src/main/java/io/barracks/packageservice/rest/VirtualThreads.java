@@ -0,0 +1,94 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import java.security.ProtectionDomain;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads when the service runs on a JDK that has them, while the code base still targets Java 8.
+ */
+final class VirtualThreads {
+    static final String TRACE_PINNED_THREADS_PROPERTY = "jdk.tracePinnedThreads";
+    static final String ADD_OPENS_FLAG = "--add-opens java.base/java.lang=ALL-UNNAMED";
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Spring 4.2 defines its CGLIB proxies through {@code ClassLoader.defineClass}, which JDK 17 and later only allow
+     * when {@code java.lang} is opened to the application.
+     */
+    static boolean canDefineProxies() {
+        try {
+            ClassLoader.class.getDeclaredMethod("defineClass", String.class, byte[].class, int.class, int.class, ProtectionDomain.class)
+                    .setAccessible(true);
+            return true;
+        } catch (NoSuchMethodException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    static Optional<String> unsupportedReason() {
+        if (!isSupported()) {
+            return Optional.of("Virtual threads require a JDK 21 or later runtime, this one is Java " + System.getProperty("java.specification.version"));
+        }
+        if (!canDefineProxies()) {
+            return Optional.of("Virtual threads require the JVM to be started with " + ADD_OPENS_FLAG + " for the Spring proxies");
+        }
+        return Optional.empty();
+    }
+
+    static ThreadFactory factory(String prefix) {
+        try {
+            final Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            final Object builder = builderType.getMethod("name", String.class, long.class)
+                    .invoke(Thread.class.getMethod("ofVirtual").invoke(null), prefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads require a JDK 21 or later runtime", e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create the virtual thread factory", e);
+        }
+    }
+
+    /**
+     * Starts one virtual thread per task, the pool being the carrier threads of the JDK.
+     */
+    static Executor executor(String prefix) {
+        final ThreadFactory factory = factory(prefix);
+        return task -> factory.newThread(task).start();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.actuator;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return now.get();
+        }
+    };
+
+    @Test
+    public void bucket_shouldStayWithinTheRelativeErrorBound() {
+        for (long micros = 1; micros < 1L << 40; micros = micros * 3 + 1) {
+            // When
+            final int bucket = LatencyHistogram.bucket(micros);
+
+            // Then
+            assertThat(bucket).isBetween(0, LatencyHistogram.BUCKETS - 1);
+            assertThat(LatencyHistogram.lowerBound(bucket)).isLessThanOrEqualTo(micros);
+            assertThat((double) micros - LatencyHistogram.lowerBound(bucket)).isLessThanOrEqualTo(micros / 16.0);
+        }
+    }
+
+    @Test
+    public void getQuantileSeconds_shouldReturnTheRecordedDistribution() {
+        // Given
+        final LatencyHistogram histogram = new LatencyHistogram(1, TimeUnit.MINUTES, ticker);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i, TimeUnit.MILLISECONDS);
+        }
+
+        // When
+        final double p50 = histogram.getQuantileSeconds(0.5);
+        final double p99 = histogram.getQuantileSeconds(0.99);
+        final double p999 = histogram.getQuantileSeconds(0.999);
+
+        // Then
+        assertThat(histogram.getCount()).isEqualTo(1000);
+        assertThat(histogram.getSumSeconds()).isCloseTo(500.5, within(1e-6));
+        assertThat(p50).isCloseTo(0.5, within(0.5 / 16));
+        assertThat(p99).isCloseTo(0.99, within(0.99 / 16));
+        assertThat(p999).isCloseTo(0.999, within(0.999 / 16));
+    }
+
+    @Test
+    public void getQuantileSeconds_whenWindowsHavePassed_shouldForgetOldValues() {
+        // Given
+        final LatencyHistogram histogram = new LatencyHistogram(1, TimeUnit.MINUTES, ticker);
+        histogram.record(10, TimeUnit.SECONDS);
+        now.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        histogram.record(1, TimeUnit.MILLISECONDS);
+
+        // When
+        final double withPreviousWindow = histogram.getQuantileSeconds(1);
+        now.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        final double withCurrentWindow = histogram.getQuantileSeconds(1);
+        now.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        final double empty = histogram.getQuantileSeconds(1);
+
+        // Then
+        assertThat(withPreviousWindow).isCloseTo(10, within(10 / 16.0));
+        assertThat(withCurrentWindow).isCloseTo(0.001, within(0.001 / 16));
+        assertThat(empty).isNaN();
+        assertThat(histogram.getCount()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.packageservice.actuator;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.MongoException;
+import io.barracks.packageservice.repository.PackageIndexManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PackageIndexEndpointTest {
+
+    @Mock
+    private PackageIndexManager packageIndexManager;
+
+    private PackageIndexEndpoint packageIndexEndpoint;
+
+    @Before
+    public void setUp() throws Exception {
+        packageIndexEndpoint = new PackageIndexEndpoint(packageIndexManager);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void invoke_shouldReportIndexesUsageAndPlan() {
+        // Given
+        final IndexInfo index = new IndexInfo(Collections.singletonList(IndexField.create("metadata.userId", Sort.Direction.ASC)), "idx", true, false, false);
+        doReturn(Collections.singletonList(index)).when(packageIndexManager).getIndexes();
+        doReturn(Collections.singletonMap("idx", 42L)).when(packageIndexManager).getIndexUsage();
+        doReturn(new BasicDBObject("stage", "IXSCAN")).when(packageIndexManager).explainVersionLookup();
+
+        // When
+        final Map<String, Object> result = packageIndexEndpoint.invoke();
+
+        // Then
+        assertThat(packageIndexEndpoint.getId()).isEqualTo(PackageIndexEndpoint.ID);
+        assertThat((Map<String, Object>) result.get("indexes")).containsOnlyKeys("idx");
+        assertThat(result.get("usage")).isEqualTo(Collections.singletonMap("idx", 42L));
+        assertThat((Map<String, Object>) result.get("versionLookupPlan")).containsEntry("stage", "IXSCAN");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void invoke_whenStatsAreNotSupported_shouldStillReportTheIndexes() {
+        // Given
+        doReturn(Collections.emptyList()).when(packageIndexManager).getIndexes();
+        doThrow(new MongoException("unrecognized pipeline stage name: '$indexStats'")).when(packageIndexManager).getIndexUsage();
+        doReturn(new BasicDBObject()).when(packageIndexManager).explainVersionLookup();
+
+        // When
+        final Map<String, Object> result = packageIndexEndpoint.invoke();
+
+        // Then
+        assertThat((Map<String, Object>) result.get("indexes")).isEmpty();
+        assertThat((String) result.get("usage")).startsWith("unavailable");
+    }
+}
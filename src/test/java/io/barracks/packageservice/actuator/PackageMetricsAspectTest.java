@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.actuator;
+
+import io.barracks.packageservice.manager.PackageContentCache;
+import io.barracks.packageservice.manager.PackageInfoCache;
+import io.barracks.packageservice.manager.PackageManager;
+import io.barracks.packageservice.manager.validation.UploadValidation;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.repository.PackageRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PackageMetricsAspectTest {
+
+    @Mock
+    private PackageRepository packageRepository;
+
+    @Mock
+    private PackageInfoCache packageInfoCache;
+
+    @Mock
+    private PackageContentCache packageContentCache;
+
+    private PackageMetrics packageMetrics;
+
+    private PackageManager packageManager;
+
+    @Before
+    public void setUp() throws Exception {
+        packageMetrics = new PackageMetrics(60);
+        final AspectJProxyFactory factory = new AspectJProxyFactory(new PackageManager(packageRepository, packageInfoCache, packageContentCache, new UploadValidation(Collections.emptyList())));
+        factory.setProxyTargetClass(true);
+        factory.addAspect(new PackageMetricsAspect(packageMetrics));
+        packageManager = factory.getProxy();
+    }
+
+    @Test
+    public void findById_shouldBeTimed() {
+        // Given
+        doReturn(Optional.empty()).when(packageInfoCache).getById(eq("id"), any());
+
+        // When
+        packageManager.findById("id");
+        packageManager.findById("id");
+
+        // Then
+        assertThat(packageMetrics.getTimers()).containsOnlyKeys("packageManager.findById");
+        assertThat(packageMetrics.getTimers().get("packageManager.findById").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void save_shouldCountTheUploadedBytesOnce() {
+        // Given
+        final PackageInfo saved = new PackageInfo("id", "file", "md5", 42, "user", "v1", null);
+        doReturn(Optional.empty()).when(packageInfoCache).getByUserIdAndVersionId(eq("user"), eq("v1"), any());
+        doReturn(saved).when(packageRepository).savePackage(any(PackageInfo.class), anyString(), eq((String) null));
+
+        // When
+        packageManager.save("file", "application/octet-stream", new ByteArrayInputStream(new byte[42]), "user", "v1");
+
+        // Then
+        assertThat(packageMetrics.getUploaded().getTotal()).isEqualTo(42);
+        assertThat(packageMetrics.getActiveUploads()).isZero();
+        assertThat(packageMetrics.getTimers().get("packageManager.save").getCount()).isEqualTo(1);
+    }
+}
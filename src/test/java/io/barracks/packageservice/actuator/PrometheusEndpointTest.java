@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.actuator;
+
+import io.barracks.packageservice.rest.TenantLimits;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class PrometheusEndpointTest {
+
+    private PackageMetrics packageMetrics;
+
+    private TenantLimits tenantLimits;
+
+    private PrometheusEndpoint prometheusEndpoint;
+
+    @Before
+    public void setUp() throws Exception {
+        packageMetrics = new PackageMetrics(60);
+        tenantLimits = new TenantLimits(0, 0, 0, 0, 0, 1, 3600, 1000);
+        final PublicMetrics cacheMetrics = () -> Arrays.asList(
+                new Metric<>("cache.packageInfo.byId.hit.ratio", 0.75),
+                new Metric<>("downloads.active", 2)
+        );
+        prometheusEndpoint = new PrometheusEndpoint(Arrays.asList(packageMetrics, cacheMetrics), packageMetrics, tenantLimits);
+    }
+
+    @Test
+    public void invoke_shouldRenderTimersTransfersAndPublicMetrics() throws Exception {
+        // Given
+        packageMetrics.timer("packageManager.findById").record(2, TimeUnit.MILLISECONDS);
+        packageMetrics.getUploaded().mark(42);
+        try (OutputStream out = packageMetrics.countDownload(new ByteArrayOutputStream())) {
+            out.write(new byte[7]);
+        }
+
+        // When
+        final String result = prometheusEndpoint.invoke();
+
+        // Then
+        assertThat(prometheusEndpoint.getId()).isEqualTo(PrometheusEndpoint.ID);
+        assertThat(result)
+                .contains("# TYPE operation_duration_seconds summary\n")
+                .contains("operation_duration_seconds{operation=\"packageManager.findById\",quantile=\"0.99\"} 0.002")
+                .contains("operation_duration_seconds_count{operation=\"packageManager.findById\"} 1\n")
+                .contains("transferred_bytes_total{direction=\"upload\"} 42\n")
+                .contains("transferred_bytes_total{direction=\"download\"} 7\n")
+                .contains("uploads_active 0\n")
+                .contains("# TYPE cache_packageInfo_byId_hit_ratio gauge\ncache_packageInfo_byId_hit_ratio 0.75\n")
+                .contains("downloads_active 2\n")
+                .doesNotContain("timer_packageManager");
+    }
+
+    @Test
+    public void invoke_shouldRenderOneFamilyWithATenantLabel() {
+        // Given
+        tenantLimits.tryAcquireTransfer("user");
+        tenantLimits.tryAcquireTransfer("user");
+        tenantLimits.tryAcquireTransfer("a\"b");
+
+        // When
+        final String result = prometheusEndpoint.invoke();
+
+        // Then
+        assertThat(result)
+                .contains("# TYPE tenant_transfers_active gauge\n")
+                .contains("tenant_transfers_active{tenant=\"user\"} 1\n")
+                .contains("tenant_transfers_active{tenant=\"a\\\"b\"} 1\n")
+                .contains("tenant_rejected_total{tenant=\"user\",kind=\"transfer\"} 1\n")
+                .doesNotContain("tenants_user");
+    }
+
+    @Test
+    public void invoke_whenNothingWasRecorded_shouldOnlyRenderTheDefaults() {
+        // Given
+        prometheusEndpoint = new PrometheusEndpoint(Collections.singletonList(packageMetrics), packageMetrics, tenantLimits);
+
+        // When
+        final String result = prometheusEndpoint.invoke();
+
+        // Then
+        assertThat(result)
+                .doesNotContain("operation_duration_seconds{")
+                .contains("transfer_rate_bytes_per_second{direction=\"download\"} 0\n");
+    }
+}
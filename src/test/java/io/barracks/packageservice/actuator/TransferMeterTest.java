@@ -0,0 +1,81 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.actuator;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+@RunWith(JUnit4.class)
+public class TransferMeterTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final TransferMeter meter = new TransferMeter(new Ticker() {
+        @Override
+        public long read() {
+            return now.get();
+        }
+    });
+
+    @Test
+    public void getRate_shouldStartAtTheFirstTickRate() {
+        // Given
+        meter.mark(1000);
+        meter.mark(500);
+
+        // When
+        final double beforeTick = meter.getRate();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(TransferMeter.TICK_SECONDS));
+        final double afterTick = meter.getRate();
+
+        // Then
+        assertThat(meter.getTotal()).isEqualTo(1500);
+        assertThat(beforeTick).isZero();
+        assertThat(afterTick).isCloseTo(1500.0 / TransferMeter.TICK_SECONDS, within(1e-9));
+    }
+
+    @Test
+    public void getRate_whenIdle_shouldDecay() {
+        // Given
+        meter.mark(1000);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(TransferMeter.TICK_SECONDS));
+        final double initial = meter.getRate();
+
+        // When
+        now.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        final double decayed = meter.getRate();
+
+        // Then
+        assertThat(decayed).isCloseTo(initial / Math.E, within(1e-9));
+        assertThat(meter.getTotal()).isEqualTo(1000);
+    }
+}
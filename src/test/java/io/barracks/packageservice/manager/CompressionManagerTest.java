@@ -0,0 +1,226 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.PackageVariant;
+import io.barracks.packageservice.repository.PackageVariantRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Optional;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CompressionManagerTest {
+
+    @Mock
+    private PackageManager packageManager;
+
+    @Mock
+    private PackageVariantRepository variantRepository;
+
+    private CompressionManager compressionManager;
+
+    @Before
+    public void setUp() throws Exception {
+        compressionManager = new CompressionManager(packageManager, variantRepository, 16, 256, 0.9, 3600, 100, MoreExecutors.newDirectExecutorService());
+    }
+
+    @Test
+    public void findVariant_whenEncodingIsNotSupported_shouldReturnEmpty() {
+        // Given
+        final PackageInfo info = givenPackage("id", new byte[1024]);
+
+        // When
+        final Optional<PackageVariant> variant = compressionManager.findVariant(info, "br");
+
+        // Then
+        assertThat(variant).isNotPresent();
+        verify(variantRepository, never()).createPending(anyString(), anyString());
+    }
+
+    @Test
+    public void findVariant_whenPackageIsTooSmall_shouldReturnEmpty() {
+        // Given
+        final PackageInfo info = givenPackage("id", new byte[8]);
+
+        // When
+        final Optional<PackageVariant> variant = compressionManager.findVariant(info, CompressionManager.GZIP);
+
+        // Then
+        assertThat(variant).isNotPresent();
+        verify(variantRepository, never()).createPending(anyString(), anyString());
+    }
+
+    @Test
+    public void findVariant_whenVariantIsReady_shouldReturnIt() {
+        // Given
+        final PackageInfo info = givenPackage("id", new byte[1024]);
+        final PackageVariant expected = new PackageVariant("id", CompressionManager.GZIP, PackageVariant.Status.READY, 10, "content");
+        doReturn(Optional.of(expected)).when(variantRepository).find("id", CompressionManager.GZIP);
+
+        // When
+        final Optional<PackageVariant> variant = compressionManager.findVariant(info, "GZIP");
+
+        // Then
+        assertThat(variant).contains(expected);
+        verify(variantRepository, never()).createPending(anyString(), anyString());
+    }
+
+    @Test
+    public void findVariant_whenVariantIsSettled_shouldOnlyQueryTheRepositoryOnce() {
+        // Given
+        final PackageInfo info = givenPackage("id", new byte[1024]);
+        final PackageVariant skipped = new PackageVariant("id", CompressionManager.GZIP, PackageVariant.Status.SKIPPED, -1, null);
+        doReturn(Optional.of(skipped)).when(variantRepository).find("id", CompressionManager.GZIP);
+
+        // When
+        compressionManager.findVariant(info, CompressionManager.GZIP);
+        final Optional<PackageVariant> variant = compressionManager.findVariant(info, CompressionManager.GZIP);
+
+        // Then
+        assertThat(variant).isNotPresent();
+        verify(variantRepository, times(1)).find("id", CompressionManager.GZIP);
+    }
+
+    @Test
+    public void findVariant_whenVariantWasPendingForTooLong_shouldCompressItAgain() {
+        // Given
+        final byte[] content = new byte[4096];
+        new Random(1).nextBytes(content);
+        final PackageInfo info = givenPackage("id", content);
+        final PackageVariant pending = new PackageVariant("id", CompressionManager.GZIP, PackageVariant.Status.PENDING, -1, null);
+        doReturn(Optional.of(pending)).when(variantRepository).find("id", CompressionManager.GZIP);
+        doReturn(true).when(variantRepository).claimStalePending(eq("id"), eq(CompressionManager.GZIP), any(Date.class));
+
+        // When
+        final Optional<PackageVariant> variant = compressionManager.findVariant(info, CompressionManager.GZIP);
+
+        // Then
+        assertThat(variant).isNotPresent();
+        verify(variantRepository).markSkipped("id", CompressionManager.GZIP);
+    }
+
+    @Test
+    public void findVariant_whenVariantIsStillPending_shouldNotCompressItAgain() {
+        // Given
+        final PackageInfo info = givenPackage("id", new byte[1024]);
+        final PackageVariant pending = new PackageVariant("id", CompressionManager.GZIP, PackageVariant.Status.PENDING, -1, null);
+        doReturn(Optional.of(pending)).when(variantRepository).find("id", CompressionManager.GZIP);
+
+        // When
+        compressionManager.findVariant(info, CompressionManager.GZIP);
+        compressionManager.findVariant(info, CompressionManager.GZIP);
+
+        // Then
+        verify(variantRepository, times(2)).find("id", CompressionManager.GZIP);
+        verify(packageManager, never()).getPackageContent(any(PackageInfo.class), any(Long.class), any(Long.class));
+    }
+
+    @Test
+    public void findVariant_whenVariantDoesNotExist_shouldCompressAndSaveIt() throws IOException {
+        // Given
+        final byte[] content = new byte[4096];
+        Arrays.fill(content, (byte) 42);
+        final PackageInfo info = givenPackage("id", content);
+        doReturn(Optional.empty()).when(variantRepository).find("id", CompressionManager.GZIP);
+        doReturn(true).when(variantRepository).createPending("id", CompressionManager.GZIP);
+        final byte[][] saved = new byte[1][];
+        doAnswer(invocation -> {
+            saved[0] = StreamUtils.copyToByteArray((InputStream) invocation.getArguments()[2]);
+            return Optional.empty();
+        }).when(variantRepository).saveContent(anyString(), anyString(), any(InputStream.class));
+
+        // When
+        final Optional<PackageVariant> variant = compressionManager.findVariant(info, CompressionManager.GZIP);
+
+        // Then
+        assertThat(variant).isNotPresent();
+        verify(variantRepository).saveContent(anyString(), anyString(), any(InputStream.class));
+        assertThat(saved[0].length).isLessThan(content.length);
+        assertThat(StreamUtils.copyToByteArray(new GZIPInputStream(new ByteArrayInputStream(saved[0])))).isEqualTo(content);
+    }
+
+    @Test
+    public void findVariant_whenPackageDoesNotCompress_shouldMarkItSkipped() {
+        // Given
+        final byte[] content = new byte[4096];
+        new Random(1).nextBytes(content);
+        final PackageInfo info = givenPackage("id", content);
+        doReturn(Optional.empty()).when(variantRepository).find("id", CompressionManager.GZIP);
+        doReturn(true).when(variantRepository).createPending("id", CompressionManager.GZIP);
+
+        // When
+        compressionManager.findVariant(info, CompressionManager.GZIP);
+
+        // Then
+        verify(variantRepository).markSkipped("id", CompressionManager.GZIP);
+        verify(packageManager, never()).getPackageContent(info, 0, content.length);
+        verify(variantRepository, never()).saveContent(anyString(), anyString(), any(InputStream.class));
+    }
+
+    @Test
+    public void findVariant_whenContentIsMissing_shouldForgetTheVariant() {
+        // Given
+        final PackageInfo info = new PackageInfo("id", "a.exe", "md5", 100, "user", "v1", null);
+        doReturn(Optional.empty()).when(packageManager).getPackageContent(info, 0, 100);
+        doReturn(Optional.empty()).when(variantRepository).find("id", CompressionManager.GZIP);
+        doReturn(true).when(variantRepository).createPending("id", CompressionManager.GZIP);
+
+        // When
+        compressionManager.findVariant(info, CompressionManager.GZIP);
+
+        // Then
+        verify(variantRepository).delete("id", CompressionManager.GZIP);
+    }
+
+    private PackageInfo givenPackage(String id, byte[] bytes) {
+        final PackageInfo info = new PackageInfo(id, "a.exe", "md5", bytes.length, "user", id, null);
+        doAnswer(invocation -> Optional.of(new ByteArrayInputStream(bytes, 0, (int) (long) invocation.getArguments()[2])))
+                .when(packageManager).getPackageContent(any(PackageInfo.class), any(Long.class), any(Long.class));
+        return info;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+@RunWith(JUnit4.class)
+public class DeltaDecoderTest {
+
+    private static final int BLOCK_SIZE = 64;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final DeltaDecoder deltaDecoder = new DeltaDecoder();
+
+    @Test
+    public void decode_withAFileSource_shouldRebuildTheTarget() throws IOException {
+        // Given
+        final byte[] source = random(1, 200 * BLOCK_SIZE);
+        final byte[] target = source.clone();
+        target[1000] ^= 0x55;
+        final ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        new DeltaEncoder(BLOCK_SIZE).encode(new ByteArrayInputStream(source), new ByteArrayInputStream(target), delta);
+        final Path sourceFile = temporaryFolder.newFile().toPath();
+        Files.write(sourceFile, source);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // When
+        try (FileChannel channel = FileChannel.open(sourceFile)) {
+            deltaDecoder.decode(DeltaDecoder.Source.of(channel), new ByteArrayInputStream(delta.toByteArray()), out);
+        }
+
+        // Then
+        assertThat(out.toByteArray()).isEqualTo(target);
+    }
+
+    @Test
+    public void decode_whenMagicIsWrong_shouldFail() {
+        // Given
+        final byte[] delta = {'N', 'O', 'P', 'E', DeltaEncoder.VERSION, DeltaEncoder.END};
+
+        // Then When
+        assertThatExceptionOfType(IOException.class)
+                .isThrownBy(() -> deltaDecoder.decode(DeltaDecoder.Source.of(new byte[0]), new ByteArrayInputStream(delta), new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void decode_whenACopyIsOutsideOfTheSource_shouldFail() {
+        // Given
+        final byte[] delta = {'B', 'D', 'L', 'T', DeltaEncoder.VERSION, DeltaEncoder.COPY, 8, 4, DeltaEncoder.END};
+
+        // Then When
+        assertThatExceptionOfType(IOException.class)
+                .isThrownBy(() -> deltaDecoder.decode(DeltaDecoder.Source.of(new byte[10]), new ByteArrayInputStream(delta), new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void decode_whenTheDeltaIsTruncated_shouldFail() {
+        // Given
+        final byte[] delta = {'B', 'D', 'L', 'T', DeltaEncoder.VERSION, DeltaEncoder.INSERT, 4, 1, 2};
+
+        // Then When
+        assertThatExceptionOfType(IOException.class)
+                .isThrownBy(() -> deltaDecoder.decode(DeltaDecoder.Source.of(new byte[0]), new ByteArrayInputStream(delta), new ByteArrayOutputStream()));
+    }
+
+    private static byte[] random(long seed, int length) {
+        final byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
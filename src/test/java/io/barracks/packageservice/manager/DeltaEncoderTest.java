@@ -0,0 +1,119 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class DeltaEncoderTest {
+
+    private static final int BLOCK_SIZE = 64;
+
+    private final DeltaEncoder deltaEncoder = new DeltaEncoder(BLOCK_SIZE);
+
+    @Test
+    public void encode_whenContentIsUnchanged_shouldOnlyCopyTheSource() throws IOException {
+        // Given
+        final byte[] source = random(1, 100 * BLOCK_SIZE);
+
+        // When
+        final byte[] delta = encode(source, source);
+
+        // Then
+        assertThat(apply(source, delta)).isEqualTo(source);
+        assertThat(delta.length).isLessThan(32);
+    }
+
+    @Test
+    public void encode_whenBytesAreInsertedAndModified_shouldOnlyStoreTheChanges() throws IOException {
+        // Given
+        final byte[] source = random(2, 200 * BLOCK_SIZE);
+        final byte[] target = new byte[source.length + 10];
+        System.arraycopy(source, 0, target, 0, 1000);
+        System.arraycopy(random(3, 10), 0, target, 1000, 10);
+        System.arraycopy(source, 1000, target, 1010, source.length - 1000);
+        target[5000] ^= 0x55;
+        target[target.length - 1] ^= 0x55;
+
+        // When
+        final byte[] delta = encode(source, target);
+
+        // Then
+        assertThat(apply(source, delta)).isEqualTo(target);
+        assertThat(delta.length).isLessThan(6 * BLOCK_SIZE);
+    }
+
+    @Test
+    public void encode_whenContentIsUnrelated_shouldInsertTheWholeTarget() throws IOException {
+        // Given
+        final byte[] source = random(4, 10 * BLOCK_SIZE);
+        final byte[] target = random(5, 300 * 1024 + 17);
+
+        // When
+        final byte[] delta = encode(source, target);
+
+        // Then
+        assertThat(apply(source, delta)).isEqualTo(target);
+        assertThat(delta.length).isGreaterThan(target.length);
+    }
+
+    @Test
+    public void encode_whenTargetIsEmpty_shouldProduceAnEmptyDelta() throws IOException {
+        // Given
+        final byte[] source = random(6, 3 * BLOCK_SIZE);
+
+        // When
+        final byte[] delta = encode(source, new byte[0]);
+
+        // Then
+        assertThat(apply(source, delta)).isEmpty();
+    }
+
+    private byte[] encode(byte[] source, byte[] target) throws IOException {
+        final ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        deltaEncoder.encode(new ByteArrayInputStream(source), new ByteArrayInputStream(target), delta);
+        return delta.toByteArray();
+    }
+
+    private static byte[] random(long seed, int length) {
+        final byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    static byte[] apply(byte[] source, byte[] delta) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DeltaDecoder().decode(DeltaDecoder.Source.of(source), new ByteArrayInputStream(delta), out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.barracks.packageservice.manager.exception.InvalidPackageDeltaException;
+import io.barracks.packageservice.model.PackageDelta;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.repository.DeltaRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeltaManagerTest {
+
+    @Mock
+    private PackageManager packageManager;
+
+    @Mock
+    private DeltaRepository deltaRepository;
+
+    private DeltaManager deltaManager;
+
+    private final String userId = UUID.randomUUID().toString();
+
+    @Before
+    public void setUp() throws Exception {
+        deltaManager = new DeltaManager(packageManager, deltaRepository, 64, 0.9, 3600, 86400, MoreExecutors.newDirectExecutorService());
+    }
+
+    @Test
+    public void requestDelta_whenPackagesBelongToDifferentUsers_shouldThrowInvalidPackageDeltaException() {
+        // Given
+        final PackageInfo from = new PackageInfo("from", "a.exe", "md5", 1, userId, "v1", null);
+        final PackageInfo to = new PackageInfo("to", "a.exe", "md5", 1, UUID.randomUUID().toString(), "v2", null);
+
+        // Then When
+        assertThatExceptionOfType(InvalidPackageDeltaException.class)
+                .isThrownBy(() -> deltaManager.requestDelta(from, to));
+        verify(deltaRepository, never()).createPending(anyString(), anyString());
+    }
+
+    @Test
+    public void requestDelta_whenDeltaExists_shouldReturnIt() {
+        // Given
+        final PackageInfo from = new PackageInfo("from", "a.exe", "md5", 1, userId, "v1", null);
+        final PackageInfo to = new PackageInfo("to", "a.exe", "md5", 1, userId, "v2", null);
+        final PackageDelta expected = new PackageDelta("from", "to", PackageDelta.Status.READY, 10, "md5", "sha256", null, "content");
+        doReturn(Optional.of(expected)).when(deltaRepository).find("from", "to");
+
+        // When
+        final PackageDelta delta = deltaManager.requestDelta(from, to);
+
+        // Then
+        assertThat(delta).isEqualTo(expected);
+        verify(deltaRepository, never()).createPending(anyString(), anyString());
+    }
+
+    @Test
+    public void requestDelta_whenDeltaDoesNotExist_shouldComputeAndSaveIt() throws IOException {
+        // Given
+        final byte[] source = random(1, 64 * 100);
+        final byte[] target = source.clone();
+        target[100] ^= 0x55;
+        final PackageInfo from = givenPackage("from", source);
+        final PackageInfo to = givenPackage("to", target);
+        doReturn(Optional.empty()).when(deltaRepository).find("from", "to");
+        doReturn(true).when(deltaRepository).createPending("from", "to");
+        final byte[][] saved = new byte[1][];
+        doAnswer(invocation -> {
+            saved[0] = StreamUtils.copyToByteArray((InputStream) invocation.getArguments()[2]);
+            return Optional.empty();
+        }).when(deltaRepository).saveContent(eq("from"), eq("to"), any(InputStream.class), anyString(), anyString());
+
+        // When
+        final PackageDelta delta = deltaManager.requestDelta(from, to);
+
+        // Then
+        assertThat(delta.getStatus()).isEqualTo(PackageDelta.Status.PENDING);
+        final ArgumentCaptor<String> md5 = ArgumentCaptor.forClass(String.class);
+        final ArgumentCaptor<String> sha256 = ArgumentCaptor.forClass(String.class);
+        verify(deltaRepository).saveContent(eq("from"), eq("to"), any(InputStream.class), md5.capture(), sha256.capture());
+        assertThat(DeltaEncoderTest.apply(source, saved[0])).isEqualTo(target);
+        assertThat(md5.getValue()).isEqualTo(Hashing.md5().hashBytes(saved[0]).toString());
+        assertThat(sha256.getValue()).isEqualTo(Hashing.sha256().hashBytes(saved[0]).toString());
+    }
+
+    @Test
+    public void requestDelta_whenDeltaIsNotWorthIt_shouldMarkItSkipped() {
+        // Given
+        final PackageInfo from = givenPackage("from", random(1, 64 * 10));
+        final PackageInfo to = givenPackage("to", random(2, 64 * 10));
+        doReturn(Optional.empty()).when(deltaRepository).find("from", "to");
+        doReturn(true).when(deltaRepository).createPending("from", "to");
+
+        // When
+        deltaManager.requestDelta(from, to);
+
+        // Then
+        verify(deltaRepository).markSkipped(eq("from"), eq("to"), anyLong());
+        verify(deltaRepository, never()).saveContent(anyString(), anyString(), any(InputStream.class), anyString(), anyString());
+    }
+
+    @Test
+    public void requestDelta_whenContentIsMissing_shouldForgetTheDelta() {
+        // Given
+        final PackageInfo from = new PackageInfo("from", "a.exe", "md5", 1, userId, "v1", null);
+        final PackageInfo to = givenPackage("to", new byte[]{1});
+        doReturn(Optional.empty()).when(packageManager).getPackageContent(from, 0, 1);
+        doReturn(Optional.empty()).when(deltaRepository).find("from", "to");
+        doReturn(true).when(deltaRepository).createPending("from", "to");
+
+        // When
+        deltaManager.requestDelta(from, to);
+
+        // Then
+        verify(deltaRepository).delete("from", "to");
+    }
+
+    @Test
+    public void requestDelta_whenDeltaIsStillPending_shouldNotGenerateItAgain() {
+        // Given
+        final PackageInfo from = givenPackage("from", random(1, 64 * 10));
+        final PackageInfo to = givenPackage("to", random(2, 64 * 10));
+        final PackageDelta pending = new PackageDelta("from", "to", PackageDelta.Status.PENDING, -1, null, null, new Date(), null);
+        doReturn(Optional.of(pending)).when(deltaRepository).find("from", "to");
+        doReturn(false).when(deltaRepository).claimStalePending(eq("from"), eq("to"), any(Date.class));
+
+        // When
+        final PackageDelta delta = deltaManager.requestDelta(from, to);
+
+        // Then
+        assertThat(delta).isEqualTo(pending);
+        verify(packageManager, never()).getPackageContent(any(PackageInfo.class), anyLong(), anyLong());
+    }
+
+    @Test
+    public void requestDelta_whenDeltaWasPendingForTooLong_shouldGenerateItAgain() {
+        // Given
+        final PackageInfo from = givenPackage("from", random(1, 64 * 10));
+        final PackageInfo to = givenPackage("to", random(2, 64 * 10));
+        final PackageDelta pending = new PackageDelta("from", "to", PackageDelta.Status.PENDING, -1, null, null, new Date(0), null);
+        doReturn(Optional.of(pending)).when(deltaRepository).find("from", "to");
+        doReturn(true).when(deltaRepository).claimStalePending(eq("from"), eq("to"), any(Date.class));
+
+        // When
+        deltaManager.requestDelta(from, to);
+
+        // Then
+        final ArgumentCaptor<Date> before = ArgumentCaptor.forClass(Date.class);
+        verify(deltaRepository).claimStalePending(eq("from"), eq("to"), before.capture());
+        assertThat(before.getValue()).isBefore(new Date(System.currentTimeMillis() - 3599 * 1000L));
+        verify(deltaRepository).markSkipped(eq("from"), eq("to"), anyLong());
+    }
+
+    @Test
+    public void requestDelta_whenTheQueueIsFull_shouldForgetTheDelta() {
+        // Given
+        final ExecutorService full = mock(ExecutorService.class);
+        doThrow(new RejectedExecutionException()).when(full).execute(any(Runnable.class));
+        deltaManager = new DeltaManager(packageManager, deltaRepository, 64, 0.9, 3600, 86400, full);
+        final PackageInfo from = new PackageInfo("from", "a.exe", "md5", 1, userId, "v1", null);
+        final PackageInfo to = new PackageInfo("to", "a.exe", "md5", 1, userId, "v2", null);
+        doReturn(Optional.empty()).when(deltaRepository).find("from", "to");
+        doReturn(true).when(deltaRepository).createPending("from", "to");
+
+        // When
+        final PackageDelta delta = deltaManager.requestDelta(from, to);
+
+        // Then
+        assertThat(delta.getStatus()).isEqualTo(PackageDelta.Status.PENDING);
+        verify(deltaRepository).delete("from", "to");
+    }
+
+    @Test
+    public void deleteExpiredDeltas_shouldDeleteTheDeltasOlderThanTheTtl() {
+        // When
+        deltaManager.deleteExpiredDeltas();
+
+        // Then
+        final ArgumentCaptor<Date> before = ArgumentCaptor.forClass(Date.class);
+        verify(deltaRepository).deleteCreatedBefore(before.capture());
+        assertThat(before.getValue()).isBefore(new Date(System.currentTimeMillis() - 86399 * 1000L));
+    }
+
+    @Test
+    public void getDeltaContent_whenDeltaIsNotReady_shouldReturnEmpty() {
+        // Given
+        final PackageDelta delta = new PackageDelta("from", "to", PackageDelta.Status.SKIPPED, 10, null, null, null, null);
+
+        // When
+        final Optional<InputStream> content = deltaManager.getDeltaContent(delta);
+
+        // Then
+        assertThat(content).isNotPresent();
+        verify(deltaRepository, never()).getContent(any(PackageDelta.class));
+    }
+
+    private PackageInfo givenPackage(String id, byte[] bytes) {
+        final PackageInfo info = new PackageInfo(id, "a.exe", "md5", bytes.length, userId, id, null);
+        doAnswer(invocation -> Optional.of(new ByteArrayInputStream(bytes))).when(packageManager).getPackageContent(info, 0, bytes.length);
+        return info;
+    }
+
+    private static byte[] random(long seed, int length) {
+        final byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
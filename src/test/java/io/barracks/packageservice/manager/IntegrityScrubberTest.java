@@ -0,0 +1,305 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.ScrubResult;
+import io.barracks.packageservice.repository.PackageRepository;
+import io.barracks.packageservice.repository.ScrubRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IntegrityScrubberTest {
+
+    @Mock
+    private PackageRepository packageRepository;
+
+    @Mock
+    private ScrubRepository scrubRepository;
+
+    @Mock
+    private ScheduledExecutorService scheduler;
+
+    private IntegrityScrubber scrubber;
+
+    @Before
+    public void setUp() throws Exception {
+        scrubber = new IntegrityScrubber(packageRepository, scrubRepository, true, 2, 0, 60000, 600000, scheduler, MoreExecutors.newDirectExecutorService());
+        doReturn(true).when(scrubRepository).tryLease(anyString(), anyLong());
+        doReturn(true).when(scrubRepository).saveCursor(anyString(), anyString());
+        doReturn(Optional.empty()).when(scrubRepository).getCursor();
+        doReturn(Optional.of(new Date())).when(scrubRepository).getPassStartedAt();
+        doReturn(Optional.empty()).when(scrubRepository).findContentResult(anyString());
+    }
+
+    @Test
+    public void start_shouldScheduleTheRunsOnItsOwnScheduler() {
+        // When
+        scrubber.start();
+
+        // Then
+        verify(scheduler).scheduleWithFixedDelay(any(Runnable.class), eq(0L), eq(60000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void scrubNextBatch_whenCursorIsLeasedToAnotherNode_shouldDoNothing() {
+        // Given
+        doReturn(false).when(scrubRepository).tryLease(anyString(), anyLong());
+
+        // When
+        scrubber.scrubNextBatch();
+
+        // Then
+        verify(packageRepository, never()).getPackagesAfterId(anyString(), anyInt());
+        verify(scrubRepository, never()).releaseLease(anyString());
+    }
+
+    @Test
+    public void scrubNextBatch_whenPackagesShareTheirContent_shouldReadItOnceAndRecordEveryPackage() {
+        // Given
+        final PackageInfo first = givenPackage("1", new byte[]{1, 2, 3}, new byte[]{1, 2, 3});
+        final PackageInfo second = givenPackage("2", new byte[]{1, 2, 3}, new byte[]{1, 2, 3});
+        doReturn(Arrays.asList(first, second)).when(packageRepository).getPackagesAfterId(null, 2);
+        final Map<String, String> contentIds = new HashMap<>();
+        contentIds.put("1", "content");
+        contentIds.put("2", "content");
+        doReturn(contentIds).when(packageRepository).getContentIds(Arrays.asList("1", "2"));
+
+        // When
+        scrubber.scrubNextBatch();
+
+        // Then
+        verify(packageRepository).getPackageContent("1", 0, 3);
+        verify(packageRepository, never()).getPackageContent(eq("2"), anyLong(), anyLong());
+        verify(scrubRepository).saveContentResult(eq("content"), any(ScrubResult.class));
+        final ArgumentCaptor<ScrubResult> results = ArgumentCaptor.forClass(ScrubResult.class);
+        verify(scrubRepository, times(2)).saveResult(results.capture());
+        assertThat(results.getAllValues()).extracting("packageId", "status").containsExactly(
+                tuple("1", ScrubResult.Status.VALID),
+                tuple("2", ScrubResult.Status.VALID)
+        );
+        assertThat(metrics()).contains(entry("scrub.verified", 2L), entry("scrub.bytes", 3L));
+        verify(scrubRepository).releaseLease(anyString());
+    }
+
+    @Test
+    public void scrubNextBatch_whenContentWasCheckedDuringThisPass_shouldReuseItsResult() {
+        // Given
+        final Date passStartedAt = new Date(System.currentTimeMillis() - 1000);
+        final PackageInfo info = new PackageInfo("3", "a.exe", "md5", 3, "user", "v3", null);
+        doReturn(Collections.singletonList(info)).when(packageRepository).getPackagesAfterId(null, 2);
+        doReturn(Collections.singletonMap("3", "content")).when(packageRepository).getContentIds(Collections.singletonList("3"));
+        doReturn(Optional.of(passStartedAt)).when(scrubRepository).getPassStartedAt();
+        doReturn(Optional.of(new ScrubResult(null, ScrubResult.Status.CORRUPT, "md5", "other", new Date()))).when(scrubRepository).findContentResult("content");
+
+        // When
+        scrubber.scrubNextBatch();
+
+        // Then
+        verify(packageRepository, never()).getPackageContent(anyString(), anyLong(), anyLong());
+        final ArgumentCaptor<ScrubResult> result = ArgumentCaptor.forClass(ScrubResult.class);
+        verify(scrubRepository).saveResult(result.capture());
+        assertThat(result.getValue().getPackageId()).isEqualTo("3");
+        assertThat(result.getValue().getStatus()).isEqualTo(ScrubResult.Status.CORRUPT);
+        verify(scrubRepository).saveCursor(anyString(), eq("3"));
+    }
+
+    @Test
+    public void scrubNextBatch_whenContentMatches_shouldRecordItAsValidAndMoveTheCursor() {
+        // Given
+        final PackageInfo first = givenPackage("1", new byte[]{1, 2, 3}, new byte[]{1, 2, 3});
+        final PackageInfo second = givenPackage("2", new byte[]{4, 5}, new byte[]{4, 5});
+        doReturn(Arrays.asList(first, second)).when(packageRepository).getPackagesAfterId(null, 2);
+
+        // When
+        scrubber.scrubNextBatch();
+
+        // Then
+        final ArgumentCaptor<ScrubResult> results = ArgumentCaptor.forClass(ScrubResult.class);
+        verify(scrubRepository, times(2)).saveResult(results.capture());
+        assertThat(results.getAllValues()).extracting("packageId", "status").containsExactly(
+                tuple("1", ScrubResult.Status.VALID),
+                tuple("2", ScrubResult.Status.VALID)
+        );
+        verify(scrubRepository).saveCursor(anyString(), eq("2"));
+    }
+
+    @Test
+    public void scrubNextBatch_whenContentDoesNotMatch_shouldFlagThePackageAsCorrupt() {
+        // Given
+        final PackageInfo info = givenPackage("1", new byte[]{1, 2, 3}, new byte[]{1, 2, 4});
+        doReturn(Optional.of("0")).when(scrubRepository).getCursor();
+        doReturn(Collections.singletonList(info)).when(packageRepository).getPackagesAfterId("0", 2);
+
+        // When
+        scrubber.scrubNextBatch();
+
+        // Then
+        final ArgumentCaptor<ScrubResult> result = ArgumentCaptor.forClass(ScrubResult.class);
+        verify(scrubRepository).saveResult(result.capture());
+        assertThat(result.getValue().getStatus()).isEqualTo(ScrubResult.Status.CORRUPT);
+        assertThat(result.getValue().getExpectedMd5()).isEqualTo(info.getMd5());
+        assertThat(result.getValue().getActualMd5()).isEqualTo(Hashing.md5().hashBytes(new byte[]{1, 2, 4}).toString());
+        assertThat(metrics()).contains(entry("scrub.corrupt", 1L), entry("scrub.bytes", 3L));
+    }
+
+    @Test
+    public void scrubNextBatch_whenContentCannotBeRead_shouldFlagThePackageAsMissing() throws IOException {
+        // Given
+        final PackageInfo info = new PackageInfo("1", "a.exe", "md5", 3, "user", "v1", null);
+        final InputStream content = new ByteArrayInputStream(new byte[3]) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                throw new UncheckedIOException(new IOException("Chunk 0 is missing"));
+            }
+        };
+        doReturn(Optional.of(content)).when(packageRepository).getPackageContent("1", 0, 3);
+        doReturn(Collections.singletonList(info)).when(packageRepository).getPackagesAfterId(null, 2);
+
+        // When
+        scrubber.scrubNextBatch();
+
+        // Then
+        final ArgumentCaptor<ScrubResult> result = ArgumentCaptor.forClass(ScrubResult.class);
+        verify(scrubRepository).saveResult(result.capture());
+        assertThat(result.getValue().getStatus()).isEqualTo(ScrubResult.Status.MISSING);
+        verify(scrubRepository).saveCursor(anyString(), eq("1"));
+    }
+
+    @Test
+    public void scrubNextBatch_whenStoreFails_shouldNotMoveTheCursor() {
+        // Given
+        final PackageInfo info = new PackageInfo("1", "a.exe", "md5", 3, "user", "v1", null);
+        doThrow(new IllegalStateException("Store unavailable")).when(packageRepository).getPackageContent("1", 0, 3);
+        doReturn(Collections.singletonList(info)).when(packageRepository).getPackagesAfterId(null, 2);
+
+        // When
+        scrubber.scrubNextBatch();
+
+        // Then
+        verify(scrubRepository, never()).saveResult(any(ScrubResult.class));
+        verify(scrubRepository, never()).saveCursor(anyString(), anyString());
+        verify(scrubRepository).releaseLease(anyString());
+    }
+
+    @Test
+    public void scrubNextBatch_whenStoreKeepsFailing_shouldRecordAnErrorAndMoveTheCursor() {
+        // Given
+        final PackageInfo failing = new PackageInfo("1", "a.exe", "md5", 3, "user", "v1", null);
+        final PackageInfo valid = new PackageInfo("2", "a.exe", Hashing.md5().hashBytes(new byte[]{1, 2, 3}).toString(), 3, "user", "v2", null);
+        doAnswer(invocation -> Optional.of(new ByteArrayInputStream(new byte[]{1, 2, 3}))).when(packageRepository).getPackageContent("2", 0, 3);
+        doThrow(new IllegalStateException("Content id is invalid")).when(packageRepository).getPackageContent("1", 0, 3);
+        doReturn(Arrays.asList(failing, valid)).when(packageRepository).getPackagesAfterId(null, 2);
+
+        // When
+        for (int i = 0; i < IntegrityScrubber.MAX_BATCH_ATTEMPTS; i++) {
+            scrubber.scrubNextBatch();
+        }
+
+        // Then
+        final ArgumentCaptor<ScrubResult> results = ArgumentCaptor.forClass(ScrubResult.class);
+        verify(scrubRepository, times(2)).saveResult(results.capture());
+        assertThat(results.getAllValues()).extracting("packageId", "status").containsExactly(
+                tuple("1", ScrubResult.Status.ERROR),
+                tuple("2", ScrubResult.Status.VALID)
+        );
+        verify(scrubRepository).saveCursor(anyString(), eq("2"));
+        assertThat(metrics()).contains(entry("scrub.errors", 1L));
+    }
+
+    @Test
+    public void scrubNextBatch_whenPassIsComplete_shouldResetTheCursor() {
+        // Given
+        doReturn(Optional.of("last")).when(scrubRepository).getCursor();
+        doReturn(Collections.emptyList()).when(packageRepository).getPackagesAfterId("last", 2);
+
+        // When
+        scrubber.scrubNextBatch();
+
+        // Then
+        verify(scrubRepository).saveCursor(anyString(), isNull(String.class));
+    }
+
+    @Test
+    public void scrubNextBatch_whenDisabled_shouldDoNothing() {
+        // Given
+        scrubber = new IntegrityScrubber(packageRepository, scrubRepository, false, 2, 0, 60000, 600000, scheduler, MoreExecutors.newDirectExecutorService());
+
+        // When
+        scrubber.scrubNextBatch();
+
+        // Then
+        verify(packageRepository, never()).getPackagesAfterId(anyString(), anyInt());
+        verify(scrubRepository, never()).getCursor();
+        verify(scrubRepository, never()).tryLease(anyString(), anyLong());
+    }
+
+    private PackageInfo givenPackage(String id, byte[] original, byte[] stored) {
+        final PackageInfo info = new PackageInfo(id, "a.exe", Hashing.md5().hashBytes(original).toString(), original.length, "user", id, null);
+        doReturn(Optional.of(new ByteArrayInputStream(stored))).when(packageRepository).getPackageContent(id, 0, original.length);
+        return info;
+    }
+
+    private Map<String, Number> metrics() {
+        return scrubber.metrics().stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.packageservice.manager;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.repository.PackageRepository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PackageContentCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private PackageRepository packageRepository;
+
+    @Test
+    public void getContent_whenDisabled_shouldReturnEmptyAndNeverFetchTheContent() throws IOException {
+        // Given
+        final PackageContentCache packageContentCache = new PackageContentCache(packageRepository, false, temporaryFolder.getRoot().getPath(), 1024);
+        final PackageInfo info = packageInfo(new byte[]{0, 1, 2});
+
+        // When
+        final Optional<InputStream> result = packageContentCache.getContent(info, 0, 3);
+
+        // Then
+        assertThat(result).isNotPresent();
+        verify(packageRepository, never()).getPackageContent(anyString(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void getContent_whenFilled_shouldServeTheRangeFromDisk() throws IOException {
+        // Given
+        final PackageContentCache packageContentCache = new PackageContentCache(packageRepository, true, temporaryFolder.getRoot().getPath(), 1024);
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+        final PackageInfo info = packageInfo(bytes);
+        doReturn(Optional.of(new ByteArrayInputStream(bytes))).when(packageRepository).getPackageContent(info.getId(), 0, bytes.length);
+        packageContentCache.fill(info);
+
+        // When
+        final Optional<InputStream> result = packageContentCache.getContent(info, 2, 3);
+
+        // Then
+        assertThat(result).isPresent();
+        assertThat(StreamUtils.copyToByteArray(result.get())).isEqualTo(new byte[]{2, 3, 4});
+        verify(packageRepository, times(1)).getPackageContent(anyString(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void getLocalPath_whenFilled_shouldReturnTheVerifiedCopy() throws IOException {
+        // Given
+        final PackageContentCache packageContentCache = new PackageContentCache(packageRepository, true, temporaryFolder.getRoot().getPath(), 1024);
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+        final PackageInfo info = packageInfo(bytes);
+        doReturn(Optional.of(new ByteArrayInputStream(bytes))).when(packageRepository).getPackageContent(info.getId(), 0, bytes.length);
+        packageContentCache.fill(info);
+
+        // When
+        final Optional<Path> result = packageContentCache.getLocalPath(info);
+
+        // Then
+        assertThat(result).isPresent();
+        assertThat(Files.readAllBytes(result.get())).isEqualTo(bytes);
+    }
+
+    @Test
+    public void getLocalPath_whenNotFilled_shouldReturnEmptyAndNotFillIt() throws IOException {
+        // Given
+        final PackageContentCache packageContentCache = new PackageContentCache(packageRepository, true, temporaryFolder.getRoot().getPath(), 1024, MoreExecutors.newDirectExecutorService());
+        final PackageInfo info = packageInfo(new byte[]{0, 1, 2});
+
+        // When
+        final Optional<Path> result = packageContentCache.getLocalPath(info);
+
+        // Then
+        assertThat(result).isNotPresent();
+        verify(packageRepository, never()).getPackageContent(anyString(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void fill_whenContentDoesNotMatchTheMd5_shouldNotCacheIt() throws IOException {
+        // Given
+        final PackageContentCache packageContentCache = new PackageContentCache(packageRepository, true, temporaryFolder.getRoot().getPath(), 1024);
+        final PackageInfo info = packageInfo(new byte[]{0, 1, 2});
+        doReturn(Optional.of(new ByteArrayInputStream(new byte[]{0, 1, 3}))).when(packageRepository).getPackageContent(info.getId(), 0, 3);
+
+        // When
+        packageContentCache.fill(info);
+
+        // Then
+        assertThat(contentDirectory().list()).containsOnly(PackageContentCache.MARKER_FILE);
+    }
+
+    @Test
+    public void fill_whenCapacityIsExceeded_shouldEvictAndDeleteTheOldestPackage() throws IOException {
+        // Given
+        final PackageContentCache packageContentCache = new PackageContentCache(packageRepository, true, temporaryFolder.getRoot().getPath(), 8);
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+        final PackageInfo first = packageInfo(bytes);
+        final PackageInfo second = packageInfo(bytes);
+        doReturn(Optional.of(new ByteArrayInputStream(bytes))).when(packageRepository).getPackageContent(first.getId(), 0, bytes.length);
+        doReturn(Optional.of(new ByteArrayInputStream(bytes))).when(packageRepository).getPackageContent(second.getId(), 0, bytes.length);
+
+        // When
+        packageContentCache.fill(first);
+        packageContentCache.fill(second);
+
+        // Then
+        assertThat(contentDirectory().list()).containsOnly(PackageContentCache.MARKER_FILE, second.getId());
+    }
+
+    @Test
+    public void getContent_whenPackageIsLargerThanTheCapacity_shouldNeverFillIt() throws IOException {
+        // Given
+        final PackageContentCache packageContentCache = new PackageContentCache(packageRepository, true, temporaryFolder.getRoot().getPath(), 4, MoreExecutors.newDirectExecutorService());
+        final PackageInfo info = packageInfo(new byte[]{0, 1, 2, 3, 4, 5});
+
+        // When
+        final Optional<InputStream> result = packageContentCache.getContent(info, 0, 6);
+
+        // Then
+        assertThat(result).isNotPresent();
+        verify(packageRepository, never()).getPackageContent(anyString(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void getContent_whenPackageIsNotCachedYet_shouldFillIt() throws IOException {
+        // Given
+        final PackageContentCache packageContentCache = new PackageContentCache(packageRepository, true, temporaryFolder.getRoot().getPath(), 1024, MoreExecutors.newDirectExecutorService());
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+        final PackageInfo info = packageInfo(bytes);
+        doReturn(Optional.of(new ByteArrayInputStream(bytes))).when(packageRepository).getPackageContent(info.getId(), 0, bytes.length);
+
+        // When
+        final Optional<InputStream> miss = packageContentCache.getContent(info, 0, 6);
+        final Optional<InputStream> hit = packageContentCache.getContent(info, 0, 6);
+
+        // Then
+        assertThat(miss).isNotPresent();
+        assertThat(hit).isPresent();
+        assertThat(StreamUtils.copyToByteArray(hit.get())).isEqualTo(bytes);
+    }
+
+    @Test
+    public void constructor_whenRestarted_shouldOnlyEmptyTheContentDirectory() throws IOException {
+        // Given
+        final File unrelated = temporaryFolder.newFile("unrelated");
+        new PackageContentCache(packageRepository, true, temporaryFolder.getRoot().getPath(), 1024);
+        final File stale = new File(contentDirectory(), UUID.randomUUID().toString());
+        assertThat(stale.createNewFile()).isTrue();
+
+        // When
+        new PackageContentCache(packageRepository, true, temporaryFolder.getRoot().getPath(), 1024);
+
+        // Then
+        assertThat(unrelated).exists();
+        assertThat(contentDirectory().list()).containsOnly(PackageContentCache.MARKER_FILE);
+    }
+
+    @Test
+    public void constructor_whenContentDirectoryWasNotCreatedByTheCache_shouldFailAndKeepItsFiles() throws IOException {
+        // Given
+        final File foreign = new File(temporaryFolder.newFolder(PackageContentCache.CONTENT_DIRECTORY), "foreign");
+        assertThat(foreign.createNewFile()).isTrue();
+
+        // Then
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(() -> new PackageContentCache(packageRepository, true, temporaryFolder.getRoot().getPath(), 1024));
+        assertThat(foreign).exists();
+    }
+
+    private File contentDirectory() {
+        return new File(temporaryFolder.getRoot(), PackageContentCache.CONTENT_DIRECTORY);
+    }
+
+    private PackageInfo packageInfo(byte[] bytes) {
+        return new PackageInfo(
+                UUID.randomUUID().toString(),
+                "filename",
+                Hashing.md5().hashBytes(bytes).toString(),
+                bytes.length,
+                "user",
+                "v0.1",
+                null
+        );
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.packageservice.manager;
+
+import io.barracks.packageservice.model.PackageInfo;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PackageInfoCacheTest {
+
+    private PackageInfoCache packageInfoCache;
+
+    @Before
+    public void setUp() throws Exception {
+        packageInfoCache = new PackageInfoCache(2, 60);
+    }
+
+    @Test
+    public void getById_whenLoaderReturnsEmpty_shouldNotCacheTheResult() {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final AtomicInteger calls = new AtomicInteger();
+
+        // When
+        packageInfoCache.getById(packageId, () -> {
+            calls.incrementAndGet();
+            return Optional.empty();
+        });
+        final Optional<PackageInfo> result = packageInfoCache.getById(packageId, () -> {
+            calls.incrementAndGet();
+            return Optional.empty();
+        });
+
+        // Then
+        assertThat(result).isNotPresent();
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void getByUserIdAndVersionId_whenPackageWasLoadedById_shouldReturnItWithoutLoading() {
+        // Given
+        final PackageInfo info = packageInfo();
+        packageInfoCache.getById(info.getId(), () -> Optional.of(info));
+
+        // When
+        final Optional<PackageInfo> result = packageInfoCache.getByUserIdAndVersionId(info.getUserId(), info.getVersionId(), Optional::empty);
+
+        // Then
+        assertThat(result).contains(info);
+    }
+
+    @Test
+    public void invalidate_shouldRemoveBothEntries() {
+        // Given
+        final PackageInfo info = packageInfo();
+        packageInfoCache.put(info);
+
+        // When
+        packageInfoCache.invalidate(info);
+
+        // Then
+        assertThat(packageInfoCache.getById(info.getId(), Optional::empty)).isNotPresent();
+        assertThat(packageInfoCache.getByUserIdAndVersionId(info.getUserId(), info.getVersionId(), Optional::empty)).isNotPresent();
+    }
+
+    @Test
+    public void metrics_shouldReportHitsMissesAndEvictions() {
+        // Given
+        final PackageInfo first = packageInfo();
+        packageInfoCache.put(first);
+        packageInfoCache.put(packageInfo());
+        packageInfoCache.put(packageInfo());
+        packageInfoCache.getById(UUID.randomUUID().toString(), Optional::empty);
+        packageInfoCache.getById(first.getId(), Optional::empty);
+
+        // When
+        final Map<String, Number> metrics = packageInfoCache.metrics().stream()
+                .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+
+        // Then
+        assertThat(metrics.get(PackageInfoCache.METRIC_PREFIX + "byId.size")).isEqualTo(2L);
+        assertThat(metrics.get(PackageInfoCache.METRIC_PREFIX + "byId.miss")).isEqualTo(2L);
+        assertThat(metrics.get(PackageInfoCache.METRIC_PREFIX + "byId.eviction")).isEqualTo(1L);
+    }
+
+    private PackageInfo packageInfo() {
+        return new PackageInfo(UUID.randomUUID().toString(), "filename", "md5", 42, UUID.randomUUID().toString(), "v0.1", null);
+    }
+}
@@ -24,30 +24,50 @@
 
 package io.barracks.packageservice.manager;
 
+import io.barracks.packageservice.manager.exception.InvalidPackageContentException;
 import io.barracks.packageservice.manager.exception.InvalidPackageVersionException;
 import io.barracks.packageservice.manager.exception.PackageConflictException;
+import io.barracks.packageservice.manager.validation.UploadValidation;
+import io.barracks.packageservice.model.PackageFilter;
 import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.PackageLookup;
+import io.barracks.packageservice.model.PackageLookupResult;
 import io.barracks.packageservice.repository.PackageRepository;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.mock.web.MockMultipartFile;
 
 import javax.xml.bind.annotation.adapters.HexBinaryAdapter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -56,11 +76,14 @@ public class PackageManagerTest {
     @Mock
     private PackageRepository packageRepository;
 
+    @Mock
+    private PackageContentCache packageContentCache;
+
     private PackageManager packageManager;
 
     @Before
     public void setUp() throws Exception {
-        packageManager = new PackageManager(packageRepository);
+        packageManager = new PackageManager(packageRepository, new PackageInfoCache(100, 60), packageContentCache, new UploadValidation(Collections.emptyList()));
     }
 
     @Test
@@ -75,15 +98,14 @@ public class PackageManagerTest {
         final InputStream inputStream = multipartFile.getInputStream();
         PackageInfo expectedToSave = new PackageInfo(null, multipartFile.getOriginalFilename(), null, -1, userId, versionId, inputStream);
         PackageInfo expected = new PackageInfo(UUID.randomUUID().toString(), multipartFile.getOriginalFilename(), expectedMd5String, bytes.length, userId, versionId, null);
-        doReturn(Optional.empty()).when(packageRepository).findByUserIdAndVersionId(userId, versionId);
-        doReturn(expected).when(packageRepository).savePackage(expectedToSave, multipartFile.getContentType());
+        doReturn(expected).when(packageRepository).savePackage(expectedToSave, multipartFile.getContentType(), null);
 
         // When
         final PackageInfo saved = packageManager.save(multipartFile.getOriginalFilename(), multipartFile.getContentType(), inputStream, userId, versionId);
 
         // Then
-        verify(packageRepository).findByUserIdAndVersionId(userId, versionId);
-        verify(packageRepository).savePackage(expectedToSave, multipartFile.getContentType());
+        verify(packageRepository, never()).findByUserIdAndVersionId(userId, versionId);
+        verify(packageRepository).savePackage(expectedToSave, multipartFile.getContentType(), null);
         assertThat(saved).isEqualTo(expected);
     }
 
@@ -95,13 +117,36 @@ public class PackageManagerTest {
         final MockMultipartFile multipartFile = new MockMultipartFile("file", "Example.exe", "application/x-msdownload", bytes);
         final String userId = UUID.randomUUID().toString();
         final String versionId = "v0.1";
-        doReturn(Optional.of(new PackageInfo(null, null, null, -1, null, null, null))).when(packageRepository).findByUserIdAndVersionId(userId, versionId);
+        doThrow(new DuplicateKeyException("Duplicate")).when(packageRepository).savePackage(any(PackageInfo.class), eq(multipartFile.getContentType()), eq((String) null));
 
         // Then When
         assertThatExceptionOfType(PackageConflictException.class)
                 .isThrownBy(() -> packageManager.save(multipartFile.getOriginalFilename(), multipartFile.getContentType(), multipartFile.getInputStream(), userId, versionId));
     }
 
+    @Test
+    public void save_whenSha256IsMalformed_shouldThrowInvalidPackageContentException() {
+        // Given
+        final InputStream inputStream = new ByteArrayInputStream(new byte[]{0, 1, 2});
+
+        // Then When
+        assertThatExceptionOfType(InvalidPackageContentException.class)
+                .isThrownBy(() -> packageManager.save("Example.exe", "application/x-msdownload", inputStream, "user", "v0.1", "not-a-hash"));
+        verify(packageRepository, never()).savePackage(any(PackageInfo.class), anyString(), anyString());
+    }
+
+    @Test
+    public void save_whenContentDoesNotMatchSha256_shouldThrowInvalidPackageContentException() {
+        // Given
+        final InputStream inputStream = new ByteArrayInputStream(new byte[]{0, 1, 2});
+        final String sha256 = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+        doThrow(new DataIntegrityViolationException("Mismatch")).when(packageRepository).savePackage(any(PackageInfo.class), anyString(), eq(sha256));
+
+        // Then When
+        assertThatExceptionOfType(InvalidPackageContentException.class)
+                .isThrownBy(() -> packageManager.save("Example.exe", "application/x-msdownload", inputStream, "user", "v0.1", sha256));
+    }
+
     @Test
     public void save_whenVersionIdIsEmpty_shouldThrowInvalidPackageVersionException() throws IOException {
         // Given
@@ -130,6 +175,124 @@ public class PackageManagerTest {
         assertThat(result).isEqualTo(expected);
     }
 
+    @Test
+    public void findById_whenCalledTwice_shouldOnlyCallTheRepositoryOnce() {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo expected = new PackageInfo(packageId, "filename", "md5", 42, "user", "v0.1", null);
+        doReturn(Optional.of(expected)).when(packageRepository).findById(packageId);
+
+        // When
+        packageManager.findById(packageId);
+        Optional<PackageInfo> result = packageManager.findById(packageId);
+
+        // Then
+        verify(packageRepository, times(1)).findById(packageId);
+        assertThat(result).contains(expected);
+    }
+
+    @Test
+    public void findCachedById_shouldOnlyReturnPackagesAlreadyCached() {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo expected = new PackageInfo(packageId, "filename", "md5", 42, "user", "v0.1", null);
+        doReturn(Optional.of(expected)).when(packageRepository).findById(packageId);
+
+        // When
+        final Optional<PackageInfo> before = packageManager.findCachedById(packageId);
+        packageManager.findById(packageId);
+        final Optional<PackageInfo> after = packageManager.findCachedById(packageId);
+
+        // Then
+        verify(packageRepository, times(1)).findById(packageId);
+        assertThat(before).isEmpty();
+        assertThat(after).contains(expected);
+    }
+
+    @Test
+    public void findById_whenPackageWasJustSaved_shouldNotCallTheRepository() throws IOException {
+        // Given
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+        final MockMultipartFile multipartFile = new MockMultipartFile("file", "Example.exe", "application/x-msdownload", bytes);
+        final String userId = UUID.randomUUID().toString();
+        final String versionId = "v0.1";
+        final PackageInfo expected = new PackageInfo(UUID.randomUUID().toString(), multipartFile.getOriginalFilename(), "md5", bytes.length, userId, versionId, null);
+        doReturn(expected).when(packageRepository).savePackage(any(PackageInfo.class), eq(multipartFile.getContentType()), eq((String) null));
+        packageManager.save(multipartFile.getOriginalFilename(), multipartFile.getContentType(), multipartFile.getInputStream(), userId, versionId);
+
+        // When
+        Optional<PackageInfo> result = packageManager.findById(expected.getId());
+
+        // Then
+        verify(packageRepository, never()).findById(anyString());
+        assertThat(result).contains(expected);
+        assertThatExceptionOfType(PackageConflictException.class)
+                .isThrownBy(() -> packageManager.save(multipartFile.getOriginalFilename(), multipartFile.getContentType(), multipartFile.getInputStream(), userId, versionId));
+        verify(packageRepository, times(1)).savePackage(any(PackageInfo.class), eq(multipartFile.getContentType()), eq((String) null));
+    }
+
+    @Test
+    public void getPackageContent_whenNotCached_shouldForwardCallToTheRepositoryAndReturnTheResult() {
+        // Given
+        final Optional<InputStream> expected = Optional.of(new ByteArrayInputStream(new byte[]{0, 1, 2}));
+        final PackageInfo info = new PackageInfo(UUID.randomUUID().toString(), "filename", "md5", 64, "user", "v0.1", null);
+        doReturn(Optional.empty()).when(packageContentCache).getContent(info, 42, 3);
+        doReturn(expected).when(packageRepository).getPackageContent(info.getId(), 42, 3);
+
+        // When
+        Optional<InputStream> result = packageManager.getPackageContent(info, 42, 3);
+
+        // Then
+        verify(packageContentCache).getContent(info, 42, 3);
+        verify(packageRepository).getPackageContent(info.getId(), 42, 3);
+        assertThat(result).isEqualTo(expected);
+    }
+
+    @Test
+    public void getPackageContent_whenCached_shouldNotCallTheRepository() {
+        // Given
+        final Optional<InputStream> expected = Optional.of(new ByteArrayInputStream(new byte[]{0, 1, 2}));
+        final PackageInfo info = new PackageInfo(UUID.randomUUID().toString(), "filename", "md5", 64, "user", "v0.1", null);
+        doReturn(expected).when(packageContentCache).getContent(info, 42, 3);
+
+        // When
+        Optional<InputStream> result = packageManager.getPackageContent(info, 42, 3);
+
+        // Then
+        verify(packageRepository, never()).getPackageContent(anyString(), anyLong(), anyLong());
+        assertThat(result).isEqualTo(expected);
+    }
+
+    @Test
+    public void getLocalContentPath_whenTheStoreHasNoLocalFile_shouldReturnTheCachedCopy() {
+        // Given
+        final PackageInfo info = new PackageInfo(UUID.randomUUID().toString(), "filename", "md5", 64, "user", "v0.1", null);
+        final Path cached = Paths.get("cache", info.getId());
+        doReturn(Optional.empty()).when(packageRepository).getLocalContentPath(info.getId());
+        doReturn(Optional.of(cached)).when(packageContentCache).getLocalPath(info);
+
+        // When
+        final Optional<Path> result = packageManager.getLocalContentPath(info);
+
+        // Then
+        assertThat(result).contains(cached);
+    }
+
+    @Test
+    public void getLocalContentPath_whenTheStoreHasALocalFile_shouldNotLookTheCacheUp() {
+        // Given
+        final PackageInfo info = new PackageInfo(UUID.randomUUID().toString(), "filename", "md5", 64, "user", "v0.1", null);
+        final Path stored = Paths.get("store", info.getId());
+        doReturn(Optional.of(stored)).when(packageRepository).getLocalContentPath(info.getId());
+
+        // When
+        final Optional<Path> result = packageManager.getLocalContentPath(info);
+
+        // Then
+        assertThat(result).contains(stored);
+        verify(packageContentCache, never()).getLocalPath(any(PackageInfo.class));
+    }
+
     @Test
     public void getAllPackages_shouldForwardCallToTheRepositoryAndReturnTheResult() {
         // Given
@@ -144,4 +307,74 @@ public class PackageManagerTest {
         verify(packageRepository).getAllPackages(userId);
         assertThat(result).isEqualTo(expected);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getPackages_shouldForwardCallToTheRepositoryAndReturnTheResult() {
+        // Given
+        final List<PackageInfo> expected = Collections.emptyList();
+        final PackageFilter filter = new PackageFilter(UUID.randomUUID().toString(), "v1.", null);
+        doReturn(expected).when(packageRepository).getPackages(filter, "v1.0", "id", 10);
+
+        // When
+        List<PackageInfo> result = packageManager.getPackages(filter, "v1.0", "id", 10);
+
+        // Then
+        verify(packageRepository).getPackages(filter, "v1.0", "id", 10);
+        assertThat(result).isEqualTo(expected);
+    }
+
+    @Test
+    public void streamPackages_shouldForwardCallToTheRepository() {
+        // Given
+        final PackageFilter filter = new PackageFilter(UUID.randomUUID().toString(), null, null);
+        final Consumer<PackageInfo> consumer = packageInfo -> {
+        };
+
+        // When
+        packageManager.streamPackages(filter, consumer);
+
+        // Then
+        verify(packageRepository).streamPackages(filter, consumer);
+    }
+
+    @Test
+    public void lookup_shouldReturnOneResultPerLookupInRequestOrder() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final PackageInfo first = new PackageInfo("id1", "a.exe", "md5", 1, userId, "v1", null);
+        final PackageInfo second = new PackageInfo("id2", "b.exe", "md5", 2, userId, "v2", null);
+        final List<PackageLookup> lookups = Arrays.asList(
+                PackageLookup.byVersion(userId, "v2"),
+                PackageLookup.byId("unknown"),
+                PackageLookup.byId("id1")
+        );
+        doReturn(Arrays.asList(first, second)).when(packageRepository).findAll(lookups);
+
+        // When
+        final List<PackageLookupResult> results = packageManager.lookup(lookups);
+
+        // Then
+        assertThat(results).containsExactly(
+                new PackageLookupResult(lookups.get(0), Optional.of(second)),
+                new PackageLookupResult(lookups.get(1), Optional.empty()),
+                new PackageLookupResult(lookups.get(2), Optional.of(first))
+        );
+    }
+
+    @Test
+    public void lookup_whenPackagesAreCached_shouldOnlyQueryTheRepositoryForTheOthers() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final PackageInfo cached = new PackageInfo("id1", "a.exe", "md5", 1, userId, "v1", null);
+        doReturn(Optional.of(cached)).when(packageRepository).findById("id1");
+        packageManager.findById("id1");
+        doReturn(Collections.emptyList()).when(packageRepository).findAll(Collections.singletonList(PackageLookup.byId("id2")));
+
+        // When
+        final List<PackageLookupResult> results = packageManager.lookup(Arrays.asList(PackageLookup.byVersion(userId, "v1"), PackageLookup.byId("id2")));
+
+        // Then
+        verify(packageRepository).findAll(Collections.singletonList(PackageLookup.byId("id2")));
+        assertThat(results).extracting(PackageLookupResult::isFound).containsExactly(true, false);
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager;
+
+import io.barracks.packageservice.manager.exception.InvalidPackageContentException;
+import io.barracks.packageservice.manager.exception.InvalidPackageVersionException;
+import io.barracks.packageservice.manager.exception.PackageConflictException;
+import io.barracks.packageservice.manager.exception.UploadSessionNotFoundException;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.UploadSession;
+import io.barracks.packageservice.repository.UploadSessionRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UploadSessionManagerTest {
+
+    @Mock
+    private UploadSessionRepository uploadSessionRepository;
+
+    @Mock
+    private PackageManager packageManager;
+
+    private UploadSessionManager uploadSessionManager;
+
+    @Before
+    public void setUp() throws Exception {
+        uploadSessionManager = new UploadSessionManager(uploadSessionRepository, packageManager, 4, 8, 60, 3600, 10);
+    }
+
+    @Test
+    public void create_withoutPartSize_shouldUseTheDefaultPartSize() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final UploadSession expected = session(Collections.emptyList());
+        doReturn(expected).when(uploadSessionRepository).createSession(userId, "v0.1", "Example.exe", null, null, 4);
+
+        // When
+        final UploadSession session = uploadSessionManager.create("Example.exe", userId, "v0.1", null, null, null);
+
+        // Then
+        assertThat(session).isEqualTo(expected);
+    }
+
+    @Test
+    public void create_withInvalidParameters_shouldThrowAndNotCreateASession() {
+        // Then When
+        assertThatExceptionOfType(InvalidPackageVersionException.class)
+                .isThrownBy(() -> uploadSessionManager.create("Example.exe", "user", " ", null, null, null));
+        assertThatExceptionOfType(InvalidPackageContentException.class)
+                .isThrownBy(() -> uploadSessionManager.create("Example.exe", "user", "v0.1", "not-a-hash", null, null));
+        assertThatExceptionOfType(InvalidPackageContentException.class)
+                .isThrownBy(() -> uploadSessionManager.create("Example.exe", "user", "v0.1", null, null, 9L));
+        verify(uploadSessionRepository, never()).createSession(anyString(), anyString(), anyString(), anyString(), anyString(), any(Long.class));
+    }
+
+    @Test
+    public void savePart_whenSessionDoesNotExist_shouldThrowUploadSessionNotFoundException() {
+        // Given
+        doReturn(Optional.empty()).when(uploadSessionRepository).findById("session");
+
+        // Then When
+        assertThatExceptionOfType(UploadSessionNotFoundException.class)
+                .isThrownBy(() -> uploadSessionManager.savePart("session", 0, new ByteArrayInputStream(new byte[]{0})));
+    }
+
+    @Test
+    public void savePart_whenSessionIsBeingCommitted_shouldThrowPackageConflictException() {
+        // Given
+        final UploadSession session = session(Collections.emptyList());
+        final InputStream content = new ByteArrayInputStream(new byte[]{0});
+        doReturn(Optional.of(session)).when(uploadSessionRepository).findById(session.getId());
+        doReturn(Optional.empty()).when(uploadSessionRepository).savePart(session.getId(), 0, content, 4);
+
+        // Then When
+        assertThatExceptionOfType(PackageConflictException.class)
+                .isThrownBy(() -> uploadSessionManager.savePart(session.getId(), 0, content));
+    }
+
+    @Test
+    public void savePart_whenPartsWouldExceedTheMaxSize_shouldOnlyAcceptTheRemainingBytes() {
+        // Given
+        final UploadSession session = session(Arrays.asList(new UploadSession.Part(0, 4, "a"), new UploadSession.Part(1, 4, "b")));
+        final InputStream content = new ByteArrayInputStream(new byte[4]);
+        doReturn(Optional.of(session)).when(uploadSessionRepository).findById(session.getId());
+        doThrow(new DataIntegrityViolationException("Part 2 is larger than 2 bytes")).when(uploadSessionRepository).savePart(session.getId(), 2, content, 2);
+
+        // Then When
+        assertThatThrownBy(() -> uploadSessionManager.savePart(session.getId(), 2, content))
+                .isInstanceOf(InvalidPackageContentException.class)
+                .hasMessage("Package is larger than 10 bytes");
+    }
+
+    @Test
+    public void savePart_whenReplacingAPart_shouldNotCountItsPreviousLength() {
+        // Given
+        final UploadSession session = session(Arrays.asList(new UploadSession.Part(0, 4, "a"), new UploadSession.Part(1, 4, "b")));
+        final InputStream content = new ByteArrayInputStream(new byte[4]);
+        doReturn(Optional.of(session)).when(uploadSessionRepository).findById(session.getId());
+        doReturn(Optional.of(session)).when(uploadSessionRepository).savePart(session.getId(), 1, content, 4);
+
+        // When
+        final UploadSession saved = uploadSessionManager.savePart(session.getId(), 1, content);
+
+        // Then
+        assertThat(saved).isEqualTo(session);
+    }
+
+    @Test
+    public void savePart_withInvalidPartNumber_shouldThrowInvalidPackageContentException() {
+        // Then When
+        assertThatExceptionOfType(InvalidPackageContentException.class)
+                .isThrownBy(() -> uploadSessionManager.savePart("session", UploadSessionManager.MAX_PARTS, new ByteArrayInputStream(new byte[]{0})));
+    }
+
+    @Test
+    public void commit_whenAllPartsWereReceived_shouldSaveThePackageAndDeleteTheSession() {
+        // Given
+        final UploadSession session = session(Arrays.asList(new UploadSession.Part(1, 2, "b"), new UploadSession.Part(0, 4, "a")));
+        final InputStream content = new ByteArrayInputStream(new byte[6]);
+        final PackageInfo expected = new PackageInfo("id", "Example.exe", "md5", 6, session.getUserId(), "v0.1", null);
+        doReturn(Optional.of(session)).when(uploadSessionRepository).startCommit(session.getId());
+        doReturn(content).when(uploadSessionRepository).getContent(session);
+        doReturn(expected).when(packageManager).save("Example.exe", MediaType.APPLICATION_OCTET_STREAM_VALUE, content, session.getUserId(), "v0.1", null, null);
+
+        // When
+        final PackageInfo saved = uploadSessionManager.commit(session.getId());
+
+        // Then
+        assertThat(saved).isEqualTo(expected);
+        verify(uploadSessionRepository).finishCommit(session.getId());
+    }
+
+    @Test
+    public void commit_whenAPartIsMissing_shouldThrowAndKeepTheSession() {
+        // Given
+        final UploadSession session = session(Arrays.asList(new UploadSession.Part(0, 4, "a"), new UploadSession.Part(2, 2, "c")));
+        doReturn(Optional.of(session)).when(uploadSessionRepository).startCommit(session.getId());
+
+        // Then When
+        assertThatThrownBy(() -> uploadSessionManager.commit(session.getId()))
+                .isInstanceOf(InvalidPackageContentException.class)
+                .hasMessageContaining("Part 1");
+        verify(uploadSessionRepository).cancelCommit(session.getId());
+        verify(uploadSessionRepository, never()).finishCommit(anyString());
+    }
+
+    @Test
+    public void commit_whenAPartOtherThanTheLastIsShort_shouldThrowInvalidPackageContentException() {
+        // Given
+        final UploadSession session = session(Arrays.asList(new UploadSession.Part(0, 3, "a"), new UploadSession.Part(1, 2, "b")));
+        doReturn(Optional.of(session)).when(uploadSessionRepository).startCommit(session.getId());
+
+        // Then When
+        assertThatExceptionOfType(InvalidPackageContentException.class)
+                .isThrownBy(() -> uploadSessionManager.commit(session.getId()));
+    }
+
+    @Test
+    public void commit_whenVersionAlreadyExists_shouldThrowPackageConflictExceptionAndKeepTheSession() {
+        // Given
+        final UploadSession session = session(Collections.singletonList(new UploadSession.Part(0, 2, "a")));
+        doReturn(Optional.of(session)).when(uploadSessionRepository).startCommit(session.getId());
+        doReturn(new ByteArrayInputStream(new byte[2])).when(uploadSessionRepository).getContent(session);
+        doThrow(new PackageConflictException("Conflict")).when(packageManager)
+                .save(anyString(), anyString(), any(InputStream.class), anyString(), anyString(), eq((String) null), eq((String) null));
+
+        // Then When
+        assertThatExceptionOfType(PackageConflictException.class)
+                .isThrownBy(() -> uploadSessionManager.commit(session.getId()));
+        verify(uploadSessionRepository).cancelCommit(session.getId());
+        verify(uploadSessionRepository, never()).finishCommit(anyString());
+    }
+
+    @Test
+    public void commit_whenSessionIsAlreadyBeingCommitted_shouldThrowPackageConflictException() {
+        // Given
+        final UploadSession session = session(Collections.singletonList(new UploadSession.Part(0, 2, "a")));
+        doReturn(Optional.empty()).when(uploadSessionRepository).startCommit(session.getId());
+        doReturn(Optional.of(session)).when(uploadSessionRepository).findById(session.getId());
+
+        // Then When
+        assertThatExceptionOfType(PackageConflictException.class)
+                .isThrownBy(() -> uploadSessionManager.commit(session.getId()));
+        verify(uploadSessionRepository, never()).getContent(any(UploadSession.class));
+        verify(uploadSessionRepository, never()).cancelCommit(anyString());
+    }
+
+    @Test
+    public void commit_whenSessionDoesNotExist_shouldThrowUploadSessionNotFoundException() {
+        // Given
+        doReturn(Optional.empty()).when(uploadSessionRepository).startCommit("session");
+        doReturn(Optional.empty()).when(uploadSessionRepository).findById("session");
+
+        // Then When
+        assertThatExceptionOfType(UploadSessionNotFoundException.class)
+                .isThrownBy(() -> uploadSessionManager.commit("session"));
+    }
+
+    @Test
+    public void delete_whenSessionIsBeingCommitted_shouldThrowPackageConflictException() {
+        // Given
+        final UploadSession session = session(Collections.emptyList());
+        doReturn(false).when(uploadSessionRepository).deleteSession(session.getId());
+        doReturn(Optional.of(session)).when(uploadSessionRepository).findById(session.getId());
+
+        // Then When
+        assertThatExceptionOfType(PackageConflictException.class)
+                .isThrownBy(() -> uploadSessionManager.delete(session.getId()));
+    }
+
+    @Test
+    public void delete_whenSessionDoesNotExist_shouldThrowUploadSessionNotFoundException() {
+        // Given
+        doReturn(false).when(uploadSessionRepository).deleteSession("session");
+        doReturn(Optional.empty()).when(uploadSessionRepository).findById("session");
+
+        // Then When
+        assertThatExceptionOfType(UploadSessionNotFoundException.class)
+                .isThrownBy(() -> uploadSessionManager.delete("session"));
+    }
+
+    @Test
+    public void deleteStaleSessions_shouldDeleteSessionsOlderThanTheTtlAndCommitsOlderThanTheTimeout() {
+        // Given
+        final ArgumentCaptor<Date> before = ArgumentCaptor.forClass(Date.class);
+        final ArgumentCaptor<Date> commitStartedBefore = ArgumentCaptor.forClass(Date.class);
+        final long now = System.currentTimeMillis();
+
+        // When
+        uploadSessionManager.deleteStaleSessions();
+
+        // Then
+        verify(uploadSessionRepository).deleteSessionsUpdatedBefore(before.capture(), commitStartedBefore.capture());
+        assertThat(before.getValue().getTime()).isBetween(now - 60000, System.currentTimeMillis() - 60000);
+        assertThat(commitStartedBefore.getValue().getTime()).isBetween(now - 3600000, System.currentTimeMillis() - 3600000);
+    }
+
+    private UploadSession session(List<UploadSession.Part> parts) {
+        return new UploadSession(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "v0.1", "Example.exe", null, null, 4, new Date(), new Date(), parts);
+    }
+}
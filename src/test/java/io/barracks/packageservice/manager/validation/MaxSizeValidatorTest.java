@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager.validation;
+
+import io.barracks.packageservice.manager.exception.InvalidPackageContentException;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class MaxSizeValidatorTest {
+    private final PackageUpload upload = new PackageUpload("a.exe", "user", "v1", null);
+
+    @Test
+    public void start_whenMaxSizeIsDisabled_shouldReturnEmpty() {
+        // When
+        final Optional<ContentCheck> check = new MaxSizeValidator(0).start(upload);
+
+        // Then
+        assertThat(check).isNotPresent();
+    }
+
+    @Test
+    public void update_whenContentFitsInTheMaxSize_shouldAcceptIt() {
+        // Given
+        final ContentCheck check = new MaxSizeValidator(4).start(upload).get();
+
+        // When
+        check.update(new byte[3], 0, 3);
+        check.update(new byte[3], 0, 1);
+        check.verify();
+    }
+
+    @Test
+    public void update_whenContentExceedsTheMaxSize_shouldAbortImmediately() {
+        // Given
+        final ContentCheck check = new MaxSizeValidator(4).start(upload).get();
+        check.update(new byte[3], 0, 3);
+
+        // Then
+        assertThatExceptionOfType(InvalidPackageContentException.class)
+                .isThrownBy(() -> check.update(new byte[3], 0, 2));
+    }
+}
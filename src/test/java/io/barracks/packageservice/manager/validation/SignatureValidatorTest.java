@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager.validation;
+
+import io.barracks.packageservice.manager.exception.InvalidPackageContentException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class SignatureValidatorTest {
+    private static final String ALGORITHM = "SHA256withRSA";
+    private static final byte[] CONTENT = {0, 1, 2, 3, 4, 5};
+
+    private static KeyPair keyPair;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        keyPair = generator.generateKeyPair();
+    }
+
+    @Test
+    public void start_whenSignatureIsValid_shouldAcceptTheContent() throws Exception {
+        // Given
+        final SignatureValidator validator = new SignatureValidator(
+                Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()), "RSA", ALGORITHM, true
+        );
+        final ContentCheck check = validator.start(new PackageUpload("a.exe", "user", "v1", sign(CONTENT))).get();
+
+        // When
+        check.update(CONTENT, 0, 4);
+        check.update(CONTENT, 4, 2);
+        check.verify();
+    }
+
+    @Test
+    public void verify_whenContentWasTamperedWith_shouldRejectIt() throws Exception {
+        // Given
+        final ContentCheck check = new SignatureValidator(keyPair.getPublic(), ALGORITHM, false)
+                .start(new PackageUpload("a.exe", "user", "v1", sign(CONTENT))).get();
+        check.update(new byte[]{0, 1, 2, 3, 4, 6}, 0, 6);
+
+        // Then
+        assertThatExceptionOfType(InvalidPackageContentException.class).isThrownBy(check::verify);
+    }
+
+    @Test
+    public void start_whenSignatureIsMissingAndRequired_shouldRejectTheUploadBeforeReadingIt() {
+        // Given
+        final SignatureValidator validator = new SignatureValidator(keyPair.getPublic(), ALGORITHM, true);
+
+        // Then
+        assertThatExceptionOfType(InvalidPackageContentException.class)
+                .isThrownBy(() -> validator.start(new PackageUpload("a.exe", "user", "v1", null)));
+    }
+
+    @Test
+    public void start_whenSignatureIsNotBase64_shouldRejectTheUpload() {
+        // Given
+        final SignatureValidator validator = new SignatureValidator(keyPair.getPublic(), ALGORITHM, false);
+
+        // Then
+        assertThatExceptionOfType(InvalidPackageContentException.class)
+                .isThrownBy(() -> validator.start(new PackageUpload("a.exe", "user", "v1", "not base64!")));
+    }
+
+    @Test
+    public void start_whenSignatureIsOptionalAndMissing_shouldReturnEmpty() {
+        // When
+        final Optional<ContentCheck> check = new SignatureValidator(keyPair.getPublic(), ALGORITHM, false)
+                .start(new PackageUpload("a.exe", "user", "v1", null));
+
+        // Then
+        assertThat(check).isNotPresent();
+    }
+
+    @Test
+    public void start_whenNoKeyIsConfigured_shouldReturnEmpty() {
+        // When
+        final Optional<ContentCheck> check = new SignatureValidator(" ", "RSA", ALGORITHM, false)
+                .start(new PackageUpload("a.exe", "user", "v1", "c2lnbmF0dXJl"));
+
+        // Then
+        assertThat(check).isNotPresent();
+    }
+
+    private static String sign(byte[] content) throws Exception {
+        final Signature signature = Signature.getInstance(ALGORITHM);
+        signature.initSign(keyPair.getPrivate());
+        signature.update(content);
+        return Base64.getEncoder().encodeToString(signature.sign());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.manager.validation;
+
+import io.barracks.packageservice.manager.exception.InvalidPackageContentException;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class UploadValidationTest {
+
+    @Test
+    public void validate_whenNoValidatorApplies_shouldReturnTheOriginalStream() {
+        // Given
+        final UploadValidation validation = new UploadValidation(Collections.singletonList(upload -> Optional.empty()));
+        final InputStream inputStream = new ByteArrayInputStream(new byte[3]);
+
+        // When
+        final InputStream validated = validation.validate(new PackageUpload("a.exe", "user", "v1", null), inputStream);
+
+        // Then
+        assertThat(validated).isSameAs(inputStream);
+    }
+
+    @Test
+    public void validate_shouldPassEveryByteToEachCheckAndVerifyThemOnce() throws Exception {
+        // Given
+        final RecordingCheck first = new RecordingCheck();
+        final RecordingCheck second = new RecordingCheck();
+        final UploadValidation validation = new UploadValidation(Arrays.asList(upload -> Optional.of(first), upload -> Optional.of(second)));
+
+        // When
+        final InputStream validated = validation.validate(new PackageUpload("a.exe", "user", "v1", null), new ByteArrayInputStream(new byte[]{1, 2, 3, 4}));
+        final int single = validated.read();
+        final byte[] rest = StreamUtils.copyToByteArray(validated);
+        validated.read();
+
+        // Then
+        assertThat(single).isEqualTo(1);
+        assertThat(rest).isEqualTo(new byte[]{2, 3, 4});
+        assertThat(first.seen.toByteArray()).isEqualTo(new byte[]{1, 2, 3, 4});
+        assertThat(second.seen.toByteArray()).isEqualTo(new byte[]{1, 2, 3, 4});
+        assertThat(first.verifications).isEqualTo(1);
+        assertThat(second.verifications).isEqualTo(1);
+    }
+
+    @Test
+    public void validate_whenACheckFails_shouldAbortTheRead() {
+        // Given
+        final UploadValidation validation = new UploadValidation(Collections.singletonList(upload -> Optional.of(new RecordingCheck() {
+            @Override
+            public void verify() {
+                throw new InvalidPackageContentException("Rejected");
+            }
+        })));
+        final InputStream validated = validation.validate(new PackageUpload("a.exe", "user", "v1", null), new ByteArrayInputStream(new byte[3]));
+
+        // Then
+        assertThatExceptionOfType(InvalidPackageContentException.class)
+                .isThrownBy(() -> StreamUtils.copyToByteArray(validated));
+    }
+
+    private static class RecordingCheck implements ContentCheck {
+        private final ByteArrayOutputStream seen = new ByteArrayOutputStream();
+        private int verifications;
+
+        @Override
+        public void update(byte[] buffer, int offset, int length) {
+            seen.write(buffer, offset, length);
+        }
+
+        @Override
+        public void verify() {
+            verifications++;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.model;
+
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertFalse;
+
+public class PackageLookupTest {
+
+    @Test
+    public void toString_shouldBeOverridden() throws Exception {
+        assertFalse(PackageLookup.byId("id").toString().contains("@"));
+        assertFalse(new PackageLookupResult(PackageLookup.byId("id"), Optional.empty()).toString().contains("@"));
+    }
+
+    @Test
+    public void isValid_shouldRequireEitherAnIdOrAVersion() throws Exception {
+        assertThat(PackageLookup.byId("id").isValid()).isTrue();
+        assertThat(PackageLookup.byVersion("user", "v0.1").isValid()).isTrue();
+        assertThat(new PackageLookup(null, "user", null).isValid()).isFalse();
+        assertThat(new PackageLookup("id", "user", "v0.1").isValid()).isFalse();
+        assertThat(new PackageLookup(null, null, null).isValid()).isFalse();
+    }
+}
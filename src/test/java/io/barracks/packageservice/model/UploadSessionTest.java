@@ -0,0 +1,59 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertFalse;
+
+public class UploadSessionTest {
+
+    @Test
+    public void toString_shouldBeOverridden() throws Exception {
+        assertFalse(new UploadSession(UUID.randomUUID().toString(), "user", "v0.1", "Example.exe", null, null, 4, new Date(), new Date(), Collections.singletonList(new UploadSession.Part(0, 4, "a"))).toString().contains("@"));
+    }
+
+    @Test
+    public void getReceivedRanges_shouldMergeAdjacentParts() throws Exception {
+        // Given
+        final UploadSession session = new UploadSession(UUID.randomUUID().toString(), "user", "v0.1", "Example.exe", null, null, 4, new Date(), new Date(), Arrays.asList(
+                new UploadSession.Part(3, 2, "d"),
+                new UploadSession.Part(0, 4, "a"),
+                new UploadSession.Part(1, 4, "b")
+        ));
+
+        // When
+        final List<String> ranges = session.getReceivedRanges();
+
+        // Then
+        assertThat(ranges).containsExactly("0-7", "12-13");
+    }
+}
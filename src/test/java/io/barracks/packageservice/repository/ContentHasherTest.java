@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.google.common.hash.Hashing;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class ContentHasherTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void hash_withExecutor_shouldPassTheContentThroughAndComputeBothDigests() throws IOException {
+        // Given
+        final byte[] bytes = new byte[1000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        final ContentHasher contentHasher = new ContentHasher(7, executor);
+
+        // When
+        final ContentHasher.HashingStream stream = contentHasher.hash(new ByteArrayInputStream(bytes));
+        final byte[] read = StreamUtils.copyToByteArray(stream);
+
+        // Then
+        assertThat(read).isEqualTo(bytes);
+        assertThat(stream.sha256()).isEqualTo(Hashing.sha256().hashBytes(bytes).toString());
+        assertThat(stream.md5()).isEqualTo(Hashing.md5().hashBytes(bytes).toString());
+    }
+
+    @Test
+    public void hash_withoutExecutor_shouldComputeTheDigestsOnTheCallingThread() throws IOException {
+        // Given
+        final byte[] bytes = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+        final ContentHasher contentHasher = new ContentHasher(4, null);
+
+        // When
+        final ContentHasher.HashingStream stream = contentHasher.hash(new ByteArrayInputStream(bytes));
+        final byte[] read = StreamUtils.copyToByteArray(stream);
+
+        // Then
+        assertThat(read).isEqualTo(bytes);
+        assertThat(stream.sha256()).isEqualTo(Hashing.sha256().hashBytes(bytes).toString());
+        assertThat(stream.md5()).isEqualTo(Hashing.md5().hashBytes(bytes).toString());
+    }
+
+    @Test
+    public void hash_whenContentIsEmpty_shouldReturnTheDigestsOfNothing() throws IOException {
+        // Given
+        final ContentHasher contentHasher = new ContentHasher(4, executor);
+
+        // When
+        final ContentHasher.HashingStream stream = contentHasher.hash(new ByteArrayInputStream(new byte[0]));
+
+        // Then
+        assertThat(stream.read()).isEqualTo(-1);
+        assertThat(stream.sha256()).isEqualTo(Hashing.sha256().hashBytes(new byte[0]).toString());
+        assertThat(stream.md5()).isEqualTo(Hashing.md5().hashBytes(new byte[0]).toString());
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.mongodb.DB;
+import com.mongodb.MongoClient;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.IMongodConfig;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import io.barracks.packageservice.model.PackageDelta;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class DeltaRepositoryTest {
+
+    private static final String TEST_DATABASE = "test";
+    private static final String MONGO_HOST = "localhost";
+    private static final String MONGO_BUCKET = "testbucket";
+
+    private static MongodExecutable mongodExecutable;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private DeltaRepository deltaRepository;
+
+    private DB db;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        prepareMongo();
+    }
+
+    private static void prepareMongo() throws IOException {
+        final MongodStarter starter = MongodStarter.getDefaultInstance();
+
+        final IMongodConfig mongodConfig = new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(27017, Network.localhostIsIPv6()))
+                .build();
+
+        mongodExecutable = starter.prepare(mongodConfig);
+        mongodExecutable.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        try {
+            mongodExecutable.stop();
+        } catch (IllegalStateException ise) {
+            ise.printStackTrace();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final MongoClient mongo = new MongoClient(MONGO_HOST);
+        db = mongo.getDB(TEST_DATABASE);
+        new PackageIndexManager(MONGO_BUCKET, new MongoTemplate(mongo, TEST_DATABASE)).ensureIndexes();
+        deltaRepository = new DeltaRepository(
+                db.getCollection(MONGO_BUCKET + ".deltas"),
+                new FileSystemPackageStore(temporaryFolder.getRoot().getAbsolutePath(), false)
+        );
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void createPending_whenCalledTwice_shouldOnlyCreateTheDeltaOnce() {
+        // When
+        final boolean first = deltaRepository.createPending("from", "to");
+        final boolean second = deltaRepository.createPending("from", "to");
+
+        // Then
+        assertThat(first).isTrue();
+        assertThat(second).isFalse();
+        assertThat(deltaRepository.find("from", "to").get().getStatus()).isEqualTo(PackageDelta.Status.PENDING);
+    }
+
+    @Test
+    public void claimStalePending_shouldOnlyClaimDeltasPendingSinceBeforeTheDate() {
+        // Given
+        deltaRepository.createPending("from", "to");
+        final Date created = deltaRepository.find("from", "to").get().getCreationDate();
+
+        // When
+        final boolean recent = deltaRepository.claimStalePending("from", "to", new Date(created.getTime() - 1000));
+        final boolean stale = deltaRepository.claimStalePending("from", "to", new Date(created.getTime() + 1000));
+
+        // Then
+        assertThat(recent).isFalse();
+        assertThat(stale).isTrue();
+        assertThat(deltaRepository.find("from", "to").get().getCreationDate()).isAfterOrEqualsTo(created);
+    }
+
+    @Test
+    public void claimStalePending_whenDeltaIsReady_shouldNotClaimIt() {
+        // Given
+        deltaRepository.createPending("from", "to");
+        deltaRepository.saveContent("from", "to", new ByteArrayInputStream(new byte[]{1, 2, 3}), "md5", "sha256");
+
+        // When
+        final boolean claimed = deltaRepository.claimStalePending("from", "to", new Date(System.currentTimeMillis() + 60000));
+
+        // Then
+        assertThat(claimed).isFalse();
+    }
+
+    @Test
+    public void deleteCreatedBefore_shouldRemoveOldDeltasAndTheirContent() throws IOException {
+        // Given
+        deltaRepository.createPending("from", "to");
+        deltaRepository.saveContent("from", "to", new ByteArrayInputStream(new byte[]{1, 2, 3}), "md5", "sha256");
+        final Date before = new Date(deltaRepository.find("from", "to").get().getCreationDate().getTime() + 1);
+
+        // When
+        final int kept = deltaRepository.deleteCreatedBefore(new Date(before.getTime() - 1000));
+        final int deleted = deltaRepository.deleteCreatedBefore(before);
+
+        // Then
+        assertThat(kept).isZero();
+        assertThat(deleted).isEqualTo(1);
+        assertThat(deltaRepository.find("from", "to")).isNotPresent();
+        assertThat(Files.walk(temporaryFolder.getRoot().toPath()).filter(Files::isRegularFile).count()).isZero();
+    }
+
+    @Test
+    public void saveContent_whenDeltaIsAlreadyReady_shouldKeepTheFirstContent() throws IOException {
+        // Given
+        deltaRepository.createPending("from", "to");
+        final PackageDelta first = deltaRepository.saveContent("from", "to", new ByteArrayInputStream(new byte[]{1, 2, 3}), "md5", "sha256").get();
+
+        // When
+        final Optional<PackageDelta> second = deltaRepository.saveContent("from", "to", new ByteArrayInputStream(new byte[]{4, 5}), "md5", "sha256");
+
+        // Then
+        assertThat(second).isNotPresent();
+        assertThat(StreamUtils.copyToByteArray(deltaRepository.getContent(first))).isEqualTo(new byte[]{1, 2, 3});
+        assertThat(Files.walk(temporaryFolder.getRoot().toPath()).filter(Files::isRegularFile).count()).isEqualTo(1);
+    }
+
+    @Test
+    public void saveContent_shouldMakeTheDeltaReadyAndItsContentReadable() throws IOException {
+        // Given
+        deltaRepository.createPending("from", "to");
+
+        // When
+        final Optional<PackageDelta> saved = deltaRepository.saveContent("from", "to", new ByteArrayInputStream(new byte[]{1, 2, 3}), "md5", "sha256");
+
+        // Then
+        assertThat(saved).isPresent();
+        assertThat(saved.get().getStatus()).isEqualTo(PackageDelta.Status.READY);
+        assertThat(saved.get().getSize()).isEqualTo(3);
+        assertThat(deltaRepository.find("from", "to")).contains(saved.get());
+        assertThat(StreamUtils.copyToByteArray(deltaRepository.getContent(saved.get()))).isEqualTo(new byte[]{1, 2, 3});
+    }
+
+    @Test
+    public void saveContent_whenDeltaWasDeleted_shouldNotKeepTheContent() throws IOException {
+        // When
+        final Optional<PackageDelta> saved = deltaRepository.saveContent("from", "to", new ByteArrayInputStream(new byte[]{1, 2, 3}), "md5", "sha256");
+
+        // Then
+        assertThat(saved).isNotPresent();
+        assertThat(Files.walk(temporaryFolder.getRoot().toPath()).filter(Files::isRegularFile).count()).isZero();
+    }
+
+    @Test
+    public void delete_shouldRemoveTheDeltaAndItsContent() throws IOException {
+        // Given
+        deltaRepository.createPending("from", "to");
+        deltaRepository.saveContent("from", "to", new ByteArrayInputStream(new byte[]{1, 2, 3}), "md5", "sha256");
+
+        // When
+        deltaRepository.delete("from", "to");
+
+        // Then
+        assertThat(deltaRepository.find("from", "to")).isNotPresent();
+        assertThat(Files.walk(temporaryFolder.getRoot().toPath()).filter(Files::isRegularFile).count()).isZero();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+@RunWith(JUnit4.class)
+public class FileSystemPackageStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FileSystemPackageStore packageStore;
+
+    @Before
+    public void setUp() throws IOException {
+        packageStore = new FileSystemPackageStore(temporaryFolder.getRoot().getAbsolutePath(), true);
+    }
+
+    @Test
+    public void write_shouldStoreTheContentInAFileAndReturnItsLength() throws IOException {
+        // Given
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+
+        // When
+        final long length = packageStore.write("5805ba0c3e9f0a0001a3b2c1", new ByteArrayInputStream(bytes));
+
+        // Then
+        assertThat(length).isEqualTo(bytes.length);
+        final Optional<Path> path = packageStore.getLocalPath("5805ba0c3e9f0a0001a3b2c1");
+        assertThat(path).isPresent();
+        assertThat(Files.readAllBytes(path.get())).isEqualTo(bytes);
+        assertThat(path.get().getParent().getFileName().toString()).isEqualTo("c1");
+    }
+
+    @Test
+    public void write_whenTheStreamFails_shouldNotLeaveAnyFile() throws IOException {
+        // Given
+        final InputStream failingStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Mocked IOE");
+            }
+        };
+
+        // When
+        assertThatExceptionOfType(UncheckedIOException.class)
+                .isThrownBy(() -> packageStore.write("5805ba0c3e9f0a0001a3b2c1", failingStream));
+
+        // Then
+        assertThat(packageStore.getLocalPath("5805ba0c3e9f0a0001a3b2c1")).isNotPresent();
+        assertThat(Files.list(temporaryFolder.getRoot().toPath().resolve("c1")).count()).isZero();
+    }
+
+    @Test
+    public void write_whenTheStreamIsRejected_shouldNotLeaveAnyFile() throws IOException {
+        // Given
+        final InputStream rejectedStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IllegalStateException("Rejected");
+            }
+        };
+
+        // When
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(() -> packageStore.write("5805ba0c3e9f0a0001a3b2c1", rejectedStream));
+
+        // Then
+        assertThat(Files.list(temporaryFolder.getRoot().toPath().resolve("c1")).count()).isZero();
+    }
+
+    @Test
+    public void read_shouldReturnTheRequestedRange() throws IOException {
+        // Given
+        packageStore.write("5805ba0c3e9f0a0001a3b2c1", new ByteArrayInputStream(new byte[]{0, 1, 2, 3, 4, 5}));
+
+        // When
+        final InputStream content = packageStore.read("5805ba0c3e9f0a0001a3b2c1", 1, 3);
+
+        // Then
+        assertThat(StreamUtils.copyToByteArray(content)).isEqualTo(new byte[]{1, 2, 3});
+    }
+
+    @Test
+    public void delete_shouldRemoveTheFile() throws IOException {
+        // Given
+        packageStore.write("5805ba0c3e9f0a0001a3b2c1", new ByteArrayInputStream(new byte[]{0, 1, 2}));
+
+        // When
+        packageStore.delete("5805ba0c3e9f0a0001a3b2c1");
+
+        // Then
+        assertThat(packageStore.getLocalPath("5805ba0c3e9f0a0001a3b2c1")).isNotPresent();
+    }
+
+    @Test
+    public void getLocalPath_whenTheContentIdIsNotAPlainName_shouldThrowIllegalArgumentException() {
+        // Then When
+        assertThatExceptionOfType(IllegalArgumentException.class)
+                .isThrownBy(() -> packageStore.getLocalPath("../../etc/passwd"));
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.barracks.packageservice.repository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DuplicateKeyException;
+import com.mongodb.MongoClient;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.IMongodConfig;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@RunWith(JUnit4.class)
+public class PackageIndexManagerTest {
+
+    private static final String TEST_DATABASE = "test";
+    private static final String MONGO_HOST = "localhost";
+    private static final String MONGO_BUCKET = "testbucket";
+
+    private static MongodExecutable mongodExecutable;
+
+    private PackageIndexManager packageIndexManager;
+
+    private DB db;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        prepareMongo();
+    }
+
+    private static void prepareMongo() throws IOException {
+        final MongodStarter starter = MongodStarter.getDefaultInstance();
+
+        final IMongodConfig mongodConfig = new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(27017, Network.localhostIsIPv6()))
+                .build();
+
+        mongodExecutable = starter.prepare(mongodConfig);
+        mongodExecutable.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        try {
+            mongodExecutable.stop();
+        } catch (IllegalStateException ise) {
+            ise.printStackTrace();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final MongoClient mongo = new MongoClient(MONGO_HOST);
+        db = mongo.getDB(TEST_DATABASE);
+        db.dropDatabase();
+        packageIndexManager = new PackageIndexManager(MONGO_BUCKET, new MongoTemplate(mongo, TEST_DATABASE));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void ensureIndexes_shouldCreateAUniqueIndexOnUserIdAndVersionId() {
+        // When
+        packageIndexManager.ensureIndexes();
+        packageIndexManager.ensureIndexes();
+
+        // Then
+        final Optional<IndexInfo> index = packageIndexManager.getIndexes().stream()
+                .filter(info -> PackageIndexManager.USER_VERSION_INDEX.equals(info.getName()))
+                .findFirst();
+        assertThat(index).isPresent();
+        assertThat(index.get().isUnique()).isTrue();
+        assertThat(index.get().getIndexFields()).extracting("key").containsExactly("metadata.userId", "metadata.versionId");
+    }
+
+    @Test
+    public void ensureIndexes_shouldRejectDuplicateVersionsForTheSameUser() {
+        // Given
+        packageIndexManager.ensureIndexes();
+        db.getCollection(MONGO_BUCKET + ".files").insert(fileWithMetadata("user", "v1"));
+        db.getCollection(MONGO_BUCKET + ".files").insert(fileWithMetadata("otherUser", "v1"));
+
+        // Then When
+        assertThatExceptionOfType(DuplicateKeyException.class)
+                .isThrownBy(() -> db.getCollection(MONGO_BUCKET + ".files").insert(fileWithMetadata("user", "v1")));
+    }
+
+    @Test
+    public void ensureIndexes_shouldRejectDuplicateContentHashes() {
+        // Given
+        packageIndexManager.ensureIndexes();
+        db.getCollection(MONGO_BUCKET + ".blobs").insert(new BasicDBObject(BlobRegistry.SHA256_KEY, "hash"));
+
+        // Then When
+        assertThatExceptionOfType(DuplicateKeyException.class)
+                .isThrownBy(() -> db.getCollection(MONGO_BUCKET + ".blobs").insert(new BasicDBObject(BlobRegistry.SHA256_KEY, "hash")));
+    }
+
+    @Test
+    public void ensureIndexes_shouldCreateAnIndexCoveringThePackageList() {
+        // When
+        packageIndexManager.ensureIndexes();
+
+        // Then
+        final Optional<IndexInfo> index = packageIndexManager.getIndexes().stream()
+                .filter(info -> PackageIndexManager.PACKAGE_LIST_INDEX.equals(info.getName()))
+                .findFirst();
+        assertThat(index).isPresent();
+        assertThat(index.get().isUnique()).isFalse();
+        assertThat(index.get().getIndexFields()).extracting("key")
+                .containsExactly("metadata.userId", "metadata.versionId", "_id", "md5", "uploadDate", "filename", "length");
+    }
+
+    @Test
+    public void ensureIndexes_shouldCreateAnIndexOnTheContentIdOfThePackages() {
+        // When
+        packageIndexManager.ensureIndexes();
+
+        // Then
+        final Optional<IndexInfo> index = packageIndexManager.getIndexes().stream()
+                .filter(info -> PackageIndexManager.CONTENT_INDEX.equals(info.getName()))
+                .findFirst();
+        assertThat(index).isPresent();
+        assertThat(index.get().getIndexFields()).extracting("key").containsExactly("metadata.contentId");
+    }
+
+    @Test
+    public void ensureIndexes_whenDuplicateVersionsAlreadyExist_shouldFailStartupListingThem() {
+        // Given
+        db.getCollection(MONGO_BUCKET + ".files").insert(fileWithMetadata("user", "v1"));
+        db.getCollection(MONGO_BUCKET + ".files").insert(fileWithMetadata("user", "v1"));
+        db.getCollection(MONGO_BUCKET + ".files").insert(fileWithMetadata("user", "v2"));
+
+        // Then When
+        assertThatThrownBy(() -> packageIndexManager.ensureIndexes())
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("[user/v1]")
+                .hasMessageContaining("README");
+    }
+
+    @Test
+    public void ensureIndexes_whenTheUniqueIndexExists_shouldNotLookForDuplicatesAgain() {
+        // Given
+        packageIndexManager.ensureIndexes();
+        db.getCollection(MONGO_BUCKET + ".files").insert(fileWithMetadata("user", "v1"));
+
+        // When
+        packageIndexManager.ensureIndexes();
+
+        // Then
+        assertThat(packageIndexManager.getIndexes()).extracting("name").contains(PackageIndexManager.USER_VERSION_INDEX);
+    }
+
+    private BasicDBObject fileWithMetadata(String userId, String versionId) {
+        return new BasicDBObject("metadata", new BasicDBObject(PackageRepository.USER_ID_KEY, userId).append(PackageRepository.VERSION_ID_KEY, versionId));
+    }
+}
@@ -28,9 +28,12 @@ import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
 import com.mongodb.gridfs.GridFS;
 import com.mongodb.gridfs.GridFSDBFile;
 import com.mongodb.gridfs.GridFSFile;
+import com.mongodb.gridfs.GridFSInputFile;
 import de.flapdoodle.embed.mongo.MongodExecutable;
 import de.flapdoodle.embed.mongo.MongodStarter;
 import de.flapdoodle.embed.mongo.config.IMongodConfig;
@@ -38,29 +41,35 @@ import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
 import de.flapdoodle.embed.mongo.config.Net;
 import de.flapdoodle.embed.mongo.distribution.Version;
 import de.flapdoodle.embed.process.runtime.Network;
+import io.barracks.packageservice.model.PackageFilter;
 import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.PackageLookup;
 import org.bson.types.ObjectId;
 import org.junit.*;
 import org.junit.runner.RunWith;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runners.JUnit4;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.SimpleMongoDbFactory;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.gridfs.GridFsCriteria;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.StreamUtils;
 
 import javax.xml.bind.annotation.adapters.HexBinaryAdapter;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.Executors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
 @RunWith(JUnit4.class)
 public class PackageRepositoryTest {
@@ -71,8 +80,15 @@ public class PackageRepositoryTest {
 
     private static MongodExecutable mongodExecutable;
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private PackageRepository packageRepository;
 
+    private GridFsChunkReader chunkReader;
+
+    private ContentHasher contentHasher;
+
     private DB db;
     private DBCollection packagesCollection;
 
@@ -119,15 +135,22 @@ public class PackageRepositoryTest {
         gridFs = new GridFS(db, MONGO_BUCKET);
         gridFs.remove(Query.query(GridFsCriteria.where("_id").ne(null)).getQueryObject());
 
+        final MongoTemplate template = new MongoTemplate(mongo, TEST_DATABASE);
+        chunkReader = new GridFsChunkReader(db.getCollection(MONGO_BUCKET + ".chunks"), 2, Executors.newFixedThreadPool(2));
+        contentHasher = new ContentHasher(8, Executors.newFixedThreadPool(2));
         packageRepository = new PackageRepository(
                 MONGO_BUCKET,
-                new MongoTemplate(mongo, TEST_DATABASE),
-                new SimpleMongoDbFactory(mongo, TEST_DATABASE)
+                template,
+                new GridFsPackageStore(MONGO_BUCKET, template, chunkReader, 4, "ACKNOWLEDGED"),
+                chunkReader,
+                contentHasher
         );
     }
 
     @After
     public void tearDown() throws Exception {
+        chunkReader.shutdown();
+        contentHasher.shutdown();
         packagesCollection.drop();
         db.dropDatabase();
     }
@@ -208,6 +231,114 @@ public class PackageRepositoryTest {
         assertThat(version).hasFieldOrPropertyWithValue("versionId", "C");
     }
 
+    @Test
+    public void getPackages_whenCursorIsGiven_shouldReturnTheNextPageSortedByVersionId() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        setupFile(userId, "D");
+        setupFile(userId, "A");
+        setupFile(userId, "C");
+        setupFile(userId, "B");
+        final PackageFilter filter = new PackageFilter(userId, null, null);
+        final List<PackageInfo> firstPage = packageRepository.getPackages(filter, null, null, 2);
+        final PackageInfo last = firstPage.get(firstPage.size() - 1);
+
+        // When
+        List<PackageInfo> secondPage = packageRepository.getPackages(filter, last.getVersionId(), last.getId(), 2);
+
+        // Then
+        assertThat(firstPage).extracting("versionId").containsExactly("A", "B");
+        assertThat(secondPage).extracting("versionId").containsExactly("C", "D");
+    }
+
+    @Test
+    public void getPackages_whenFiltered_shouldOnlyReturnMatchingPackages() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        setupFile(userId, "v1.0");
+        setupFile(userId, "v1.1");
+        setupFile(userId, "v2.0");
+        setupFile(UUID.randomUUID().toString(), "v1.2");
+
+        // When
+        List<PackageInfo> packages = packageRepository.getPackages(new PackageFilter(userId, "v1.", null), null, null, 10);
+
+        // Then
+        assertThat(packages).extracting("versionId").containsExactly("v1.0", "v1.1");
+    }
+
+    @Test
+    public void getPackages_whenPrefixHasRegexMetacharacters_shouldMatchThemLiterally() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        setupFile(userId, "v1.0");
+        setupFile(userId, "v1+0");
+        setupFile(userId, "v1+1");
+        setupFile(userId, "v1,0");
+
+        // When
+        List<PackageInfo> packages = packageRepository.getPackages(new PackageFilter(userId, "v1+", null), null, null, 10);
+
+        // Then
+        assertThat(packages).extracting("versionId").containsExactly("v1+0", "v1+1");
+    }
+
+    @Test
+    public void prefixUpperBound_shouldIncrementTheLastCodePoint() {
+        // Then
+        assertThat(PackageRepository.prefixUpperBound("v1.")).contains("v1/");
+        assertThat(PackageRepository.prefixUpperBound("v\uD7FF")).contains("v\uE000");
+        assertThat(PackageRepository.prefixUpperBound("v" + new String(Character.toChars(Character.MAX_CODE_POINT)))).contains("w");
+        assertThat(PackageRepository.prefixUpperBound("")).isNotPresent();
+    }
+
+    @Test
+    public void getPackages_whenUploadedAfterIsInTheFuture_shouldReturnEmptyList() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        setupFile(userId, "v1.0");
+
+        // When
+        List<PackageInfo> packages = packageRepository.getPackages(new PackageFilter(userId, null, new Date(System.currentTimeMillis() + 60000)), null, null, 10);
+
+        // Then
+        assertThat(packages).isEmpty();
+    }
+
+    @Test
+    public void getPackagesAfterId_shouldWalkEveryUserInIdOrder() {
+        // Given
+        setupFile(UUID.randomUUID().toString(), "C");
+        setupFile(UUID.randomUUID().toString(), "A");
+        setupFile(UUID.randomUUID().toString(), "B");
+        final List<PackageInfo> firstPage = packageRepository.getPackagesAfterId(null, 2);
+
+        // When
+        final List<PackageInfo> secondPage = packageRepository.getPackagesAfterId(firstPage.get(1).getId(), 2);
+
+        // Then
+        assertThat(firstPage).extracting("versionId").containsExactly("C", "A");
+        assertThat(secondPage).extracting("versionId").containsExactly("B");
+        assertThat(secondPage.get(0).getMd5()).isNotNull();
+    }
+
+    @Test
+    public void streamPackages_shouldPassEveryMatchingPackageToTheConsumer() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        setupFile(userId, "B");
+        setupFile(userId, "A");
+        setupFile(UUID.randomUUID().toString(), "C");
+        final List<PackageInfo> streamed = new ArrayList<>();
+
+        // When
+        packageRepository.streamPackages(new PackageFilter(userId, null, null), streamed::add);
+
+        // Then
+        assertThat(streamed).extracting("versionId").containsExactly("A", "B");
+        assertThat(streamed).extracting("userId").containsOnly(userId);
+    }
+
     @Test
     public void savePackage_shouldStoreTheFileInGridFSAndReturnAPackageInfo() throws IOException, NoSuchAlgorithmException {
         // Given
@@ -236,6 +367,365 @@ public class PackageRepositoryTest {
         assertThat(file.getMetaData().get(PackageRepository.VERSION_ID_KEY)).isEqualTo(versionId);
     }
 
+    @Test
+    public void savePackage_whenTheStreamFails_shouldRemoveTheStoredChunks() {
+        // Given
+        final InputStream failingStream = new InputStream() {
+            private int remaining = 1024 * 1024;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining-- <= 0) {
+                    throw new IOException("Mocked IOE");
+                }
+                return 42;
+            }
+        };
+        final PackageInfo toSave = new PackageInfo(null, "Example.exe", null, -1, UUID.randomUUID().toString(), "v0.1", failingStream);
+
+        // When
+        assertThatExceptionOfType(MongoException.class)
+                .isThrownBy(() -> packageRepository.savePackage(toSave, "application/x-msdownload"));
+
+        // Then
+        assertThat(db.getCollection(MONGO_BUCKET + ".chunks").count()).isZero();
+        assertThat(db.getCollection(MONGO_BUCKET + ".files").count()).isZero();
+    }
+
+    @Test
+    public void savePackage_whenVersionAlreadyExists_shouldThrowDuplicateKeyExceptionAndRemoveTheStoredChunks() throws IOException {
+        // Given
+        new PackageIndexManager(MONGO_BUCKET, new MongoTemplate(new MongoClient(MONGO_HOST), TEST_DATABASE)).ensureIndexes();
+        final String userId = UUID.randomUUID().toString();
+        final String versionId = "v0.1";
+        final PackageInfo existing = packageRepository.savePackage(
+                new PackageInfo(null, "Example.exe", null, -1, userId, versionId, new ByteArrayInputStream(new byte[]{0, 1, 2})),
+                "application/x-msdownload"
+        );
+        final PackageInfo toSave = new PackageInfo(null, "Other.exe", null, -1, userId, versionId, new ByteArrayInputStream(new byte[]{3, 4, 5}));
+
+        // When
+        assertThatExceptionOfType(DuplicateKeyException.class)
+                .isThrownBy(() -> packageRepository.savePackage(toSave, "application/x-msdownload"));
+
+        // Then
+        assertThat(db.getCollection(MONGO_BUCKET + ".files").count()).isEqualTo(1);
+        assertThat(db.getCollection(MONGO_BUCKET + ".blobs").count()).isEqualTo(1);
+        assertThat(db.getCollection(MONGO_BUCKET + ".chunks").count()).isEqualTo(1);
+        assertThat(StreamUtils.copyToByteArray(packageRepository.getPackageContent(existing.getId(), 0, 3).get()))
+                .isEqualTo(new byte[]{0, 1, 2});
+    }
+
+    @Test
+    public void savePackage_whenContentAlreadyExists_shouldShareTheStoredChunks() throws IOException {
+        // Given
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+        final String userId = UUID.randomUUID().toString();
+        final PackageInfo first = packageRepository.savePackage(
+                new PackageInfo(null, "Example.exe", null, -1, userId, "v0.1", new ByteArrayInputStream(bytes)),
+                "application/x-msdownload"
+        );
+
+        // When
+        final PackageInfo second = packageRepository.savePackage(
+                new PackageInfo(null, "Example.exe", null, -1, UUID.randomUUID().toString(), "v0.2", new ByteArrayInputStream(bytes)),
+                "application/x-msdownload"
+        );
+
+        // Then
+        assertThat(second.getId()).isNotEqualTo(first.getId());
+        assertThat(second.getMd5()).isEqualTo(first.getMd5());
+        assertThat(db.getCollection(MONGO_BUCKET + ".files").count()).isEqualTo(2);
+        assertThat(db.getCollection(MONGO_BUCKET + ".chunks").count()).isEqualTo(1);
+        assertThat(db.getCollection(MONGO_BUCKET + ".blobs").findOne().get(BlobRegistry.REF_COUNT_KEY)).isEqualTo(2);
+        assertThat(StreamUtils.copyToByteArray(packageRepository.getPackageContent(second.getId(), 0, bytes.length).get()))
+                .isEqualTo(bytes);
+    }
+
+    @Test
+    public void savePackage_whenContentIsLeftWithoutReferences_shouldReclaimIt() throws IOException {
+        // Given
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+        final String userId = UUID.randomUUID().toString();
+        packageRepository.savePackage(
+                new PackageInfo(null, "Example.exe", null, -1, userId, "v0.1", new ByteArrayInputStream(bytes)),
+                "application/x-msdownload"
+        );
+        final DBCollection blobs = db.getCollection(MONGO_BUCKET + ".blobs");
+        blobs.update(new BasicDBObject(), new BasicDBObject("$set", new BasicDBObject(BlobRegistry.REF_COUNT_KEY, 0)));
+        final Object blobId = blobs.findOne().get("_id");
+
+        // When
+        final PackageInfo saved = packageRepository.savePackage(
+                new PackageInfo(null, "Example.exe", null, -1, userId, "v0.2", new ByteArrayInputStream(bytes)),
+                "application/x-msdownload"
+        );
+
+        // Then
+        assertThat(blobs.count()).isEqualTo(1);
+        assertThat(blobs.findOne().get("_id")).isEqualTo(blobId);
+        assertThat(blobs.findOne().get(BlobRegistry.REF_COUNT_KEY)).isEqualTo(1);
+        assertThat(db.getCollection(MONGO_BUCKET + ".chunks").count()).isEqualTo(1);
+        assertThat(StreamUtils.copyToByteArray(packageRepository.getPackageContent(saved.getId(), 0, bytes.length).get()))
+                .isEqualTo(bytes);
+    }
+
+    @Test
+    public void getContentIds_whenPackagesShareTheirContent_shouldReturnTheSameContentId() {
+        // Given
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+        final String userId = UUID.randomUUID().toString();
+        final PackageInfo first = packageRepository.savePackage(
+                new PackageInfo(null, "Example.exe", null, -1, userId, "v0.1", new ByteArrayInputStream(bytes)),
+                "application/x-msdownload"
+        );
+        final PackageInfo second = packageRepository.savePackage(
+                new PackageInfo(null, "Example.exe", null, -1, userId, "v0.2", new ByteArrayInputStream(bytes)),
+                "application/x-msdownload"
+        );
+
+        // When
+        final Map<String, String> contentIds = packageRepository.getContentIds(Arrays.asList(first.getId(), second.getId()));
+
+        // Then
+        assertThat(contentIds).containsOnlyKeys(first.getId(), second.getId());
+        assertThat(contentIds.get(first.getId())).isEqualTo(db.getCollection(MONGO_BUCKET + ".blobs").findOne().get("_id").toString());
+        assertThat(contentIds.get(second.getId())).isEqualTo(contentIds.get(first.getId()));
+    }
+
+    @Test
+    public void reclaimOrphanedContents_whenAnUploadWasInterrupted_shouldRemoveItsContent() {
+        // Given
+        final ObjectId blobId = new ObjectId();
+        final DBCollection blobs = db.getCollection(MONGO_BUCKET + ".blobs");
+        blobs.insert(new BasicDBObject("_id", blobId)
+                .append(BlobRegistry.SHA256_KEY, "pending:" + blobId.toHexString())
+                .append(BlobRegistry.REF_COUNT_KEY, 0)
+                .append(BlobRegistry.PENDING_SINCE_KEY, new Date(System.currentTimeMillis() - 7200000)));
+        db.getCollection(MONGO_BUCKET + ".chunks").insert(new BasicDBObject("files_id", blobId).append("n", 0).append("data", new byte[]{0, 1}));
+
+        // When
+        final int reclaimed = packageRepository.reclaimOrphanedContents(new Date(System.currentTimeMillis() - 3600000), 10);
+
+        // Then
+        assertThat(reclaimed).isEqualTo(1);
+        assertThat(blobs.count()).isZero();
+        assertThat(db.getCollection(MONGO_BUCKET + ".chunks").count()).isZero();
+    }
+
+    @Test
+    public void reclaimOrphanedContents_whenAnUploadIsStillRunning_shouldKeepItsContent() {
+        // Given
+        final ObjectId blobId = new ObjectId();
+        final DBCollection blobs = db.getCollection(MONGO_BUCKET + ".blobs");
+        blobs.insert(new BasicDBObject("_id", blobId)
+                .append(BlobRegistry.SHA256_KEY, "pending:" + blobId.toHexString())
+                .append(BlobRegistry.REF_COUNT_KEY, 0)
+                .append(BlobRegistry.PENDING_SINCE_KEY, new Date()));
+
+        // When
+        final int reclaimed = packageRepository.reclaimOrphanedContents(new Date(System.currentTimeMillis() - 3600000), 10);
+
+        // Then
+        assertThat(reclaimed).isZero();
+        assertThat(blobs.count()).isEqualTo(1);
+    }
+
+    @Test
+    public void reclaimOrphanedContents_whenAReleaseWasInterrupted_shouldRemoveTheAbandonedContent() {
+        // Given
+        final ObjectId blobId = new ObjectId();
+        final DBCollection blobs = db.getCollection(MONGO_BUCKET + ".blobs");
+        blobs.insert(new BasicDBObject("_id", blobId)
+                .append(BlobRegistry.SHA256_KEY, "abandoned:" + blobId)
+                .append(BlobRegistry.REF_COUNT_KEY, 0)
+                .append(BlobRegistry.ABANDONED_AT_KEY, new Date()));
+        db.getCollection(MONGO_BUCKET + ".chunks").insert(new BasicDBObject("files_id", blobId).append("n", 0).append("data", new byte[]{0, 1}));
+
+        // When
+        final int reclaimed = packageRepository.reclaimOrphanedContents(new Date(System.currentTimeMillis() - 3600000), 10);
+
+        // Then
+        assertThat(reclaimed).isEqualTo(1);
+        assertThat(blobs.count()).isZero();
+        assertThat(db.getCollection(MONGO_BUCKET + ".chunks").count()).isZero();
+    }
+
+    @Test
+    public void reclaimOrphanedContents_whenAReferenceLeaked_shouldCorrectTheReferenceCount() throws IOException {
+        // Given
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+        final PackageInfo saved = packageRepository.savePackage(
+                new PackageInfo(null, "Example.exe", null, -1, UUID.randomUUID().toString(), "v0.1", new ByteArrayInputStream(bytes)),
+                "application/x-msdownload"
+        );
+        final DBCollection blobs = db.getCollection(MONGO_BUCKET + ".blobs");
+        blobs.update(new BasicDBObject(), new BasicDBObject("$set", new BasicDBObject(BlobRegistry.REF_COUNT_KEY, 3)
+                .append(BlobRegistry.ACQUIRED_AT_KEY, new Date(System.currentTimeMillis() - 7200000))));
+
+        // When
+        final int reclaimed = packageRepository.reclaimOrphanedContents(new Date(System.currentTimeMillis() - 3600000), 10);
+
+        // Then
+        assertThat(reclaimed).isZero();
+        assertThat(blobs.findOne().get(BlobRegistry.REF_COUNT_KEY)).isEqualTo(1);
+        assertThat(StreamUtils.copyToByteArray(packageRepository.getPackageContent(saved.getId(), 0, bytes.length).get()))
+                .isEqualTo(bytes);
+    }
+
+    @Test
+    public void reclaimOrphanedContents_whenNoPackageReferencesAContent_shouldRemoveIt() {
+        // Given
+        final ObjectId blobId = new ObjectId();
+        final DBCollection blobs = db.getCollection(MONGO_BUCKET + ".blobs");
+        blobs.insert(new BasicDBObject("_id", blobId)
+                .append(BlobRegistry.SHA256_KEY, "hash")
+                .append(BlobRegistry.REF_COUNT_KEY, 1)
+                .append(BlobRegistry.ACQUIRED_AT_KEY, new Date(System.currentTimeMillis() - 7200000)));
+        db.getCollection(MONGO_BUCKET + ".chunks").insert(new BasicDBObject("files_id", blobId).append("n", 0).append("data", new byte[]{0, 1}));
+
+        // When
+        final int reclaimed = packageRepository.reclaimOrphanedContents(new Date(System.currentTimeMillis() - 3600000), 10);
+
+        // Then
+        assertThat(reclaimed).isEqualTo(1);
+        assertThat(blobs.count()).isZero();
+        assertThat(db.getCollection(MONGO_BUCKET + ".chunks").count()).isZero();
+    }
+
+    @Test
+    public void reclaimOrphanedContents_whenAContentWasRecentlyAcquired_shouldNotCountItsReferences() {
+        // Given
+        final ObjectId blobId = new ObjectId();
+        final DBCollection blobs = db.getCollection(MONGO_BUCKET + ".blobs");
+        blobs.insert(new BasicDBObject("_id", blobId)
+                .append(BlobRegistry.SHA256_KEY, "hash")
+                .append(BlobRegistry.REF_COUNT_KEY, 1)
+                .append(BlobRegistry.ACQUIRED_AT_KEY, new Date()));
+
+        // When
+        final int reclaimed = packageRepository.reclaimOrphanedContents(new Date(System.currentTimeMillis() - 3600000), 10);
+
+        // Then
+        assertThat(reclaimed).isZero();
+        assertThat(blobs.findOne().get(BlobRegistry.REF_COUNT_KEY)).isEqualTo(1);
+    }
+
+    @Test
+    public void savePackage_whenExpectedHashAlreadyExists_shouldNotWriteChunks() throws IOException, NoSuchAlgorithmException {
+        // Given
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+        final String sha256 = new HexBinaryAdapter().marshal(MessageDigest.getInstance("SHA-256").digest(bytes)).toLowerCase();
+        final String userId = UUID.randomUUID().toString();
+        packageRepository.savePackage(
+                new PackageInfo(null, "Example.exe", null, -1, userId, "v0.1", new ByteArrayInputStream(bytes)),
+                "application/x-msdownload"
+        );
+        final DBCollection chunks = db.getCollection(MONGO_BUCKET + ".chunks");
+        final Object chunkId = chunks.findOne().get("_id");
+
+        // When
+        final PackageInfo saved = packageRepository.savePackage(
+                new PackageInfo(null, "Example.exe", null, -1, userId, "v0.2", new ByteArrayInputStream(bytes)),
+                "application/x-msdownload",
+                sha256.toUpperCase()
+        );
+
+        // Then
+        assertThat(chunks.count()).isEqualTo(1);
+        assertThat(chunks.findOne().get("_id")).isEqualTo(chunkId);
+        assertThat(StreamUtils.copyToByteArray(packageRepository.getPackageContent(saved.getId(), 0, bytes.length).get()))
+                .isEqualTo(bytes);
+    }
+
+    @Test
+    public void savePackage_whenContentDoesNotMatchTheExpectedHash_shouldThrowAndStoreNothing() throws IOException, NoSuchAlgorithmException {
+        // Given
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+        final String sha256 = new HexBinaryAdapter().marshal(MessageDigest.getInstance("SHA-256").digest(bytes)).toLowerCase();
+        final String userId = UUID.randomUUID().toString();
+        packageRepository.savePackage(
+                new PackageInfo(null, "Example.exe", null, -1, userId, "v0.1", new ByteArrayInputStream(bytes)),
+                "application/x-msdownload"
+        );
+        final PackageInfo toSave = new PackageInfo(null, "Example.exe", null, -1, userId, "v0.2", new ByteArrayInputStream(new byte[]{6, 7}));
+
+        // When
+        assertThatExceptionOfType(DataIntegrityViolationException.class)
+                .isThrownBy(() -> packageRepository.savePackage(toSave, "application/x-msdownload", sha256));
+
+        // Then
+        assertThat(db.getCollection(MONGO_BUCKET + ".files").count()).isEqualTo(1);
+        assertThat(db.getCollection(MONGO_BUCKET + ".chunks").count()).isEqualTo(1);
+        assertThat(db.getCollection(MONGO_BUCKET + ".blobs").findOne().get(BlobRegistry.REF_COUNT_KEY)).isEqualTo(1);
+    }
+
+    @Test
+    public void savePackage_withFileSystemStore_shouldKeepTheContentOutOfGridFS() throws IOException {
+        // Given
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+        final MongoTemplate template = new MongoTemplate(new MongoClient(MONGO_HOST), TEST_DATABASE);
+        final PackageRepository repository = new PackageRepository(
+                MONGO_BUCKET,
+                template,
+                new FileSystemPackageStore(temporaryFolder.getRoot().getAbsolutePath(), false),
+                chunkReader,
+                contentHasher
+        );
+        final PackageInfo toSave = new PackageInfo(null, "Example.exe", null, -1, UUID.randomUUID().toString(), "v0.1", new ByteArrayInputStream(bytes));
+
+        // When
+        final PackageInfo saved = repository.savePackage(toSave, "application/x-msdownload");
+
+        // Then
+        assertThat(db.getCollection(MONGO_BUCKET + ".chunks").count()).isZero();
+        assertThat(repository.getLocalContentPath(saved.getId())).isPresent();
+        assertThat(Files.readAllBytes(repository.getLocalContentPath(saved.getId()).get())).isEqualTo(bytes);
+        assertThat(StreamUtils.copyToByteArray(repository.getPackageContent(saved.getId(), 2, 3).get())).isEqualTo(new byte[]{2, 3, 4});
+    }
+
+    @Test
+    public void savePackage_withBatchedChunkWrites_shouldStoreEveryChunk() throws IOException, NoSuchAlgorithmException {
+        // Given
+        final byte[] bytes = new byte[30];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        final MongoTemplate template = new MongoTemplate(new MongoClient(MONGO_HOST), TEST_DATABASE);
+        final DBCollection chunks = db.getCollection(MONGO_BUCKET + ".chunks");
+        final PackageRepository repository = new PackageRepository(
+                MONGO_BUCKET,
+                template,
+                new GridFsPackageStore(chunks, 4, chunkReader, 3, WriteConcern.ACKNOWLEDGED),
+                chunkReader,
+                contentHasher
+        );
+        final PackageInfo toSave = new PackageInfo(null, "Example.exe", null, -1, UUID.randomUUID().toString(), "v0.1", new ByteArrayInputStream(bytes));
+
+        // When
+        final PackageInfo saved = repository.savePackage(toSave, "application/x-msdownload");
+
+        // Then
+        assertThat(chunks.count()).isEqualTo(8);
+        assertThat(saved.getMd5()).isEqualTo(new HexBinaryAdapter().marshal(MessageDigest.getInstance("MD5").digest(bytes)).toLowerCase());
+        assertThat(StreamUtils.copyToByteArray(repository.getPackageContent(saved.getId(), 0, bytes.length).get())).isEqualTo(bytes);
+    }
+
+    @Test
+    public void getLocalContentPath_withGridFsStore_shouldReturnEmpty() throws IOException {
+        // Given
+        final PackageInfo saved = packageRepository.savePackage(
+                new PackageInfo(null, "Example.exe", null, -1, UUID.randomUUID().toString(), "v0.1", new ByteArrayInputStream(new byte[]{0, 1, 2})),
+                "application/x-msdownload"
+        );
+
+        // When
+        final Optional<Path> path = packageRepository.getLocalContentPath(saved.getId());
+
+        // Then
+        assertThat(path).isNotPresent();
+    }
+
     @Test
     public void findById_whenFileExists_shouldReturnValidPackageInfo() throws NoSuchAlgorithmException, IOException {
         // Given
@@ -255,16 +745,13 @@ public class PackageRepositoryTest {
         assertThat(packageInfo).isPresent();
         PackageInfo info = packageInfo.get();
 
-        assertThat(info.getInputStream()).isPresent();
-        final InputStream stream = info.getInputStream().get();
-        final byte[] content = new byte[bytes.length];
-        assertThat(stream.read(content)).isEqualTo(bytes.length);
-        assertThat(bytes).isEqualTo(content);
-
+        assertThat(info.getId()).isEqualTo(file.getId().toString());
         assertThat(info.getMd5()).isEqualTo(expectedMd5String);
         assertThat(info.getSize()).isEqualTo(bytes.length);
         assertThat(info.getUserId()).isEqualTo(userId);
-        assertThat(info.getInputStream()).isNotNull();
+        assertThat(info.getVersionId()).isEqualTo(versionId);
+        assertThat(info.getUploadDate()).isEqualTo(file.getUploadDate());
+        assertThat(info.getInputStream()).isNotPresent();
     }
 
     @Test
@@ -277,6 +764,40 @@ public class PackageRepositoryTest {
         assertThat(packageInfo).isNotPresent();
     }
 
+    @Test
+    public void findAll_shouldReturnThePackagesMatchingIdsAndVersionsInOneQuery() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        GridFSFile byId = gridFs.createFile(new byte[]{0});
+        byId.setMetaData(new BasicDBObject(PackageRepository.USER_ID_KEY, UUID.randomUUID().toString()).append(PackageRepository.VERSION_ID_KEY, "v0.1"));
+        byId.save();
+        GridFSFile byVersion = gridFs.createFile(new byte[]{1});
+        byVersion.setMetaData(new BasicDBObject(PackageRepository.USER_ID_KEY, userId).append(PackageRepository.VERSION_ID_KEY, "v0.2"));
+        byVersion.save();
+        setupFile(userId, "v0.3");
+
+        // When
+        final List<PackageInfo> packageInfos = packageRepository.findAll(Arrays.asList(
+                PackageLookup.byId(byId.getId().toString()),
+                PackageLookup.byVersion(userId, "v0.2"),
+                PackageLookup.byVersion(userId, "v9"),
+                PackageLookup.byId(new ObjectId().toString())
+        ));
+
+        // Then
+        assertThat(packageInfos).extracting(PackageInfo::getId)
+                .containsOnly(byId.getId().toString(), byVersion.getId().toString());
+    }
+
+    @Test
+    public void findAll_whenThereIsNothingToLookUp_shouldReturnEmptyList() {
+        // When
+        final List<PackageInfo> packageInfos = packageRepository.findAll(Collections.emptyList());
+
+        // Then
+        assertThat(packageInfos).isEmpty();
+    }
+
     @Test
     public void findByVersionId_whenFileExists_shouldReturnValidPackageInfo() throws NoSuchAlgorithmException, IOException {
         // Given
@@ -296,16 +817,12 @@ public class PackageRepositoryTest {
         assertThat(packageInfo).isPresent();
         PackageInfo info = packageInfo.get();
 
-        assertThat(info.getInputStream()).isPresent();
-        final InputStream stream = info.getInputStream().get();
-        final byte[] content = new byte[bytes.length];
-        assertThat(stream.read(content)).isEqualTo(bytes.length);
-        assertThat(bytes).isEqualTo(content);
-
+        assertThat(info.getId()).isEqualTo(file.getId().toString());
         assertThat(info.getMd5()).isEqualTo(expectedMd5String);
         assertThat(info.getSize()).isEqualTo(bytes.length);
         assertThat(info.getUserId()).isEqualTo(userId);
-        assertThat(info.getInputStream()).isNotNull();
+        assertThat(info.getVersionId()).isEqualTo(versionId);
+        assertThat(info.getInputStream()).isNotPresent();
     }
 
     @Test
@@ -317,6 +834,83 @@ public class PackageRepositoryTest {
         assertThat(packageInfo).isNotPresent();
     }
 
+    @Test
+    public void getPackageContent_whenFileExists_shouldReturnTheRequestedRangeAcrossChunks() throws IOException {
+        // Given
+        final byte[] bytes = new byte[10];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        GridFSInputFile file = gridFs.createFile(bytes);
+        file.setChunkSize(4);
+        file.save();
+
+        // When
+        Optional<InputStream> content = packageRepository.getPackageContent(file.getId().toString(), 3, 6);
+
+        // Then
+        assertThat(content).isPresent();
+        assertThat(StreamUtils.copyToByteArray(content.get())).isEqualTo(new byte[]{3, 4, 5, 6, 7, 8});
+    }
+
+    @Test
+    public void getPackageContent_whenRangeExceedsFile_shouldStopAtTheEndOfTheFile() throws IOException {
+        // Given
+        GridFSInputFile file = gridFs.createFile(new byte[]{0, 1, 2, 3, 4, 5});
+        file.save();
+
+        // When
+        Optional<InputStream> content = packageRepository.getPackageContent(file.getId().toString(), 4, 100);
+
+        // Then
+        assertThat(content).isPresent();
+        assertThat(StreamUtils.copyToByteArray(content.get())).isEqualTo(new byte[]{4, 5});
+    }
+
+    @Test
+    public void getPackageContent_whenRangeSpansSeveralWindows_shouldReturnTheRequestedRange() throws IOException {
+        // Given
+        final byte[] bytes = new byte[30];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        GridFSInputFile file = gridFs.createFile(bytes);
+        file.setChunkSize(4);
+        file.save();
+
+        // When
+        Optional<InputStream> content = packageRepository.getPackageContent(file.getId().toString(), 5, 22);
+
+        // Then
+        assertThat(content).isPresent();
+        assertThat(StreamUtils.copyToByteArray(content.get())).isEqualTo(Arrays.copyOfRange(bytes, 5, 27));
+    }
+
+    @Test
+    public void getPackageContent_whenAChunkIsMissing_shouldFailWhileReading() throws IOException {
+        // Given
+        GridFSInputFile file = gridFs.createFile(new byte[20]);
+        file.setChunkSize(4);
+        file.save();
+        db.getCollection(MONGO_BUCKET + ".chunks").remove(new BasicDBObject("files_id", file.getId()).append("n", 3));
+
+        // When
+        Optional<InputStream> content = packageRepository.getPackageContent(file.getId().toString(), 0, 20);
+
+        // Then
+        assertThat(content).isPresent();
+        assertThatExceptionOfType(IOException.class).isThrownBy(() -> StreamUtils.copyToByteArray(content.get()));
+    }
+
+    @Test
+    public void getPackageContent_whenFileDoesNotExist_shouldReturnEmpty() {
+        // When
+        Optional<InputStream> content = packageRepository.getPackageContent(new ObjectId().toString(), 0, 1);
+
+        // Then
+        assertThat(content).isNotPresent();
+    }
+
     private void setupFile(String userId, String versionId) {
         GridFSFile file = gridFs.createFile(new ByteArrayInputStream(new byte[]{1, 2, 3, 4}));
         file.setMetaData(new BasicDBObject("userId", userId).append("versionId", versionId));
@@ -0,0 +1,219 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.MongoClient;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.IMongodConfig;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import io.barracks.packageservice.model.PackageVariant;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class PackageVariantRepositoryTest {
+
+    private static final String TEST_DATABASE = "test";
+    private static final String MONGO_HOST = "localhost";
+    private static final String MONGO_BUCKET = "testbucket";
+
+    private static MongodExecutable mongodExecutable;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private PackageVariantRepository variantRepository;
+
+    private DB db;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        prepareMongo();
+    }
+
+    private static void prepareMongo() throws IOException {
+        final MongodStarter starter = MongodStarter.getDefaultInstance();
+
+        final IMongodConfig mongodConfig = new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(27017, Network.localhostIsIPv6()))
+                .build();
+
+        mongodExecutable = starter.prepare(mongodConfig);
+        mongodExecutable.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        try {
+            mongodExecutable.stop();
+        } catch (IllegalStateException ise) {
+            ise.printStackTrace();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final MongoClient mongo = new MongoClient(MONGO_HOST);
+        db = mongo.getDB(TEST_DATABASE);
+        new PackageIndexManager(MONGO_BUCKET, new MongoTemplate(mongo, TEST_DATABASE)).ensureIndexes();
+        variantRepository = new PackageVariantRepository(
+                db.getCollection(MONGO_BUCKET + ".variants"),
+                new FileSystemPackageStore(temporaryFolder.getRoot().getAbsolutePath(), false)
+        );
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void createPending_whenCalledTwice_shouldOnlyCreateTheVariantOnce() {
+        // When
+        final boolean first = variantRepository.createPending("id", "gzip");
+        final boolean second = variantRepository.createPending("id", "gzip");
+
+        // Then
+        assertThat(first).isTrue();
+        assertThat(second).isFalse();
+        assertThat(variantRepository.find("id", "gzip").get().getStatus()).isEqualTo(PackageVariant.Status.PENDING);
+    }
+
+    @Test
+    public void saveContent_shouldMakeTheVariantReadyAndItsContentReadable() throws IOException {
+        // Given
+        variantRepository.createPending("id", "gzip");
+
+        // When
+        final Optional<PackageVariant> saved = variantRepository.saveContent("id", "gzip", new ByteArrayInputStream(new byte[]{1, 2, 3}));
+
+        // Then
+        assertThat(saved).isPresent();
+        assertThat(saved.get().getStatus()).isEqualTo(PackageVariant.Status.READY);
+        assertThat(saved.get().getSize()).isEqualTo(3);
+        assertThat(variantRepository.find("id", "gzip")).contains(saved.get());
+        assertThat(StreamUtils.copyToByteArray(variantRepository.getContent(saved.get()))).isEqualTo(new byte[]{1, 2, 3});
+    }
+
+    @Test
+    public void getContent_withARange_shouldOnlyReadThatRange() throws IOException {
+        // Given
+        variantRepository.createPending("id", "gzip");
+        final PackageVariant saved = variantRepository.saveContent("id", "gzip", new ByteArrayInputStream(new byte[]{1, 2, 3, 4})).get();
+
+        // When
+        final byte[] content = StreamUtils.copyToByteArray(variantRepository.getContent(saved, 1, 2));
+
+        // Then
+        assertThat(content).isEqualTo(new byte[]{2, 3});
+    }
+
+    @Test
+    public void claimStalePending_shouldOnlyClaimVariantsPendingSinceBeforeTheDate() {
+        // Given
+        variantRepository.createPending("id", "gzip");
+
+        // When
+        final boolean recent = variantRepository.claimStalePending("id", "gzip", new Date(System.currentTimeMillis() - 60000));
+        final boolean stale = variantRepository.claimStalePending("id", "gzip", new Date(System.currentTimeMillis() + 60000));
+
+        // Then
+        assertThat(recent).isFalse();
+        assertThat(stale).isTrue();
+    }
+
+    @Test
+    public void claimStalePending_whenVariantHasNoCreationDate_shouldClaimIt() {
+        // Given
+        db.getCollection(MONGO_BUCKET + ".variants").insert(new BasicDBObject(PackageVariantRepository.PACKAGE_ID_KEY, "id")
+                .append(PackageVariantRepository.ENCODING_KEY, "gzip")
+                .append(PackageVariantRepository.STATUS_KEY, PackageVariant.Status.PENDING.name()));
+
+        // When
+        final boolean claimed = variantRepository.claimStalePending("id", "gzip", new Date(System.currentTimeMillis() - 60000));
+
+        // Then
+        assertThat(claimed).isTrue();
+    }
+
+    @Test
+    public void claimStalePending_whenVariantIsSkipped_shouldNotClaimIt() {
+        // Given
+        variantRepository.createPending("id", "gzip");
+        variantRepository.markSkipped("id", "gzip");
+
+        // When
+        final boolean claimed = variantRepository.claimStalePending("id", "gzip", new Date(System.currentTimeMillis() + 60000));
+
+        // Then
+        assertThat(claimed).isFalse();
+    }
+
+    @Test
+    public void markSkipped_shouldKeepTheVariantWithoutContent() {
+        // Given
+        variantRepository.createPending("id", "gzip");
+
+        // When
+        variantRepository.markSkipped("id", "gzip");
+
+        // Then
+        final PackageVariant variant = variantRepository.find("id", "gzip").get();
+        assertThat(variant.getStatus()).isEqualTo(PackageVariant.Status.SKIPPED);
+        assertThat(variant.getContentId()).isNull();
+    }
+
+    @Test
+    public void delete_shouldRemoveTheVariantAndItsContent() throws IOException {
+        // Given
+        variantRepository.createPending("id", "gzip");
+        variantRepository.saveContent("id", "gzip", new ByteArrayInputStream(new byte[]{1, 2, 3}));
+
+        // When
+        variantRepository.delete("id", "gzip");
+
+        // Then
+        assertThat(variantRepository.find("id", "gzip")).isNotPresent();
+        assertThat(Files.walk(temporaryFolder.getRoot().toPath()).filter(Files::isRegularFile).count()).isZero();
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.mongodb.DB;
+import com.mongodb.MongoClient;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.IMongodConfig;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import io.barracks.packageservice.model.ScrubResult;
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class ScrubRepositoryTest {
+
+    private static final String TEST_DATABASE = "test";
+    private static final String MONGO_HOST = "localhost";
+    private static final String MONGO_BUCKET = "testbucket";
+
+    private static MongodExecutable mongodExecutable;
+
+    private ScrubRepository scrubRepository;
+
+    private DB db;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        prepareMongo();
+    }
+
+    private static void prepareMongo() throws IOException {
+        final MongodStarter starter = MongodStarter.getDefaultInstance();
+
+        final IMongodConfig mongodConfig = new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(27017, Network.localhostIsIPv6()))
+                .build();
+
+        mongodExecutable = starter.prepare(mongodConfig);
+        mongodExecutable.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        try {
+            mongodExecutable.stop();
+        } catch (IllegalStateException ise) {
+            ise.printStackTrace();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final MongoClient mongo = new MongoClient(MONGO_HOST);
+        db = mongo.getDB(TEST_DATABASE);
+        scrubRepository = new ScrubRepository(db.getCollection(MONGO_BUCKET + ".scrub"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void getCursor_whenNoPassStarted_shouldReturnEmpty() {
+        // When
+        final Optional<String> cursor = scrubRepository.getCursor();
+
+        // Then
+        assertThat(cursor).isNotPresent();
+    }
+
+    @Test
+    public void saveCursor_shouldMoveTheCursorAndResetIt() {
+        // Given
+        scrubRepository.tryLease("owner", 60000);
+        scrubRepository.saveCursor("owner", "first");
+        scrubRepository.saveCursor("owner", "second");
+
+        // When
+        final Optional<String> moved = scrubRepository.getCursor();
+        scrubRepository.saveCursor("owner", null);
+        final Optional<String> reset = scrubRepository.getCursor();
+
+        // Then
+        assertThat(moved).contains("second");
+        assertThat(reset).isNotPresent();
+    }
+
+    @Test
+    public void saveCursor_whenLeaseIsHeldByAnotherOwner_shouldNotMoveTheCursor() {
+        // Given
+        scrubRepository.tryLease("owner", 60000);
+        scrubRepository.saveCursor("owner", "first");
+
+        // When
+        final boolean saved = scrubRepository.saveCursor("other", "second");
+
+        // Then
+        assertThat(saved).isFalse();
+        assertThat(scrubRepository.getCursor()).contains("first");
+    }
+
+    @Test
+    public void tryLease_whenLeasedToAnotherOwner_shouldOnlySucceedOnceTheLeaseIsReleasedOrExpired() {
+        // Given
+        final boolean first = scrubRepository.tryLease("first", 60000);
+        final boolean renewed = scrubRepository.tryLease("first", 60000);
+
+        // When
+        final boolean whileLeased = scrubRepository.tryLease("second", 60000);
+        scrubRepository.releaseLease("first");
+        final boolean afterRelease = scrubRepository.tryLease("second", -1);
+        final boolean afterExpiry = scrubRepository.tryLease("third", 60000);
+
+        // Then
+        assertThat(first).isTrue();
+        assertThat(renewed).isTrue();
+        assertThat(whileLeased).isFalse();
+        assertThat(afterRelease).isTrue();
+        assertThat(afterExpiry).isTrue();
+    }
+
+    @Test
+    public void getPassStartedAt_shouldBeSetByTheFirstLeaseAndByEachNewPass() throws InterruptedException {
+        // Given
+        scrubRepository.tryLease("owner", 60000);
+        final Date started = scrubRepository.getPassStartedAt().get();
+        scrubRepository.tryLease("owner", 60000);
+        final Date renewed = scrubRepository.getPassStartedAt().get();
+        Thread.sleep(10);
+
+        // When
+        scrubRepository.saveCursor("owner", null);
+
+        // Then
+        assertThat(renewed).isEqualTo(started);
+        assertThat(scrubRepository.getPassStartedAt().get()).isAfter(started);
+    }
+
+    @Test
+    public void saveContentResult_shouldKeepTheResultApartFromThePackageResults() {
+        // Given
+        final Date checkedAt = new Date();
+
+        // When
+        scrubRepository.saveContentResult("id", new ScrubResult("package", ScrubResult.Status.VALID, "md5", "md5", checkedAt));
+
+        // Then
+        final ScrubResult result = scrubRepository.findContentResult("id").get();
+        assertThat(result.getStatus()).isEqualTo(ScrubResult.Status.VALID);
+        assertThat(result.getCheckedAt()).isEqualTo(checkedAt);
+        assertThat(scrubRepository.findResult("id")).isNotPresent();
+    }
+
+    @Test
+    public void saveResult_shouldReplaceThePreviousResultOfThePackage() {
+        // Given
+        final Date checkedAt = new Date();
+        scrubRepository.saveResult(new ScrubResult("id", ScrubResult.Status.VALID, "md5", "md5", new Date(0)));
+
+        // When
+        scrubRepository.saveResult(new ScrubResult("id", ScrubResult.Status.CORRUPT, "md5", "other", checkedAt));
+
+        // Then
+        final ScrubResult result = scrubRepository.findResult("id").get();
+        assertThat(result.getStatus()).isEqualTo(ScrubResult.Status.CORRUPT);
+        assertThat(result.getExpectedMd5()).isEqualTo("md5");
+        assertThat(result.getActualMd5()).isEqualTo("other");
+        assertThat(result.getCheckedAt()).isEqualTo(checkedAt);
+        assertThat(scrubRepository.getCursor()).isNotPresent();
+    }
+}
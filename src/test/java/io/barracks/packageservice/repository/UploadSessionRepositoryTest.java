@@ -0,0 +1,308 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.repository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.MongoClient;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.IMongodConfig;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import io.barracks.packageservice.model.UploadSession;
+import org.bson.types.ObjectId;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+@RunWith(JUnit4.class)
+public class UploadSessionRepositoryTest {
+
+    private static final String TEST_DATABASE = "test";
+    private static final String MONGO_HOST = "localhost";
+    private static final String MONGO_BUCKET = "testbucket";
+
+    private static MongodExecutable mongodExecutable;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private UploadSessionRepository uploadSessionRepository;
+
+    private DB db;
+    private DBCollection sessions;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        prepareMongo();
+    }
+
+    private static void prepareMongo() throws IOException {
+        final MongodStarter starter = MongodStarter.getDefaultInstance();
+
+        final IMongodConfig mongodConfig = new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(27017, Network.localhostIsIPv6()))
+                .build();
+
+        mongodExecutable = starter.prepare(mongodConfig);
+        mongodExecutable.start();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        try {
+            mongodExecutable.stop();
+        } catch (IllegalStateException ise) {
+            ise.printStackTrace();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final MongoClient mongo = new MongoClient(MONGO_HOST);
+        db = mongo.getDB(TEST_DATABASE);
+        sessions = db.getCollection(MONGO_BUCKET + ".uploads");
+        uploadSessionRepository = new UploadSessionRepository(
+                sessions,
+                new FileSystemPackageStore(temporaryFolder.getRoot().getAbsolutePath(), false)
+        );
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.dropDatabase();
+    }
+
+    @Test
+    public void createSession_shouldStoreAnEmptySession() {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+
+        // When
+        final UploadSession session = uploadSessionRepository.createSession(userId, "v0.1", "Example.exe", null, null, 4);
+
+        // Then
+        assertThat(uploadSessionRepository.findById(session.getId())).contains(session);
+        assertThat(session.getParts()).isEmpty();
+        assertThat(session.getPartSize()).isEqualTo(4);
+    }
+
+    @Test
+    public void savePart_shouldStoreThePartsInAnyOrderAndReturnTheContentInOrder() throws IOException {
+        // Given
+        final UploadSession session = uploadSessionRepository.createSession(UUID.randomUUID().toString(), "v0.1", "Example.exe", null, null, 4);
+
+        // When
+        uploadSessionRepository.savePart(session.getId(), 2, new ByteArrayInputStream(new byte[]{8, 9}), 4);
+        uploadSessionRepository.savePart(session.getId(), 0, new ByteArrayInputStream(new byte[]{0, 1, 2, 3}), 4);
+        final Optional<UploadSession> saved = uploadSessionRepository.savePart(session.getId(), 1, new ByteArrayInputStream(new byte[]{4, 5, 6, 7}), 4);
+
+        // Then
+        assertThat(saved).isPresent();
+        assertThat(saved.get().getReceivedRanges()).containsExactly("0-9");
+        assertThat(StreamUtils.copyToByteArray(uploadSessionRepository.getContent(saved.get())))
+                .isEqualTo(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+    }
+
+    @Test
+    public void savePart_whenThePartIsSentAgain_shouldReplaceTheStoredContent() throws IOException {
+        // Given
+        final UploadSession session = uploadSessionRepository.createSession(UUID.randomUUID().toString(), "v0.1", "Example.exe", null, null, 4);
+        uploadSessionRepository.savePart(session.getId(), 0, new ByteArrayInputStream(new byte[]{0, 0}), 4);
+
+        // When
+        final Optional<UploadSession> saved = uploadSessionRepository.savePart(session.getId(), 0, new ByteArrayInputStream(new byte[]{1, 2, 3}), 4);
+
+        // Then
+        assertThat(saved.get().getParts()).hasSize(1);
+        assertThat(StreamUtils.copyToByteArray(uploadSessionRepository.getContent(saved.get()))).isEqualTo(new byte[]{1, 2, 3});
+        assertThat(countStoredFiles()).isEqualTo(1);
+    }
+
+    @Test
+    public void savePart_whenThePartIsTooLarge_shouldThrowAndStoreNothing() {
+        // Given
+        final UploadSession session = uploadSessionRepository.createSession(UUID.randomUUID().toString(), "v0.1", "Example.exe", null, null, 4);
+
+        // When
+        assertThatExceptionOfType(DataIntegrityViolationException.class)
+                .isThrownBy(() -> uploadSessionRepository.savePart(session.getId(), 0, new ByteArrayInputStream(new byte[5]), 4));
+
+        // Then
+        assertThat(uploadSessionRepository.findById(session.getId()).get().getParts()).isEmpty();
+        assertThat(countStoredFiles()).isZero();
+    }
+
+    @Test
+    public void savePart_whenSessionDoesNotExist_shouldReturnEmptyAndStoreNothing() {
+        // When
+        final Optional<UploadSession> saved = uploadSessionRepository.savePart(new ObjectId().toHexString(), 0, new ByteArrayInputStream(new byte[]{0}), 4);
+
+        // Then
+        assertThat(saved).isNotPresent();
+        assertThat(countStoredFiles()).isZero();
+    }
+
+    @Test
+    public void startCommit_shouldOnlySucceedOnceUntilTheCommitIsCancelled() {
+        // Given
+        final UploadSession session = uploadSessionRepository.createSession(UUID.randomUUID().toString(), "v0.1", "Example.exe", null, null, 4);
+        uploadSessionRepository.savePart(session.getId(), 0, new ByteArrayInputStream(new byte[]{0}), 4);
+
+        // When
+        final Optional<UploadSession> first = uploadSessionRepository.startCommit(session.getId());
+        final Optional<UploadSession> concurrent = uploadSessionRepository.startCommit(session.getId());
+        uploadSessionRepository.cancelCommit(session.getId());
+        final Optional<UploadSession> retried = uploadSessionRepository.startCommit(session.getId());
+
+        // Then
+        assertThat(first).isPresent();
+        assertThat(first.get().getParts()).hasSize(1);
+        assertThat(concurrent).isNotPresent();
+        assertThat(retried).isPresent();
+    }
+
+    @Test
+    public void savePart_whenSessionIsBeingCommitted_shouldReturnEmptyAndStoreNothing() {
+        // Given
+        final UploadSession session = uploadSessionRepository.createSession(UUID.randomUUID().toString(), "v0.1", "Example.exe", null, null, 4);
+        uploadSessionRepository.startCommit(session.getId());
+
+        // When
+        final Optional<UploadSession> saved = uploadSessionRepository.savePart(session.getId(), 0, new ByteArrayInputStream(new byte[]{0}), 4);
+
+        // Then
+        assertThat(saved).isNotPresent();
+        assertThat(uploadSessionRepository.findById(session.getId()).get().getParts()).isEmpty();
+        assertThat(countStoredFiles()).isZero();
+    }
+
+    @Test
+    public void deleteSessionsUpdatedBefore_shouldOnlyDeleteStaleSessionsAndTheirParts() {
+        // Given
+        final UploadSession stale = uploadSessionRepository.createSession(UUID.randomUUID().toString(), "v0.1", "Example.exe", null, null, 4);
+        uploadSessionRepository.savePart(stale.getId(), 0, new ByteArrayInputStream(new byte[]{0}), 4);
+        sessions.update(
+                new BasicDBObject("_id", new ObjectId(stale.getId())),
+                new BasicDBObject("$set", new BasicDBObject(UploadSessionRepository.UPDATE_DATE_KEY, new Date(0)))
+        );
+        final UploadSession fresh = uploadSessionRepository.createSession(UUID.randomUUID().toString(), "v0.2", "Example.exe", null, null, 4);
+
+        // When
+        final int deleted = uploadSessionRepository.deleteSessionsUpdatedBefore(new Date(System.currentTimeMillis() - 60000), new Date(0));
+
+        // Then
+        assertThat(deleted).isEqualTo(1);
+        assertThat(uploadSessionRepository.findById(stale.getId())).isNotPresent();
+        assertThat(uploadSessionRepository.findById(fresh.getId())).isPresent();
+        assertThat(countStoredFiles()).isZero();
+    }
+
+    @Test
+    public void deleteSession_whenSessionIsBeingCommitted_shouldKeepItAndItsParts() {
+        // Given
+        final UploadSession session = uploadSessionRepository.createSession(UUID.randomUUID().toString(), "v0.1", "Example.exe", null, null, 4);
+        uploadSessionRepository.savePart(session.getId(), 0, new ByteArrayInputStream(new byte[]{0}), 4);
+        uploadSessionRepository.startCommit(session.getId());
+
+        // When
+        final boolean deleted = uploadSessionRepository.deleteSession(session.getId());
+
+        // Then
+        assertThat(deleted).isFalse();
+        assertThat(uploadSessionRepository.findById(session.getId())).isPresent();
+        assertThat(countStoredFiles()).isEqualTo(1);
+    }
+
+    @Test
+    public void finishCommit_shouldDeleteTheCommittedSessionAndItsParts() {
+        // Given
+        final UploadSession session = uploadSessionRepository.createSession(UUID.randomUUID().toString(), "v0.1", "Example.exe", null, null, 4);
+        uploadSessionRepository.savePart(session.getId(), 0, new ByteArrayInputStream(new byte[]{0}), 4);
+        uploadSessionRepository.startCommit(session.getId());
+
+        // When
+        uploadSessionRepository.finishCommit(session.getId());
+
+        // Then
+        assertThat(uploadSessionRepository.findById(session.getId())).isNotPresent();
+        assertThat(countStoredFiles()).isZero();
+    }
+
+    @Test
+    public void deleteSessionsUpdatedBefore_shouldOnlyDeleteCommitsOlderThanTheCommitDate() {
+        // Given
+        final UploadSession stuck = uploadSessionRepository.createSession(UUID.randomUUID().toString(), "v0.1", "Example.exe", null, null, 4);
+        uploadSessionRepository.startCommit(stuck.getId());
+        sessions.update(
+                new BasicDBObject("_id", new ObjectId(stuck.getId())),
+                new BasicDBObject("$set", new BasicDBObject(UploadSessionRepository.UPDATE_DATE_KEY, new Date(0)))
+        );
+        final UploadSession committing = uploadSessionRepository.createSession(UUID.randomUUID().toString(), "v0.2", "Example.exe", null, null, 4);
+        uploadSessionRepository.startCommit(committing.getId());
+        sessions.update(
+                new BasicDBObject("_id", new ObjectId(committing.getId())),
+                new BasicDBObject("$set", new BasicDBObject(UploadSessionRepository.UPDATE_DATE_KEY, new Date(System.currentTimeMillis() - 120000)))
+        );
+
+        // When
+        final int deleted = uploadSessionRepository.deleteSessionsUpdatedBefore(
+                new Date(System.currentTimeMillis() - 60000),
+                new Date(System.currentTimeMillis() - 3600000)
+        );
+
+        // Then
+        assertThat(deleted).isEqualTo(1);
+        assertThat(uploadSessionRepository.findById(stuck.getId())).isNotPresent();
+        assertThat(uploadSessionRepository.findById(committing.getId())).isPresent();
+    }
+
+    private long countStoredFiles() {
+        final File[] directories = temporaryFolder.getRoot().listFiles();
+        long count = 0;
+        for (File directory : directories == null ? new File[0] : directories) {
+            final File[] files = directory.listFiles();
+            count += files == null ? 0 : files.length;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class DownloadSlotsTest {
+
+    @Test
+    public void tryAcquire_whenAllSlotsAreTaken_shouldReturnFalseUntilOneIsReleased() {
+        // Given
+        final DownloadSlots downloadSlots = new DownloadSlots(2);
+        downloadSlots.tryAcquire();
+        downloadSlots.tryAcquire();
+
+        // When
+        final boolean whenFull = downloadSlots.tryAcquire();
+        downloadSlots.release();
+        final boolean afterRelease = downloadSlots.tryAcquire();
+
+        // Then
+        assertThat(whenFull).isFalse();
+        assertThat(afterRelease).isTrue();
+        assertThat(downloadSlots.metrics()).extracting("name", "value")
+                .contains(tuple("downloads.active", 2), tuple("downloads.max", 2));
+    }
+
+    @Test
+    public void metrics_whenDownloadsAreNonBlocking_shouldUseTheirOwnBound() {
+        // When
+        final DownloadSlots blocking = new DownloadSlots(2, false, 10, false, 20);
+        final DownloadSlots nonBlocking = new DownloadSlots(2, true, 10, true, 20);
+
+        // Then
+        assertThat(blocking.metrics()).extracting("name", "value").contains(tuple("downloads.max", 2));
+        assertThat(nonBlocking.metrics()).extracting("name", "value").contains(tuple("downloads.max", 10));
+    }
+
+    @Test
+    public void metrics_whenDownloadsRunOnVirtualThreads_shouldUseTheirOwnBound() {
+        // When
+        final DownloadSlots downloadSlots = new DownloadSlots(2, false, 10, true, 20);
+
+        // Then
+        assertThat(downloadSlots.metrics()).extracting("name", "value").contains(tuple("downloads.max", 20));
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.barracks.packageservice.actuator.TransferMeter;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class NonBlockingDownloadsTest {
+
+    private AsyncContext asyncContext;
+    private FakeOutputStream out;
+    private TransferMeter downloaded;
+    private AtomicInteger done;
+    private ScheduledExecutorService scheduler;
+    private List<Integer> paced;
+
+    @Before
+    public void setUp() {
+        asyncContext = mock(AsyncContext.class);
+        out = new FakeOutputStream();
+        downloaded = new TransferMeter();
+        done = new AtomicInteger();
+        scheduler = mock(ScheduledExecutorService.class);
+        paced = new ArrayList<>();
+    }
+
+    @Test
+    public void transfer_whenTheClientIsAlwaysReady_shouldWriteTheWholeContentAndComplete() throws Exception {
+        // Given
+        final CloseCountingStream content = new CloseCountingStream("abcdefgh");
+        final NonBlockingDownloads.Transfer transfer = transfer(content);
+
+        // When
+        transfer.start(asyncContext, out);
+
+        // Then
+        assertThat(out.written.toString("UTF-8")).isEqualTo("abcdefgh");
+        assertThat(downloaded.getTotal()).isEqualTo(8);
+        assertThat(paced).containsExactly(3, 3, 2);
+        assertThat(done.get()).isEqualTo(1);
+        assertThat(content.closed).isEqualTo(1);
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    public void transfer_whenTheClientIsNotReady_shouldWaitForTheNextWritePossibleNotification() throws Exception {
+        // Given
+        final InputStream content = new ByteArrayInputStream("abcdefgh".getBytes(StandardCharsets.UTF_8));
+        final NonBlockingDownloads.Transfer transfer = transfer(content);
+        out.writesBeforeBusy = 1;
+        transfer.start(asyncContext, out);
+        assertThat(out.written.toString("UTF-8")).isEqualTo("abc");
+
+        // When
+        out.writesBeforeBusy = 1;
+        transfer.onWritePossible();
+
+        // Then
+        assertThat(out.written.toString("UTF-8")).isEqualTo("abcdef");
+        assertThat(done.get()).isEqualTo(0);
+        verify(asyncContext, never()).complete();
+
+        // When
+        out.writesBeforeBusy = Integer.MAX_VALUE;
+        transfer.onWritePossible();
+
+        // Then
+        assertThat(out.written.toString("UTF-8")).isEqualTo("abcdefgh");
+        assertThat(done.get()).isEqualTo(1);
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    public void transfer_whenTheContentFails_shouldCompleteAndReleaseOnce() throws Exception {
+        // Given
+        final InputStream content = mock(InputStream.class);
+        doThrow(new IOException("chunk missing")).when(content).read(any(byte[].class));
+        final NonBlockingDownloads.Transfer transfer = transfer(content);
+
+        // When
+        transfer.start(asyncContext, out);
+        transfer.onComplete(null);
+
+        // Then
+        assertThat(done.get()).isEqualTo(1);
+        verify(content, times(1)).close();
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    public void transfer_whenTheContainerTimesOut_shouldReleaseOnce() throws Exception {
+        // Given
+        final CloseCountingStream content = new CloseCountingStream("abcdefgh");
+        final NonBlockingDownloads.Transfer transfer = transfer(content);
+        out.writesBeforeBusy = 1;
+        transfer.start(asyncContext, out);
+
+        // When
+        transfer.onTimeout(null);
+        transfer.onComplete(null);
+        transfer.onWritePossible();
+
+        // Then
+        assertThat(out.written.toString("UTF-8")).isEqualTo("abc");
+        assertThat(done.get()).isEqualTo(1);
+        assertThat(content.closed).isEqualTo(1);
+    }
+
+    @Test
+    public void transfer_whenTheDownloadIsShaped_shouldResumeOnTheSchedulerInsteadOfWaiting() throws Exception {
+        // Given
+        final InputStream content = new ByteArrayInputStream("abcdefgh".getBytes(StandardCharsets.UTF_8));
+        final NonBlockingDownloads.Transfer transfer = new NonBlockingDownloads.Transfer(content, 3, MoreExecutors.directExecutor(), scheduler, downloaded, bytes -> {
+            paced.add(bytes);
+            return 1000;
+        }, done::incrementAndGet);
+        final ArgumentCaptor<Runnable> resume = ArgumentCaptor.forClass(Runnable.class);
+
+        // When
+        transfer.start(asyncContext, out);
+
+        // Then
+        assertThat(out.written.toString("UTF-8")).isEqualTo("abc");
+        assertThat(paced).containsExactly(3);
+        verify(scheduler).schedule(resume.capture(), eq(1000L), eq(TimeUnit.NANOSECONDS));
+
+        // When
+        resume.getValue().run();
+
+        // Then
+        assertThat(out.written.toString("UTF-8")).isEqualTo("abcdef");
+        assertThat(paced).containsExactly(3, 3);
+        assertThat(done.get()).isEqualTo(0);
+    }
+
+    private NonBlockingDownloads.Transfer transfer(InputStream content) {
+        return new NonBlockingDownloads.Transfer(content, 3, MoreExecutors.directExecutor(), scheduler, downloaded, bytes -> {
+            paced.add(bytes);
+            return 0;
+        }, done::incrementAndGet);
+    }
+
+    private static class CloseCountingStream extends ByteArrayInputStream {
+        private int closed;
+
+        private CloseCountingStream(String content) {
+            super(content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() {
+            closed++;
+        }
+    }
+
+    private static class FakeOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private WriteListener listener;
+        private int writesBeforeBusy = Integer.MAX_VALUE;
+
+        @Override
+        public boolean isReady() {
+            return writesBeforeBusy > 0;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            listener = writeListener;
+            try {
+                // like the container, notify once writes are possible
+                listener.onWritePossible();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            written.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writesBeforeBusy--;
+            written.write(b, off, len);
+        }
+    }
+}
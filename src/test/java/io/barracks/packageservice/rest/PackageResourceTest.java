@@ -24,36 +24,68 @@
 
 package io.barracks.packageservice.rest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Ticker;
+import io.barracks.packageservice.actuator.PackageMetrics;
 import io.barracks.packageservice.Application;
+import io.barracks.packageservice.manager.CompressionManager;
+import io.barracks.packageservice.manager.DeltaManager;
 import io.barracks.packageservice.manager.PackageManager;
+import io.barracks.packageservice.manager.exception.InvalidPackageContentException;
+import io.barracks.packageservice.manager.exception.InvalidPackageDeltaException;
 import io.barracks.packageservice.manager.exception.InvalidPackageVersionException;
 import io.barracks.packageservice.manager.exception.PackageConflictException;
+import io.barracks.packageservice.model.PackageDelta;
+import io.barracks.packageservice.model.PackageFilter;
 import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.PackageLookup;
+import io.barracks.packageservice.model.PackageLookupResult;
+import io.barracks.packageservice.model.PackageVariant;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
 import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.ResultHandler;
+import org.springframework.test.web.servlet.ResultMatcher;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Optional;
-import java.util.UUID;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntToLongFunction;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -67,12 +99,37 @@ public class PackageResourceTest {
     @Mock
     private PackageManager packageManager;
 
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    @Spy
+    private DownloadSlots downloadSlots = new DownloadSlots(10);
+
+    @Mock
+    private DeltaManager deltaManager;
+
+    @Mock
+    private CompressionManager compressionManager;
+
+    @Spy
+    private PackageMetrics packageMetrics = new PackageMetrics(60);
+
+    @Spy
+    private TenantLimits tenantLimits = new TenantLimits(0, 0, 0, 0, 0, 0, 3600, 1000, Ticker.systemTicker());
+
+    @Mock
+    private NonBlockingDownloads nonBlockingDownloads;
+
+    @Mock
+    private DownloadExecution downloadExecution;
+
     @InjectMocks
     private PackageResource packageResource = new PackageResource();
 
     @Before
     public void setUp() throws Exception {
         mvc = MockMvcBuilders.standaloneSetup(packageResource).build();
+        when(packageManager.findCachedById(anyString())).thenReturn(Optional.empty());
     }
 
     @Test
@@ -83,7 +140,7 @@ public class PackageResourceTest {
         final String versionId = UUID.randomUUID().toString();
         final PackageInfo expectedPackageInfo = new PackageInfo("OBJECTID", "Example.exe", "MD5", bytes.length, userId, versionId, null);
         final MockMultipartFile multipartFile = new MockMultipartFile("file", expectedPackageInfo.getFileName(), "application/x-msdownload", bytes);
-        when(packageManager.save(eq(expectedPackageInfo.getFileName()), anyString(), isA(InputStream.class), eq(userId), eq(versionId))).thenReturn(expectedPackageInfo);
+        when(packageManager.save(eq(expectedPackageInfo.getFileName()), anyString(), isA(InputStream.class), eq(userId), eq(versionId), eq((String) null), eq((String) null))).thenReturn(expectedPackageInfo);
 
         // When
         final ResultActions result = mvc.perform(
@@ -91,7 +148,9 @@ public class PackageResourceTest {
         );
 
         // Then
-        verify(packageManager).save(eq(expectedPackageInfo.getFileName()), anyString(), isA(InputStream.class), eq(userId), eq(versionId));
+        verify(packageManager).save(eq(expectedPackageInfo.getFileName()), anyString(), isA(InputStream.class), eq(userId), eq(versionId), eq((String) null), eq((String) null));
+        verify(tenantLimits).countUpload(eq(userId), isA(InputStream.class));
+        verify(tenantLimits, never()).throttleUpload(anyString(), isA(InputStream.class));
         result.andExpect(status().isCreated())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8))
                 .andExpect(jsonPath("$.id").value(expectedPackageInfo.getId()))
@@ -131,7 +190,7 @@ public class PackageResourceTest {
     @Test
     public void uploadPackage_whenManagerThrowPackageConflictException_shouldReturnConflict() throws Exception {
         // Given
-        when(packageManager.save(anyString(), anyString(), any(), anyString(), anyString())).thenThrow(new PackageConflictException("Mock Exception"));
+        when(packageManager.save(anyString(), anyString(), any(), anyString(), anyString(), anyString(), anyString())).thenThrow(new PackageConflictException("Mock Exception"));
 
         // When
         final ResultActions result = mvc.perform(
@@ -143,14 +202,14 @@ public class PackageResourceTest {
         );
 
         // Then
-        verify(packageManager).save(anyString(), anyString(), any(), anyString(), anyString());
+        verify(packageManager).save(anyString(), anyString(), any(), anyString(), anyString(), anyString(), anyString());
         result.andExpect(status().isConflict());
     }
 
     @Test
     public void uploadPackage_whenManagerThrowInvalidPackageVersionException_shouldReturnBadRequest() throws Exception {
         // Given
-        when(packageManager.save(anyString(), anyString(), any(), anyString(), anyString())).thenThrow(new InvalidPackageVersionException("Mock Exception"));
+        when(packageManager.save(anyString(), anyString(), any(), anyString(), anyString(), anyString(), anyString())).thenThrow(new InvalidPackageVersionException("Mock Exception"));
 
         // When
         final ResultActions result = mvc.perform(
@@ -162,10 +221,144 @@ public class PackageResourceTest {
         );
 
         // Then
-        verify(packageManager).save(anyString(), anyString(), any(), anyString(), anyString());
+        verify(packageManager).save(anyString(), anyString(), any(), anyString(), anyString(), anyString(), anyString());
+        result.andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void uploadPackageStream_whenTheRequestIsValid_shouldSendTheBodyToTheManagerAndReturnAPackageInfo() throws Exception {
+        // Given
+        final byte[] bytes = {0, 1, 2, 3, 4, 5};
+        final String userId = UUID.randomUUID().toString();
+        final String versionId = UUID.randomUUID().toString();
+        final PackageInfo expectedPackageInfo = new PackageInfo("OBJECTID", "Example.exe", "MD5", bytes.length, userId, versionId, null);
+        when(packageManager.save(eq(expectedPackageInfo.getFileName()), eq(MediaType.APPLICATION_OCTET_STREAM_VALUE), isA(InputStream.class), eq(userId), eq(versionId), eq((String) null), eq((String) null))).thenReturn(expectedPackageInfo);
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.post("/packages")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(bytes)
+                        .param(PackageResource.FILE_NAME_KEY, expectedPackageInfo.getFileName())
+                        .param(PackageResource.USER_KEY, userId)
+                        .param(PackageResource.VERSION_KEY, versionId)
+        );
+
+        // Then
+        verify(packageManager).save(eq(expectedPackageInfo.getFileName()), eq(MediaType.APPLICATION_OCTET_STREAM_VALUE), isA(InputStream.class), eq(userId), eq(versionId), eq((String) null), eq((String) null));
+        verify(tenantLimits).throttleUpload(eq(userId), isA(InputStream.class));
+        result.andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id").value(expectedPackageInfo.getId()))
+                .andExpect(jsonPath("$.md5").value(expectedPackageInfo.getMd5()))
+                .andExpect(jsonPath("$.size").value((int) expectedPackageInfo.getSize()));
+    }
+
+    @Test
+    public void uploadPackageStream_whenSignatureIsGiven_shouldForwardItToTheManager() throws Exception {
+        // Given
+        final PackageInfo expectedPackageInfo = new PackageInfo("OBJECTID", "Example.exe", "MD5", 3, "user", "v0.1", null);
+        when(packageManager.save(eq("Example.exe"), eq(MediaType.APPLICATION_OCTET_STREAM_VALUE), isA(InputStream.class), eq("user"), eq("v0.1"), eq((String) null), eq("c2lnbmF0dXJl"))).thenReturn(expectedPackageInfo);
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.post("/packages")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .param(PackageResource.FILE_NAME_KEY, "Example.exe")
+                        .param(PackageResource.USER_KEY, "user")
+                        .param(PackageResource.VERSION_KEY, "v0.1")
+                        .param(PackageResource.SIGNATURE_KEY, "c2lnbmF0dXJl")
+                        .content(new byte[]{0, 1, 2})
+        );
+
+        // Then
+        result.andExpect(status().isCreated());
+    }
+
+    @Test
+    public void uploadPackageStream_whenManagerThrowPackageConflictException_shouldReturnConflict() throws Exception {
+        // Given
+        when(packageManager.save(anyString(), anyString(), any(), anyString(), anyString(), anyString(), anyString())).thenThrow(new PackageConflictException("Mock Exception"));
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.post("/packages")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(new byte[]{0, 1, 2})
+                        .param(PackageResource.FILE_NAME_KEY, "file")
+                        .param(PackageResource.USER_KEY, "user")
+                        .param(PackageResource.VERSION_KEY, "version")
+        );
+
+        // Then
+        verify(packageManager).save(anyString(), anyString(), any(), anyString(), anyString(), anyString(), anyString());
+        result.andExpect(status().isConflict());
+    }
+
+    @Test
+    public void uploadPackageStream_whenManagerThrowInvalidPackageContentException_shouldReturnBadRequest() throws Exception {
+        // Given
+        final String sha256 = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+        when(packageManager.save(anyString(), anyString(), any(), anyString(), anyString(), eq(sha256), anyString())).thenThrow(new InvalidPackageContentException("Mock Exception"));
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.post("/packages")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(new byte[]{0, 1, 2})
+                        .param(PackageResource.FILE_NAME_KEY, "file")
+                        .param(PackageResource.USER_KEY, "user")
+                        .param(PackageResource.VERSION_KEY, "version")
+                        .param(PackageResource.SHA256_KEY, sha256)
+        );
+
+        // Then
+        verify(packageManager).save(anyString(), anyString(), any(), anyString(), anyString(), eq(sha256), anyString());
         result.andExpect(status().isBadRequest());
     }
 
+    @Test
+    public void lookupPackages_shouldReturnTheResultsOfTheManagerInRequestOrder() throws Exception {
+        // Given
+        final PackageInfo packageInfo = new PackageInfo("OBJECTID", "Example.exe", "MD5", 6, "user", "v0.1", null);
+        final List<PackageLookup> lookups = Arrays.asList(PackageLookup.byVersion("user", "v0.1"), PackageLookup.byId("UNKNOWN"));
+        when(packageManager.lookup(lookups)).thenReturn(Arrays.asList(
+                new PackageLookupResult(lookups.get(0), Optional.of(packageInfo)),
+                new PackageLookupResult(lookups.get(1), Optional.empty())
+        ));
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.post("/packages/_lookup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"userId\":\"user\",\"versionId\":\"v0.1\"},{\"id\":\"UNKNOWN\"}]")
+        );
+
+        // Then
+        result.andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].found").value(true))
+                .andExpect(jsonPath("$[0].package.id").value("OBJECTID"))
+                .andExpect(jsonPath("$[0].lookup.versionId").value("v0.1"))
+                .andExpect(jsonPath("$[1].found").value(false))
+                .andExpect(jsonPath("$[1].package").doesNotExist())
+                .andExpect(jsonPath("$[1].lookup.id").value("UNKNOWN"));
+    }
+
+    @Test
+    public void lookupPackages_whenALookupIsIncomplete_shouldReturnBadRequest() throws Exception {
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.post("/packages/_lookup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"id\":\"ID\"},{\"userId\":\"user\"}]")
+        );
+
+        // Then
+        verify(packageManager, never()).lookup(anyListOf(PackageLookup.class));
+        result.andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("Lookup 1")));
+    }
+
     @Test
     public void getPackageDetails_whenPackageNotFound_shouldReturn404() throws Exception {
         // Given
@@ -181,9 +374,67 @@ public class PackageResourceTest {
 
         // Then
         verify(packageManager).findById(packageId);
+        verify(tenantLimits).countUnknownRequest();
         result.andExpect(status().isNotFound());
     }
 
+    @Test
+    public void getPackageDetails_whenTheCachedOwnerExceedsItsRequestRate_shouldRejectBeforeAnyLookup() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 42, "root", "v0.1", null);
+        when(packageManager.findCachedById(packageId)).thenReturn(Optional.of(info));
+        doReturn(3L).when(tenantLimits).tryAcquireRequest("root");
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.get("/packages/" + packageId)
+                        .accept(MediaType.APPLICATION_JSON_UTF8)
+        );
+
+        // Then
+        verify(packageManager, never()).findById(anyString());
+        result.andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "3"));
+    }
+
+    @Test
+    public void getPackageDetails_whenUnknownPackagesAreRequestedTooOften_shouldRejectLookups() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        doReturn(2L).when(tenantLimits).checkUnknownRequests();
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.get("/packages/" + packageId)
+                        .accept(MediaType.APPLICATION_JSON_UTF8)
+        );
+
+        // Then
+        verify(packageManager, never()).findById(anyString());
+        result.andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "2"));
+    }
+
+    @Test
+    public void getPackageDetails_whenTenantExceedsItsRequestRate_shouldReturnTooManyRequests() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 42, "root", "v0.1", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        doReturn(3L).when(tenantLimits).tryAcquireRequest("root");
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.get("/packages/" + packageId)
+                        .accept(MediaType.APPLICATION_JSON_UTF8)
+        );
+
+        // Then
+        result.andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "3"));
+    }
+
     @Test
     public void getPackageDetails_whenPackageFound_shouldReturnDetails() throws Exception {
         // Given
@@ -209,6 +460,122 @@ public class PackageResourceTest {
         verify(packageManager).findById(packageId);
     }
 
+    @Test
+    public void getPackageDetails_whenPackageFound_shouldReturnCachingHeaders() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final Date uploadDate = Date.from(Instant.parse("2016-10-18T08:30:00Z"));
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 42, "root", "v0.1", uploadDate, null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.get("/packages/" + packageId)
+                        .accept(MediaType.APPLICATION_JSON_UTF8)
+        );
+
+        // Then
+        result.andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"md5Hash\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, PackageResource.IMMUTABLE_CACHE_CONTROL))
+                .andExpect(header().string(HttpHeaders.LAST_MODIFIED, "Tue, 18 Oct 2016 08:30:00 GMT"))
+                .andExpect(jsonPath("uploadDate").value(uploadDate.getTime()));
+    }
+
+    @Test
+    public void getPackageDetails_whenETagMatches_shouldReturnNotModified() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 42, "root", "v0.1", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.get("/packages/" + packageId)
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"otherHash\", W/\"md5Hash\"")
+                        .accept(MediaType.APPLICATION_JSON_UTF8)
+        );
+
+        // Then
+        result.andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"md5Hash\""))
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    public void getDelta_whenPackagesExist_shouldReturnTheDeltaStatus() throws Exception {
+        // Given
+        final PackageInfo from = new PackageInfo("FROM", "filename", "md5", 42, "root", "v1", null);
+        final PackageInfo to = new PackageInfo("TO", "filename", "md5", 42, "root", "v2", null);
+        when(packageManager.findById("FROM")).thenReturn(Optional.of(from));
+        when(packageManager.findById("TO")).thenReturn(Optional.of(to));
+        when(deltaManager.requestDelta(from, to)).thenReturn(new PackageDelta("FROM", "TO", PackageDelta.Status.PENDING, -1, null, null, null, null));
+
+        // When
+        final ResultActions result = mvc.perform(MockMvcRequestBuilders.get("/packages/TO/deltas/FROM"));
+
+        // Then
+        result.andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("PENDING"))
+                .andExpect(jsonPath("$.fromId").value("FROM"));
+    }
+
+    @Test
+    public void getDelta_whenPackagesBelongToDifferentUsers_shouldReturnBadRequest() throws Exception {
+        // Given
+        final PackageInfo from = new PackageInfo("FROM", "filename", "md5", 42, "root", "v1", null);
+        final PackageInfo to = new PackageInfo("TO", "filename", "md5", 42, "other", "v2", null);
+        when(packageManager.findById("FROM")).thenReturn(Optional.of(from));
+        when(packageManager.findById("TO")).thenReturn(Optional.of(to));
+        when(deltaManager.requestDelta(from, to)).thenThrow(new InvalidPackageDeltaException("Different users"));
+
+        // When
+        final ResultActions result = mvc.perform(MockMvcRequestBuilders.get("/packages/TO/deltas/FROM"));
+
+        // Then
+        result.andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getDeltaContent_whenDeltaIsReady_shouldStreamItWithItsOwnHashes() throws Exception {
+        // Given
+        final PackageInfo from = new PackageInfo("FROM", "filename", "md5", 42, "root", "v1", null);
+        final PackageInfo to = new PackageInfo("TO", "filename", "md5", 42, "root", "v2", null);
+        final PackageDelta delta = new PackageDelta("FROM", "TO", PackageDelta.Status.READY, 3, "deltaMd5", "deltaSha256", null, "content");
+        when(packageManager.findById("FROM")).thenReturn(Optional.of(from));
+        when(packageManager.findById("TO")).thenReturn(Optional.of(to));
+        when(deltaManager.requestDelta(from, to)).thenReturn(delta);
+        when(deltaManager.getDeltaContent(delta)).thenReturn(Optional.of(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+
+        // When
+        final ResultActions result = download(MockMvcRequestBuilders.get("/packages/TO/deltas/FROM/file"));
+
+        // Then
+        result.andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"deltaMd5\""))
+                .andExpect(header().string(PackageResource.CHECKSUM_SHA256_HEADER, "deltaSha256"))
+                .andExpect(content().bytes(new byte[]{1, 2, 3}));
+    }
+
+    @Test
+    public void getDeltaContent_whenDeltaIsNotReady_shouldRedirectToTheFullPackage() throws Exception {
+        // Given
+        final PackageInfo from = new PackageInfo("FROM", "filename", "md5", 42, "root", "v1", null);
+        final PackageInfo to = new PackageInfo("TO", "filename", "md5", 42, "root", "v2", null);
+        final PackageDelta delta = new PackageDelta("FROM", "TO", PackageDelta.Status.PENDING, -1, null, null, null, null);
+        when(packageManager.findById("FROM")).thenReturn(Optional.of(from));
+        when(packageManager.findById("TO")).thenReturn(Optional.of(to));
+        when(deltaManager.requestDelta(from, to)).thenReturn(delta);
+        when(deltaManager.getDeltaContent(delta)).thenReturn(Optional.empty());
+
+        // When
+        final ResultActions result = download(MockMvcRequestBuilders.get("/packages/TO/deltas/FROM/file"));
+
+        // Then
+        result.andExpect(status().isTemporaryRedirect())
+                .andExpect(header().string(HttpHeaders.LOCATION, "http://localhost/packages/TO/file"));
+    }
+
     @Test
     public void getPackageContent_whenPackageNotFound_shouldReturn404() throws Exception {
         // Given
@@ -216,7 +583,7 @@ public class PackageResourceTest {
         when(packageManager.findById(packageId)).thenReturn(Optional.empty());
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = download(
                 MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .accept(MediaType.APPLICATION_OCTET_STREAM)
@@ -231,11 +598,12 @@ public class PackageResourceTest {
     public void getPackageContent_whenPackageFound_shouldReturnFileStream() throws Exception {
         // Given
         final String packageId = UUID.randomUUID().toString();
-        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 42, "root", "vTest", getClass().getResourceAsStream("findById_stream.txt"));
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 42, "root", "vTest", null);
         when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getPackageContent(info, 0, 42)).thenReturn(Optional.of(getClass().getResourceAsStream("findById_stream.txt")));
 
         // When
-        final ResultActions result = mvc.perform(
+        final ResultActions result = download(
                 MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
                         .contentType(MediaType.APPLICATION_JSON_UTF8)
                         .accept(MediaType.APPLICATION_OCTET_STREAM)
@@ -243,59 +611,679 @@ public class PackageResourceTest {
 
         // Then
         verify(packageManager).findById(packageId);
+        verify(packageManager).getPackageContent(info, 0, 42);
+        verify(downloadExecution).use(any(HttpServletRequest.class), any(HttpServletResponse.class));
         result.andExpect(status().isOk())
                 .andExpect(content().bytes("success".getBytes(Charset.forName("UTF-8"))));
     }
 
     @Test
-    public void getAllPackages_whenNoPackage_shouldReturnEmptyCollection() throws Exception {
+    public void getPackageContent_whenETagMatches_shouldReturnNotModifiedWithoutOpeningTheContent() throws Exception {
         // Given
-        final String userId = UUID.randomUUID().toString();
-        when(packageManager.getAllPackages(userId)).thenReturn(Collections.emptyList());
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 42, "root", "vTest", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
 
         // When
-        final ResultActions result = mvc.perform(
-                MockMvcRequestBuilders.get("/packages/all?userId=" + userId)
-                        .contentType(MediaType.APPLICATION_JSON_UTF8)
-                        .accept(MediaType.APPLICATION_JSON_UTF8)
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"md5Hash\"")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
         );
 
         // Then
-        verify(packageManager).getAllPackages(userId);
+        verify(packageManager, never()).getPackageContent(any(PackageInfo.class), anyLong(), anyLong());
+        result.andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"md5Hash\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, PackageResource.IMMUTABLE_CACHE_CONTROL));
+    }
+
+    @Test
+    public void getPackageContent_whenGzipAcceptedAndVariantReady_shouldReturnTheCompressedVariant() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 42, "root", "vTest", null);
+        final PackageVariant variant = new PackageVariant(packageId, "gzip", PackageVariant.Status.READY, 3, "content");
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(compressionManager.isSupported("gzip")).thenReturn(true);
+        when(compressionManager.findVariant(info, "gzip")).thenReturn(Optional.of(variant));
+        when(compressionManager.getVariantContent(variant)).thenReturn(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+
+        // When
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "br;q=1.0, gzip;q=0.8, *;q=0.1")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        verify(packageManager, never()).getPackageContent(any(PackageInfo.class), anyLong(), anyLong());
         result.andExpect(status().isOk())
-                .andExpect(content().string("[]"));
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "3"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"md5Hash-gzip\""))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                .andExpect(content().bytes(new byte[]{1, 2, 3}));
     }
 
     @Test
-    public void getAllPackages_whenManyPackages_shouldReturnCollection() throws Exception {
+    public void getPackageContent_whenIfRangeMatchesTheGzipVariant_shouldReturnTheRangeOfTheCompressedVariant() throws Exception {
         // Given
-        final String userId = UUID.randomUUID().toString();
-        final ArrayList<PackageInfo> infos = new ArrayList<>();
-        PackageInfo info = new PackageInfo(UUID.randomUUID().toString(), "fileA", "md5", 42, userId, UUID.randomUUID().toString(), null);
-        infos.add(info);
-        info = new PackageInfo(UUID.randomUUID().toString(), "fileB", "md5", 43, userId, UUID.randomUUID().toString(), null);
-        infos.add(info);
-        info = new PackageInfo(UUID.randomUUID().toString(), "fileC", "md5", 44, userId, UUID.randomUUID().toString(), null);
-        infos.add(info);
-        when(packageManager.getAllPackages(userId)).thenReturn(infos);
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 42, "root", "vTest", null);
+        final PackageVariant variant = new PackageVariant(packageId, "gzip", PackageVariant.Status.READY, 10, "content");
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(compressionManager.isSupported("gzip")).thenReturn(true);
+        when(compressionManager.findVariant(info, "gzip")).thenReturn(Optional.of(variant));
+        when(compressionManager.getVariantContent(variant, 4, 6)).thenReturn(new ByteArrayInputStream(new byte[]{4, 5, 6, 7, 8, 9}));
 
         // When
-        final ResultActions result = mvc.perform(
-                MockMvcRequestBuilders.get("/packages/all?userId=" + userId)
-                        .contentType(MediaType.APPLICATION_JSON_UTF8)
-                        .accept(MediaType.APPLICATION_JSON_UTF8)
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                        .header(HttpHeaders.RANGE, "bytes=4-")
+                        .header(HttpHeaders.IF_RANGE, "\"md5Hash-gzip\"")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
         );
 
         // Then
-        verify(packageManager).getAllPackages(userId);
-        ResultActions resultActions = result.andExpect(status().isOk())
-                .andExpect(jsonPath("$.*", hasSize(infos.size())));
-        for (int i = 0; i < infos.size(); i++) {
-            resultActions.andExpect(jsonPath("$[" + i + "].id", is(infos.get(i).getId())))
-                    .andExpect(jsonPath("$[" + i + "].userId", is(infos.get(i).getUserId())))
-                    .andExpect(jsonPath("$[" + i + "].versionId", is(infos.get(i).getVersionId())))
-                    .andExpect(jsonPath("$[" + i + "].fileName", is(infos.get(i).getFileName())))
-                    .andExpect(jsonPath("$[" + i + "].md5", is(infos.get(i).getMd5())));
-        }
+        verify(packageManager, never()).getPackageContent(any(PackageInfo.class), anyLong(), anyLong());
+        result.andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"md5Hash-gzip\""))
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 4-9/10"))
+                .andExpect(content().bytes(new byte[]{4, 5, 6, 7, 8, 9}));
+    }
+
+    @Test
+    public void getPackageContent_whenGzipRejected_shouldReturnTheOriginalContent() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 42, "root", "vTest", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getPackageContent(info, 0, 42)).thenReturn(Optional.of(getClass().getResourceAsStream("findById_stream.txt")));
+        when(compressionManager.isSupported("gzip")).thenReturn(true);
+
+        // When
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        verify(compressionManager, never()).findVariant(any(PackageInfo.class), anyString());
+        result.andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(content().bytes("success".getBytes(Charset.forName("UTF-8"))));
+    }
+
+    @Test
+    public void getPackageContent_whenCompressedETagMatches_shouldReturnNotModified() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 42, "root", "vTest", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+
+        // When
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"md5Hash-gzip\"")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        verify(compressionManager, never()).findVariant(any(PackageInfo.class), anyString());
+        result.andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void getPackageContent_whenNotModifiedSinceUpload_shouldReturnNotModified() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final Date uploadDate = Date.from(Instant.parse("2016-10-18T08:30:00.500Z"));
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 42, "root", "vTest", uploadDate, null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+
+        // When
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.IF_MODIFIED_SINCE, "Tue, 18 Oct 2016 08:30:00 GMT")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        verify(packageManager, never()).getPackageContent(any(PackageInfo.class), anyLong(), anyLong());
+        result.andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void getPackageContent_whenETagDoesNotMatch_shouldReturnTheContent() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 3, "root", "vTest", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getPackageContent(info, 0, 3)).thenReturn(Optional.of(new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8))));
+
+        // When
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"otherHash\"")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        result.andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"md5Hash\""))
+                .andExpect(content().bytes("abc".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void getPackageContent_whenContentIsLocalAndSendfileIsSupported_shouldDelegateTheBodyToTheContainer() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 7, "root", "vTest", null);
+        final Path path = Paths.get("/var/lib/barracks/packages/c1/5805ba0c3e9f0a0001a3b2c1");
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getLocalContentPath(info)).thenReturn(Optional.of(path));
+
+        // When
+        final MvcResult result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .requestAttr(PackageResource.SENDFILE_SUPPORT_ATTRIBUTE, Boolean.TRUE)
+                        .header(HttpHeaders.RANGE, "bytes=2-4")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        ).andReturn();
+
+        // Then
+        verify(packageManager, never()).getPackageContent(any(PackageInfo.class), anyLong(), anyLong());
+        assertThat(result.getResponse().getStatus()).isEqualTo(HttpStatus.PARTIAL_CONTENT.value());
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-4/7");
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH)).isEqualTo("3");
+        assertThat(result.getResponse().getContentAsByteArray()).isEmpty();
+        assertThat(result.getRequest().getAttribute(PackageResource.SENDFILE_FILENAME_ATTRIBUTE)).isEqualTo(path.toAbsolutePath().toString());
+        assertThat(result.getRequest().getAttribute(PackageResource.SENDFILE_START_ATTRIBUTE)).isEqualTo(2L);
+        assertThat(result.getRequest().getAttribute(PackageResource.SENDFILE_END_ATTRIBUTE)).isEqualTo(5L);
+    }
+
+    @Test
+    public void getPackageContent_whenTransfersAreLimited_shouldStreamInsteadOfUsingSendfile() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 3, "root", "vTest", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getLocalContentPath(info)).thenReturn(Optional.of(Paths.get("/var/lib/barracks/packages/c1/5805ba0c3e9f0a0001a3b2c1")));
+        when(packageManager.getPackageContent(info, 0, 3)).thenReturn(Optional.of(new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8))));
+        doReturn(true).when(tenantLimits).isTransferLimited();
+
+        // When
+        final MvcResult result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .requestAttr(PackageResource.SENDFILE_SUPPORT_ATTRIBUTE, Boolean.TRUE)
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        ).andReturn();
+
+        // Then
+        assertThat(result.getRequest().getAttribute(PackageResource.SENDFILE_FILENAME_ATTRIBUTE)).isNull();
+        assertThat(result.getResponse().getContentAsByteArray()).isEqualTo("abc".getBytes(StandardCharsets.UTF_8));
+        verify(tenantLimits).tryAcquireTransfer("root");
+        verify(tenantLimits).releaseTransfer("root");
+    }
+
+    @Test
+    public void getPackageContent_whenAllDownloadSlotsAreTaken_shouldReturnServiceUnavailable() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 3, "root", "vTest", null);
+        final InputStream content = spy(new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8)));
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getPackageContent(info, 0, 3)).thenReturn(Optional.of(content));
+        doReturn(false).when(downloadSlots).tryAcquire();
+
+        // When
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        verify(content).close();
+        verify(downloadSlots, never()).release();
+        result.andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "5"));
+    }
+
+    @Test
+    public void getPackageContent_whenTenantHasNoTransferSlotLeft_shouldReturnTooManyRequests() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 3, "root", "vTest", null);
+        final InputStream content = spy(new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8)));
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getPackageContent(info, 0, 3)).thenReturn(Optional.of(content));
+        doReturn(false).when(tenantLimits).tryAcquireTransfer("root");
+
+        // When
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        verify(content).close();
+        verify(downloadSlots, never()).tryAcquire();
+        result.andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, Long.toString(PackageResource.TRANSFER_RETRY_AFTER_SECONDS)));
+    }
+
+    @Test
+    public void getPackageContent_whenStreamed_shouldReleaseTheDownloadSlot() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 3, "root", "vTest", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getPackageContent(info, 0, 3)).thenReturn(Optional.of(new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8))));
+
+        // When
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        result.andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE))
+                .andExpect(content().bytes("abc".getBytes(StandardCharsets.UTF_8)));
+        verify(downloadSlots).tryAcquire();
+        verify(downloadSlots).release();
+        verify(tenantLimits).releaseTransfer("root");
+        assertThat(packageMetrics.getDownloaded().getTotal()).isEqualTo(3);
+    }
+
+    @Test
+    public void getPackageContent_whenNonBlockingDownloadsAreEnabled_shouldHandOverTheContentAndReleaseTheSlotsOnceDone() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 3, "root", "vTest", null);
+        final InputStream content = new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8));
+        final ArgumentCaptor<IntToLongFunction> pace = ArgumentCaptor.forClass(IntToLongFunction.class);
+        final ArgumentCaptor<Runnable> onDone = ArgumentCaptor.forClass(Runnable.class);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getPackageContent(info, 0, 3)).thenReturn(Optional.of(content));
+        when(nonBlockingDownloads.isEnabled()).thenReturn(true);
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        result.andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "3"));
+        verify(nonBlockingDownloads).start(any(), any(), eq(content), pace.capture(), onDone.capture());
+        assertThat(pace.getValue().applyAsLong(3)).isZero();
+        assertThat(tenantLimits.getTenants().get("root").getDownloadedBytes()).isEqualTo(3);
+        verify(downloadSlots, never()).release();
+        onDone.getValue().run();
+        verify(downloadSlots).release();
+        verify(tenantLimits).releaseTransfer("root");
+    }
+
+    @Test
+    public void getPackageContent_whenRangeRequested_shouldReturnPartialContent() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 7, "root", "vTest", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getPackageContent(info, 2, 3)).thenReturn(Optional.of(new ByteArrayInputStream("cce".getBytes(StandardCharsets.UTF_8))));
+
+        // When
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.RANGE, "bytes=2-4")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        verify(packageManager).getPackageContent(info, 2, 3);
+        result.andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-4/7"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 3))
+                .andExpect(content().bytes("cce".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void getPackageContent_whenManyRangesRequested_shouldReturnMultipartByteRanges() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 10, "root", "vTest", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getPackageContent(info, 0, 2)).thenReturn(Optional.of(new ByteArrayInputStream("ab".getBytes(StandardCharsets.UTF_8))));
+        when(packageManager.getPackageContent(info, 7, 3)).thenReturn(Optional.of(new ByteArrayInputStream("hij".getBytes(StandardCharsets.UTF_8))));
+
+        // When
+        final MvcResult result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.RANGE, "bytes=0-1,-3")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        ).andExpect(status().isPartialContent()).andReturn();
+
+        // Then
+        final String contentType = result.getResponse().getContentType();
+        assertThat(contentType).startsWith("multipart/byteranges; boundary=");
+        final String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        final String body = result.getResponse().getContentAsString();
+        assertThat(body).isEqualTo(
+                "--" + boundary + "\r\n"
+                        + "Content-Type: application/octet-stream\r\n"
+                        + "Content-Range: bytes 0-1/10\r\n\r\n"
+                        + "ab\r\n"
+                        + "--" + boundary + "\r\n"
+                        + "Content-Type: application/octet-stream\r\n"
+                        + "Content-Range: bytes 7-9/10\r\n\r\n"
+                        + "hij\r\n"
+                        + "--" + boundary + "--\r\n"
+        );
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH)).isEqualTo(String.valueOf(body.length()));
+    }
+
+    @Test
+    public void getPackageContent_whenRangesOverlapOrTouch_shouldMergeThem() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 10, "root", "vTest", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getPackageContent(info, 0, 5)).thenReturn(Optional.of(new ByteArrayInputStream("abcde".getBytes(StandardCharsets.UTF_8))));
+        when(packageManager.getPackageContent(info, 7, 3)).thenReturn(Optional.of(new ByteArrayInputStream("hij".getBytes(StandardCharsets.UTF_8))));
+
+        // When
+        final MvcResult result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.RANGE, "bytes=-3,2-4,0-2,8-8")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        ).andExpect(status().isPartialContent()).andReturn();
+
+        // Then
+        final String contentType = result.getResponse().getContentType();
+        final String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        assertThat(result.getResponse().getContentAsString()).isEqualTo(
+                "--" + boundary + "\r\n"
+                        + "Content-Type: application/octet-stream\r\n"
+                        + "Content-Range: bytes 0-4/10\r\n\r\n"
+                        + "abcde\r\n"
+                        + "--" + boundary + "\r\n"
+                        + "Content-Type: application/octet-stream\r\n"
+                        + "Content-Range: bytes 7-9/10\r\n\r\n"
+                        + "hij\r\n"
+                        + "--" + boundary + "--\r\n"
+        );
+    }
+
+    @Test
+    public void getPackageContent_whenRangesMergeIntoOne_shouldReturnASinglePartialContent() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 10, "root", "vTest", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getPackageContent(info, 2, 4)).thenReturn(Optional.of(new ByteArrayInputStream("cdef".getBytes(StandardCharsets.UTF_8))));
+
+        // When
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.RANGE, "bytes=4-5,2-3")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        result.andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 4))
+                .andExpect(content().bytes("cdef".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void getPackageContent_whenARangeIsMissing_shouldCloseTheRangesAlreadyOpened() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 10, "root", "vTest", null);
+        final InputStream first = spy(new ByteArrayInputStream("ab".getBytes(StandardCharsets.UTF_8)));
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getPackageContent(info, 0, 2)).thenReturn(Optional.of(first));
+        when(packageManager.getPackageContent(info, 7, 3)).thenReturn(Optional.empty());
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.RANGE, "bytes=0-1,-3")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        result.andExpect(status().isNotFound());
+        verify(first).close();
+    }
+
+    @Test
+    public void getPackageContent_whenRangeNotSatisfiable_shouldReturn416() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 7, "root", "vTest", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+
+        // When
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.RANGE, "bytes=7-")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        result.andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */7"));
+        verify(packageManager, never()).getPackageContent(any(PackageInfo.class), anyLong(), anyLong());
+    }
+
+    @Test
+    public void getPackageContent_whenIfRangeDoesNotMatch_shouldReturnTheWholeFile() throws Exception {
+        // Given
+        final String packageId = UUID.randomUUID().toString();
+        final PackageInfo info = new PackageInfo(packageId, "filename", "md5Hash", 7, "root", "vTest", null);
+        when(packageManager.findById(packageId)).thenReturn(Optional.of(info));
+        when(packageManager.getPackageContent(info, 0, 7)).thenReturn(Optional.of(getClass().getResourceAsStream("findById_stream.txt")));
+
+        // When
+        final ResultActions result = download(
+                MockMvcRequestBuilders.get("/packages/" + packageId + "/file")
+                        .header(HttpHeaders.RANGE, "bytes=2-4")
+                        .header(HttpHeaders.IF_RANGE, "\"otherHash\"")
+                        .accept(MediaType.APPLICATION_OCTET_STREAM)
+        );
+
+        // Then
+        result.andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(content().bytes("success".getBytes(Charset.forName("UTF-8"))));
+        verify(packageManager).getPackageContent(info, 0, 7);
+    }
+
+    @Test
+    public void getAllPackages_whenNoPackage_shouldReturnEmptyCollection() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        when(packageManager.getAllPackages(userId)).thenReturn(Collections.emptyList());
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.get("/packages/all?userId=" + userId)
+                        .contentType(MediaType.APPLICATION_JSON_UTF8)
+                        .accept(MediaType.APPLICATION_JSON_UTF8)
+        );
+
+        // Then
+        verify(packageManager).getAllPackages(userId);
+        result.andExpect(status().isOk())
+                .andExpect(content().string("[]"));
+    }
+
+    @Test
+    public void getAllPackages_whenManyPackages_shouldReturnCollection() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final ArrayList<PackageInfo> infos = new ArrayList<>();
+        PackageInfo info = new PackageInfo(UUID.randomUUID().toString(), "fileA", "md5", 42, userId, UUID.randomUUID().toString(), null);
+        infos.add(info);
+        info = new PackageInfo(UUID.randomUUID().toString(), "fileB", "md5", 43, userId, UUID.randomUUID().toString(), null);
+        infos.add(info);
+        info = new PackageInfo(UUID.randomUUID().toString(), "fileC", "md5", 44, userId, UUID.randomUUID().toString(), null);
+        infos.add(info);
+        when(packageManager.getAllPackages(userId)).thenReturn(infos);
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.get("/packages/all?userId=" + userId)
+                        .contentType(MediaType.APPLICATION_JSON_UTF8)
+                        .accept(MediaType.APPLICATION_JSON_UTF8)
+        );
+
+        // Then
+        verify(packageManager).getAllPackages(userId);
+        ResultActions resultActions = result.andExpect(status().isOk())
+                .andExpect(jsonPath("$.*", hasSize(infos.size())));
+        for (int i = 0; i < infos.size(); i++) {
+            resultActions.andExpect(jsonPath("$[" + i + "].id", is(infos.get(i).getId())))
+                    .andExpect(jsonPath("$[" + i + "].userId", is(infos.get(i).getUserId())))
+                    .andExpect(jsonPath("$[" + i + "].versionId", is(infos.get(i).getVersionId())))
+                    .andExpect(jsonPath("$[" + i + "].fileName", is(infos.get(i).getFileName())))
+                    .andExpect(jsonPath("$[" + i + "].md5", is(infos.get(i).getMd5())));
+        }
+    }
+
+    @Test
+    public void getAllPackages_whenLimitIsReached_shouldReturnPageWithNextLink() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final PackageFilter filter = new PackageFilter(userId, "v1.", null);
+        final List<PackageInfo> infos = Arrays.asList(
+                new PackageInfo("id1", "fileA", "md5", 42, userId, "v1.0", null),
+                new PackageInfo("id2", "fileB", "md5", 43, userId, "v1.1", null)
+        );
+        when(packageManager.getPackages(filter, null, null, 2)).thenReturn(infos);
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.get("/packages/all")
+                        .param(PackageResource.USER_KEY, userId)
+                        .param(PackageResource.VERSION_PREFIX_KEY, "v1.")
+                        .param(PackageResource.LIMIT_KEY, "2")
+                        .accept(MediaType.APPLICATION_JSON_UTF8)
+        );
+
+        // Then
+        verify(packageManager).getPackages(filter, null, null, 2);
+        final String cursor = Base64.getUrlEncoder().withoutPadding().encodeToString("v1.1\nid2".getBytes(StandardCharsets.UTF_8));
+        result.andExpect(status().isOk())
+                .andExpect(jsonPath("$.*", hasSize(2)))
+                .andExpect(jsonPath("$[1].id", is("id2")))
+                .andExpect(header().string(HttpHeaders.LINK, containsString(PackageResource.AFTER_KEY + "=" + cursor)));
+    }
+
+    @Test
+    public void getAllPackages_whenCursorIsGiven_shouldForwardItAndOmitLinkOnLastPage() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final String cursor = Base64.getUrlEncoder().withoutPadding().encodeToString("v1.1\nid2".getBytes(StandardCharsets.UTF_8));
+        final Date uploadedAfter = Date.from(Instant.parse("2016-03-01T10:15:30Z"));
+        final PackageFilter filter = new PackageFilter(userId, null, uploadedAfter);
+        when(packageManager.getPackages(filter, "v1.1", "id2", PackageResource.DEFAULT_PAGE_SIZE)).thenReturn(Collections.emptyList());
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.get("/packages/all")
+                        .param(PackageResource.USER_KEY, userId)
+                        .param(PackageResource.AFTER_KEY, cursor)
+                        .param(PackageResource.UPLOADED_AFTER_KEY, "2016-03-01T10:15:30Z")
+                        .accept(MediaType.APPLICATION_JSON_UTF8)
+        );
+
+        // Then
+        verify(packageManager).getPackages(filter, "v1.1", "id2", PackageResource.DEFAULT_PAGE_SIZE);
+        result.andExpect(status().isOk())
+                .andExpect(content().string("[]"))
+                .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
+    @Test
+    public void getAllPackages_whenUploadedAfterIsInvalid_shouldReturnBadRequest() throws Exception {
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.get("/packages/all")
+                        .param(PackageResource.USER_KEY, "user")
+                        .param(PackageResource.UPLOADED_AFTER_KEY, "yesterday")
+                        .accept(MediaType.APPLICATION_JSON_UTF8)
+        );
+
+        // Then
+        result.andExpect(status().isBadRequest());
+        verify(packageManager, never()).getPackages(any(), anyString(), anyString(), anyInt());
+    }
+
+    @Test
+    public void getAllPackages_whenStreamRequested_shouldWriteEveryPackageFromTheManager() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final PackageFilter filter = new PackageFilter(userId, null, null);
+        final PackageInfo first = new PackageInfo("id1", "fileA", "md5", 42, userId, "v1.0", null);
+        final PackageInfo second = new PackageInfo("id2", "fileB", "md5", 43, userId, "v1.1", null);
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            final Consumer<PackageInfo> consumer = (Consumer<PackageInfo>) invocation.getArguments()[1];
+            consumer.accept(first);
+            consumer.accept(second);
+            return null;
+        }).when(packageManager).streamPackages(eq(filter), any());
+
+        // When
+        final MvcResult asyncResult = mvc.perform(
+                MockMvcRequestBuilders.get("/packages/all")
+                        .param(PackageResource.USER_KEY, userId)
+                        .param(PackageResource.STREAM_KEY, "true")
+                        .accept(MediaType.APPLICATION_JSON_UTF8)
+        ).andExpect(request().asyncStarted()).andReturn();
+        asyncResult.getAsyncResult();
+
+        // Then
+        verify(packageManager).streamPackages(eq(filter), any());
+        verify(downloadExecution, never()).use(any(HttpServletRequest.class), any(HttpServletResponse.class));
+        status().isOk().match(asyncResult);
+        jsonPath("$.*", hasSize(2)).match(asyncResult);
+        jsonPath("$[0].id", is(first.getId())).match(asyncResult);
+        jsonPath("$[1].versionId", is(second.getVersionId())).match(asyncResult);
+    }
+
+    private ResultActions download(RequestBuilder requestBuilder) throws Exception {
+        final MvcResult result = mvc.perform(requestBuilder).andReturn();
+        if (result.getRequest().isAsyncStarted()) {
+            result.getAsyncResult();
+        }
+        return new ResultActions() {
+            @Override
+            public ResultActions andExpect(ResultMatcher matcher) throws Exception {
+                matcher.match(result);
+                return this;
+            }
+
+            @Override
+            public ResultActions andDo(ResultHandler handler) throws Exception {
+                handler.handle(result);
+                return this;
+            }
+
+            @Override
+            public MvcResult andReturn() {
+                return result;
+            }
+        };
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,272 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class TenantLimitsTest {
+    private final TokenBucketTest.ManualTicker ticker = new TokenBucketTest.ManualTicker();
+
+    @Test
+    public void tryAcquireRequest_whenRateIsExceeded_shouldReturnTheSecondsToWait() {
+        // Given
+        final TenantLimits limits = new TenantLimits(0.5, 2, 0, 0, 0, 0, 3600, 1000, ticker);
+        limits.tryAcquireRequest("user");
+        limits.tryAcquireRequest("user");
+
+        // When
+        final long retryAfter = limits.tryAcquireRequest("user");
+
+        // Then
+        assertThat(retryAfter).isEqualTo(2);
+        assertThat(limits.getTenants().get("user").getRejectedRequests()).isEqualTo(1);
+    }
+
+    @Test
+    public void tryAcquireRequest_shouldLimitEachTenantSeparately() {
+        // Given
+        final TenantLimits limits = new TenantLimits(1, 1, 0, 0, 0, 0, 3600, 1000, ticker);
+        limits.tryAcquireRequest("user");
+
+        // When
+        final long retryAfter = limits.tryAcquireRequest("other");
+
+        // Then
+        assertThat(retryAfter).isEqualTo(0);
+        assertThat(limits.tryAcquireRequest("user")).isEqualTo(1);
+    }
+
+    @Test
+    public void tryAcquireRequest_whenRateIsDisabled_shouldAlwaysAllow() {
+        // Given
+        final TenantLimits limits = new TenantLimits(0, 0, 0, 0, 0, 0, 3600, 1000, ticker);
+
+        // When
+        long retryAfter = 0;
+        for (int i = 0; i < 1000; i++) {
+            retryAfter += limits.tryAcquireRequest("user");
+        }
+
+        // Then
+        assertThat(retryAfter).isEqualTo(0);
+    }
+
+    @Test
+    public void checkUnknownRequests_whenUnknownPackagesAreRequestedTooOften_shouldReturnTheSecondsToWait() {
+        // Given
+        final TenantLimits limits = new TenantLimits(1, 1, 0, 0, 0, 0, 3600, 1000, ticker);
+        final long first = limits.checkUnknownRequests();
+        limits.countUnknownRequest();
+
+        // When
+        final long retryAfter = limits.checkUnknownRequests();
+
+        // Then
+        assertThat(first).isEqualTo(0);
+        assertThat(retryAfter).isEqualTo(1);
+        assertThat(limits.getTenants()).isEmpty();
+        assertThat(limits.tryAcquireRequest("user")).isEqualTo(0);
+    }
+
+    @Test
+    public void tryAcquireTransfer_whenAllSlotsAreTaken_shouldRejectUntilOneIsReleased() {
+        // Given
+        final TenantLimits limits = new TenantLimits(0, 0, 0, 0, 0, 2, 3600, 1000, ticker);
+        limits.tryAcquireTransfer("user");
+        limits.tryAcquireTransfer("user");
+
+        // When
+        final boolean rejected = limits.tryAcquireTransfer("user");
+        limits.releaseTransfer("user");
+        final boolean accepted = limits.tryAcquireTransfer("user");
+
+        // Then
+        assertThat(rejected).isFalse();
+        assertThat(accepted).isTrue();
+        assertThat(limits.getTenants().get("user").getRejectedTransfers()).isEqualTo(1);
+        assertThat(limits.getTenants().get("user").getActiveTransfers()).isEqualTo(2);
+    }
+
+    @Test
+    public void releaseTransfer_whenTheTransferOutlivesTheIdleTime_shouldReleaseTheSameTenant() {
+        // Given
+        final TenantLimits limits = new TenantLimits(0, 0, 0, 0, 0, 2, 60, 1000, ticker);
+        limits.tryAcquireTransfer("user");
+        ticker.advance(TimeUnit.MINUTES.toNanos(2));
+        assertThat(limits.getTenants().get("user").getActiveTransfers()).isEqualTo(1);
+
+        // When
+        limits.releaseTransfer("user");
+
+        // Then
+        assertThat(limits.getTenants().get("user").getActiveTransfers()).isEqualTo(0);
+    }
+
+    @Test
+    public void getTenants_whenATenantIsIdle_shouldForgetIt() {
+        // Given
+        final TenantLimits limits = new TenantLimits(0, 0, 0, 0, 0, 2, 60, 1000, ticker);
+        limits.tryAcquireTransfer("user");
+        limits.releaseTransfer("user");
+
+        // When
+        ticker.advance(TimeUnit.MINUTES.toNanos(2));
+
+        // Then
+        assertThat(limits.getTenants()).isEmpty();
+    }
+
+    @Test
+    public void throttleUpload_shouldCountTheBytesRead() throws Exception {
+        // Given
+        final TenantLimits limits = new TenantLimits(0, 0, 1024, 0, 1024, 0, 3600, 1000, ticker);
+
+        // When
+        try (InputStream inputStream = limits.throttleUpload("user", new ByteArrayInputStream(new byte[100]))) {
+            while (inputStream.read(new byte[30]) != -1) {
+                inputStream.read();
+            }
+        }
+
+        // Then
+        assertThat(limits.getTenants().get("user").getUploadedBytes()).isEqualTo(100);
+    }
+
+    @Test(timeout = 5000)
+    public void countUpload_shouldCountTheBytesReadWithoutShapingThem() throws Exception {
+        // Given
+        final TenantLimits limits = new TenantLimits(0, 0, 1, 0, 1, 0, 3600, 1000, ticker);
+
+        // When
+        try (InputStream inputStream = limits.countUpload("user", new ByteArrayInputStream(new byte[100]))) {
+            while (inputStream.read(new byte[30]) != -1) {
+                inputStream.read();
+            }
+        }
+
+        // Then
+        assertThat(limits.getTenants().get("user").getUploadedBytes()).isEqualTo(100);
+    }
+
+    @Test
+    public void throttleDownload_shouldCountTheBytesWritten() throws Exception {
+        // Given
+        final TenantLimits limits = new TenantLimits(0, 0, 0, 1024, 1024, 0, 3600, 1000, ticker);
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+        // When
+        try (OutputStream outputStream = limits.throttleDownload("user", target)) {
+            outputStream.write(new byte[]{1, 2, 3});
+            outputStream.write(4);
+        }
+
+        // Then
+        assertThat(target.toByteArray()).isEqualTo(new byte[]{1, 2, 3, 4});
+        assertThat(limits.getTenants().get("user").getDownloadedBytes()).isEqualTo(4);
+        assertThat(limits.isDownloadShaped()).isTrue();
+    }
+
+    @Test
+    public void metrics_shouldOnlyExposeTotalsAcrossTenants() {
+        // Given
+        final TenantLimits limits = new TenantLimits(0, 0, 0, 0, 0, 1, 3600, 1000, ticker);
+        limits.tryAcquireTransfer("user");
+        limits.tryAcquireTransfer("user");
+        limits.tryAcquireTransfer("other");
+
+        // When
+        final Map<String, Number> metrics = limits.metrics().stream()
+                .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+
+        // Then
+        assertThat(metrics).contains(
+                entry("tenants.tracked", 2),
+                entry("tenants.transfers.active", 2),
+                entry("tenants.transfers.rejected", 1L)
+        );
+        assertThat(metrics.keySet()).noneMatch(name -> name.contains("user") || name.contains("other"));
+    }
+
+    @Test
+    public void getTenants_whenMoreTenantsThanTheCapAreSeen_shouldEvictTheLeastRecentOnes() {
+        // Given
+        final TenantLimits limits = new TenantLimits(0, 0, 0, 0, 0, 0, 3600, 2, ticker);
+
+        // When
+        limits.tryAcquireRequest("first");
+        limits.tryAcquireRequest("second");
+        limits.tryAcquireRequest("third");
+
+        // Then
+        assertThat(limits.getTenants()).hasSize(2).containsKey("third");
+    }
+
+    @Test
+    public void tryAcquireRequest_whenUnknownIdsFloodTheCap_shouldKeepTheTenantsOwingTokens() {
+        // Given
+        final TenantLimits limits = new TenantLimits(1, 1, 0, 0, 0, 0, 3600, 2, ticker);
+        limits.tryAcquireRequest("user");
+
+        // When
+        for (int i = 0; i < 100; i++) {
+            limits.tryAcquireRequest("random" + i);
+        }
+
+        // Then
+        assertThat(limits.getTenants()).containsKey("user");
+        assertThat(limits.tryAcquireRequest("user")).isEqualTo(1);
+    }
+
+    @Test
+    public void tryAcquireTransfer_whenNoTenantCanBeForgotten_shouldShareTheLimitsOfTheUntrackedIds() {
+        // Given
+        final TenantLimits limits = new TenantLimits(0, 0, 0, 0, 0, 1, 3600, 1, ticker);
+        limits.tryAcquireTransfer("user");
+
+        // When
+        final boolean first = limits.tryAcquireTransfer("first");
+        final boolean second = limits.tryAcquireTransfer("second");
+        limits.releaseTransfer("first");
+        final boolean retried = limits.tryAcquireTransfer("second");
+
+        // Then
+        assertThat(first).isTrue();
+        assertThat(second).isFalse();
+        assertThat(retried).isTrue();
+        assertThat(limits.getTenants()).containsOnlyKeys("user");
+        assertThat(limits.getTenants().get("user").getActiveTransfers()).isEqualTo(1);
+    }
+}
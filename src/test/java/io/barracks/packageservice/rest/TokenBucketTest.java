@@ -0,0 +1,136 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TokenBucketTest {
+    private final ManualTicker ticker = new ManualTicker();
+
+    @Test
+    public void tryAcquire_whenBurstIsAvailable_shouldTakeTheTokens() {
+        // Given
+        final TokenBucket bucket = new TokenBucket(10, 3, ticker);
+
+        // When
+        final long first = bucket.tryAcquire(1);
+        final long second = bucket.tryAcquire(2);
+
+        // Then
+        assertThat(first).isEqualTo(0);
+        assertThat(second).isEqualTo(0);
+    }
+
+    @Test
+    public void tryAcquire_whenBurstIsExhausted_shouldReturnTheTimeBeforeTheNextToken() {
+        // Given
+        final TokenBucket bucket = new TokenBucket(10, 3, ticker);
+        bucket.tryAcquire(3);
+
+        // When
+        final long wait = bucket.tryAcquire(1);
+
+        // Then
+        assertThat(wait).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void tryAcquire_whenTimeHasPassed_shouldRefillTheBucket() {
+        // Given
+        final TokenBucket bucket = new TokenBucket(10, 3, ticker);
+        bucket.tryAcquire(3);
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(200));
+
+        // When
+        final long first = bucket.tryAcquire(2);
+        final long second = bucket.tryAcquire(1);
+
+        // Then
+        assertThat(first).isEqualTo(0);
+        assertThat(second).isGreaterThan(0);
+    }
+
+    @Test
+    public void check_shouldTellWhenTheTokensAreAvailableWithoutTakingThem() {
+        // Given
+        final TokenBucket bucket = new TokenBucket(10, 3, ticker);
+        bucket.tryAcquire(2);
+
+        // When
+        final long available = bucket.check(1);
+        final long missing = bucket.check(2);
+
+        // Then
+        assertThat(available).isEqualTo(0);
+        assertThat(missing).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(bucket.tryAcquire(1)).isEqualTo(0);
+    }
+
+    @Test
+    public void tryAcquire_whenRejected_shouldNotTakeAnyToken() {
+        // Given
+        final TokenBucket bucket = new TokenBucket(10, 3, ticker);
+        bucket.tryAcquire(2);
+        bucket.tryAcquire(5);
+
+        // When
+        final long wait = bucket.tryAcquire(1);
+
+        // Then
+        assertThat(wait).isEqualTo(0);
+    }
+
+    @Test
+    public void reserve_whenTokensAreMissing_shouldTakeThemAndReturnTheDelay() {
+        // Given
+        final TokenBucket bucket = new TokenBucket(1000, 100, ticker);
+
+        // When
+        final long first = bucket.reserve(100);
+        final long second = bucket.reserve(500);
+
+        // Then
+        assertThat(first).isEqualTo(0);
+        assertThat(second).isEqualTo(TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(bucket.tryAcquire(1)).isGreaterThan(0);
+    }
+
+    static class ManualTicker extends Ticker {
+        private long nanos = 1;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long delta) {
+            nanos += delta;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import com.google.common.base.Ticker;
+import io.barracks.packageservice.manager.UploadSessionManager;
+import io.barracks.packageservice.manager.exception.InvalidPackageContentException;
+import io.barracks.packageservice.manager.exception.PackageConflictException;
+import io.barracks.packageservice.model.PackageInfo;
+import io.barracks.packageservice.model.UploadSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.hamcrest.Matchers.endsWith;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UploadSessionResourceTest {
+
+    private MockMvc mvc;
+
+    @Mock
+    private UploadSessionManager uploadSessionManager;
+
+    @Spy
+    private TenantLimits tenantLimits = new TenantLimits(0, 0, 0, 0, 0, 0, 3600, 1000, Ticker.systemTicker());
+
+    @InjectMocks
+    private UploadSessionResource uploadSessionResource = new UploadSessionResource();
+
+    @Before
+    public void setUp() throws Exception {
+        mvc = MockMvcBuilders.standaloneSetup(uploadSessionResource).build();
+    }
+
+    @Test
+    public void createSession_whenTheRequestIsValid_shouldReturnTheSessionAndItsLocation() throws Exception {
+        // Given
+        final String userId = UUID.randomUUID().toString();
+        final UploadSession session = new UploadSession("SESSIONID", userId, "v0.1", "Example.exe", null, null, 4, new Date(), new Date(), Collections.emptyList());
+        when(uploadSessionManager.create("Example.exe", userId, "v0.1", null, null, 4L)).thenReturn(session);
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.post("/packages/_uploads")
+                        .param(PackageResource.FILE_NAME_KEY, "Example.exe")
+                        .param(PackageResource.USER_KEY, userId)
+                        .param(PackageResource.VERSION_KEY, "v0.1")
+                        .param(UploadSessionResource.PART_SIZE_KEY, "4")
+        );
+
+        // Then
+        result.andExpect(status().isCreated())
+                .andExpect(header().string(HttpHeaders.LOCATION, endsWith("/packages/_uploads/SESSIONID")))
+                .andExpect(jsonPath("$.id").value("SESSIONID"))
+                .andExpect(jsonPath("$.partSize").value(4));
+    }
+
+    @Test
+    public void createSession_whenManagerThrowsInvalidPackageContentException_shouldReturnBadRequest() throws Exception {
+        // Given
+        when(uploadSessionManager.create("Example.exe", "user", "v0.1", null, null, 0L)).thenThrow(new InvalidPackageContentException("Invalid part size"));
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.post("/packages/_uploads")
+                        .param(PackageResource.FILE_NAME_KEY, "Example.exe")
+                        .param(PackageResource.USER_KEY, "user")
+                        .param(PackageResource.VERSION_KEY, "v0.1")
+                        .param(UploadSessionResource.PART_SIZE_KEY, "0")
+        );
+
+        // Then
+        result.andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getSession_shouldReturnTheReceivedRanges() throws Exception {
+        // Given
+        final UploadSession session = new UploadSession("SESSIONID", "user", "v0.1", "Example.exe", null, null, 4, new Date(), new Date(), Arrays.asList(
+                new UploadSession.Part(0, 4, "a"),
+                new UploadSession.Part(2, 4, "c"),
+                new UploadSession.Part(3, 1, "d")
+        ));
+        when(uploadSessionManager.findById("SESSIONID")).thenReturn(Optional.of(session));
+
+        // When
+        final ResultActions result = mvc.perform(MockMvcRequestBuilders.get("/packages/_uploads/SESSIONID"));
+
+        // Then
+        result.andExpect(status().isOk())
+                .andExpect(jsonPath("$.receivedRanges[0]").value("0-3"))
+                .andExpect(jsonPath("$.receivedRanges[1]").value("8-12"))
+                .andExpect(jsonPath("$.parts[0].contentId").doesNotExist());
+    }
+
+    @Test
+    public void getSession_whenSessionDoesNotExist_shouldReturnNotFound() throws Exception {
+        // Given
+        when(uploadSessionManager.findById("SESSIONID")).thenReturn(Optional.empty());
+
+        // When
+        final ResultActions result = mvc.perform(MockMvcRequestBuilders.get("/packages/_uploads/SESSIONID"));
+
+        // Then
+        result.andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void uploadPart_shouldSendTheBodyToTheManager() throws Exception {
+        // Given
+        final UploadSession session = new UploadSession("SESSIONID", "user", "v0.1", "Example.exe", null, null, 4, new Date(), new Date(), Collections.singletonList(new UploadSession.Part(1, 3, "b")));
+        when(uploadSessionManager.findById("SESSIONID")).thenReturn(Optional.of(session));
+        when(uploadSessionManager.savePart(eq("SESSIONID"), eq(1), isA(InputStream.class))).thenReturn(session);
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.put("/packages/_uploads/SESSIONID/parts/1")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(new byte[]{0, 1, 2})
+        );
+
+        // Then
+        verify(uploadSessionManager).savePart(eq("SESSIONID"), eq(1), isA(InputStream.class));
+        result.andExpect(status().isOk())
+                .andExpect(jsonPath("$.receivedRanges[0]").value("4-6"));
+    }
+
+    @Test
+    public void uploadPart_whenTenantHasNoTransferSlotLeft_shouldReturnTooManyRequests() throws Exception {
+        // Given
+        final UploadSession session = new UploadSession("SESSIONID", "user", "v0.1", "Example.exe", null, null, 4, new Date(), new Date(), Collections.emptyList());
+        when(uploadSessionManager.findById("SESSIONID")).thenReturn(Optional.of(session));
+        doReturn(false).when(tenantLimits).tryAcquireTransfer("user");
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.put("/packages/_uploads/SESSIONID/parts/0")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(new byte[]{0})
+        );
+
+        // Then
+        verify(uploadSessionManager, never()).savePart(eq("SESSIONID"), eq(0), isA(InputStream.class));
+        result.andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, Long.toString(PackageResource.TRANSFER_RETRY_AFTER_SECONDS)));
+    }
+
+    @Test
+    public void uploadPart_whenSessionDoesNotExist_shouldReturnNotFound() throws Exception {
+        // Given
+        when(uploadSessionManager.findById("SESSIONID")).thenReturn(Optional.empty());
+
+        // When
+        final ResultActions result = mvc.perform(
+                MockMvcRequestBuilders.put("/packages/_uploads/SESSIONID/parts/0")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(new byte[]{0})
+        );
+
+        // Then
+        result.andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void commitSession_shouldReturnTheCreatedPackage() throws Exception {
+        // Given
+        final PackageInfo packageInfo = new PackageInfo("OBJECTID", "Example.exe", "MD5", 6, "user", "v0.1", null);
+        givenSession();
+        when(uploadSessionManager.commit("SESSIONID")).thenReturn(packageInfo);
+
+        // When
+        final ResultActions result = mvc.perform(MockMvcRequestBuilders.post("/packages/_uploads/SESSIONID/commit"));
+
+        // Then
+        result.andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id").value("OBJECTID"))
+                .andExpect(jsonPath("$.size").value(6));
+    }
+
+    @Test
+    public void commitSession_whenVersionAlreadyExists_shouldReturnConflict() throws Exception {
+        // Given
+        givenSession();
+        when(uploadSessionManager.commit("SESSIONID")).thenThrow(new PackageConflictException("Conflict"));
+
+        // When
+        final ResultActions result = mvc.perform(MockMvcRequestBuilders.post("/packages/_uploads/SESSIONID/commit"));
+
+        // Then
+        result.andExpect(status().isConflict());
+    }
+
+    @Test
+    public void deleteSession_whenSessionDoesNotExist_shouldReturnNotFound() throws Exception {
+        // Given
+        when(uploadSessionManager.findById("SESSIONID")).thenReturn(Optional.empty());
+
+        // When
+        final ResultActions result = mvc.perform(MockMvcRequestBuilders.delete("/packages/_uploads/SESSIONID"));
+
+        // Then
+        result.andExpect(status().isNotFound());
+        verify(uploadSessionManager, never()).delete("SESSIONID");
+    }
+
+    @Test
+    public void deleteSession_whenSessionExists_shouldReturnNoContent() throws Exception {
+        // Given
+        givenSession();
+
+        // When
+        final ResultActions result = mvc.perform(MockMvcRequestBuilders.delete("/packages/_uploads/SESSIONID"));
+
+        // Then
+        result.andExpect(status().isNoContent());
+        verify(uploadSessionManager).delete("SESSIONID");
+        verify(tenantLimits).tryAcquireRequest("user");
+    }
+
+    @Test
+    public void deleteSession_whenSessionIsBeingCommitted_shouldReturnConflict() throws Exception {
+        // Given
+        givenSession();
+        doThrow(new PackageConflictException("Upload session SESSIONID is being committed")).when(uploadSessionManager).delete("SESSIONID");
+
+        // When
+        final ResultActions result = mvc.perform(MockMvcRequestBuilders.delete("/packages/_uploads/SESSIONID"));
+
+        // Then
+        result.andExpect(status().isConflict());
+    }
+
+    private void givenSession() {
+        final UploadSession session = new UploadSession("SESSIONID", "user", "v0.1", "Example.exe", null, null, 4, new Date(), new Date(), Collections.emptyList());
+        when(uploadSessionManager.findById("SESSIONID")).thenReturn(Optional.of(session));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import io.barracks.packageservice.Application;
+import org.junit.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.Assume.assumeTrue;
+
+public class VirtualThreadRuntimeCheckTest {
+    private final VirtualThreadRuntimeCheck check = new VirtualThreadRuntimeCheck();
+
+    @Test
+    public void onApplicationEvent_whenDisabled_shouldNotCheckTheRuntime() {
+        // Given
+        final MockEnvironment environment = new MockEnvironment();
+
+        // When
+        check.onApplicationEvent(event(environment));
+    }
+
+    @Test
+    public void onApplicationEvent_whenEnabledOnAnUnsupportedRuntime_shouldFailWithTheReason() {
+        // Given
+        assumeTrue(VirtualThreads.unsupportedReason().isPresent());
+        final MockEnvironment environment = new MockEnvironment()
+                .withProperty(VirtualThreadRuntimeCheck.ENABLED_PROPERTY, "true");
+
+        // Then When
+        assertThatThrownBy(() -> check.onApplicationEvent(event(environment)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage(VirtualThreads.unsupportedReason().get());
+    }
+
+    private ApplicationEnvironmentPreparedEvent event(MockEnvironment environment) {
+        return new ApplicationEnvironmentPreparedEvent(new SpringApplication(Application.class), new String[0], environment);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Barracks Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.barracks.packageservice.rest;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class VirtualThreadsTest {
+
+    @Test
+    public void executor_whenSupported_shouldRunEachTaskOnANamedVirtualThread() throws Exception {
+        // Given
+        assumeTrue(VirtualThreads.isSupported());
+        final CompletableFuture<Thread> first = new CompletableFuture<>();
+        final CompletableFuture<Thread> second = new CompletableFuture<>();
+
+        // When
+        final Executor executor = VirtualThreads.executor("test-");
+        executor.execute(() -> first.complete(Thread.currentThread()));
+        executor.execute(() -> second.complete(Thread.currentThread()));
+
+        // Then
+        final Thread thread = first.get(5, TimeUnit.SECONDS);
+        assertThat(Thread.class.getMethod("isVirtual").invoke(thread)).isEqualTo(true);
+        assertThat(thread.getName()).isEqualTo("test-0");
+        assertThat(second.get(5, TimeUnit.SECONDS).getName()).isEqualTo("test-1");
+    }
+
+    @Test
+    public void factory_whenNotSupported_shouldFail() {
+        // Given
+        assumeFalse(VirtualThreads.isSupported());
+
+        // Then
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(() -> VirtualThreads.factory("test-"));
+    }
+}